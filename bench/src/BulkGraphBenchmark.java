@@ -0,0 +1,48 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// times a bulk export and import of a network, next to building the same network with a join
+// per member and a request and accept per friendship, and a snapshot save and load of it
+//
+// usage: java -Xmx16g BulkGraphBenchmark [members] [friends per member] [default|compact]
+public class BulkGraphBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		boolean compact = args.length > 2 && "compact".equals(args[2]);
+		Path bulk = Files.createTempFile("network", ".bulk");
+		Path snapshot = Files.createTempFile("network", ".snapshot");
+
+		long start = System.nanoTime();
+		SocialNetwork sn = compact ? new CompactSocialNetwork() : new SocialNetwork();
+		SyntheticGraphs.uniform(sn, members, friendsPerMember, 42);
+		double buildSeconds = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		BulkGraph.Summary summary = BulkGraph.export(sn, bulk);
+		double exportSeconds = (System.nanoTime() - start) / 1e9;
+		start = System.nanoTime();
+		NetworkSnapshot.save(sn, snapshot);
+		double saveSeconds = (System.nanoTime() - start) / 1e9;
+		sn = null;
+
+		start = System.nanoTime();
+		SocialNetwork loaded = BulkGraph.load(bulk, compact ? new CompactSocialNetwork() : new SocialNetwork());
+		double importSeconds = (System.nanoTime() - start) / 1e9;
+		loaded = null;
+		start = System.nanoTime();
+		loaded = NetworkSnapshot.load(snapshot, compact ? new CompactSocialNetwork() : new SocialNetwork());
+		double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(summary);
+		System.out.println("format\tMB\twrite s\tread s\tfriendships/s read");
+		System.out.printf("handshakes\t-\t-\t%.2f\t%.0f%n", buildSeconds, summary.friendships() / buildSeconds);
+		System.out.printf("bulk\t%.1f\t%.2f\t%.2f\t%.0f%n", Files.size(bulk) / 1048576.0, exportSeconds, importSeconds,
+				summary.friendships() / importSeconds);
+		System.out.printf("snapshot\t%.1f\t%.2f\t%.2f\t%.0f%n", Files.size(snapshot) / 1048576.0, saveSeconds,
+				loadSeconds, summary.friendships() / loadSeconds);
+		Files.delete(bulk);
+		Files.delete(snapshot);
+	}
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// measures ConcurrentSocialNetwork throughput for a mix of friendship operations
+// while varying the number of request threads
+//
+// usage: java ConcurrentThroughputBenchmark [thread counts, comma separated] [members] [seconds per run]
+public class ConcurrentThroughputBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String threadCounts = args.length > 0 ? args[0] : "1,2,4,8,16,32";
+		int members = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		System.out.println("threads\tops/s\tspeedup");
+		double baseline = 0;
+		for (String count : threadCounts.split(",")) {
+			int threads = Integer.parseInt(count.trim());
+			double opsPerSecond = run(threads, members, seconds);
+			if (baseline == 0)
+				baseline = opsPerSecond;
+			System.out.printf("%d\t%.0f\t%.2f%n", threads, opsPerSecond, opsPerSecond / baseline);
+		}
+	}
+
+	private static double run(int threads, int members, int seconds) throws Exception {
+		ConcurrentSocialNetwork sn = new ConcurrentSocialNetwork();
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join(userName(i));
+		}
+
+		LongAdder operations = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long deadline = System.nanoTime() + seconds * 1000000000L;
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (System.nanoTime() < deadline) {
+					for (int n = 0; n < 1000; n++) {
+						Account me = accounts[random.nextInt(members)];
+						String other = userName(random.nextInt(members));
+						switch (random.nextInt(4)) {
+						case 0:
+							sn.acceptFriendshipFrom(other, me);
+							break;
+						case 1:
+							sn.sendFriendshipCancellationTo(other, me);
+							break;
+						default:
+							sn.sendFriendshipTo(other, me);
+						}
+					}
+					operations.add(1000);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return operations.sum() / ((System.nanoTime() - began) / 1e9);
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+// measures degrees-of-separation latency (bidirectional breadth-first search between random
+// pairs of members) on a power-law friend graph
+//
+// "live" searches a SocialNetwork through SocialNetwork.degreesOfSeparation; "arrays" runs the
+// same ConnectionSearch over a graph kept in two int arrays (offsets and friend ids), which is
+// what fits ten million members and a hundred million friendships in a few gigabytes, e.g.
+//
+//   java -Xmx4g ConnectionSearchBenchmark arrays 10000000 10
+//
+// usage: java ConnectionSearchBenchmark [live|arrays] [members] [friends per member] [max depth] [queries]
+public class ConnectionSearchBenchmark {
+
+	// a friend graph in compressed sparse row form: the friends of member i are
+	// friends[offsets[i]] .. friends[offsets[i + 1] - 1]
+	static final class ArrayFriendGraph implements FriendGraph {
+		final int[] offsets;
+		final int[] friends;
+
+		ArrayFriendGraph(int[] offsets, int[] friends) {
+			this.offsets = offsets;
+			this.friends = friends;
+		}
+
+		@Override
+		public int idBound() {
+			return offsets.length - 1;
+		}
+
+		@Override
+		public int degree(int id) {
+			return offsets[id + 1] - offsets[id];
+		}
+
+		@Override
+		public boolean forEachFriend(int id, IntPredicate action) {
+			for (int i = offsets[id], end = offsets[id + 1]; i < end; i++) {
+				if (!action.test(friends[i]))
+					return false;
+			}
+			return true;
+		}
+
+		// the same preferential attachment as SyntheticGraphs.powerLaw, straight into arrays;
+		// a member may befriend another twice, which a search does not mind
+		static ArrayFriendGraph powerLaw(int members, int friendsPerMember, long seed) {
+			Random random = new Random(seed);
+			// every friendship as its two end points, so a uniform pick from it is a pick in proportion to degree
+			int[] ends = new int[(int) Math.min(Integer.MAX_VALUE - 8, 2L * members * friendsPerMember)];
+			int endCount = 0;
+			for (int member = 1; member < members && endCount + 2 <= ends.length; member++) {
+				int wanted = Math.min(member, friendsPerMember);
+				for (int made = 0; made < wanted && endCount + 2 <= ends.length; made++) {
+					int other = endCount == 0 || random.nextInt(10) == 0 ? random.nextInt(member) : ends[random.nextInt(endCount)];
+					if (other == member)
+						other = random.nextInt(member);
+					ends[endCount++] = member;
+					ends[endCount++] = other;
+				}
+			}
+			int[] offsets = new int[members + 1];
+			for (int i = 0; i < endCount; i++) {
+				offsets[ends[i] + 1]++;
+			}
+			for (int i = 0; i < members; i++) {
+				offsets[i + 1] += offsets[i];
+			}
+			int[] next = new int[members];
+			System.arraycopy(offsets, 0, next, 0, members);
+			int[] friends = new int[endCount];
+			for (int i = 0; i < endCount; i += 2) {
+				friends[next[ends[i]]++] = ends[i + 1];
+				friends[next[ends[i + 1]]++] = ends[i];
+			}
+			return new ArrayFriendGraph(offsets, friends);
+		}
+	}
+
+	public static void main(String[] args) {
+		String mode = args.length > 0 ? args[0] : "live";
+		int members = args.length > 1 ? Integer.parseInt(args[1]) : "live".equals(mode) ? 200000 : 10000000;
+		int friendsPerMember = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+		int queries = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+
+		long buildStart = System.nanoTime();
+		SocialNetwork sn = null;
+		Account[] accounts = null;
+		ConnectionSearch search = null;
+		if ("live".equals(mode)) {
+			sn = new SocialNetwork();
+			accounts = SyntheticGraphs.powerLaw(sn, members, friendsPerMember, 42);
+		} else if ("arrays".equals(mode)) {
+			search = new ConnectionSearch(ArrayFriendGraph.powerLaw(members, friendsPerMember, 42));
+		} else {
+			throw new IllegalArgumentException("mode must be live or arrays: " + mode);
+		}
+		System.out.printf("%s: members %d, friends per member %d, max depth %d, built in %.1f s%n", mode, members,
+				friendsPerMember, maxDepth, (System.nanoTime() - buildStart) / 1e9);
+
+		Random random = new Random(7);
+		long found = 0;
+		long hops = 0;
+		Latencies latencies = new Latencies(queries);
+		for (int round = 0; round < 2; round++) {
+			boolean measured = round == 1;
+			for (int i = 0; i < queries; i++) {
+				int source = random.nextInt(members);
+				int target = random.nextInt(members);
+				long start = System.nanoTime();
+				int degrees;
+				if (sn != null) {
+					degrees = sn.degreesOfSeparation(accounts[source], SyntheticGraphs.userName(target), maxDepth);
+				} else {
+					int[] path = search.path(source, target, maxDepth, ConnectionSearch.DEFAULT_BUDGET);
+					degrees = path == null ? -1 : path.length - 1;
+				}
+				if (measured) {
+					latencies.record(System.nanoTime() - start);
+					if (degrees >= 0) {
+						found++;
+						hops += degrees;
+					}
+				}
+			}
+		}
+		System.out.println("queries\t" + Latencies.header());
+		System.out.println(latencies.count() + "\t" + latencies.summary());
+		System.out.printf("connected %d of %d, mean degrees of separation %.2f%n", found, queries,
+				found == 0 ? 0.0 : (double) hops / found);
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the cost of FriendshipEvents on the hottest operations: compare "off" with "unsubscribed"
+// (attached, nobody listening) and "subscribed" (one subscriber taking every event)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventStreamOverheadBenchmark {
+
+	@Param({ "off", "unsubscribed", "subscribed" })
+	public String events;
+
+	@Param({ "100000" })
+	public int members;
+
+	private SocialNetwork sn;
+	private Account[] accounts;
+	private Random random;
+	private FriendshipEvents publisher;
+
+	@Setup(Level.Trial)
+	public void buildNetwork() {
+		sn = new SocialNetwork();
+		accounts = SyntheticGraphs.powerLaw(sn, members, 10, 42);
+		if (!"off".equals(events))
+			publisher = FriendshipEvents.attachTo(sn);
+		if ("subscribed".equals(events)) {
+			publisher.subscribe(new Flow.Subscriber<FriendshipEvent>() {
+				private long seen;
+
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscription.request(Long.MAX_VALUE);
+				}
+
+				@Override
+				public void onNext(FriendshipEvent event) {
+					seen += event.getSequence();
+				}
+
+				@Override
+				public void onError(Throwable error) {
+				}
+
+				@Override
+				public void onComplete() {
+				}
+			});
+		}
+		random = new Random(7);
+	}
+
+	@TearDown(Level.Trial)
+	public void detach() {
+		if (publisher != null)
+			publisher.detach();
+	}
+
+	// send a request to a random member, who then rejects it
+	@Benchmark
+	public Account requestAndReject() {
+		Account me = accounts[random.nextInt(accounts.length)];
+		Account her = accounts[random.nextInt(accounts.length)];
+		sn.sendFriendshipTo(her.getUserName(), me);
+		sn.rejectFriendshipFrom(me.getUserName(), her);
+		return her;
+	}
+}
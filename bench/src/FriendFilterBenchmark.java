@@ -0,0 +1,99 @@
+import java.util.Random;
+
+// measures what the friend filters of busy accounts (see FriendFilter) save on a power-law
+// friend graph: hasFriend against probing the friend set directly, and countMutualFriends against
+// probing one getFriends() set with every name of the other
+//
+// checks ask busy accounts (MIN_FRIENDS friends or more) about random members, so nearly all are
+// "no"s; mutual friend counts pair a random member with a random busy account.
+//
+// usage: java FriendFilterBenchmark [members] [friends per member] [checks per round] [rounds]
+public class FriendFilterBenchmark {
+
+	public static void main(String[] args) {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int checks = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		SocialNetwork sn = new SocialNetwork();
+		Account[] accounts = SyntheticGraphs.powerLaw(sn, members, friendsPerMember, 42);
+		String[] names = new String[members];
+		int busyCount = 0;
+		for (int i = 0; i < members; i++) {
+			names[i] = accounts[i].getUserName();
+			if (accounts[i].friendFilter() != null)
+				busyCount++;
+		}
+		Account[] busy = new Account[busyCount];
+		for (int i = 0, b = 0; i < members; i++) {
+			if (accounts[i].friendFilter() != null)
+				busy[b++] = accounts[i];
+		}
+		System.out.printf("members %d, friends per member %d, accounts with a filter %d%n", members, friendsPerMember,
+				busyCount);
+
+		// how often the filter answers a "no" on its own
+		Random random = new Random(7);
+		long no = 0, ruledOut = 0;
+		for (int i = 0; i < checks; i++) {
+			Account me = busy[random.nextInt(busyCount)];
+			String name = names[random.nextInt(members)];
+			if (!me.getFriends().contains(name)) {
+				no++;
+				if (!me.friendFilter().mightContain(name))
+					ruledOut++;
+			}
+		}
+		System.out.printf("checks %d, no %.1f%%, answered by the filter %.2f%% of the no's%n", checks,
+				100.0 * no / checks, 100.0 * ruledOut / no);
+
+		System.out.println("round\tset ns/check\tfiltered ns/check\tnaive ns/count\tmutual ns/count");
+		long checksum = 0;
+		int pairs = checks / 100;
+		for (int round = 1; round <= rounds; round++) {
+			long[] seeds = { round, round };
+
+			long started = System.nanoTime();
+			random.setSeed(seeds[0]);
+			for (int i = 0; i < checks; i++) {
+				checksum += busy[random.nextInt(busyCount)].getFriends().contains(names[random.nextInt(members)]) ? 1 : 0;
+			}
+			double set = (System.nanoTime() - started) / (double) checks;
+
+			started = System.nanoTime();
+			random.setSeed(seeds[1]);
+			for (int i = 0; i < checks; i++) {
+				checksum += busy[random.nextInt(busyCount)].hasFriend(names[random.nextInt(members)]) ? 1 : 0;
+			}
+			double filtered = (System.nanoTime() - started) / (double) checks;
+
+			started = System.nanoTime();
+			random.setSeed(seeds[0]);
+			for (int i = 0; i < pairs; i++) {
+				checksum += naiveMutualFriends(accounts[random.nextInt(members)], busy[random.nextInt(busyCount)]);
+			}
+			double naive = (System.nanoTime() - started) / (double) pairs;
+
+			started = System.nanoTime();
+			random.setSeed(seeds[0]);
+			for (int i = 0; i < pairs; i++) {
+				checksum += sn.countMutualFriends(accounts[random.nextInt(members)], busy[random.nextInt(busyCount)].getUserName());
+			}
+			double mutual = (System.nanoTime() - started) / (double) pairs;
+
+			System.out.printf("%d\t%.1f\t%.1f\t%.0f\t%.0f%n", round, set, filtered, naive, mutual);
+		}
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	// my friends probed against the busy account's set, as callers did before countMutualFriends
+	private static int naiveMutualFriends(Account me, Account busy) {
+		int count = 0;
+		for (String friend : me.getFriends()) {
+			if (busy.getFriends().contains(friend))
+				count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,39 @@
+import java.util.Random;
+
+// measures SocialNetwork.suggestFriendsFor latency on a power-law friend graph,
+// where a few celebrity accounts have a large share of all friendships
+//
+// usage: java FriendSuggestionBenchmark [members] [friends per member] [suggestions] [queries]
+public class FriendSuggestionBenchmark {
+
+	public static void main(String[] args) {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int queries = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+		SocialNetwork sn = new SocialNetwork();
+		Account[] accounts = SyntheticGraphs.powerLaw(sn, members, friendsPerMember, 42);
+		int maxDegree = 0;
+		for (Account each : accounts) {
+			maxDegree = Math.max(maxDegree, each.getFriends().size());
+		}
+		System.out.printf("members %d, friends per member %d, largest friend list %d%n", members, friendsPerMember, maxDegree);
+
+		Random random = new Random(7);
+		long checksum = 0;
+		for (int warmup = 0; warmup < queries; warmup++) {
+			checksum += sn.suggestFriendsFor(accounts[random.nextInt(members)], count).size();
+		}
+		Latencies latencies = new Latencies(queries);
+		for (int i = 0; i < queries; i++) {
+			Account me = accounts[random.nextInt(members)];
+			long start = System.nanoTime();
+			checksum += sn.suggestFriendsFor(me, count).size();
+			latencies.record(System.nanoTime() - start);
+		}
+		System.out.println("queries\t" + Latencies.header());
+		System.out.println(latencies.count() + "\t" + latencies.summary());
+		System.out.println("(checksum " + checksum + ")");
+	}
+}
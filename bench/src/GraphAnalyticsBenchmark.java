@@ -0,0 +1,43 @@
+import java.util.concurrent.ForkJoinPool;
+
+// measures GraphAnalytics (snapshot, connected components, degree and component statistics) on
+// a power-law friend graph with 1, 2, 4, ... workers up to the number of cores, to show how the
+// report scales with them
+//
+// usage: java GraphAnalyticsBenchmark [members] [friends per member] [runs per worker count]
+public class GraphAnalyticsBenchmark {
+
+	public static void main(String[] args) {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		SocialNetwork sn = new CompactSocialNetwork();
+		SyntheticGraphs.powerLaw(sn, members, friendsPerMember, 42);
+		GraphAnalytics report = GraphAnalytics.of(sn);
+		System.out.printf("members %d, friendships %d, components %d, largest %d, isolated %d, degree p50 %d p99 %d max %d%n",
+				report.members(), report.friendships(), report.components(), report.largestComponent(),
+				report.isolatedMembers(), report.degrees().percentile(0.5), report.degrees().percentile(0.99),
+				report.degrees().max());
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("workers\tbest ms\tspeedup");
+		double single = 0;
+		for (int workers = 1; workers <= cores; workers *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(workers);
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < runs + 2; run++) {
+				long start = System.nanoTime();
+				GraphAnalytics.of(sn, pool);
+				// the first runs warm up
+				if (run >= 2)
+					best = Math.min(best, System.nanoTime() - start);
+			}
+			pool.shutdown();
+			double millis = best / 1e6;
+			if (workers == 1)
+				single = millis;
+			System.out.printf("%d\t%.1f\t%.2f%n", workers, millis, single / millis);
+		}
+	}
+}
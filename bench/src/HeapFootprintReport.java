@@ -0,0 +1,60 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+// compares the retained heap of a SocialNetwork and a CompactSocialNetwork holding
+// the same members and the same random friendships
+//
+// usage: java -Xmx24g HeapFootprintReport [accounts] [friend edges] [modes, comma separated]
+// defaults to 1M accounts and 50M edges; run one mode per JVM if the heap is tight
+public class HeapFootprintReport {
+
+	public static void main(String[] args) {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		long edges = args.length > 1 ? Long.parseLong(args[1]) : 50000000L;
+		String modes = args.length > 2 ? args[2] : "default,compact";
+
+		System.out.println("mode\taccounts\tedges\theap MB\tbytes/account\tbytes/edge");
+		long baseline = usedHeap();
+		for (String mode : modes.split(",")) {
+			SocialNetwork sn = "compact".equals(mode.trim()) ? new CompactSocialNetwork() : new SocialNetwork();
+			Account[] members = new Account[accounts];
+			for (int i = 0; i < accounts; i++) {
+				members[i] = sn.join("user" + i);
+			}
+			long afterJoins = usedHeap();
+
+			Random random = new Random(42);
+			long made = 0;
+			while (made < edges) {
+				Account me = members[random.nextInt(accounts)];
+				Account her = members[random.nextInt(accounts)];
+				if (me == her || me.hasFriend(her.getUserName()))
+					continue;
+				sn.sendFriendshipTo(her.getUserName(), me);
+				sn.acceptFriendshipFrom(me.getUserName(), her);
+				made++;
+			}
+			long afterEdges = usedHeap();
+
+			System.out.printf("%s\t%d\t%d\t%.1f\t%.1f\t%.1f%n", mode.trim(), accounts, edges,
+					(afterEdges - baseline) / 1048576.0,
+					(afterJoins - baseline) / (double) accounts,
+					edges == 0 ? 0.0 : (afterEdges - afterJoins) / (double) edges);
+
+			// keep the network reachable until it has been measured
+			if (sn.listMembers().size() != accounts)
+				throw new IllegalStateException("lost members");
+			sn = null;
+			members = null;
+		}
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,49 @@
+import java.util.Arrays;
+
+// records the latency of individual operations and reports percentiles
+public class Latencies {
+
+	private long[] nanos;
+	private int count = 0;
+
+	public Latencies(int expected) {
+		nanos = new long[Math.max(expected, 16)];
+	}
+
+	public void record(long latencyNanos) {
+		if (count == nanos.length)
+			nanos = Arrays.copyOf(nanos, count * 2);
+		nanos[count++] = latencyNanos;
+	}
+
+	// add the latencies recorded elsewhere, e.g. by another thread
+	public void addAll(Latencies other) {
+		for (int i = 0; i < other.count; i++) {
+			record(other.nanos[i]);
+		}
+	}
+
+	public int count() {
+		return count;
+	}
+
+	// the latency below which the given fraction of operations completed, in microseconds
+	public double percentileMicros(double fraction) {
+		if (count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(nanos, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.min(count - 1, Math.ceil(fraction * count) - 1);
+		return sorted[Math.max(index, 0)] / 1000.0;
+	}
+
+	// p50, p90, p99, p99.9 and max in microseconds, tab separated
+	public String summary() {
+		return String.format("%.1f\t%.1f\t%.1f\t%.1f\t%.1f", percentileMicros(0.5), percentileMicros(0.9),
+				percentileMicros(0.99), percentileMicros(0.999), percentileMicros(1.0));
+	}
+
+	public static String header() {
+		return "p50 us\tp90 us\tp99 us\tp99.9 us\tmax us";
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.Random;
+
+// measures SocialNetwork member lookups as the network grows, to show that
+// lookup latency stays flat instead of growing with the member count
+//
+// usage: java MemberLookupBenchmark [sizes, comma separated] [lookups per size]
+// e.g.   java -Xmx8g MemberLookupBenchmark 1000,10000,100000,1000000,10000000
+public class MemberLookupBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+
+	public static void main(String[] args) {
+		String sizes = args.length > 0 ? args[0] : "1000,10000,100000,1000000,10000000";
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		System.out.println("members\tjoin ns/op\thit ns/op\tmiss ns/op");
+		for (String size : sizes.split(",")) {
+			int members = Integer.parseInt(size.trim());
+			SocialNetwork sn = new SocialNetwork();
+
+			long start = System.nanoTime();
+			Account probe = null;
+			for (int i = 0; i < members; i++) {
+				Account joined = sn.join(userName(i));
+				if (probe == null)
+					probe = joined;
+			}
+			double joinNanos = (System.nanoTime() - start) / (double) members;
+
+			double hitNanos = 0, missNanos = 0;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				hitNanos = timeHits(sn, members, lookups);
+				missNanos = timeMisses(sn, probe, members, lookups);
+			}
+			System.out.printf("%d\t%.1f\t%.1f\t%.1f%n", members, joinNanos, hitNanos, missNanos);
+		}
+	}
+
+	// duplicate checks on join look up an existing member and leave the network unchanged
+	private static double timeHits(SocialNetwork sn, int members, int lookups) {
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			if (sn.join(userName(random.nextInt(members))) != null)
+				throw new IllegalStateException("duplicate join succeeded");
+		}
+		return (System.nanoTime() - start) / (double) lookups;
+	}
+
+	// friend requests to unknown user names look up a member that does not exist
+	private static double timeMisses(SocialNetwork sn, Account me, int members, int lookups) {
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			sn.sendFriendshipTo(userName(members + random.nextInt(members)), me);
+		}
+		if (!me.getOutgoingRequests().isEmpty())
+			throw new IllegalStateException("request sent to unknown member");
+		return (System.nanoTime() - start) / (double) lookups;
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
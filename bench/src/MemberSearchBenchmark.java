@@ -0,0 +1,92 @@
+import java.util.Random;
+
+// measures the latency of MemberSearch queries, and the memory its index takes, over members
+// with made-up names like "karimo.belatun42"
+//
+// the names are indexed without accounts behind them, which is what lets ten million of them
+// fit in a few gigabytes, e.g.
+//
+//   java -Xmx4g MemberSearchBenchmark 10000000
+//
+// usage: java MemberSearchBenchmark [members] [results per query] [queries]
+public class MemberSearchBenchmark {
+
+	private static final String[] SYLLABLES = { "ka", "ri", "mo", "be", "la", "tun", "sa", "el", "no", "vi", "da",
+			"ren", "ko", "ma", "li", "an", "to", "ser", "gi", "ha", "nu", "pe", "or", "zu" };
+
+	static String name(Random random) {
+		StringBuilder name = new StringBuilder();
+		for (int i = 2 + random.nextInt(2); i > 0; i--) {
+			name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		name.append('.');
+		for (int i = 2 + random.nextInt(3); i > 0; i--) {
+			name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return name.append(random.nextInt(100)).toString();
+	}
+
+	// a typing mistake: a character swapped for another, dropped, or doubled
+	static String typo(String query, Random random) {
+		int at = random.nextInt(query.length());
+		switch (random.nextInt(3)) {
+		case 0:
+			return query.substring(0, at) + (char) ('a' + random.nextInt(26)) + query.substring(at + 1);
+		case 1:
+			return query.substring(0, at) + query.substring(at + 1);
+		default:
+			return query.substring(0, at + 1) + query.substring(at);
+		}
+	}
+
+	public static void main(String[] args) {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int limit = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		Random random = new Random(42);
+		String[] names = new String[members];
+		for (int i = 0; i < members; i++) {
+			names[i] = name(random);
+		}
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		long buildStart = System.nanoTime();
+		MemberSearch search = MemberSearch.attachTo(new SocialNetwork());
+		for (String each : names) {
+			search.joined(each);
+		}
+		double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		System.out.printf("members %d (%d distinct), indexed in %.1f s, %.1f bytes per member besides the names%n",
+				members, search.size(), buildSeconds, (after - before) / (double) search.size());
+
+		System.out.println("query\t" + Latencies.header());
+		for (String kind : new String[] { "prefix", "fuzzy1", "fuzzy2" }) {
+			Latencies latencies = new Latencies(queries);
+			long results = 0;
+			for (int round = 0; round < 2; round++) {
+				for (int i = 0; i < queries; i++) {
+					String name = names[random.nextInt(members)];
+					// what someone has typed so far: two to eight characters
+					String query = name.substring(0, Math.min(name.length(), 2 + random.nextInt(7)));
+					long start = System.nanoTime();
+					int found;
+					if ("prefix".equals(kind)) {
+						found = search.prefix(null, query, limit).size();
+					} else {
+						int edits = "fuzzy1".equals(kind) ? 1 : 2;
+						found = search.fuzzy(null, typo(query, random), edits, limit).size();
+					}
+					if (round == 1) {
+						latencies.record(System.nanoTime() - start);
+						results += found;
+					}
+				}
+			}
+			System.out.println(kind + "\t" + latencies.summary() + "\t(" + results / queries + " results on average)");
+		}
+	}
+}
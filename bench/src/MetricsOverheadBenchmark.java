@@ -0,0 +1,57 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the cost of NetworkMetrics on the hottest operations: compare "off" with "sampled" (the
+// default, one call in 16 timed) and "every" (every call timed)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsOverheadBenchmark {
+
+	@Param({ "off", "sampled", "every" })
+	public String metrics;
+
+	@Param({ "100000" })
+	public int members;
+
+	private SocialNetwork sn;
+	private Account[] accounts;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void buildNetwork() {
+		sn = new SocialNetwork();
+		accounts = SyntheticGraphs.powerLaw(sn, members, 10, 42);
+		if ("sampled".equals(metrics))
+			NetworkMetrics.attachTo(sn);
+		else if ("every".equals(metrics))
+			NetworkMetrics.attachTo(sn, 1);
+		random = new Random(7);
+	}
+
+	// send a request to a random member, who then rejects it
+	@Benchmark
+	public Account requestAndReject() {
+		Account me = accounts[random.nextInt(accounts.length)];
+		Account her = accounts[random.nextInt(accounts.length)];
+		sn.sendFriendshipTo(her.getUserName(), me);
+		sn.rejectFriendshipFrom(me.getUserName(), her);
+		return her;
+	}
+}
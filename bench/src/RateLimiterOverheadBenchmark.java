@@ -0,0 +1,59 @@
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the cost of RequestRateLimiter on the fast path, where requests are within their senders'
+// rate: compare "off" with "on" (a limit no sender in the benchmark reaches), and with
+// "throttling" (every sender over its limit, so requests are refused without locking)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RateLimiterOverheadBenchmark {
+
+	@Param({ "off", "on", "throttling" })
+	public String limiter;
+
+	@Param({ "100000" })
+	public int members;
+
+	private SocialNetwork sn;
+	private Account[] accounts;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void buildNetwork() {
+		sn = new ConcurrentSocialNetwork();
+		accounts = SyntheticGraphs.powerLaw(sn, members, 10, 42);
+		if ("on".equals(limiter))
+			RequestRateLimiter.attachTo(sn, 1000000, Duration.ofNanos(1));
+		else if ("throttling".equals(limiter))
+			RequestRateLimiter.attachTo(sn, 1, Duration.ofDays(1));
+		random = new Random(7);
+	}
+
+	// send a request to a random member, who then rejects it
+	@Benchmark
+	public FriendshipOperation.Result requestAndReject() {
+		Account me = accounts[random.nextInt(accounts.length)];
+		Account her = accounts[random.nextInt(accounts.length)];
+		FriendshipOperation.Result result = sn.sendFriendshipTo(her.getUserName(), me);
+		sn.rejectFriendshipFrom(me.getUserName(), her);
+		return result;
+	}
+}
@@ -0,0 +1,140 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// drives a SocialNetworkServer with many concurrent connections and reports throughput and
+// the latency of pipelined request bursts
+//
+// every connection joins with a user name of its own, waits until all connections are open, then
+// sends bursts of pipelined requests (friend requests, accepts and friend lists) and waits for
+// their responses. Without a host the generator starts its own server on a ConcurrentSocialNetwork.
+// 100k connections need virtual threads (Java 21 or later) on both ends and a high enough
+// limit on open files (ulimit -n).
+//
+// usage: java ServerLoadGenerator [connections] [bursts per connection] [requests per burst] [host:port]
+public class ServerLoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int bursts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int burstSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		SocialNetworkServer own = null;
+		String host = "localhost";
+		int port;
+		if (args.length > 3) {
+			host = args[3].substring(0, args[3].lastIndexOf(':'));
+			port = Integer.parseInt(args[3].substring(args[3].lastIndexOf(':') + 1));
+		} else {
+			own = new SocialNetworkServer(new ConcurrentSocialNetwork(), 0);
+			port = own.getPort();
+		}
+
+		CountDownLatch connected = new CountDownLatch(connections);
+		CountDownLatch start = new CountDownLatch(1);
+		LongAdder requests = new LongAdder();
+		Latencies latencies = new Latencies(connections * bursts);
+		ExecutorService clients = SocialNetworkServer.newThreadPerTaskExecutor();
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for (int c = 0; c < connections; c++) {
+			int client = c;
+			String serverHost = host;
+			running.add(clients.submit(() -> {
+				Latencies mine = new Latencies(bursts);
+				try {
+					run(serverHost, port, client, connections, bursts, burstSize, connected, start, requests, mine);
+				} finally {
+					synchronized (latencies) {
+						latencies.addAll(mine);
+					}
+				}
+				return null;
+			}));
+		}
+		connected.await();
+		long began = System.nanoTime();
+		start.countDown();
+		int failed = 0;
+		for (Future<?> each : running) {
+			try {
+				each.get();
+			} catch (Exception e) {
+				failed++;
+			}
+		}
+		double seconds = (System.nanoTime() - began) / 1e9;
+		clients.shutdown();
+		clients.awaitTermination(10, TimeUnit.SECONDS);
+		if (own != null)
+			own.close();
+
+		System.out.println("connections\trequests/s\tfailed\t" + Latencies.header() + " (per burst of " + burstSize + ")");
+		System.out.printf("%d\t%.0f\t%d\t%s%n", connections, requests.sum() / seconds, failed, latencies.summary());
+	}
+
+	private static void run(String host, int port, int client, int connections, int bursts, int burstSize,
+			CountDownLatch connected, CountDownLatch start, LongAdder requests, Latencies latencies) throws Exception {
+		Socket socket;
+		try {
+			socket = new Socket(host, port);
+		} finally {
+			connected.countDown();
+		}
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(
+					new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), 512);
+			OutputStream out = connection.getOutputStream();
+			String me = "load" + client;
+			send(out, "JOIN " + me + "\n");
+			expectResponses(in, 1);
+			start.await();
+			Random random = new Random(client);
+			StringBuilder burst = new StringBuilder();
+			for (int b = 0; b < bursts; b++) {
+				burst.setLength(0);
+				for (int r = 0; r < burstSize; r++) {
+					String other = "load" + random.nextInt(connections);
+					switch (random.nextInt(4)) {
+					case 0:
+						burst.append("ACCEPT ").append(me).append(' ').append(other).append('\n');
+						break;
+					case 1:
+						burst.append("FRIENDS ").append(me).append('\n');
+						break;
+					default:
+						burst.append("REQUEST ").append(me).append(' ').append(other).append('\n');
+					}
+				}
+				long sent = System.nanoTime();
+				send(out, burst.toString());
+				expectResponses(in, burstSize);
+				latencies.record(System.nanoTime() - sent);
+				requests.add(burstSize);
+			}
+		}
+	}
+
+	private static void send(OutputStream out, String requests) throws IOException {
+		out.write(requests.getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	private static void expectResponses(BufferedReader in, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			String response = in.readLine();
+			if (response == null || response.startsWith("ERROR"))
+				throw new IOException("unexpected response: " + response);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// measures ShardedSocialNetwork throughput for a mix of friendship operations while varying
+// the number of shards, with the same number of request threads for every shard count, against
+// a ConcurrentSocialNetwork with those threads as the baseline. All shards run in this process,
+// so this measures lock partitioning, not scaling across processes or heaps.
+//
+// usage: java ShardScalingBenchmark [shard counts, comma separated] [threads] [members] [seconds per run]
+public class ShardScalingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String shardCounts = args.length > 0 ? args[0] : "1,2,4,8,16";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int members = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		// warm up both modes, so the JIT does not favour whichever runs last
+		run(new ConcurrentSocialNetwork(), threads, members, seconds);
+		run(new ShardedSocialNetwork(2), threads, members, seconds);
+
+		System.out.printf("%d threads%n", threads);
+		System.out.println("shards\tops/s\tspeedup\tcross-shard");
+		double baseline = run(new ConcurrentSocialNetwork(), threads, members, seconds);
+		System.out.printf("-\t%.0f\t1.00\t-%n", baseline);
+		for (String count : shardCounts.split(",")) {
+			ShardedSocialNetwork sn = new ShardedSocialNetwork(Integer.parseInt(count.trim()));
+			double opsPerSecond = run(sn, threads, members, seconds);
+			double total = sn.localOperations() + sn.crossShardOperations();
+			System.out.printf("%d\t%.0f\t%.2f\t%.0f%%%n", sn.shardCount(), opsPerSecond, opsPerSecond / baseline,
+					100 * sn.crossShardOperations() / Math.max(total, 1));
+		}
+	}
+
+	private static double run(SocialNetwork sn, int threads, int members, int seconds) throws Exception {
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join(userName(i));
+		}
+
+		LongAdder operations = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long deadline = System.nanoTime() + seconds * 1000000000L;
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (System.nanoTime() < deadline) {
+					for (int n = 0; n < 1000; n++) {
+						Account me = accounts[random.nextInt(members)];
+						String other = userName(random.nextInt(members));
+						switch (random.nextInt(4)) {
+						case 0:
+							sn.acceptFriendshipFrom(other, me);
+							break;
+						case 1:
+							sn.sendFriendshipCancellationTo(other, me);
+							break;
+						default:
+							sn.sendFriendshipTo(other, me);
+						}
+					}
+					operations.add(1000);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return operations.sum() / ((System.nanoTime() - began) / 1e9);
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
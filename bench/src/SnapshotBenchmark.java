@@ -0,0 +1,32 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// times saving a network to a snapshot and loading it back until it is ready for queries
+//
+// usage: java -Xmx16g SnapshotBenchmark [members] [friends per member] [snapshot file]
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		Path file = args.length > 2 ? Path.of(args[2]) : Files.createTempFile("network", ".snapshot");
+
+		SocialNetwork sn = new SocialNetwork();
+		SyntheticGraphs.uniform(sn, members, friendsPerMember, 42);
+
+		long start = System.nanoTime();
+		NetworkSnapshot.save(sn, file);
+		double saveSeconds = (System.nanoTime() - start) / 1e9;
+		sn = null;
+
+		start = System.nanoTime();
+		SocialNetwork loaded = NetworkSnapshot.load(file);
+		double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("members\tsnapshot MB\tsave s\tload s");
+		System.out.printf("%d\t%.1f\t%.2f\t%.2f%n", loaded.listMembers().size(), Files.size(file) / 1048576.0,
+				saveSeconds, loadSeconds);
+		if (args.length <= 2)
+			Files.delete(file);
+	}
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// JMH benchmarks for the core SocialNetwork operations on networks of several sizes and
+// degree distributions
+//
+// every benchmark puts the network back the way it found it, so the measured network keeps
+// its size and shape however many invocations JMH runs. Where that takes more than one call
+// the extra calls are named below; requests and friendships set up for a benchmark are linked
+// directly, which costs a couple of set insertions.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class SocialNetworkBenchmark {
+
+	static final int PURGE_SIZE = 100;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int members;
+
+	@Param({ "uniform", "powerLaw" })
+	public String degrees;
+
+	@Param({ "10" })
+	public int friendsPerMember;
+
+	private SocialNetwork sn;
+	private Account[] accounts;
+	private Random random;
+	private long joined = 0;
+
+	@Setup(Level.Trial)
+	public void buildNetwork() {
+		sn = new SocialNetwork();
+		if ("powerLaw".equals(degrees)) {
+			accounts = SyntheticGraphs.powerLaw(sn, members, friendsPerMember, 42);
+		} else {
+			accounts = SyntheticGraphs.uniform(sn, members, friendsPerMember, 42);
+		}
+		random = new Random(7);
+	}
+
+	// join with a new user name, then leave again
+	@Benchmark
+	public Account join() {
+		Account newcomer = sn.join("joiner" + joined++);
+		sn.leave(newcomer);
+		return newcomer;
+	}
+
+	// send a request to a random member, who then rejects it
+	@Benchmark
+	public Account sendFriendshipTo() {
+		Account me = randomMember();
+		Account her = randomMember();
+		sn.sendFriendshipTo(her.getUserName(), me);
+		sn.rejectFriendshipFrom(me.getUserName(), her);
+		return her;
+	}
+
+	// accept a pending request, then cancel the new friendship
+	@Benchmark
+	public Account acceptFriendshipFrom() {
+		Account me = randomMember();
+		Account her = randomMember();
+		if (me == her || me.hasFriend(her.getUserName()))
+			return me;
+		her.linkRequestTo(me);
+		sn.acceptFriendshipFrom(her.getUserName(), me);
+		sn.sendFriendshipCancellationTo(her.getUserName(), me);
+		return me;
+	}
+
+	// a new member accepts friendsPerMember pending requests at once, then leaves
+	@Benchmark
+	public Account acceptAllFriendshipsTo() {
+		Account newcomer = sn.join("joiner" + joined++);
+		for (int i = 0; i < friendsPerMember; i++) {
+			randomMember().linkRequestTo(newcomer);
+		}
+		sn.acceptAllFriendshipsTo(newcomer);
+		sn.leave(newcomer);
+		return newcomer;
+	}
+
+	// a new member with friendsPerMember friends leaves
+	@Benchmark
+	public Account leave() {
+		Account newcomer = sn.join("joiner" + joined++);
+		for (int i = 0; i < friendsPerMember; i++) {
+			newcomer.linkFriend(randomMember());
+		}
+		sn.leave(newcomer);
+		return newcomer;
+	}
+
+	// a purge of PURGE_SIZE new members, each with friendsPerMember friends, some of them
+	// among the purged
+	@Benchmark
+	@OperationsPerInvocation(PURGE_SIZE)
+	public List<Account> leaveAll() {
+		List<Account> purge = new ArrayList<Account>(PURGE_SIZE);
+		for (int i = 0; i < PURGE_SIZE; i++) {
+			Account newcomer = sn.join("joiner" + joined++);
+			for (int f = 0; f < friendsPerMember; f++) {
+				newcomer.linkFriend(f == 0 && i > 0 ? purge.get(i - 1) : randomMember());
+			}
+			purge.add(newcomer);
+		}
+		sn.leaveAll(purge);
+		return purge;
+	}
+
+	@Benchmark
+	public Collection<String> listMembers() {
+		return sn.listMembers();
+	}
+
+	// the same walk over all members without copying them
+	@Benchmark
+	public void forEachMember(Blackhole blackhole) {
+		sn.forEachMember(blackhole::consume);
+	}
+
+	private Account randomMember() {
+		return accounts[random.nextInt(accounts.length)];
+	}
+}
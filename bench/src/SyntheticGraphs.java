@@ -0,0 +1,62 @@
+import java.util.Random;
+
+// seeded synthetic friend graphs for the benchmarks
+public class SyntheticGraphs {
+
+	public static String userName(int i) {
+		return "user" + i;
+	}
+
+	// join members user0 .. user(members - 1)
+	public static Account[] join(SocialNetwork sn, int members) {
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join(userName(i));
+		}
+		return accounts;
+	}
+
+	// a power-law (preferential attachment) friend graph: every new member befriends
+	// friendsPerMember earlier members, picked in proportion to how many friends they already have,
+	// which gives a few celebrity accounts and a long tail of members with few friends
+	public static Account[] powerLaw(SocialNetwork sn, int members, int friendsPerMember, long seed) {
+		Account[] accounts = join(sn, members);
+		Random random = new Random(seed);
+		// every friendship end point, so a uniform pick from it is a pick in proportion to degree
+		int[] ends = new int[2 * members * friendsPerMember];
+		int endCount = 0;
+		for (int member = 1; member < members; member++) {
+			int wanted = Math.min(member, friendsPerMember);
+			for (int made = 0; made < wanted; ) {
+				int other = endCount == 0 || random.nextInt(10) == 0 ? random.nextInt(member) : ends[random.nextInt(endCount)];
+				if (befriend(sn, accounts[member], accounts[other])) {
+					ends[endCount++] = member;
+					ends[endCount++] = other;
+					made++;
+				}
+			}
+		}
+		return accounts;
+	}
+
+	// a friend graph where every member has about the same number of friends
+	public static Account[] uniform(SocialNetwork sn, int members, int friendsPerMember, long seed) {
+		Account[] accounts = join(sn, members);
+		Random random = new Random(seed);
+		long wanted = (long) members * friendsPerMember / 2;
+		for (long made = 0; made < wanted; ) {
+			if (befriend(sn, accounts[random.nextInt(members)], accounts[random.nextInt(members)]))
+				made++;
+		}
+		return accounts;
+	}
+
+	// make two members friends through the request / accept handshake
+	public static boolean befriend(SocialNetwork sn, Account me, Account her) {
+		if (me == her || me.hasFriend(her.getUserName()))
+			return false;
+		sn.sendFriendshipTo(her.getUserName(), me);
+		sn.acceptFriendshipFrom(me.getUserName(), her);
+		return true;
+	}
+}
@@ -0,0 +1,113 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// runs a skewed workload against TieredSocialNetworks with caches of several sizes and against a
+// plain SocialNetwork, reporting heap, throughput, cache hit rate and fault latency
+//
+// the friend graph is made once, exported with BulkGraph and loaded into every network. A small
+// share of the members is active and makes most of the calls (hasFriend on a random member,
+// walking the friend list, requests and accepts); the rest are dormant and only turn up now and
+// then. Cache sizes are given in percent of all the friend and request names in the network.
+// Faults are served from the OS page cache here; on a cold disk they take a device read.
+//
+// usage: java TieredStorageBenchmark [members] [friends per member] [cache percentages] [operations]
+//        [active percent] [percent of operations by active members]
+public class TieredStorageBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int friendsPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		String cacheSizes = args.length > 2 ? args[2] : "1,5,20,100";
+		int operations = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+		int activePercent = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+		int activeShare = args.length > 5 ? Integer.parseInt(args[5]) : 90;
+
+		Path dir = Files.createTempDirectory("tiered-benchmark");
+		Path graph = dir.resolve("graph.bulk");
+		try {
+			SocialNetwork built = new SocialNetwork();
+			SyntheticGraphs.uniform(built, members, friendsPerMember, 42);
+			long names = 2 * BulkGraph.export(built, graph).friendships();
+			built = null;
+			System.out.printf("members %d, names in friend lists %d, %d%% of members make %d%% of %d operations%n",
+					members, names, activePercent, activeShare, operations);
+
+			System.out.println("cache%\tload s\theap MB\tops/s\thit rate\tfault p50 us\tfault p99 us\tstore MB\tcompactions\tstep p99 us\tstep max us");
+			long baseline = usedHeap();
+			for (String size : cacheSizes.split(",")) {
+				long resident = names * Integer.parseInt(size.trim()) / 100;
+				long started = System.nanoTime();
+				try (TieredSocialNetwork sn = BulkGraph.load(graph, new TieredSocialNetwork(dir.resolve("adjacency"), resident))) {
+					double load = (System.nanoTime() - started) / 1e9;
+					double opsPerSecond = run(sn, members, operations, activePercent, activeShare);
+					LogLinearHistogram faults = sn.faultLatencyNanos();
+					LogLinearHistogram steps = sn.compactionStepLatencyNanos();
+					System.out.printf("%s\t%.1f\t%.0f\t%.0f\t%.3f\t%.1f\t%.1f\t%.0f\t%d\t%.0f\t%.0f%n", size.trim(),
+							load, (usedHeap() - baseline) / 1048576.0, opsPerSecond, sn.hitRate(),
+							faults.percentile(0.5) / 1000.0, faults.percentile(0.99) / 1000.0, sn.storeBytes() / 1048576.0,
+							sn.compactions(), steps.percentile(0.99) / 1000.0, steps.max() / 1000.0);
+				}
+			}
+			long started = System.nanoTime();
+			SocialNetwork plain = BulkGraph.load(graph);
+			double load = (System.nanoTime() - started) / 1e9;
+			double opsPerSecond = run(plain, members, operations, activePercent, activeShare);
+			System.out.printf("plain\t%.1f\t%.0f\t%.0f\t-\t-\t-\t-\t-\t-\t-%n", load, (usedHeap() - baseline) / 1048576.0,
+					opsPerSecond);
+			// keep the network reachable until it has been measured
+			if (plain.members().size() != members)
+				throw new IllegalStateException("lost members");
+		} finally {
+			Files.deleteIfExists(graph);
+			Files.delete(dir);
+		}
+	}
+
+	private static double run(SocialNetwork sn, int members, int operations, int activePercent, int activeShare) {
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.findAccountForUserName(SyntheticGraphs.userName(i));
+		}
+		int active = Math.max(1, members * activePercent / 100);
+		Random random = new Random(7);
+		long checksum = 0;
+		long started = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			// the active members are the first ones, the graph being uniform
+			Account me = accounts[random.nextInt(100) < activeShare ? random.nextInt(active) : random.nextInt(members)];
+			String other = SyntheticGraphs.userName(random.nextInt(members));
+			switch (random.nextInt(10)) {
+			case 0:
+				checksum += sn.sendFriendshipTo(other, me).ordinal();
+				break;
+			case 1:
+				for (String requester : me.getIncomingRequests()) {
+					checksum += sn.acceptFriendshipFrom(requester, me).ordinal();
+					break;
+				}
+				break;
+			case 2:
+			case 3:
+				for (String friend : me.getFriends()) {
+					checksum += friend.length();
+				}
+				break;
+			default:
+				checksum += me.hasFriend(other) ? 1 : 0;
+			}
+		}
+		double opsPerSecond = operations / ((System.nanoTime() - started) / 1e9);
+		if (checksum == 42)
+			System.out.print("");
+		return opsPerSecond;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
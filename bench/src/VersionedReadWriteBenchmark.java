@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// measures throughput of a mix of reads and friendship operations, reading from the accounts of a
+// ConcurrentSocialNetwork and from the published versions of a VersionedSocialNetwork, while
+// varying the share of reads
+//
+// reads are hasFriend, getFriends, getIncomingRequests and a members lookup in equal parts;
+// writes are requests, accepts and cancellations as in ConcurrentThroughputBenchmark.
+//
+// usage: java VersionedReadWriteBenchmark [read percentages, comma separated] [threads] [members] [seconds per run]
+public class VersionedReadWriteBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String readShares = args.length > 0 ? args[0] : "50,90,95,99";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int members = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		System.out.println("reads%\tconcurrent ops/s\tversioned ops/s\tratio");
+		for (String share : readShares.split(",")) {
+			int reads = Integer.parseInt(share.trim());
+			double concurrent = run(new ConcurrentSocialNetwork(), reads, threads, members, seconds);
+			double versioned = run(new VersionedSocialNetwork(), reads, threads, members, seconds);
+			System.out.printf("%d\t%.0f\t%.0f\t%.2f%n", reads, concurrent, versioned, versioned / concurrent);
+		}
+	}
+
+	private static double run(ConcurrentSocialNetwork sn, int readShare, int threads, int members, int seconds)
+			throws Exception {
+		VersionedSocialNetwork versioned = sn instanceof VersionedSocialNetwork ? (VersionedSocialNetwork) sn : null;
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join(userName(i));
+		}
+		// some friends and requests to read, about five per member
+		Random setup = new Random(-1);
+		for (int i = 0; i < members * 5; i++) {
+			Account me = accounts[setup.nextInt(members)];
+			String other = userName(setup.nextInt(members));
+			sn.sendFriendshipTo(other, me);
+			if (setup.nextInt(3) > 0)
+				sn.acceptFriendshipFrom(me.getUserName(), accounts[Integer.parseInt(other.substring(4))]);
+		}
+
+		LongAdder operations = new LongAdder();
+		// keeps the JIT from dropping reads whose results are never used
+		LongAdder seen = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long deadline = System.nanoTime() + seconds * 1000000000L;
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				long found = 0;
+				while (System.nanoTime() < deadline) {
+					for (int n = 0; n < 1000; n++) {
+						int mine = random.nextInt(members);
+						String other = userName(random.nextInt(members));
+						if (random.nextInt(100) < readShare)
+							found += versioned != null ? read(versioned.version(), userName(mine), other, random)
+									: read(sn, sn.findAccountForUserName(userName(mine)), other, random);
+						else
+							write(sn, accounts[mine], other, random);
+					}
+					operations.add(1000);
+				}
+				seen.add(found);
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double opsPerSecond = operations.sum() / ((System.nanoTime() - began) / 1e9);
+		if (seen.sum() == 42)
+			System.out.print("");
+		return opsPerSecond;
+	}
+
+	private static int read(ConcurrentSocialNetwork sn, Account me, String other, Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return me.hasFriend(other) ? 1 : 0;
+		case 1:
+			return me.getFriends().size();
+		case 2:
+			return me.getIncomingRequests().size();
+		default:
+			return sn.members().contains(other) ? 1 : 0;
+		}
+	}
+
+	private static int read(NetworkVersion version, String me, String other, Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return version.hasFriend(me, other) ? 1 : 0;
+		case 1:
+			return version.getFriends(me).size();
+		case 2:
+			return version.getIncomingRequests(me).size();
+		default:
+			return version.isMember(other) ? 1 : 0;
+		}
+	}
+
+	private static void write(ConcurrentSocialNetwork sn, Account me, String other, Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			sn.acceptFriendshipFrom(other, me);
+			break;
+		case 1:
+			sn.sendFriendshipCancellationTo(other, me);
+			break;
+		default:
+			sn.sendFriendshipTo(other, me);
+		}
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
@@ -0,0 +1,381 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+// a seeded synthetic workload for a SocialNetwork: a setup that joins members and befriends them
+// into a power-law friend graph, then a mix of joins, requests, accepts, rejects, unfriends,
+// leaves, auto-accept switches and friend list reads
+//
+// the same seed and parameters always give the same operations, in the same order, whatever
+// network they are replayed against (see WorkloadReplay), because the generator decides every
+// operation from a model of its own and never looks at a network. The model keeps the members
+// still in, how popular each one is (the friendships it got, as in SyntheticGraphs.powerLaw),
+// recent requests not yet answered and a sample of friendships, so accepts and rejects answer
+// requests that were made, and unfriending breaks friendships that exist. Members are numbered
+// in join order and named SyntheticGraphs.userName(number); a leaving member's number is never
+// used again.
+//
+// operations are kept in three flat arrays (type, member, other member), 9 bytes each, so
+// replaying reads no objects; save and load write them to a file to replay elsewhere.
+public class Workload {
+
+	public enum Type {
+		JOIN, // member joins
+		REQUEST, // member sends a friend request to other
+		ACCEPT, // member accepts the pending request from other
+		REJECT, // member rejects the pending request from other
+		CANCEL, // member unfriends other
+		LEAVE, // member leaves
+		AUTO_ACCEPT, // member starts auto-accepting requests
+		FRIENDS // member's friend list is read
+	}
+
+	private static final Type[] TYPES = Type.values();
+	private static final int MAGIC = 0x574b4c31; // "WKL1"
+
+	// how many requests waiting for an answer and friendships the model keeps to draw from
+	private static final int PENDING = 1 << 16;
+	private static final int FRIENDSHIPS = 1 << 20;
+
+	private final byte[] types;
+	private final int[] members;
+	private final int[] others;
+	private final int setup;
+	private final int memberCount;
+
+	private Workload(byte[] types, int[] members, int[] others, int setup, int memberCount) {
+		this.types = types;
+		this.members = members;
+		this.others = others;
+		this.setup = setup;
+		this.memberCount = memberCount;
+	}
+
+	// the default mix, in percent: mostly requests and their answers, a third reads
+	public static Map<Type, Integer> defaultMix() {
+		return parseMix("join=5,request=30,accept=20,reject=4,cancel=4,leave=2,auto_accept=1,friends=34");
+	}
+
+	// a mix like "request=60,accept=40", weights per operation type, not necessarily adding up to 100
+	public static Map<Type, Integer> parseMix(String mix) {
+		Map<Type, Integer> weights = new EnumMap<Type, Integer>(Type.class);
+		for (String part : mix.split(",")) {
+			String[] pair = part.trim().split("=");
+			if (pair.length != 2)
+				throw new IllegalArgumentException("not type=weight: " + part);
+			int weight = Integer.parseInt(pair[1].trim());
+			if (weight < 0)
+				throw new IllegalArgumentException("negative weight: " + part);
+			weights.put(Type.valueOf(pair[0].trim().toUpperCase()), weight);
+		}
+		return weights;
+	}
+
+	// members joined and befriended about friendsPerMember times each (setup), then operations
+	// drawn from mix
+	public static Workload generate(long seed, int members, int friendsPerMember, int operations,
+			Map<Type, Integer> mix) {
+		return new Generator(seed, members, friendsPerMember, operations, mix).generate();
+	}
+
+	// operations in all, setup included
+	public int size() {
+		return types.length;
+	}
+
+	// the operations before this index make the starting network
+	public int setupSize() {
+		return setup;
+	}
+
+	// how many member numbers the workload uses
+	public int memberCount() {
+		return memberCount;
+	}
+
+	public Type type(int index) {
+		return TYPES[types[index]];
+	}
+
+	public int member(int index) {
+		return members[index];
+	}
+
+	public int other(int index) {
+		return others[index];
+	}
+
+	// how many operations of each type come after the setup
+	public Map<Type, Integer> counts() {
+		Map<Type, Integer> counts = new EnumMap<Type, Integer>(Type.class);
+		for (int i = setup; i < types.length; i++) {
+			counts.merge(type(i), 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	public void save(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(types.length);
+			out.writeInt(setup);
+			out.writeInt(memberCount);
+			for (int i = 0; i < types.length; i++) {
+				out.writeByte(types[i]);
+				out.writeInt(members[i]);
+				out.writeInt(others[i]);
+			}
+		}
+	}
+
+	public static Workload load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("not a workload: " + file);
+			int size = in.readInt();
+			int setup = in.readInt();
+			int memberCount = in.readInt();
+			byte[] types = new byte[size];
+			int[] members = new int[size];
+			int[] others = new int[size];
+			for (int i = 0; i < size; i++) {
+				types[i] = in.readByte();
+				if (types[i] < 0 || types[i] >= TYPES.length)
+					throw new IOException("unknown operation type " + types[i] + " in " + file);
+				members[i] = in.readInt();
+				others[i] = in.readInt();
+			}
+			return new Workload(types, members, others, setup, memberCount);
+		}
+	}
+
+	// the model the operations are drawn from
+	private static class Generator {
+		private final Random random;
+		private final int initialMembers;
+		private final int friendsPerMember;
+		private final int operations;
+		private final Type[] drawn = new Type[100];
+		private final boolean leavesOnly;
+
+		private byte[] types;
+		private int[] members;
+		private int[] others;
+		private int size = 0;
+
+		// members still in, and where each one is in that list (-1 once gone)
+		private int[] live;
+		private int liveCount = 0;
+		private int[] livePosition;
+		private int nextMember = 0;
+		// every friendship end point, so a uniform pick from it is a pick in proportion to popularity
+		private int[] ends = new int[1024];
+		private int endCount = 0;
+		// requests waiting for an answer, as sender and receiver pairs
+		private final int[] pendingFrom = new int[PENDING];
+		private final int[] pendingTo = new int[PENDING];
+		private int pendingCount = 0;
+		// a sample of the friendships made
+		private final int[] friendA = new int[FRIENDSHIPS];
+		private final int[] friendB = new int[FRIENDSHIPS];
+		private int friendCount = 0;
+
+		Generator(long seed, int members, int friendsPerMember, int operations, Map<Type, Integer> mix) {
+			if (members < 2)
+				throw new IllegalArgumentException("need at least two members: " + members);
+			this.random = new Random(seed);
+			this.initialMembers = members;
+			this.friendsPerMember = friendsPerMember;
+			int capacity = members + 2 * members * friendsPerMember + operations;
+			this.types = new byte[capacity];
+			this.members = new int[capacity];
+			this.others = new int[capacity];
+			this.live = new int[members * 2];
+			this.livePosition = new int[members * 2];
+			// the mix as a table of 100 draws, so picking an operation is one random index
+			int total = 0;
+			for (int weight : mix.values()) {
+				total += weight;
+			}
+			if (total <= 0)
+				throw new IllegalArgumentException("empty mix: " + mix);
+			int filled = 0, sum = 0;
+			for (Map.Entry<Type, Integer> each : mix.entrySet()) {
+				sum += each.getValue();
+				for (int until = (int) ((long) sum * drawn.length / total); filled < until; filled++) {
+					drawn[filled] = each.getKey();
+				}
+			}
+			this.leavesOnly = Arrays.stream(drawn).allMatch(each -> each == Type.LEAVE);
+			this.operations = operations;
+		}
+
+		Workload generate() {
+			// setup: every new member befriends friendsPerMember earlier ones, as SyntheticGraphs.powerLaw
+			for (int m = 0; m < initialMembers; m++) {
+				join();
+			}
+			int[] picked = new int[friendsPerMember];
+			for (int m = 1; m < initialMembers; m++) {
+				int wanted = Math.min(m, friendsPerMember);
+				for (int made = 0; made < wanted; ) {
+					int other = endCount == 0 || random.nextInt(10) == 0 ? random.nextInt(m) : ends[random.nextInt(endCount)];
+					if (other == m || contains(picked, made, other))
+						continue;
+					picked[made++] = other;
+					add(Type.REQUEST, m, other);
+					add(Type.ACCEPT, other, m);
+					befriended(m, other);
+				}
+			}
+			int setup = size;
+			// a draw that cannot be made is drawn again, so there are always as many operations as asked
+			for (int made = 0; made < operations; ) {
+				if (next(drawn[random.nextInt(drawn.length)]))
+					made++;
+			}
+			return new Workload(Arrays.copyOf(types, size), Arrays.copyOf(members, size), Arrays.copyOf(others, size),
+					setup, nextMember);
+		}
+
+		// add an operation of a type, or one that stands in for it; false if there is none to add
+		private boolean next(Type type) {
+			switch (type) {
+			case JOIN:
+				join();
+				return true;
+			case REQUEST:
+				request();
+				return true;
+			case ACCEPT:
+			case REJECT:
+				if (pendingCount == 0) {
+					request();
+					return true;
+				}
+				int index = random.nextInt(pendingCount);
+				int from = pendingFrom[index], to = pendingTo[index];
+				pendingCount--;
+				pendingFrom[index] = pendingFrom[pendingCount];
+				pendingTo[index] = pendingTo[pendingCount];
+				add(type, to, from);
+				if (type == Type.ACCEPT)
+					befriended(to, from);
+				return true;
+			case CANCEL:
+				if (friendCount == 0) {
+					request();
+					return true;
+				}
+				int friendship = random.nextInt(friendCount);
+				add(Type.CANCEL, friendA[friendship], friendB[friendship]);
+				friendCount--;
+				friendA[friendship] = friendA[friendCount];
+				friendB[friendship] = friendB[friendCount];
+				return true;
+			case LEAVE:
+				// the last two members stay, so requests always have someone to go to; with a mix of
+				// nothing but leaves, a member joins instead of drawing leaves forever
+				if (liveCount > 2)
+					leave(anyMember());
+				else if (leavesOnly)
+					join();
+				else
+					return false;
+				return true;
+			case AUTO_ACCEPT:
+				add(Type.AUTO_ACCEPT, anyMember(), -1);
+				return true;
+			default:
+				add(Type.FRIENDS, popularMember(), -1);
+				return true;
+			}
+		}
+
+		private void join() {
+			int member = nextMember++;
+			if (member == livePosition.length) {
+				livePosition = Arrays.copyOf(livePosition, member * 2);
+				live = Arrays.copyOf(live, member * 2);
+			}
+			livePosition[member] = liveCount;
+			live[liveCount++] = member;
+			add(Type.JOIN, member, -1);
+		}
+
+		private void leave(int member) {
+			int position = livePosition[member];
+			int last = live[--liveCount];
+			live[position] = last;
+			livePosition[last] = position;
+			livePosition[member] = -1;
+			add(Type.LEAVE, member, -1);
+		}
+
+		// anyone sends a request, mostly to popular members
+		private void request() {
+			int from = anyMember();
+			int to = popularMember();
+			while (to == from) {
+				to = anyMember();
+			}
+			add(Type.REQUEST, from, to);
+			// once full, a new request takes the place of a random old one, which stays unanswered
+			int index = pendingCount < PENDING ? pendingCount++ : random.nextInt(PENDING);
+			pendingFrom[index] = from;
+			pendingTo[index] = to;
+		}
+
+		private int anyMember() {
+			return live[random.nextInt(liveCount)];
+		}
+
+		// a member picked in proportion to friendships made, or at random one time in ten
+		private int popularMember() {
+			if (endCount > 0 && random.nextInt(10) != 0) {
+				int member = ends[random.nextInt(endCount)];
+				if (livePosition[member] >= 0)
+					return member;
+			}
+			return anyMember();
+		}
+
+		private void befriended(int a, int b) {
+			if (endCount + 2 > ends.length)
+				ends = Arrays.copyOf(ends, ends.length * 2);
+			ends[endCount++] = a;
+			ends[endCount++] = b;
+			int index = friendCount < FRIENDSHIPS ? friendCount++ : random.nextInt(FRIENDSHIPS);
+			friendA[index] = a;
+			friendB[index] = b;
+		}
+
+		private void add(Type type, int member, int other) {
+			if (size == types.length) {
+				types = Arrays.copyOf(types, size * 2);
+				members = Arrays.copyOf(members, size * 2);
+				others = Arrays.copyOf(others, size * 2);
+			}
+			types[size] = (byte) type.ordinal();
+			members[size] = member;
+			others[size] = other;
+			size++;
+		}
+
+		private static boolean contains(int[] values, int count, int value) {
+			for (int i = 0; i < count; i++) {
+				if (values[i] == value)
+					return true;
+			}
+			return false;
+		}
+	}
+}
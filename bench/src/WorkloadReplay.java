@@ -0,0 +1,281 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// replays a Workload against one or more network modes at a target rate and reports throughput,
+// latency percentiles per operation type and heap growth, for capacity planning and for
+// comparing modes on exactly the same operations
+//
+// the setup part of the workload builds the starting network as fast as it goes and is not
+// timed; the rest is replayed open loop: operation i is due at start + i / rate, and its
+// latency is measured from when it was due, so a network that falls behind shows the queueing
+// a client would see instead of hiding it (there is no pause between operations at rate 0, and
+// due time and start time are the same). With several threads, thread t replays operations t,
+// t + threads, ...; they then run in an order that differs a little from run to run, so an
+// operation of a member whose join has not been replayed yet is skipped and counted as such.
+// Only the concurrent modes take more than one thread.
+//
+// modes: plain, compact, concurrent, sharded, versioned, tiered[:cache percent of friend names]
+//
+// usage: java WorkloadReplay [modes, comma separated] [members] [friends per member] [operations]
+//        [rate in ops/s, 0 for as fast as possible] [seed] [threads] [mix, e.g. request=60,accept=40, or default]
+//        [workload file: replayed if it exists, else the generated workload is saved there]
+public class WorkloadReplay {
+
+	private static final Workload.Type[] TYPES = Workload.Type.values();
+	private static final FriendshipOperation.Result[] RESULTS = FriendshipOperation.Result.values();
+
+	public static void main(String[] args) throws Exception {
+		String modes = args.length > 0 ? args[0] : "plain,compact,concurrent";
+		int members = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int friendsPerMember = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int operations = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+		double rate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+		Map<Workload.Type, Integer> mix = args.length > 7 && !"default".equals(args[7]) ? Workload.parseMix(args[7])
+				: Workload.defaultMix();
+		Path file = args.length > 8 ? Paths.get(args[8]) : null;
+
+		long started = System.nanoTime();
+		Workload workload;
+		if (file != null && Files.exists(file)) {
+			workload = Workload.load(file);
+			System.out.printf("workload from %s: ", file);
+		} else {
+			workload = Workload.generate(seed, members, friendsPerMember, operations, mix);
+			if (file != null)
+				workload.save(file);
+			System.out.printf("workload (seed %d): ", seed);
+		}
+		System.out.printf("%d setup operations, %d replayed %s, %d member numbers, made in %.1f s%n",
+				workload.setupSize(), workload.size() - workload.setupSize(), workload.counts(), workload.memberCount(),
+				(System.nanoTime() - started) / 1e9);
+		String[] names = new String[workload.memberCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = SyntheticGraphs.userName(i);
+		}
+
+		for (String mode : modes.split(",")) {
+			replay(mode.trim(), workload, names, rate, threads);
+		}
+	}
+
+	private static void replay(String mode, Workload workload, String[] names, double rate, int threads)
+			throws Exception {
+		Path storeFile = null;
+		SocialNetwork sn;
+		if (mode.startsWith("tiered")) {
+			double percent = mode.contains(":") ? Double.parseDouble(mode.substring(mode.indexOf(':') + 1)) : 10;
+			long friendNames = 0;
+			for (int i = 0; i < workload.setupSize(); i++) {
+				if (workload.type(i) == Workload.Type.ACCEPT)
+					friendNames += 2;
+			}
+			storeFile = Files.createTempFile("workload-replay", ".adjacency");
+			sn = new TieredSocialNetwork(storeFile, (long) (friendNames * percent / 100));
+		} else {
+			sn = newNetwork(mode);
+		}
+		if (threads > 1 && !(sn instanceof ConcurrentSocialNetwork)) {
+			System.out.printf("%s: not thread-safe, replaying with one thread%n", mode);
+			threads = 1;
+		}
+
+		long baseline = usedHeap();
+		AtomicReferenceArray<Account> accounts = new AtomicReferenceArray<Account>(names.length);
+		long started = System.nanoTime();
+		for (int i = 0; i < workload.setupSize(); i++) {
+			apply(sn, workload, i, names, accounts);
+		}
+		double setupSeconds = (System.nanoTime() - started) / 1e9;
+		long afterSetup = usedHeap();
+
+		int setup = workload.setupSize();
+		int replayed = workload.size() - setup;
+		long intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+		Replayer[] replayers = new Replayer[threads];
+		List<Thread> running = new ArrayList<Thread>();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] began = new long[1];
+		for (int t = 0; t < threads; t++) {
+			Replayer replayer = new Replayer();
+			replayers[t] = replayer;
+			int first = t, step = threads;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = first; i < replayed; i += step) {
+					long due = began[0] + i * intervalNanos;
+					long now = System.nanoTime();
+					if (intervalNanos > 0) {
+						while (now < due) {
+							if (due - now > 100000)
+								LockSupport.parkNanos(due - now - 50000);
+							now = System.nanoTime();
+						}
+					} else {
+						due = now;
+					}
+					int result = apply(sn, workload, setup + i, names, accounts);
+					replayer.record(workload.type(setup + i), result, System.nanoTime() - due);
+				}
+			});
+			running.add(thread);
+			thread.start();
+		}
+		began[0] = System.nanoTime();
+		start.countDown();
+		for (Thread each : running) {
+			each.join();
+		}
+		double seconds = (System.nanoTime() - began[0]) / 1e9;
+		long afterReplay = usedHeap();
+
+		Replayer total = new Replayer();
+		for (Replayer each : replayers) {
+			total.add(each);
+		}
+		System.out.printf("%n%s, %d thread%s, target %s: setup %.1f s, heap %.0f MB after setup, %+.1f MB after replay%n",
+				mode, threads, threads == 1 ? "" : "s", rate > 0 ? String.format("%.0f ops/s", rate) : "as fast as possible",
+				setupSeconds, (afterSetup - baseline) / 1048576.0, (afterReplay - afterSetup) / 1048576.0);
+		System.out.println("operation\tcount\tapplied\tno effect\tunknown\tthrottled\tskipped\tp50 us\tp99 us\tp99.9 us\tmax us");
+		LogLinearHistogram all = new LogLinearHistogram();
+		for (Workload.Type type : TYPES) {
+			LogLinearHistogram latency = total.latencies.get(type);
+			if (latency.count() == 0)
+				continue;
+			all.add(latency);
+			long[] results = total.results.get(type);
+			System.out.printf("%s\t%d\t%d\t%d\t%d\t%d\t%d\t%s%n", type.name().toLowerCase(), latency.count(), results[0],
+					results[1], results[2], results[3], results[RESULTS.length], micros(latency));
+		}
+		System.out.printf("all\t%d\t\t\t\t\t\t%s%n", all.count(), micros(all));
+		System.out.printf("throughput %.0f ops/s%n", replayed / seconds);
+
+		// keep the network reachable until its heap has been measured
+		if (sn.members().isEmpty() && replayed > 0)
+			System.out.println("(every member left)");
+		if (sn instanceof TieredSocialNetwork) {
+			TieredSocialNetwork tiered = (TieredSocialNetwork) sn;
+			System.out.printf("adjacency cache: hit rate %.3f, fault p99 %.1f us, store %.0f MB%n", tiered.hitRate(),
+					tiered.faultLatencyNanos().percentile(0.99) / 1000.0, tiered.storeBytes() / 1048576.0);
+			tiered.close();
+			Files.deleteIfExists(storeFile);
+		}
+	}
+
+	private static SocialNetwork newNetwork(String mode) {
+		switch (mode) {
+		case "plain":
+			return new SocialNetwork();
+		case "compact":
+			return new CompactSocialNetwork();
+		case "concurrent":
+			return new ConcurrentSocialNetwork();
+		case "sharded":
+			return new ShardedSocialNetwork();
+		case "versioned":
+			return new VersionedSocialNetwork();
+		default:
+			throw new IllegalArgumentException("unknown mode: " + mode);
+		}
+	}
+
+	// replay one operation; returns the ordinal of its FriendshipOperation.Result, or
+	// RESULTS.length if skipped because the member is not (or no longer) in
+	private static int apply(SocialNetwork sn, Workload workload, int index, String[] names,
+			AtomicReferenceArray<Account> accounts) {
+		int member = workload.member(index);
+		if (workload.type(index) == Workload.Type.JOIN) {
+			Account joined = sn.join(names[member]);
+			accounts.set(member, joined);
+			return joined == null ? FriendshipOperation.Result.NO_EFFECT.ordinal()
+					: FriendshipOperation.Result.APPLIED.ordinal();
+		}
+		Account me = accounts.get(member);
+		if (me == null)
+			return RESULTS.length;
+		switch (workload.type(index)) {
+		case REQUEST:
+			return sn.sendFriendshipTo(names[workload.other(index)], me).ordinal();
+		case ACCEPT:
+			return sn.acceptFriendshipFrom(names[workload.other(index)], me).ordinal();
+		case REJECT:
+			return sn.rejectFriendshipFrom(names[workload.other(index)], me).ordinal();
+		case CANCEL:
+			return sn.sendFriendshipCancellationTo(names[workload.other(index)], me).ordinal();
+		case LEAVE:
+			accounts.set(member, null);
+			sn.leave(me);
+			return FriendshipOperation.Result.APPLIED.ordinal();
+		case AUTO_ACCEPT:
+			sn.autoAcceptFriendshipsTo(me);
+			return FriendshipOperation.Result.APPLIED.ordinal();
+		default:
+			// read where the mode's readers read, the published version in versioned mode
+			Set<String> friends = sn instanceof VersionedSocialNetwork
+					? ((VersionedSocialNetwork) sn).version().getFriends(me.getUserName()) : me.getFriends();
+			// walked rather than sized, as a client listing them would
+			int seen = 0;
+			for (Iterator<String> each = friends.iterator(); each.hasNext(); each.next()) {
+				seen++;
+			}
+			return (seen > 0 ? FriendshipOperation.Result.APPLIED : FriendshipOperation.Result.NO_EFFECT).ordinal();
+		}
+	}
+
+	private static String micros(LogLinearHistogram latency) {
+		return String.format("%.1f\t%.1f\t%.1f\t%.1f", latency.percentile(0.5) / 1000.0, latency.percentile(0.99) / 1000.0,
+				latency.percentile(0.999) / 1000.0, latency.max() / 1000.0);
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	// what one replaying thread saw, per operation type
+	private static class Replayer {
+		final Map<Workload.Type, LogLinearHistogram> latencies = new EnumMap<Workload.Type, LogLinearHistogram>(Workload.Type.class);
+		// counts per result ordinal, and skipped last
+		final Map<Workload.Type, long[]> results = new EnumMap<Workload.Type, long[]>(Workload.Type.class);
+
+		Replayer() {
+			for (Workload.Type type : TYPES) {
+				latencies.put(type, new LogLinearHistogram());
+				results.put(type, new long[RESULTS.length + 1]);
+			}
+		}
+
+		void record(Workload.Type type, int result, long latencyNanos) {
+			latencies.get(type).record(latencyNanos);
+			results.get(type)[result]++;
+		}
+
+		void add(Replayer other) {
+			for (Workload.Type type : TYPES) {
+				latencies.get(type).add(other.latencies.get(type));
+				long[] mine = results.get(type), theirs = other.results.get(type);
+				for (int i = 0; i < mine.length; i++) {
+					mine[i] += theirs[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class WorkloadTest {
+	Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = Files.createTempFile("workload", ".bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void sameSeedGivesTheSameOperations() {
+		Workload first = Workload.generate(42, 2000, 10, 50000, Workload.defaultMix());
+		Workload second = Workload.generate(42, 2000, 10, 50000, Workload.defaultMix());
+		assertSameOperations(first, second);
+	}
+
+	@Test
+	public void anotherSeedGivesOtherOperations() {
+		Workload first = Workload.generate(42, 2000, 10, 50000, Workload.defaultMix());
+		Workload other = Workload.generate(43, 2000, 10, 50000, Workload.defaultMix());
+		boolean differs = first.size() != other.size();
+		for (int i = first.setupSize(); !differs && i < first.size(); i++) {
+			differs = first.type(i) != other.type(i) || first.member(i) != other.member(i)
+					|| first.other(i) != other.other(i);
+		}
+		assertTrue(differs);
+	}
+
+	@Test
+	public void savedWorkloadLoadsBackTheSame() throws Exception {
+		Workload workload = Workload.generate(7, 1000, 5, 20000, Workload.parseMix("request=40,accept=30,friends=30"));
+		workload.save(file);
+		assertSameOperations(workload, Workload.load(file));
+	}
+
+	@Test
+	public void replayedPartFollowsTheMix() {
+		Workload workload = Workload.generate(1, 1000, 5, 10000, Workload.parseMix("request=50,friends=50"));
+		Map<Workload.Type, Integer> counts = workload.counts();
+		assertEquals(10000, workload.size() - workload.setupSize());
+		assertEquals(10000, counts.values().stream().mapToInt(Integer::intValue).sum());
+		assertTrue(counts.get(Workload.Type.REQUEST) > 4000);
+		assertTrue(counts.get(Workload.Type.FRIENDS) > 4000);
+	}
+
+	@Test
+	public void leavesThatCannotBeMadeAreDrawnAgain() {
+		Workload workload = Workload.generate(3, 5, 2, 1000, Workload.parseMix("leave=90,friends=10"));
+		assertEquals(1000, workload.size() - workload.setupSize());
+		assertEquals(3, (int) workload.counts().get(Workload.Type.LEAVE));
+	}
+
+	@Test
+	public void leavesOnlyMixStillGivesAllOperations() {
+		Workload workload = Workload.generate(3, 5, 2, 1000, Workload.parseMix("leave=1"));
+		assertEquals(1000, workload.size() - workload.setupSize());
+	}
+
+	private static void assertSameOperations(Workload expected, Workload actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.setupSize(), actual.setupSize());
+		assertEquals(expected.memberCount(), actual.memberCount());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("type of operation " + i, expected.type(i), actual.type(i));
+			assertEquals("member of operation " + i, expected.member(i), actual.member(i));
+			assertEquals("other member of operation " + i, expected.other(i), actual.other(i));
+		}
+	}
+}
@@ -1,41 +1,82 @@
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
 
 public class Account  {
     
     // the unique user name of account owner
     private String userName;
+
+    // dense id handed out by the network the owner joined, -1 for an account outside any network
+    private int id = -1;
     
     // list of members who are awaiting an acceptance response from this account's owner 
-    private Set<String> incomingRequests = new HashSet<String>();
+    private final Set<String> incomingRequests;
 
     // list of members who this account's owner is awating an acceptance response from
-    private Set<String> outgoingRequests = new HashSet<String>();
+    private final Set<String> outgoingRequests;
     
     // list of members who are friends of this account's owner
-    private Set<String> friends = new HashSet<String>();
+    private final Set<String> friends;
+
+    // read-only views of the sets above, handed out by the getters so reading them allocates nothing
+    private final Set<String> incomingRequestsView;
+    private final Set<String> outgoingRequestsView;
+    private final Set<String> friendsView;
+
+    // answers most hasFriend checks that fail without probing friends, once there are enough
+    // of them to be worth it (see FriendFilter), null until then
+    private volatile FriendFilter friendFilter = null;
 
-    private boolean autoAcceptFriendships = false;
+    private volatile boolean autoAcceptFriendships = false;
+
+    // set once the owner has started leaving a concurrent network, so no new requests or friendships attach to it
+    private volatile boolean leaving = false;
+
+    // when the owner's bucket of friend requests is full again, for the RequestRateLimiter of its network
+    volatile long requestsRefilledAt = 0;
 
     public Account(String userName) {
+        this(userName, HashSet::new);
+    }
+
+    // an account created by a network that needs a particular set implementation,
+    // e.g. concurrent sets for accounts shared between request threads
+    Account(String userName, Supplier<Set<String>> newSet) {
         this.userName = userName;
+        this.incomingRequests = newSet.get();
+        this.outgoingRequests = newSet.get();
+        this.friends = newSet.get();
+        this.incomingRequestsView = Collections.unmodifiableSet(incomingRequests);
+        this.outgoingRequestsView = Collections.unmodifiableSet(outgoingRequests);
+        this.friendsView = Collections.unmodifiableSet(friends);
     }
 
     public String getUserName() {
         return userName;
     }
 
+    int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     // return list of members who had sent a friend request to this account's owner 
-    // and are still waiting for a response
+    // and are still waiting for a response (a read-only view that follows later changes)
     public Set<String> getIncomingRequests() {
-        return incomingRequests;
+        return incomingRequestsView;
     }
 
     // return list of members who this account's owner had send a friend request to
-    // and is still waiting for a response
+    // and is still waiting for a response (a read-only view that follows later changes)
     public Set<String> getOutgoingRequests() {
-        return outgoingRequests;
+        return outgoingRequestsView;
     }
 
     // an incoming friend request to this account's owner from another member account
@@ -53,9 +94,41 @@ public class Account  {
 
     // check if account owner has a member with user name userName as a friend
     public boolean hasFriend(String userName) {
+        FriendFilter filter = friendFilter;
+        if (filter != null && userName != null && !filter.mightContain(userName))
+            return false;
         return friends.contains(userName);
     }
 
+    // the filter in front of friends, null if the account has too few friends for one
+    FriendFilter friendFilter() {
+        return friendFilter;
+    }
+
+    // how many friends this account's owner and another member have in common, probing the
+    // larger friend list (through its filter) with the names of the smaller one
+    int countMutualFriends(Account other) {
+        Account smaller = friends.size() <= other.friends.size() ? this : other;
+        Account larger = smaller == this ? other : this;
+        if (smaller.friends instanceof InternedNameSet && larger.friends instanceof InternedNameSet) {
+            // ids against ids, no names to look up
+            InternedNameSet theirs = (InternedNameSet) larger.friends;
+            int[] count = new int[1];
+            ((InternedNameSet) smaller.friends).forEachId(id -> {
+                if (theirs.containsId(id))
+                    count[0]++;
+                return true;
+            });
+            return count[0];
+        }
+        int count = 0;
+        for (String friend : smaller.friends) {
+            if (larger.hasFriend(friend))
+                count++;
+        }
+        return count;
+    }
+
     // receive an acceptance from a member to whom a friend request has been sent and from whom no response has been received
     // public void friendshipAccepted(Account toAccount) {
         
@@ -82,15 +155,31 @@ public class Account  {
     // receive an acceptance from a member to whom a friend request has been sent and from whom no response has been received
     public void friendshipAccepted(Account toAccount) {
         if (toAccount.incomingRequests.contains(this.getUserName())) {
-            friends.add(toAccount.getUserName());
-            toAccount.friends.add(this.getUserName());
+            if (friends.add(toAccount.getUserName()))
+                friendAdded(toAccount.getUserName());
+            if (toAccount.friends.add(this.getUserName()))
+                toAccount.friendAdded(this.getUserName());
             toAccount.incomingRequests.remove(this.getUserName());
             outgoingRequests.remove(toAccount.getUserName());
         }
     }
     
+    // a read-only view of the friends that follows later changes
     public Set<String> getFriends() {
-        return friends;
+        return friendsView;
+    }
+
+    // hand the ids of this account's friends in a network to action, until it returns false,
+    // without going through the user names where the friends are kept as ids already
+    boolean forEachFriendId(SocialNetwork network, IntPredicate action) {
+        if (friends instanceof InternedNameSet)
+            return ((InternedNameSet) friends).forEachId(action);
+        for (String friend : friends) {
+            int id = network.idOf(friend);
+            if (id >= 0 && !action.test(id))
+                return false;
+        }
+        return true;
     }
     
     public void friendshipRejected(Account toAccount) {
@@ -98,16 +187,100 @@ public class Account  {
         outgoingRequests.remove(toAccount.getUserName());
     }
 
+	boolean isLeaving() {
+		return leaving;
+	}
+
+	void startLeaving() {
+		leaving = true;
+	}
+
 	public void autoAcceptFriendships() {
 		this.autoAcceptFriendships = true;
 	}
 
+	public boolean isAutoAcceptingFriendships() {
+		return autoAcceptFriendships;
+	}
+
+	// make this account's owner and another member friends directly, without the request and
+	// accept handshake, for rebuilding a network from saved state
+	void linkFriend(Account other) {
+		if (friends instanceof InternedNameSet && other.friends instanceof InternedNameSet) {
+			// kept as ids already, so skip looking the names up
+			if (((InternedNameSet) friends).addId(other.getId()))
+				friendAdded(other.getUserName());
+			if (((InternedNameSet) other.friends).addId(this.getId()))
+				other.friendAdded(this.getUserName());
+			return;
+		}
+		if (friends.add(other.getUserName()))
+			friendAdded(other.getUserName());
+		if (other.friends.add(this.getUserName()))
+			other.friendAdded(this.getUserName());
+	}
+
+	// record a pending friend request from this account's owner to another member directly,
+	// without triggering auto-accept, for rebuilding a network from saved state
+	void linkRequestTo(Account other) {
+		if (outgoingRequests instanceof InternedNameSet && other.incomingRequests instanceof InternedNameSet) {
+			((InternedNameSet) outgoingRequests).addId(other.getId());
+			((InternedNameSet) other.incomingRequests).addId(this.getId());
+			return;
+		}
+		outgoingRequests.add(other.getUserName());
+		other.incomingRequests.add(this.getUserName());
+	}
+
+	// drop a member who is leaving the network from this account's friends and requests
+	void forget(String userName) {
+		if (friends.remove(userName))
+			friendRemoved();
+		incomingRequests.remove(userName);
+		outgoingRequests.remove(userName);
+	}
+
+	// drop all friends and requests of this account's owner, once nobody else refers to them
+	void forgetAll() {
+		friends.clear();
+		friendFilter = null;
+		incomingRequests.clear();
+		outgoingRequests.clear();
+	}
+
 	// an existing friend of this account's owner is unfriending them
 	public void cancelFriendship(Account fromAccount) {
 		if (friends.contains(fromAccount.getUserName())) {
-			friends.remove(fromAccount.getUserName());
-			fromAccount.friends.remove(this.getUserName());
+			if (friends.remove(fromAccount.getUserName()))
+				friendRemoved();
+			if (fromAccount.friends.remove(this.getUserName()))
+				fromAccount.friendRemoved();
 		}
 	}
+
+	// keep the friend filter in step with friends: build one once there are enough friends,
+	// and a bigger one once it fills up
+	private void friendAdded(String userName) {
+		FriendFilter filter = friendFilter;
+		if (filter == null) {
+			if (friends.size() >= FriendFilter.MIN_FRIENDS)
+				friendFilter = FriendFilter.of(friends);
+		} else if (filter.isFull()) {
+			friendFilter = FriendFilter.of(friends);
+		} else {
+			filter.add(userName);
+		}
+	}
+
+	// drop the filter once friends are few again, and rebuild it once it has too many stale names
+	private void friendRemoved() {
+		FriendFilter filter = friendFilter;
+		if (filter == null)
+			return;
+		if (friends.size() < FriendFilter.MIN_FRIENDS / 2)
+			friendFilter = null;
+		else if (filter.removed())
+			friendFilter = FriendFilter.of(friends);
+	}
     
 }
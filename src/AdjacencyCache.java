@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+
+// the bounded cache of resident PagedNameSets in front of an AdjacencyStore
+//
+// it keeps at most maxResidentNames names on the heap, counted over all resident sets, and pages
+// out the least recently used sets when more come in. Recency is kept in a doubly linked list
+// threaded through the sets themselves, so a hit costs a few pointer moves and no allocation.
+// Plain LRU rather than a frequency-aware policy (e.g. W-TinyLFU): the sets that matter are the
+// accounts of members active right now, which recency tracks, and a dormant member's sets are
+// paged out again after one look.
+//
+// like the SocialNetwork it belongs to, it is for one thread at a time; read the counters from
+// the thread that owns the network.
+final class AdjacencyCache {
+
+	private final AdjacencyStore store;
+	private final long maxResidentNames;
+	// least and most recently used resident sets
+	private PagedNameSet oldest, newest;
+	private long residentNames = 0;
+	private int residentSets = 0;
+
+	long hits = 0;
+	long faults = 0;
+	long evictions = 0;
+	// pages written by evictions, fewer than evictions when sets come back unchanged
+	long writes = 0;
+	final LogLinearHistogram faultNanos = new LogLinearHistogram();
+
+	AdjacencyCache(AdjacencyStore store, long maxResidentNames) {
+		if (maxResidentNames < 0)
+			throw new IllegalArgumentException("maxResidentNames must not be negative: " + maxResidentNames);
+		this.store = store;
+		this.maxResidentNames = maxResidentNames;
+	}
+
+	// the names of a set, faulted in if paged out, and the set marked as just used
+	HashSet<String> use(PagedNameSet set) {
+		HashSet<String> names = set.resident;
+		if (names != null) {
+			hits++;
+			if (set != newest) {
+				unlink(set);
+				link(set);
+			}
+			return names;
+		}
+		if (set.page < 0) {
+			// never stored, so nothing to read
+			names = new HashSet<String>();
+		} else {
+			long started = System.nanoTime();
+			String[] stored = read(set.page);
+			names = new HashSet<String>(Math.max(16, (int) (stored.length / 0.75f) + 1));
+			for (String name : stored) {
+				names.add(name);
+			}
+			faults++;
+			faultNanos.record(System.nanoTime() - started);
+		}
+		set.resident = names;
+		link(set);
+		residentSets++;
+		residentNames += set.size;
+		evict(set);
+		return names;
+	}
+
+	// a resident set gained or lost names
+	void resized(PagedNameSet set, int names) {
+		residentNames += names;
+		if (names > 0)
+			evict(set);
+	}
+
+	// empty a set, forgetting its page
+	void drop(PagedNameSet set) {
+		if (set.resident != null) {
+			unlink(set);
+			residentSets--;
+			residentNames -= set.size;
+			set.resident = null;
+		}
+		if (set.page >= 0)
+			free(set.page);
+		set.page = -1;
+		set.dirty = false;
+		set.size = 0;
+	}
+
+	long residentNames() {
+		return residentNames;
+	}
+
+	int residentSets() {
+		return residentSets;
+	}
+
+	// page out the least recently used sets until the resident names fit, sparing the one in use
+	private void evict(PagedNameSet inUse) {
+		while (residentNames > maxResidentNames && oldest != null && oldest != inUse) {
+			PagedNameSet set = oldest;
+			if (set.dirty || (set.page < 0 && set.size > 0)) {
+				if (set.page >= 0)
+					free(set.page);
+				set.page = set.size == 0 ? -1 : write(set.resident);
+				writes++;
+			}
+			set.dirty = false;
+			unlink(set);
+			residentSets--;
+			residentNames -= set.size;
+			set.resident = null;
+			evictions++;
+		}
+	}
+
+	private void link(PagedNameSet set) {
+		set.older = newest;
+		set.newer = null;
+		if (newest != null)
+			newest.newer = set;
+		else
+			oldest = set;
+		newest = set;
+	}
+
+	private void unlink(PagedNameSet set) {
+		if (set.older != null)
+			set.older.newer = set.newer;
+		else
+			oldest = set.newer;
+		if (set.newer != null)
+			set.newer.older = set.older;
+		else
+			newest = set.older;
+		set.older = set.newer = null;
+	}
+
+	private String[] read(int page) {
+		try {
+			return store.read(page);
+		} catch (IOException e) {
+			throw new UncheckedIOException("adjacency store failed", e);
+		}
+	}
+
+	private int write(HashSet<String> names) {
+		try {
+			return store.write(names);
+		} catch (IOException e) {
+			throw new UncheckedIOException("adjacency store failed", e);
+		}
+	}
+
+	private void free(int page) {
+		try {
+			store.free(page);
+		} catch (IOException e) {
+			throw new UncheckedIOException("adjacency store failed", e);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+
+// a file of name lists for the paged-out sets of a TieredSocialNetwork
+//
+// every list is written once, appended as a record, and read back whole; a page number stands
+// for it until it is freed. The file is scratch space rather than a save: it is not synced, the
+// page index lives on the heap, and the file is deleted on close.
+//
+// a record is the varint count of its names, then per name the varint length and UTF-8 bytes.
+// Freed records stay in the file as garbage until there is more garbage than live records (and
+// at least MIN_GARBAGE of it); then the live records are copied to a new file, in page order,
+// and the store switches to it. The copying is done a step of at most STEP_BYTES at a time, one
+// step after every write and free, so no access to a set that happens to page one out waits for
+// the whole store to be copied; meanwhile new records go to the new file, and each page is read
+// from whichever file has its record. The time of each step is kept in compactionStepNanos.
+final class AdjacencyStore implements Closeable {
+
+	private static final long MIN_GARBAGE = 16 << 20;
+	private static final int STEP_BYTES = 8 << 10;
+
+	private final Path file;
+	private final Path copy;
+	private FileChannel channel;
+	private long end = 0;
+	// bytes of the records of pages in use, in either file
+	private long live = 0;
+
+	// the file being compacted into, null unless a compaction is under way
+	private FileChannel target = null;
+	private long written = 0;
+	// pages below this one have been copied (or are free), as have the pages in moved
+	private int cursor = 0;
+	// pages whose record is in the new file: copied, or written since the compaction started
+	private final BitSet moved = new BitSet();
+
+	long compactions = 0;
+	final LogLinearHistogram compactionStepNanos = new LogLinearHistogram();
+
+	// offset and length of each page's record, a length of -1 for a free page
+	private long[] offsets = new long[1024];
+	private int[] lengths = new int[1024];
+	private int pages = 0;
+	// freed page numbers, handed out again before new ones
+	private int[] free = new int[64];
+	private int freeCount = 0;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	AdjacencyStore(Path file) throws IOException {
+		this.file = file;
+		this.copy = file.resolveSibling(file.getFileName() + ".compacting");
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	// store names, returning the page that now stands for them
+	int write(Collection<String> names) throws IOException {
+		buffer.clear();
+		putVarint(names.size());
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			putVarint(bytes.length);
+			room(bytes.length);
+			buffer.put(bytes);
+		}
+		buffer.flip();
+		int length = buffer.limit();
+		int page = newPage();
+		if (target != null) {
+			writeFully(target, buffer, written);
+			offsets[page] = written;
+			written += length;
+			moved.set(page);
+		} else {
+			writeFully(channel, buffer, end);
+			offsets[page] = end;
+			end += length;
+		}
+		lengths[page] = length;
+		live += length;
+		step();
+		return page;
+	}
+
+	// the names stored in a page
+	String[] read(int page) throws IOException {
+		int length = lengths[page];
+		if (length < 0)
+			throw new IllegalArgumentException("page " + page + " is free");
+		buffer.clear();
+		room(length);
+		buffer.limit(length);
+		readFully(target != null && moved.get(page) ? target : channel, buffer, offsets[page]);
+		buffer.flip();
+		String[] names = new String[getVarint()];
+		for (int i = 0; i < names.length; i++) {
+			int bytes = getVarint();
+			names[i] = new String(buffer.array(), buffer.position(), bytes, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + bytes);
+		}
+		return names;
+	}
+
+	// give a page up; its record becomes garbage
+	void free(int page) throws IOException {
+		live -= lengths[page];
+		lengths[page] = -1;
+		if (freeCount == free.length)
+			free = Arrays.copyOf(free, free.length * 2);
+		free[freeCount++] = page;
+		long garbage = end - live;
+		if (target == null && garbage > MIN_GARBAGE && garbage > live) {
+			target = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			written = 0;
+			cursor = 0;
+		}
+		step();
+	}
+
+	// bytes in the files, live records and garbage
+	long bytes() {
+		return end + written;
+	}
+
+	// bytes of live records
+	long liveBytes() {
+		return live;
+	}
+
+	// whether a compaction is under way
+	boolean compacting() {
+		return target != null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		Files.deleteIfExists(file);
+		if (target != null) {
+			target.close();
+			Files.deleteIfExists(copy);
+		}
+	}
+
+	private int newPage() {
+		if (freeCount > 0)
+			return free[--freeCount];
+		if (pages == offsets.length) {
+			offsets = Arrays.copyOf(offsets, pages * 2);
+			lengths = Arrays.copyOf(lengths, pages * 2);
+		}
+		return pages++;
+	}
+
+	// copy the next live records to the new file, up to STEP_BYTES of them, and switch to the new
+	// file once every page is in it; page numbers stay the same
+	private void step() throws IOException {
+		if (target == null)
+			return;
+		long started = System.nanoTime();
+		// the records of a step are gathered in the buffer and written with one call
+		buffer.clear();
+		long at = written;
+		for (; cursor < pages && buffer.position() < STEP_BYTES; cursor++) {
+			int length = lengths[cursor];
+			if (length < 0 || moved.get(cursor))
+				continue;
+			room(length);
+			int from = buffer.position();
+			buffer.limit(from + length);
+			readFully(channel, buffer, offsets[cursor] - from);
+			buffer.limit(buffer.capacity());
+			offsets[cursor] = at + from;
+			moved.set(cursor);
+		}
+		buffer.flip();
+		writeFully(target, buffer, at);
+		written = at + buffer.limit();
+		if (cursor == pages) {
+			FileChannel old = channel;
+			Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING);
+			// the old file is gone from the directory, and closing it frees its blocks, which can
+			// take milliseconds for a big store, so that is done off the access path
+			ForkJoinPool.commonPool().execute(() -> {
+				try {
+					old.close();
+				} catch (IOException e) {
+					// scratch space nobody refers to any more
+				}
+			});
+			channel = target;
+			target = null;
+			end = written;
+			written = 0;
+			moved.clear();
+			compactions++;
+		}
+		compactionStepNanos.record(System.nanoTime() - started);
+	}
+
+	// an unsigned int in seven-bit groups, lowest first, the high bit set on all but the last
+	private void putVarint(int value) {
+		room(5);
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private int getVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35 && buffer.hasRemaining(); shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("corrupt adjacency store: bad varint in " + file);
+	}
+
+	// make room for bytes more in the buffer, keeping what is in it
+	private void room(int bytes) {
+		if (buffer.remaining() >= bytes)
+			return;
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("corrupt adjacency store: unexpected end of " + file);
+		}
+	}
+}
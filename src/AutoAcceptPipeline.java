@@ -0,0 +1,298 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// applies friend requests to auto-accepting members in batches, off the threads that send them
+//
+// without it every request to an auto-accepting member takes that member's lock stripe and
+// changes both accounts on the sender's thread, so a popular member that is sent thousands of
+// requests a second has every sender queueing on one lock. With a pipeline attached, a request
+// to an auto-accepting member goes into a queue of that member's instead, and one task on the
+// executor takes whatever has queued up and applies it as a batch: one thread changing the
+// popular account for many requests, so senders never queue on its lock. The batch holds only
+// the popular member's stripe, plus each sender's stripe in turn (see
+// ConcurrentSocialNetwork.performRequests), never those of the whole network, and it is short
+// (MAX_BATCH). With a FriendshipLog attached, the batch's records are appended under those locks
+// and forced to disk together once the locks are released, before any sender is woken.
+//
+// the sender waits until its request has been applied, like a group commit, so it reads its own
+// write: when sendFriendshipTo returns, the two are friends (or the result says why not), and
+// its next operation comes after it. It waits at most maxWait: a request that has not been taken
+// up by then (say the executor is busy) is taken back and applied on the sender's thread. Each
+// member's queue holds at most queueCapacity requests; a request that finds the queue full is
+// applied on the sender's thread too, as if there were no pipeline, so a backlog slows senders
+// down instead of growing.
+public class AutoAcceptPipeline implements Closeable {
+
+	// never apply more than this many requests in one batch, so other members' queues get a turn
+	// and the popular member's stripe is not held for long
+	static final int MAX_BATCH = 64;
+
+	// how long a sender waits for its queued request to be taken up by default
+	static final long DEFAULT_MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	// a request waiting in a queue, completed with its result once applied
+	private static final class Ticket {
+		final Account sender;
+		final long queuedAt = System.nanoTime();
+		// set by whoever takes the request: a batch to apply it, or the sender giving up waiting
+		final AtomicBoolean taken = new AtomicBoolean();
+		final CompletableFuture<FriendshipOperation.Result> result = new CompletableFuture<FriendshipOperation.Result>();
+
+		Ticket(Account sender) {
+			this.sender = sender;
+		}
+	}
+
+	// the requests queued for one auto-accepting member
+	private static final class Inbox {
+		final ConcurrentLinkedQueue<Ticket> tickets = new ConcurrentLinkedQueue<Ticket>();
+		final AtomicInteger size = new AtomicInteger();
+		// set while a drain of this inbox is scheduled or running
+		final AtomicBoolean draining = new AtomicBoolean();
+	}
+
+	private final ConcurrentSocialNetwork network;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final int queueCapacity;
+	private final long maxWaitNanos;
+	private final ConcurrentHashMap<Account, Inbox> inboxes = new ConcurrentHashMap<Account, Inbox>();
+
+	private final LongAdder queued = new LongAdder();
+	private final LongAdder applied = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder overflowed = new LongAdder();
+	private final LongAdder timedOut = new LongAdder();
+	private final LogLinearHistogram lagNanos = new LogLinearHistogram();
+
+	private AutoAcceptPipeline(ConcurrentSocialNetwork network, int queueCapacity, long maxWaitNanos,
+			Executor executor, ExecutorService ownExecutor) {
+		this.network = network;
+		this.queueCapacity = queueCapacity;
+		this.maxWaitNanos = maxWaitNanos;
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	// apply requests to auto-accepting members on daemon threads of the pipeline's own
+	public static AutoAcceptPipeline attachTo(ConcurrentSocialNetwork network, int queueCapacity) {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+			Thread thread = new Thread(task, "auto-accept");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return attachTo(network, queueCapacity, DEFAULT_MAX_WAIT_NANOS, executor, executor);
+	}
+
+	// apply requests to auto-accepting members on an executor; senders wait for it, so it must not
+	// run its tasks on threads that may be sending requests themselves
+	public static AutoAcceptPipeline attachTo(ConcurrentSocialNetwork network, int queueCapacity, Executor executor) {
+		return attachTo(network, queueCapacity, DEFAULT_MAX_WAIT_NANOS, executor, null);
+	}
+
+	// the same, with senders waiting at most maxWaitNanos for their request to be taken up
+	static AutoAcceptPipeline attachTo(ConcurrentSocialNetwork network, int queueCapacity, long maxWaitNanos,
+			Executor executor) {
+		return attachTo(network, queueCapacity, maxWaitNanos, executor, null);
+	}
+
+	private static AutoAcceptPipeline attachTo(ConcurrentSocialNetwork network, int queueCapacity, long maxWaitNanos,
+			Executor executor, ExecutorService ownExecutor) {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+		AutoAcceptPipeline pipeline = new AutoAcceptPipeline(network, queueCapacity, maxWaitNanos, executor,
+				ownExecutor);
+		network.acceptAutomaticallyWith(pipeline);
+		return pipeline;
+	}
+
+	// requests waiting in queues right now
+	public long queued() {
+		return queued.sum();
+	}
+
+	// requests applied through the queues so far
+	public long applied() {
+		return applied.sum();
+	}
+
+	// batches applied so far; applied() / batches() is how many requests a batch took on average
+	public long batches() {
+		return batches.sum();
+	}
+
+	// requests that found their queue full and were applied by the sender
+	public long overflowed() {
+		return overflowed.sum();
+	}
+
+	// requests that were not taken up within maxWait and were applied by the sender
+	public long timedOut() {
+		return timedOut.sum();
+	}
+
+	// time from queueing a request to its being applied, in nanoseconds
+	public LogLinearHistogram lagNanos() {
+		return lagNanos;
+	}
+
+	// members with a queue right now, emptied or not
+	int inboxes() {
+		return inboxes.size();
+	}
+
+	// stop queueing requests; those already queued are still applied
+	@Override
+	public void close() {
+		network.acceptAutomaticallyWith(null);
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+			try {
+				ownExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// called by the network, holding no locks, for a request of me to an auto-accepting member;
+	// returns the result once applied, or null if the sender is to apply it: the member's queue
+	// is full, or the request was not taken up in time
+	FriendshipOperation.Result submit(Account me, Account other) {
+		Inbox inbox = inboxes.computeIfAbsent(other, account -> new Inbox());
+		if (inbox.size.incrementAndGet() > queueCapacity) {
+			inbox.size.decrementAndGet();
+			overflowed.increment();
+			return null;
+		}
+		Ticket ticket = new Ticket(me);
+		inbox.tickets.add(ticket);
+		queued.increment();
+		if (inbox.draining.compareAndSet(false, true)) {
+			try {
+				executor.execute(() -> drain(other, inbox));
+			} catch (RejectedExecutionException e) {
+				// the executor is shutting down: apply the queue here
+				drain(other, inbox);
+			}
+		}
+		boolean interrupted = false;
+		long deadline = ticket.queuedAt + maxWaitNanos;
+		try {
+			while (true) {
+				try {
+					long left = deadline - System.nanoTime();
+					// once a batch has taken the request it is being applied, so wait for that
+					if (left <= 0 && !ticket.taken.get())
+						left = 0;
+					return ticket.result.get(Math.max(left, 0), TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					if (ticket.taken.compareAndSet(false, true)) {
+						// the batch that polls it skips it and settles the counts
+						timedOut.increment();
+						return null;
+					}
+					// taken by a batch just now: wait for its result after all
+					deadline = Long.MAX_VALUE;
+				} catch (InterruptedException e) {
+					// the request is queued and will be applied, so keep waiting for it
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("applying a queued request failed", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// called by the network once a member has left, so its queue does not outlive it; a drain
+	// still running on the queue finishes with it, and a request sent to the member just before
+	// it left makes a new queue that the drain for it drops again (see drain)
+	void departed(Account account) {
+		inboxes.remove(account);
+	}
+
+	// apply what is queued for a member, a batch at a time, until the queue is empty
+	private void drain(Account account, Inbox inbox) {
+		List<Ticket> batch = new ArrayList<Ticket>();
+		List<Account> senders = new ArrayList<Account>();
+		while (true) {
+			Ticket ticket;
+			int polled = 0;
+			while (batch.size() < MAX_BATCH && (ticket = inbox.tickets.poll()) != null) {
+				polled++;
+				// unless its sender gave up waiting and applies it itself
+				if (ticket.taken.compareAndSet(false, true)) {
+					batch.add(ticket);
+					senders.add(ticket.sender);
+				}
+			}
+			if (polled > batch.size()) {
+				inbox.size.addAndGet(batch.size() - polled);
+				queued.add(batch.size() - polled);
+			}
+			if (polled == 0) {
+				inbox.draining.set(false);
+				// a request queued after the poll and before the flag was cleared found it set
+				if (inbox.tickets.isEmpty() || !inbox.draining.compareAndSet(false, true)) {
+					if (!network.isMember(account))
+						inboxes.remove(account, inbox);
+					return;
+				}
+				continue;
+			}
+			if (!batch.isEmpty())
+				apply(account, inbox, batch, senders);
+			batch.clear();
+			senders.clear();
+		}
+	}
+
+	// senders were checked against any rate limit before queueing, so the batch is not limited again,
+	// the log is forced once the locks are let go, and the counts are settled before any sender
+	// is woken, so a sender sees its request on disk and counted
+	private void apply(Account account, Inbox inbox, List<Ticket> batch, List<Account> senders) {
+		FriendshipOperation.Result[] results;
+		RuntimeException failure = null;
+		try {
+			results = network.performRequests(account, senders);
+			network.awaitLogged();
+		} catch (RuntimeException e) {
+			results = null;
+			failure = e;
+		}
+		inbox.size.addAndGet(-batch.size());
+		queued.add(-batch.size());
+		long now = System.nanoTime();
+		if (results != null) {
+			for (Ticket each : batch) {
+				lagNanos.record(now - each.queuedAt);
+			}
+			applied.add(batch.size());
+			batches.increment();
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			// on a failure the senders get it, and the queue goes on
+			if (results != null)
+				batch.get(i).result.complete(results[i]);
+			else
+				batch.get(i).result.completeExceptionally(failure);
+		}
+	}
+}
@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// bulk export and import of a whole friend graph, for migrating and seeding networks without
+// a join per member and a request and accept per friendship
+//
+// the file is columnar: all user names, then all flags, then all friendships, then all pending
+// requests, each column in one piece so a tool can read just the members or just the edges.
+// Friendships and requests are in compressed sparse row form over member indexes (the order
+// members are listed in), and each row is sorted and stored as varint gaps, so an index takes
+// one to three bytes instead of four. Every friendship is stored once, in the row of its member
+// with the lower index. Layout, numbers big-endian:
+//   int magic, int version, int member count
+//   names: per member, varint user name length and the UTF-8 bytes
+//   flags: one bit per member, set for members who auto-accept, in bytes of eight members
+//   friends: per member, varint count of its friends at its own index or above, then varint
+//     gaps: the first from the member's own index, every other from the friend before
+//   requests: per member, varint count of its outgoing requests, then varint gaps: the first
+//     from index 0, every other from the request before
+//   footer: long friendships, long requests, long byte size of each of the four columns,
+//     int CRC32 of everything before it, int magic
+//
+// both directions stream through a fixed buffer: besides the network itself, exporting keeps
+// one int per member id and importing one reference per member. Members are listed in id
+// order, and an import into an empty network hands out ids in that same order, so exporting
+// what was imported gives back the same file byte for byte.
+//
+// imports link friends and requests directly (like NetworkSnapshot.load), without the log,
+// metrics or events seeing them: load into an empty network, then attach those. Exporting a
+// network that other threads are changing gives each account's own state as of when it was
+// visited; pause writers for an exact export.
+public class BulkGraph {
+
+	private static final int MAGIC = 0x534e4231; // "SNB1"
+	private static final int VERSION = 1;
+	private static final int BUFFER = 1 << 20;
+	private static final int FOOTER = 6 * 8 + 4 + 4;
+
+	// what a bulk file contains, from its footer
+	public static class Summary {
+		private final int members;
+		private final long friendships;
+		private final long requests;
+
+		Summary(int members, long friendships, long requests) {
+			this.members = members;
+			this.friendships = friendships;
+			this.requests = requests;
+		}
+
+		public int members() {
+			return members;
+		}
+
+		public long friendships() {
+			return friendships;
+		}
+
+		public long requests() {
+			return requests;
+		}
+
+		@Override
+		public String toString() {
+			return members + " members, " + friendships + " friendships, " + requests + " requests";
+		}
+	}
+
+	// export the members, friendships and pending requests of a network; like NetworkSnapshot.save,
+	// the file is written next to its final name and moved into place once complete
+	public static Summary export(SocialNetwork network, Path file) throws IOException {
+		int bound = network.idBound();
+		int[] indexById = new int[bound];
+		int members = 0;
+		for (int id = 0; id < bound; id++) {
+			Account account = network.accountForId(id);
+			indexById[id] = account != null && network.isMember(account) ? members++ : -1;
+		}
+		Account[] accounts = new Account[members];
+		for (int id = 0; id < bound; id++) {
+			if (indexById[id] >= 0)
+				accounts[indexById[id]] = network.accountForId(id);
+		}
+
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		long friendships = 0;
+		long requests = 0;
+		long[] columns = new long[4];
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(members);
+
+			long start = out.position();
+			for (Account each : accounts) {
+				byte[] name = each.getUserName().getBytes(StandardCharsets.UTF_8);
+				out.putVarint(name.length);
+				out.putBytes(name);
+			}
+			columns[0] = out.position() - start;
+
+			start = out.position();
+			for (int i = 0; i < members; i += 8) {
+				int bits = 0;
+				for (int j = i; j < Math.min(members, i + 8); j++) {
+					if (accounts[j].isAutoAcceptingFriendships())
+						bits |= 1 << (j - i);
+				}
+				out.putByte((byte) bits);
+			}
+			columns[1] = out.position() - start;
+
+			start = out.position();
+			int[] row = new int[16];
+			for (int i = 0; i < members; i++) {
+				int from = i;
+				int[][] rows = { row };
+				int[] count = new int[1];
+				accounts[i].forEachFriendId(network, id -> {
+					int index = id < bound ? indexById[id] : -1;
+					if (index >= from) {
+						if (count[0] == rows[0].length)
+							rows[0] = Arrays.copyOf(rows[0], count[0] * 2);
+						rows[0][count[0]++] = index;
+					}
+					return true;
+				});
+				row = rows[0];
+				putRow(out, row, count[0], i);
+				friendships += count[0];
+			}
+			columns[2] = out.position() - start;
+
+			start = out.position();
+			for (int i = 0; i < members; i++) {
+				int count = 0;
+				for (String requestee : accounts[i].getOutgoingRequests()) {
+					int id = network.idOf(requestee);
+					int index = id >= 0 && id < bound ? indexById[id] : -1;
+					if (index >= 0) {
+						if (count == row.length)
+							row = Arrays.copyOf(row, count * 2);
+						row[count++] = index;
+					}
+				}
+				putRow(out, row, count, 0);
+				requests += count;
+			}
+			columns[3] = out.position() - start;
+
+			out.putLong(friendships);
+			out.putLong(requests);
+			for (long size : columns) {
+				out.putLong(size);
+			}
+			out.putInt(out.checksum());
+			out.putInt(MAGIC);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return new Summary(members, friendships, requests);
+	}
+
+	public static SocialNetwork load(Path file) throws IOException {
+		return load(file, new SocialNetwork());
+	}
+
+	// import a bulk file into an empty network of any mode, e.g. a CompactSocialNetwork
+	public static <T extends SocialNetwork> T load(Path file, T network) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Input in = new Input(channel, file);
+			if (in.getInt() != MAGIC)
+				throw new IOException("not a bulk graph file: " + file);
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported bulk graph version " + version + ": " + file);
+			int count = in.getInt();
+			if (count < 0 || count > channel.size())
+				throw new IOException("corrupt bulk graph: bad member count " + count + " in " + file);
+			Account[] members = new Account[count];
+			for (int i = 0; i < count; i++) {
+				String userName = new String(in.getBytes(in.getVarint()), StandardCharsets.UTF_8);
+				members[i] = network.join(userName);
+				if (members[i] == null)
+					throw new IOException("duplicate member " + userName + " in " + file);
+			}
+			for (int i = 0; i < count; i += 8) {
+				int bits = in.getByte();
+				for (int j = i; j < Math.min(count, i + 8); j++) {
+					if ((bits & 1 << (j - i)) != 0)
+						members[j].autoAcceptFriendships();
+				}
+			}
+			long friendships = 0;
+			for (int i = 0; i < count; i++) {
+				int index = i;
+				for (int n = in.getVarint(); n > 0; n--) {
+					index = in.index(index + in.getVarint(), count);
+					members[i].linkFriend(members[index]);
+					friendships++;
+				}
+			}
+			long requests = 0;
+			for (int i = 0; i < count; i++) {
+				int index = 0;
+				for (int n = in.getVarint(); n > 0; n--) {
+					index = in.index(index + in.getVarint(), count);
+					members[i].linkRequestTo(members[index]);
+					requests++;
+				}
+			}
+			if (in.getLong() != friendships || in.getLong() != requests)
+				throw new IOException("corrupt bulk graph: edge counts do not match in " + file);
+			for (int i = 0; i < 4; i++) {
+				in.getLong();
+			}
+			int checksum = in.checksum();
+			if (in.getInt() != checksum || in.getInt() != MAGIC || in.position() != channel.size())
+				throw new IOException("corrupt bulk graph: bad checksum or footer in " + file);
+		}
+		return network;
+	}
+
+	// the member and edge counts of a bulk file, read from its footer without importing it
+	public static Summary summary(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(12);
+			ByteBuffer foot = ByteBuffer.allocate(FOOTER);
+			if (channel.size() < head.capacity() + FOOTER || !readFully(channel, head, 0)
+					|| !readFully(channel, foot, channel.size() - FOOTER))
+				throw new IOException("not a bulk graph file: " + file);
+			head.flip();
+			foot.flip();
+			if (head.getInt() != MAGIC || foot.getInt(FOOTER - 4) != MAGIC)
+				throw new IOException("not a bulk graph file: " + file);
+			head.getInt();
+			return new Summary(head.getInt(), foot.getLong(), foot.getLong());
+		}
+	}
+
+	// a row of indexes, sorted, as varint gaps from base on
+	private static void putRow(Output out, int[] row, int count, int base) throws IOException {
+		Arrays.sort(row, 0, count);
+		out.putVarint(count);
+		int previous = base;
+		for (int i = 0; i < count; i++) {
+			out.putVarint(row[i] - previous);
+			previous = row[i];
+		}
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				return false;
+		}
+		return true;
+	}
+
+	// buffered writes to a file channel, checksumming everything written
+	private static class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+		private final CRC32 crc = new CRC32();
+		// the bytes of the buffer before this are in crc already
+		private int checked = 0;
+		private long flushed = 0;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			room(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			room(8);
+			buffer.putLong(value);
+		}
+
+		void putByte(byte value) throws IOException {
+			room(1);
+			buffer.put(value);
+		}
+
+		// an unsigned int in seven-bit groups, lowest first, the high bit set on all but the last
+		void putVarint(int value) throws IOException {
+			room(5);
+			while ((value & ~0x7f) != 0) {
+				buffer.put((byte) (value & 0x7f | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			for (int written = 0; written < bytes.length; ) {
+				room(1);
+				int chunk = Math.min(buffer.remaining(), bytes.length - written);
+				buffer.put(bytes, written, chunk);
+				written += chunk;
+			}
+		}
+
+		long position() {
+			return flushed + buffer.position();
+		}
+
+		// the CRC32 of everything written so far
+		int checksum() {
+			crc.update(buffer.array(), checked, buffer.position() - checked);
+			checked = buffer.position();
+			return (int) crc.getValue();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			flushed += buffer.limit();
+			buffer.clear();
+		}
+
+		private void room(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			checksum();
+			flush();
+			checked = 0;
+		}
+	}
+
+	// buffered reads from a file channel, checksumming everything read
+	private static class Input {
+		private final FileChannel channel;
+		private final Path file;
+		private final long size;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+		private final CRC32 crc = new CRC32();
+		// the bytes of the buffer before this are in crc already
+		private int checked = 0;
+		private long filled = 0;
+
+		Input(FileChannel channel, Path file) throws IOException {
+			this.channel = channel;
+			this.file = file;
+			this.size = channel.size();
+			buffer.limit(0);
+		}
+
+		int getInt() throws IOException {
+			need(4);
+			return buffer.getInt();
+		}
+
+		long getLong() throws IOException {
+			need(8);
+			return buffer.getLong();
+		}
+
+		int getByte() throws IOException {
+			need(1);
+			return buffer.get() & 0xff;
+		}
+
+		int getVarint() throws IOException {
+			need(Math.min(5, (int) Math.min(Integer.MAX_VALUE, size - position())));
+			byte[] bytes = buffer.array();
+			int at = buffer.position();
+			int value = 0;
+			for (int shift = 0; shift < 35 && at < buffer.limit(); shift += 7) {
+				int b = bytes[at++];
+				value |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					if (value < 0)
+						break;
+					buffer.position(at);
+					return value;
+				}
+			}
+			throw new IOException("corrupt bulk graph: bad varint in " + file);
+		}
+
+		byte[] getBytes(int length) throws IOException {
+			if (length > size - position())
+				throw new IOException("corrupt bulk graph: bad length " + length + " in " + file);
+			byte[] bytes = new byte[length];
+			for (int read = 0; read < length; ) {
+				need(1);
+				int chunk = Math.min(buffer.remaining(), length - read);
+				buffer.get(bytes, read, chunk);
+				read += chunk;
+			}
+			return bytes;
+		}
+
+		int index(int index, int bound) throws IOException {
+			if (index < 0 || index >= bound)
+				throw new IOException("corrupt bulk graph: member index " + index + " out of range in " + file);
+			return index;
+		}
+
+		long position() {
+			return filled - buffer.remaining();
+		}
+
+		// the CRC32 of everything read so far
+		int checksum() {
+			crc.update(buffer.array(), checked, buffer.position() - checked);
+			checked = buffer.position();
+			return (int) crc.getValue();
+		}
+
+		private void need(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			checksum();
+			buffer.compact();
+			checked = 0;
+			while (buffer.position() < bytes) {
+				int read = channel.read(buffer);
+				if (read < 0)
+					throw new IOException("corrupt bulk graph: unexpected end of " + file);
+				filled += read;
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,12 @@
+// a SocialNetwork that keeps friends and pending requests as primitive sets of member ids
+//
+// every member gets a dense int id at join, and each account stores the ids of its friends
+// and requesters in an IntHashSet instead of a HashSet<String>. getFriends, getIncomingRequests
+// and getOutgoingRequests still return Set<String>, translating ids back to user names on demand.
+public class CompactSocialNetwork extends SocialNetwork {
+
+	@Override
+	Account newAccount(String userName) {
+		return new Account(userName, () -> new InternedNameSet(this));
+	}
+}
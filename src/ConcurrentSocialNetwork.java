@@ -0,0 +1,309 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// a SocialNetwork that can be shared between request threads
+//
+// members live in a ConcurrentHashMap and every account keeps its requests and friends in
+// concurrent sets, so lookups and reads never block. Operations that change two accounts
+// hold the lock stripes of both user names, always taking the lower stripe first, so two
+// threads working on the same pair in opposite directions cannot deadlock.
+public class ConcurrentSocialNetwork extends SocialNetwork {
+
+	private final ReentrantLock[] stripes;
+
+	// where requests to auto-accepting members are queued, if anywhere
+	private volatile AutoAcceptPipeline autoAccepts = null;
+
+	public ConcurrentSocialNetwork() {
+		this(16 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public ConcurrentSocialNetwork(int concurrencyLevel) {
+		this(new ConcurrentHashMap<String, Account>(), concurrencyLevel);
+	}
+
+	// a concurrent network in a particular mode (e.g. sharded) brings its own thread-safe member map
+	ConcurrentSocialNetwork(Map<String, Account> accounts, int concurrencyLevel) {
+		super(accounts);
+		if (concurrencyLevel < 1)
+			throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+		stripes = new ReentrantLock[stripeCount(concurrencyLevel)];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	Account newAccount(String userName) {
+		return new Account(userName, ConcurrentHashMap::newKeySet);
+	}
+
+	// joining holds the stripe of the new user name, so nobody can send the new member a request
+	// before the join has been logged
+	@Override
+	Account register(String userName) {
+		if (userName == null)
+			return null;
+		ReentrantLock stripe = stripeFor(userName);
+		stripe.lock();
+		try {
+			return super.register(userName);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	// switching on auto-accept holds my stripe, so it is logged before any request it accepts
+	@Override
+	void startAutoAccepting(Account me) {
+		if (me == null)
+			return;
+		ReentrantLock mine = stripeFor(me.getUserName());
+		mine.lock();
+		try {
+			super.startAutoAccepting(me);
+		} finally {
+			mine.unlock();
+		}
+	}
+
+	// queue requests to auto-accepting members from now on (null to stop), see AutoAcceptPipeline.attachTo
+	void acceptAutomaticallyWith(AutoAcceptPipeline autoAccepts) {
+		this.autoAccepts = autoAccepts;
+	}
+
+	// a member that has left takes its auto-accept queue with it
+	@Override
+	boolean unregister(Account account) {
+		if (!super.unregister(account))
+			return false;
+		AutoAcceptPipeline autoAccepts = this.autoAccepts;
+		if (autoAccepts != null)
+			autoAccepts.departed(account);
+		return true;
+	}
+
+	@Override
+	void locked(String first, String second, Runnable operation) {
+		withPair(first, second, operation);
+	}
+
+	// a friendship operation holds the stripes of both user names, unless it is a request that
+	// an auto-accept pipeline takes over
+	@Override
+	FriendshipOperation.Result perform(FriendshipOperation.Type type, Account me, String userName) {
+		if (userName == null || me == null)
+			return FriendshipOperation.Result.UNKNOWN_MEMBER;
+		AutoAcceptPipeline autoAccepts = this.autoAccepts;
+		if (autoAccepts != null && type == FriendshipOperation.Type.REQUEST) {
+			Account other = findAccountForUserName(userName);
+			if (other != null && other.isAutoAcceptingFriendships()) {
+				FriendshipOperation.Result result = autoAccepts.submit(me, other);
+				if (result != null)
+					return result;
+			}
+		}
+		return withPair(userName, me.getUserName(), () -> super.perform(type, me, userName));
+	}
+
+	// mark each departing member as leaving under its own stripe: every pair operation involving
+	// it holds that stripe and refuses to touch a leaving account, so no other thread can add
+	// requests or friends to it from then on, and a member leaving twice at once leaves only once
+	@Override
+	Set<Account> startLeaving(Collection<Account> members) {
+		Set<Account> departing = Collections.newSetFromMap(new IdentityHashMap<Account, Boolean>());
+		for (Account each : members) {
+			if (each == null)
+				continue;
+			ReentrantLock stripe = stripeFor(each.getUserName());
+			stripe.lock();
+			try {
+				if (isActive(each)) {
+					each.startLeaving();
+					departing.add(each);
+				}
+			} finally {
+				stripe.unlock();
+			}
+		}
+		return departing;
+	}
+
+	// break off one pair under its two stripes; departing members keep their user names until
+	// nothing refers to them any more
+	@Override
+	void detach(Account me, String userName, Set<Account> departing) {
+		Account other = findAccountForUserName(userName);
+		if (other == null || departing.contains(other))
+			return;
+		withPair(userName, me.getUserName(), () -> {
+			if (isMember(other))
+				other.forget(me.getUserName());
+		});
+	}
+
+	// apply a whole batch while holding the stripes of every member it names, in ascending
+	// stripe order, so other threads see either none or all of its operations
+	@Override
+	List<FriendshipOperation.Result> performBatch(List<FriendshipOperation> operations, boolean limited) {
+		List<String> userNames = new ArrayList<String>(operations.size() * 2);
+		for (FriendshipOperation each : operations) {
+			if (each.getUserName() != null)
+				userNames.add(each.getUserName());
+			if (each.getOtherUserName() != null)
+				userNames.add(each.getOtherUserName());
+		}
+		return withStripesOf(userNames, () -> performLockedBatch(operations, limited));
+	}
+
+	// the part of a batch that runs once the stripes of its members are held
+	List<FriendshipOperation.Result> performLockedBatch(List<FriendshipOperation> operations, boolean limited) {
+		return super.performBatch(operations, limited);
+	}
+
+	// apply requests of many senders to one member (an auto-accept pipeline draining the member's
+	// queue), returning each sender's result at its position. The member's stripe is held
+	// throughout and each sender's taken in turn, so no more than two stripes are ever held. To
+	// keep waiting for stripes in ascending order only, the stripe of a sender that comes before
+	// the member's is tried but not waited for; those senders' requests are applied one pair at
+	// a time once the member's stripe is let go.
+	FriendshipOperation.Result[] performRequests(Account member, List<Account> senders) {
+		FriendshipOperation.Result[] results = new FriendshipOperation.Result[senders.size()];
+		int mine = stripeIndex(member.getUserName());
+		int deferred = 0;
+		stripes[mine].lock();
+		try {
+			for (int i = 0; i < results.length; i++) {
+				Account sender = senders.get(i);
+				int theirs = stripeIndex(sender.getUserName());
+				if (theirs == mine) {
+					results[i] = apply(FriendshipOperation.Type.REQUEST, sender, member);
+					continue;
+				}
+				if (theirs > mine)
+					stripes[theirs].lock();
+				else if (!stripes[theirs].tryLock()) {
+					deferred++;
+					continue;
+				}
+				try {
+					results[i] = apply(FriendshipOperation.Type.REQUEST, sender, member);
+				} finally {
+					stripes[theirs].unlock();
+				}
+			}
+		} finally {
+			stripes[mine].unlock();
+		}
+		for (int i = 0; deferred > 0 && i < results.length; i++) {
+			if (results[i] != null)
+				continue;
+			Account sender = senders.get(i);
+			results[i] = withPair(member.getUserName(), sender.getUserName(),
+					() -> apply(FriendshipOperation.Type.REQUEST, sender, member));
+			deferred--;
+		}
+		return results;
+	}
+
+	// only called with the stripes of both accounts held; members that are leaving take no part
+	@Override
+	FriendshipOperation.Result apply(FriendshipOperation.Type type, Account me, Account other) {
+		if (!isActive(me) || !isActive(other))
+			return FriendshipOperation.Result.UNKNOWN_MEMBER;
+		return super.apply(type, me, other);
+	}
+
+	private boolean isActive(Account account) {
+		return isMember(account) && !account.isLeaving();
+	}
+
+	// run an operation while holding the stripes of both user names, lower stripe first
+	private void withPair(String first, String second, Runnable operation) {
+		withPair(first, second, () -> {
+			operation.run();
+			return null;
+		});
+	}
+
+	<T> T withPair(String first, String second, Supplier<T> operation) {
+		int i = stripeIndex(first);
+		int j = stripeIndex(second);
+		ReentrantLock outer = stripes[Math.min(i, j)];
+		ReentrantLock inner = stripes[Math.max(i, j)];
+		outer.lock();
+		try {
+			inner.lock();
+			try {
+				return operation.get();
+			} finally {
+				inner.unlock();
+			}
+		} finally {
+			outer.unlock();
+		}
+	}
+
+	// run an operation while holding the stripes of all these user names, in ascending stripe order
+	<T> T withStripesOf(Collection<String> userNames, Supplier<T> operation) {
+		boolean[] needed = new boolean[stripes.length];
+		for (String each : userNames) {
+			needed[stripeIndex(each)] = true;
+		}
+		int locked = 0;
+		try {
+			for (; locked < stripes.length; locked++) {
+				if (needed[locked])
+					stripes[locked].lock();
+			}
+			return operation.get();
+		} finally {
+			while (--locked >= 0) {
+				if (needed[locked])
+					stripes[locked].unlock();
+			}
+		}
+	}
+
+	// run an operation while holding every stripe, so no pair operation is under way meanwhile
+	<T> T withAllStripes(Supplier<T> operation) {
+		int locked = 0;
+		try {
+			for (; locked < stripes.length; locked++) {
+				stripes[locked].lock();
+			}
+			return operation.get();
+		} finally {
+			while (--locked >= 0) {
+				stripes[locked].unlock();
+			}
+		}
+	}
+
+	private ReentrantLock stripeFor(String userName) {
+		return stripes[stripeIndex(userName)];
+	}
+
+	// the stripe of a user name; a mode may lay the stripes out differently (e.g. sharded)
+	int stripeIndex(String userName) {
+		return stripeIndex(userName, stripes.length);
+	}
+
+	// the number of stripes for a concurrency level: a power of two, so a stripe can be picked by masking the hash
+	static int stripeCount(int concurrencyLevel) {
+		return Math.max(Integer.highestOneBit(concurrencyLevel - 1) << 1, 1);
+	}
+
+	static int stripeIndex(String userName, int stripeCount) {
+		int h = userName.hashCode();
+		return (h ^ (h >>> 16)) & (stripeCount - 1);
+	}
+}
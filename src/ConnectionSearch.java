@@ -0,0 +1,253 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// "how you're connected": a shortest chain of friends between two members, by bidirectional
+// breadth-first search
+//
+// one search goes out from each end a whole level at a time, always growing the side with the
+// smaller frontier, and stops as soon as a member is reached from both sides. On a social graph
+// that touches about as much as two searches of half the distance, instead of one search of the
+// whole distance, which is what keeps queries between far apart members cheap. A query is
+// bounded by a depth (the most friendships in the chain) and a budget (the most friend list
+// entries looked at), so one about members in different corners of a huge network costs a
+// known amount and then gives up.
+//
+// visited members and their parents are kept in primitive open-addressing tables that are
+// stamped with the query number instead of being cleared, and frontiers in plain int arrays, so
+// a search allocates only while its tables grow and is reused from query to query, by one
+// thread at a time.
+class ConnectionSearch {
+
+	// friend list entries a query may look at unless told otherwise
+	static final int DEFAULT_BUDGET = 1 << 20;
+
+	// parent of the member a side started from
+	private static final int ROOT = -1;
+
+	// visited members of one side, with the member each was reached from
+	private static final class Visited {
+		int[] keys = new int[64];
+		int[] parents = new int[64];
+		int[] stamps = new int[64];
+		int size = 0;
+		int stamp = 0;
+
+		// forget every member, in O(1): entries of older stamps count as free slots
+		void reset(int stamp) {
+			if (stamp == 1)
+				Arrays.fill(stamps, 0);
+			this.stamp = stamp;
+			size = 0;
+		}
+
+		// add a member unless visited already; returns whether it was added
+		boolean add(int id, int parent) {
+			int mask = keys.length - 1;
+			int index = mix(id) & mask;
+			while (stamps[index] == stamp) {
+				if (keys[index] == id)
+					return false;
+				index = (index + 1) & mask;
+			}
+			keys[index] = id;
+			parents[index] = parent;
+			stamps[index] = stamp;
+			// keep at most half of the slots occupied so probe sequences stay short
+			if (++size * 2 > keys.length)
+				grow();
+			return true;
+		}
+
+		boolean contains(int id) {
+			return indexOf(id) >= 0;
+		}
+
+		int parentOf(int id) {
+			return parents[indexOf(id)];
+		}
+
+		private int indexOf(int id) {
+			int mask = keys.length - 1;
+			int index = mix(id) & mask;
+			while (stamps[index] == stamp) {
+				if (keys[index] == id)
+					return index;
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			int[] oldParents = parents;
+			int[] oldStamps = stamps;
+			keys = new int[oldKeys.length * 2];
+			parents = new int[oldKeys.length * 2];
+			stamps = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldStamps[i] != stamp)
+					continue;
+				int index = mix(oldKeys[i]) & mask;
+				while (stamps[index] == stamp) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				parents[index] = oldParents[i];
+				stamps[index] = stamp;
+			}
+		}
+
+		// ids are dense and sequential, so scramble them before masking
+		private static int mix(int id) {
+			int h = id * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	// one end of the search: what it has visited, and the members at its current depth
+	private static final class Side {
+		final Visited visited = new Visited();
+		int[] frontier = new int[64];
+		int frontierSize = 0;
+		int[] next = new int[64];
+		int nextSize = 0;
+		int depth = 0;
+
+		void start(int id, int stamp) {
+			visited.reset(stamp);
+			visited.add(id, ROOT);
+			frontier[0] = id;
+			frontierSize = 1;
+			nextSize = 0;
+			depth = 0;
+		}
+
+		void push(int id) {
+			if (nextSize == next.length)
+				next = Arrays.copyOf(next, next.length * 2);
+			next[nextSize++] = id;
+		}
+
+		// the next level becomes the frontier
+		void advance() {
+			int[] done = frontier;
+			frontier = next;
+			frontierSize = nextSize;
+			next = done;
+			nextSize = 0;
+			depth++;
+		}
+	}
+
+	private final FriendGraph graph;
+	private final Side forward = new Side();
+	private final Side backward = new Side();
+	private int stamp = 0;
+
+	// state of the level being expanded, for visit
+	private final IntPredicate visit = this::visit;
+	private Side growing;
+	private Side opposite;
+	private int parent;
+	private long remaining;
+	private int met;
+
+	ConnectionSearch(FriendGraph graph) {
+		this.graph = graph;
+	}
+
+	// the friend graph of a live network
+	static FriendGraph over(SocialNetwork network) {
+		return new FriendGraph() {
+			@Override
+			public int idBound() {
+				return network.idBound();
+			}
+
+			@Override
+			public int degree(int id) {
+				Account account = network.accountForId(id);
+				return account == null ? 0 : account.getFriends().size();
+			}
+
+			@Override
+			public boolean forEachFriend(int id, IntPredicate action) {
+				Account account = network.accountForId(id);
+				return account == null || account.forEachFriendId(network, action);
+			}
+		};
+	}
+
+	// the ids along a shortest chain of friends from source to target, both included, or null if
+	// there is no chain of at most maxDepth friendships or none was found within budget
+	int[] path(int source, int target, int maxDepth, long budget) {
+		if (source < 0 || target < 0)
+			return null;
+		if (source == target)
+			return new int[] { source };
+		stamp = stamp == Integer.MAX_VALUE ? 1 : stamp + 1;
+		forward.start(source, stamp);
+		backward.start(target, stamp);
+		remaining = budget;
+		while (forward.depth + backward.depth < maxDepth && forward.frontierSize > 0 && backward.frontierSize > 0) {
+			Side side = forward.frontierSize <= backward.frontierSize ? forward : backward;
+			if (expand(side, side == forward ? backward : forward))
+				return chainThrough(met);
+			if (remaining < 0)
+				return null;
+		}
+		return null;
+	}
+
+	// visit the friends of a side's frontier; returns whether the two sides met. Both sides
+	// have seen everything within their depths without meeting, so the first member reached
+	// from both is on a shortest chain.
+	private boolean expand(Side side, Side other) {
+		growing = side;
+		opposite = other;
+		met = ROOT;
+		for (int i = 0; i < side.frontierSize; i++) {
+			parent = side.frontier[i];
+			if (!graph.forEachFriend(parent, visit))
+				return met != ROOT;
+		}
+		side.advance();
+		return false;
+	}
+
+	private boolean visit(int id) {
+		if (--remaining < 0)
+			return false;
+		if (!growing.visited.add(id, parent))
+			return true;
+		if (opposite.visited.contains(id)) {
+			met = id;
+			return false;
+		}
+		growing.push(id);
+		return true;
+	}
+
+	// the chain from the forward root to the backward root through a member both sides reached
+	private int[] chainThrough(int middle) {
+		int before = 0;
+		for (int id = middle; id != ROOT; id = forward.visited.parentOf(id)) {
+			before++;
+		}
+		int after = 0;
+		for (int id = backward.visited.parentOf(middle); id != ROOT; id = backward.visited.parentOf(id)) {
+			after++;
+		}
+		int[] chain = new int[before + after];
+		int at = before;
+		for (int id = middle; id != ROOT; id = forward.visited.parentOf(id)) {
+			chain[--at] = id;
+		}
+		at = before;
+		for (int id = backward.visited.parentOf(middle); id != ROOT; id = backward.visited.parentOf(id)) {
+			chain[at++] = id;
+		}
+		return chain;
+	}
+}
@@ -0,0 +1,83 @@
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a blocked Bloom filter over the friends of a busy account, so that hasFriend can answer most
+// "no"s without probing the account's (large, rarely cached) friend set
+//
+// each name sets three bits in one 64-bit word picked by its hash, so a check reads a single
+// word; with 16 bits per friend about one "no" in a hundred still has to ask the set. Bloom
+// filters cannot forget a name: an unfriended name keeps its bits, which only costs false
+// positives, and the account builds a fresh filter once too many friends have gone (or once
+// more friends have come than the filter was sized for).
+//
+// the account changes its filter only while it is the one thread changing its friends, but
+// readers check it without any lock, so a word is set with a release and read with an acquire:
+// a reader that comes after the add returned sees the friend, as it would in the set, and one
+// racing the add may not see it yet, just as it may not see it in the set.
+final class FriendFilter {
+
+	// accounts with fewer friends than this do not get a filter, their sets are cheap to probe
+	static final int MIN_FRIENDS = 64;
+
+	private static final int BITS_PER_FRIEND = 16;
+
+	private final AtomicLongArray words;
+	// how many friends the filter was sized for, and how many it was told about since
+	private final int capacity;
+	private int added = 0;
+	private int removed = 0;
+
+	private FriendFilter(int capacity) {
+		this.capacity = capacity;
+		this.words = new AtomicLongArray(Math.max(1, (int) ((long) capacity * BITS_PER_FRIEND / 64)));
+	}
+
+	// a filter with all names in it and room for as many again
+	static FriendFilter of(Collection<String> names) {
+		FriendFilter filter = new FriendFilter(Math.max(MIN_FRIENDS, names.size() * 2));
+		for (String name : names) {
+			filter.add(name);
+		}
+		return filter;
+	}
+
+	void add(String name) {
+		long hash = hash(name);
+		int index = index(hash);
+		// only the thread changing the friends writes, so no other write can come in between
+		words.setRelease(index, words.getPlain(index) | bits(hash));
+		added++;
+	}
+
+	// false if name is certainly not in the filter
+	boolean mightContain(String name) {
+		long hash = hash(name);
+		long bits = bits(hash);
+		return (words.getAcquire(index(hash)) & bits) == bits;
+	}
+
+	// note that a name went; returns whether the filter has gone stale and should be rebuilt
+	boolean removed() {
+		return ++removed > capacity / 2;
+	}
+
+	// whether more names were added than the filter was sized for
+	boolean isFull() {
+		return added > capacity;
+	}
+
+	private static long hash(String name) {
+		long h = name.hashCode() * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	// the word, from the high half of the hash
+	private int index(long hash) {
+		return (int) (((hash >>> 32) * words.length()) >>> 32);
+	}
+
+	// three bits of the word, from the low half
+	private static long bits(long hash) {
+		return 1L << hash | 1L << (hash >>> 6) | 1L << (hash >>> 12);
+	}
+}
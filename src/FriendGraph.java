@@ -0,0 +1,18 @@
+import java.util.function.IntPredicate;
+
+// the friend graph as graph algorithms see it: members by dense id, friends as ids
+//
+// implemented over a live network (see ConnectionSearch.over) and over compact copies of one,
+// so the same search runs on either.
+interface FriendGraph {
+
+	// upper bound (exclusive) of the member ids
+	int idBound();
+
+	// the number of friends of the member with this id, 0 if nobody has it
+	int degree(int id);
+
+	// hand the ids of the friends of the member with this id to action, until it returns false;
+	// returns whether every friend was handed over
+	boolean forEachFriend(int id, IntPredicate action);
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// "people you may know": members who are not yet my friends, ranked by how many friends we have in common
+//
+// my friends are expanded from the smallest friend list to the largest, counting mutual friends
+// per candidate. Once the k-th best candidate has more mutual friends than there are friends left
+// to expand, nobody who has not shown up yet can make the top k, so the remaining (typically huge)
+// friend lists are no longer expanded; instead only the known candidates are checked against them.
+// That keeps celebrity friends from pulling their whole friend list into the candidate set.
+class FriendSuggestions {
+
+	// best first: more mutual friends, then user name
+	private static final Comparator<Map.Entry<String, int[]>> RANKING =
+			Comparator.<Map.Entry<String, int[]>>comparingInt(e -> -e.getValue()[0]).thenComparing(Map.Entry::getKey);
+
+	private final SocialNetwork network;
+
+	FriendSuggestions(SocialNetwork network) {
+		this.network = network;
+	}
+
+	List<String> suggestFor(Account me, int count) {
+		if (me == null || count <= 0)
+			return Collections.emptyList();
+
+		List<Account> friends = new ArrayList<Account>();
+		for (String friend : me.getFriends()) {
+			Account account = network.findAccountForUserName(friend);
+			if (account != null)
+				friends.add(account);
+		}
+		Account[] byDegree = friends.toArray(new Account[0]);
+		Arrays.sort(byDegree, Comparator.comparingInt(account -> account.getFriends().size()));
+
+		// mutual friend count per candidate, in a one-element array so it can be bumped in place
+		Map<String, int[]> candidates = new HashMap<String, int[]>();
+		boolean closed = false;
+		for (int i = 0; i < byDegree.length; i++) {
+			Account friend = byDegree[i];
+			int remaining = byDegree.length - i;
+			if (!closed && candidates.size() >= count && friend.getFriends().size() > candidates.size())
+				closed = kthBest(candidates, count) > remaining;
+			if (closed) {
+				countKnownCandidates(friend, candidates, kthBest(candidates, count), remaining);
+			} else {
+				for (String candidate : friend.getFriends()) {
+					if (isSuggestible(me, candidate))
+						candidates.computeIfAbsent(candidate, name -> new int[1])[0]++;
+				}
+			}
+		}
+		return top(candidates, count);
+	}
+
+	// check only the candidates we already have against this friend's friends,
+	// dropping those who can no longer reach the k-th best count
+	private void countKnownCandidates(Account friend, Map<String, int[]> candidates, int kthBest, int remaining) {
+		Iterator<Map.Entry<String, int[]>> each = candidates.entrySet().iterator();
+		while (each.hasNext()) {
+			Map.Entry<String, int[]> candidate = each.next();
+			if (candidate.getValue()[0] + remaining < kthBest) {
+				each.remove();
+			} else if (friend.hasFriend(candidate.getKey())) {
+				candidate.getValue()[0]++;
+			}
+		}
+	}
+
+	private boolean isSuggestible(Account me, String candidate) {
+		return !candidate.equals(me.getUserName())
+				&& !me.hasFriend(candidate)
+				&& !me.getIncomingRequests().contains(candidate)
+				&& !me.getOutgoingRequests().contains(candidate);
+	}
+
+	// the mutual friend count of the k-th best candidate, found with a heap of at most k counts
+	private static int kthBest(Map<String, int[]> candidates, int k) {
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(k + 1);
+		for (int[] mutual : candidates.values()) {
+			if (best.size() < k) {
+				best.add(mutual[0]);
+			} else if (mutual[0] > best.peek()) {
+				best.poll();
+				best.add(mutual[0]);
+			}
+		}
+		return best.size() < k ? 0 : best.peek();
+	}
+
+	// the best k candidates, kept in a heap whose head is the worst of them
+	private static List<String> top(Map<String, int[]> candidates, int k) {
+		PriorityQueue<Map.Entry<String, int[]>> best = new PriorityQueue<Map.Entry<String, int[]>>(k + 1, RANKING.reversed());
+		for (Map.Entry<String, int[]> candidate : candidates.entrySet()) {
+			if (best.size() < k) {
+				best.add(candidate);
+			} else if (RANKING.compare(candidate, best.peek()) < 0) {
+				best.poll();
+				best.add(candidate);
+			}
+		}
+		List<Map.Entry<String, int[]>> ranked = new ArrayList<Map.Entry<String, int[]>>(best);
+		ranked.sort(RANKING);
+		List<String> suggestions = new ArrayList<String>(ranked.size());
+		for (Map.Entry<String, int[]> candidate : ranked) {
+			suggestions.add(candidate.getKey());
+		}
+		return suggestions;
+	}
+}
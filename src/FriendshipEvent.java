@@ -0,0 +1,50 @@
+// one change to a network, as published by FriendshipEvents
+// e.g. ACCEPTED "Cecile" "Hakan" is Cecile accepting Hakan's request
+public class FriendshipEvent {
+
+	public enum Type {
+		JOINED, // userName joined
+		LEFT, // userName left, and with them all their friendships and requests
+		REQUESTED, // userName sent otherUserName a friend request
+		ACCEPTED, // userName accepted the pending request from otherUserName
+		REJECTED, // userName rejected (or let expire) the pending request from otherUserName
+		CANCELLED, // userName unfriended otherUserName
+		AUTO_ACCEPTED // userName, who accepts all requests, accepted the one otherUserName just sent
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final String userName;
+	private final String otherUserName;
+
+	FriendshipEvent(long sequence, Type type, String userName, String otherUserName) {
+		this.sequence = sequence;
+		this.type = type;
+		this.userName = userName;
+		this.otherUserName = otherUserName;
+	}
+
+	// the position of the event in the stream: events about the same member come in the order
+	// they happened, and every event gets the next number
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	// the other member, or null for JOINED and LEFT
+	public String getOtherUserName() {
+		return otherUserName;
+	}
+
+	@Override
+	public String toString() {
+		return sequence + " " + type + " " + userName + (otherUserName == null ? "" : " " + otherUserName);
+	}
+}
@@ -0,0 +1,280 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// publishes every change to a network as an ordered stream of FriendshipEvents, so services that
+// follow the network (notifications, search indexes) are told what changed instead of polling
+//
+// events go into a ring buffer of fixed capacity: a change claims the next sequence number with
+// one atomic increment and stores its event in the slot for that number, without locks, and is
+// never held up by subscribers. Each subscriber reads the ring at its own pace on the executor,
+// as far as it has requested (Flow backpressure); one that falls a whole ring behind has missed
+// events, and gets onError with FellBehindException instead of a stream with a gap.
+// Subscribers see the events from when they subscribe on. With nobody subscribed, a change
+// costs one read of a volatile field and creates nothing.
+//
+// events about the same member come in the order they happened; in a concurrent network,
+// events about unrelated members may be interleaved in any order.
+public class FriendshipEvents implements Flow.Publisher<FriendshipEvent> {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// signalled to a subscriber that was too slow to read events before they were overwritten
+	public static class FellBehindException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		FellBehindException(long missedFrom) {
+			super("missed events from sequence " + missedFrom + " on: the subscriber fell a whole buffer behind");
+		}
+	}
+
+	private final SocialNetwork network;
+	private final Executor executor;
+	private final AtomicReferenceArray<FriendshipEvent> ring;
+	private final int mask;
+
+	// the sequence the next event gets
+	private final AtomicLong next = new AtomicLong();
+
+	private volatile Subscription[] subscriptions = new Subscription[0];
+	// set once detached, so a late subscriber is completed too
+	private boolean detached = false;
+
+	private FriendshipEvents(SocialNetwork network, int capacity, Executor executor) {
+		this.network = network;
+		this.executor = executor;
+		this.ring = new AtomicReferenceArray<FriendshipEvent>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	// publish the changes of a network, delivering them on the common fork/join pool
+	public static FriendshipEvents attachTo(SocialNetwork network) {
+		return attachTo(network, DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+	}
+
+	// publish the changes of a network, keeping the last capacity events (a power of two) for
+	// subscribers to catch up on, and delivering them on an executor
+	public static FriendshipEvents attachTo(SocialNetwork network, int capacity, Executor executor) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+		FriendshipEvents events = new FriendshipEvents(network, capacity, executor);
+		network.publishEventsTo(events);
+		return events;
+	}
+
+	// stop publishing; subscribers get what was published so far, then onComplete
+	public void detach() {
+		network.publishEventsTo(null);
+		Subscription[] current;
+		synchronized (this) {
+			detached = true;
+			current = subscriptions;
+		}
+		for (Subscription each : current) {
+			each.complete();
+		}
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super FriendshipEvent> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("subscriber must not be null");
+		Subscription subscription = new Subscription(subscriber);
+		synchronized (this) {
+			// an event that claims this sequence either signals the new subscription, or was
+			// stored before it could be, in which case the subscriber's first request finds it
+			subscription.position = next.get();
+			Subscription[] current = subscriptions;
+			Subscription[] grown = new Subscription[current.length + 1];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			grown[current.length] = subscription;
+			subscriptions = grown;
+			if (detached)
+				subscription.completing = true;
+		}
+		// nothing is delivered until onSubscribe has returned, though events, requests or a
+		// detach may signal the subscription in the meantime: the signal below picks them up
+		subscriber.onSubscribe(subscription);
+		subscription.subscribed = true;
+		subscription.signal();
+	}
+
+	// number of events published so far
+	public long published() {
+		return next.get();
+	}
+
+	// called by the network for every change, holding the members it is about in concurrent modes
+	void publish(FriendshipEvent.Type type, String userName, String otherUserName) {
+		if (subscriptions.length == 0)
+			return;
+		store(next.getAndIncrement(), type, userName, otherUserName);
+	}
+
+	// stores the event of a claimed sequence and tells the subscribers
+	//
+	// a publisher that stalled between claiming and storing may come back after its slot was
+	// claimed again, a whole ring later: a slot only ever moves on to a later event, so the late
+	// event is dropped rather than stored over the later one, and subscribers behind it have
+	// fallen a whole ring behind and are told so
+	void store(long sequence, FriendshipEvent.Type type, String userName, String otherUserName) {
+		FriendshipEvent event = new FriendshipEvent(sequence, type, userName, otherUserName);
+		int slot = (int) sequence & mask;
+		FriendshipEvent current;
+		do {
+			current = ring.get(slot);
+			if (current != null && current.getSequence() > sequence)
+				break;
+		} while (!ring.compareAndSet(slot, current, event));
+		// read again, to reach whoever subscribed while the event was being claimed
+		for (Subscription each : subscriptions) {
+			each.signal();
+		}
+	}
+
+	// claims the next sequence without storing its event, as a stalled publisher would
+	long claim() {
+		return next.getAndIncrement();
+	}
+
+	static FriendshipEvent.Type typeOf(FriendshipOperation.Type type) {
+		switch (type) {
+		case REQUEST:
+			return FriendshipEvent.Type.REQUESTED;
+		case ACCEPT:
+			return FriendshipEvent.Type.ACCEPTED;
+		case REJECT:
+			return FriendshipEvent.Type.REJECTED;
+		default:
+			return FriendshipEvent.Type.CANCELLED;
+		}
+	}
+
+	private synchronized void remove(Subscription subscription) {
+		Subscription[] current = subscriptions;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == subscription) {
+				Subscription[] shrunk = new Subscription[current.length - 1];
+				System.arraycopy(current, 0, shrunk, 0, i);
+				System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+				subscriptions = shrunk;
+				return;
+			}
+		}
+	}
+
+	// one subscriber's place in the ring; only the thread that set draining reads or moves it
+	private final class Subscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super FriendshipEvent> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		// set while a drain is scheduled or running, so onNext is never called concurrently
+		private final AtomicBoolean draining = new AtomicBoolean();
+		// set once onSubscribe has returned; signals before that start no drain
+		private volatile boolean subscribed = false;
+		private volatile boolean cancelled = false;
+		private volatile boolean completing = false;
+		private volatile Throwable failure = null;
+		// the sequence of the next event to deliver
+		long position;
+
+		Subscription(Flow.Subscriber<? super FriendshipEvent> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				failure = new IllegalArgumentException("request must be positive: " + n);
+			} else {
+				long current;
+				do {
+					current = demand.get();
+				} while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			}
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			remove(this);
+		}
+
+		void complete() {
+			completing = true;
+			signal();
+		}
+
+		void signal() {
+			if (subscribed && !cancelled && draining.compareAndSet(false, true))
+				executor.execute(this::drain);
+		}
+
+		private void drain() {
+			while (true) {
+				deliver();
+				draining.set(false);
+				// a signal that came while delivering found draining set, so look again
+				if (cancelled || !hasWork() || !draining.compareAndSet(false, true))
+					return;
+			}
+		}
+
+		// whether deliver would do anything now: an event that is stored and wanted, or an end
+		private boolean hasWork() {
+			if (failure != null)
+				return true;
+			long claimed = next.get();
+			if (position >= claimed)
+				return completing;
+			if (claimed - position > ring.length())
+				return demand.get() > 0;
+			FriendshipEvent event = ring.get((int) position & mask);
+			return demand.get() > 0 && event != null && event.getSequence() >= position;
+		}
+
+		private void deliver() {
+			try {
+				while (!cancelled) {
+					if (failure != null) {
+						cancel();
+						subscriber.onError(failure);
+						return;
+					}
+					long claimed = next.get();
+					if (position >= claimed) {
+						if (completing) {
+							cancel();
+							subscriber.onComplete();
+						}
+						return;
+					}
+					if (demand.get() == 0)
+						return;
+					// the slot of this position is claimed for a later event already
+					if (claimed - position > ring.length()) {
+						failure = new FellBehindException(position);
+						continue;
+					}
+					FriendshipEvent event = ring.get((int) position & mask);
+					// claimed but not stored yet: its publisher signals once it is
+					if (event == null || event.getSequence() < position)
+						return;
+					if (event.getSequence() > position) {
+						failure = new FellBehindException(position);
+						continue;
+					}
+					position++;
+					demand.decrementAndGet();
+					subscriber.onNext(event);
+				}
+			} catch (RuntimeException e) {
+				// a subscriber that throws is broken: stop delivering to it
+				cancel();
+			}
+		}
+	}
+}
@@ -0,0 +1,412 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// an append-only log of the changes made to a SocialNetwork, for recovering everything that
+// happened since the last NetworkSnapshot after the process dies
+//
+// a network with a log attached appends a record for every join, leave, auto-accept and every
+// friendship operation that took effect, and only returns to the caller once the record is on disk.
+// The record is appended while the network still holds the members' locks, so records are in the
+// order the changes were made, but the wait for the disk comes after the locks are released
+// (awaitAppended), so other writes to the same members go on meanwhile. Records of threads that
+// append at the same time are forced to disk together (group commit): the first thread to find
+// no flush in progress writes and forces everything appended so far while the others wait for
+// it, so a busy network pays for one fsync per batch, not per change.
+//
+// record layout, big-endian: int payload length, int CRC32 of the payload, then the payload:
+// long sequence, byte record type, and one or two user names (int length + UTF-8 bytes).
+// A torn or corrupt record at the end of the file, left by a crash in the middle of a write,
+// ends the log; it is cut off when the log is reopened.
+public class FriendshipLog implements Closeable {
+
+	private static final byte JOIN = 1;
+	private static final byte LEAVE = 2;
+	private static final byte AUTO_ACCEPT = 3;
+	private static final byte REQUEST = 4;
+	private static final byte ACCEPT = 5;
+	private static final byte REJECT = 6;
+	private static final byte CANCEL = 7;
+
+	private static final int HEADER = 8;
+	private static final int MAX_PAYLOAD = 64 << 20;
+
+	private final Path file;
+	// replaced by checkpoint, under the lock and while no flush is in progress
+	private FileChannel channel;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushed = lock.newCondition();
+
+	// records appended but not yet written, swapped with a spare buffer by the flushing thread
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+
+	// the last record each thread appended and has not waited for yet
+	private final ThreadLocal<long[]> appended = ThreadLocal.withInitial(() -> new long[1]);
+
+	private long lastSequence;
+	private long durableSequence;
+	private boolean flushing = false;
+	private IOException failure = null;
+	private long forces = 0;
+
+	private FriendshipLog(Path file, FileChannel channel, long lastSequence) {
+		this.file = file;
+		this.channel = channel;
+		this.lastSequence = lastSequence;
+		this.durableSequence = lastSequence;
+	}
+
+	// recover a network from the latest snapshot (if there is one) plus the log written since,
+	// then keep logging its changes to the same log file
+	public static <T extends SocialNetwork> T recover(Path snapshot, Path logFile, T network) throws IOException {
+		long snapshotSequence = 0;
+		if (Files.exists(snapshot)) {
+			snapshotSequence = NetworkSnapshot.readLogSequence(snapshot);
+			NetworkSnapshot.load(snapshot, network);
+		}
+		long[] replayed = replay(logFile, network, snapshotSequence);
+		FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		// cut off a torn record left by a crash, so new records follow the last good one
+		channel.truncate(replayed[1]);
+		channel.position(replayed[1]);
+		FriendshipLog log = new FriendshipLog(logFile, channel, Math.max(replayed[0], snapshotSequence));
+		network.logTo(log);
+		return network;
+	}
+
+	// save a snapshot of the network and drop the log records it contains, so other threads may go
+	// on changing the network meanwhile. The records appended while the snapshot was being saved
+	// are copied to a fresh log file, which then replaces the log; appends wait for the copy, which
+	// is only as long as what came in during the save. A crash before the switch leaves the old log,
+	// whose records up to the snapshot are skipped on recovery.
+	public void checkpoint(SocialNetwork network, Path snapshot) throws IOException {
+		long sequence = lastSequence();
+		awaitDurable(sequence);
+		NetworkSnapshot.save(network, snapshot, sequence);
+		Path fresh = file.resolveSibling(file.getFileName() + ".checkpoint");
+		lock.lock();
+		try {
+			while (flushing) {
+				flushed.awaitUninterruptibly();
+			}
+			if (failure != null)
+				throw new IOException("friendship log failed earlier", failure);
+			FileChannel kept = FileChannel.open(fresh, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				long from = offsetAfter(channel, sequence);
+				long end = channel.size();
+				for (long copied = 0; from + copied < end; ) {
+					copied += channel.transferTo(from + copied, end - from - copied, kept);
+				}
+				kept.force(true);
+				kept.position(kept.size());
+				Files.move(fresh, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				kept.close();
+				Files.deleteIfExists(fresh);
+				throw e;
+			}
+			channel.close();
+			channel = kept;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// the sequence of the last record appended
+	public long lastSequence() {
+		lock.lock();
+		try {
+			return lastSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// these append a record without waiting for the disk; the network calls awaitAppended once it
+	// has released its locks
+
+	void joined(String userName) {
+		append(JOIN, userName, null);
+	}
+
+	// one record per departing member, all forced to disk together
+	void left(Collection<Account> departing) {
+		for (Account each : departing) {
+			append(LEAVE, each.getUserName(), null);
+		}
+	}
+
+	void autoAccepting(String userName) {
+		append(AUTO_ACCEPT, userName, null);
+	}
+
+	void applied(FriendshipOperation.Type type, String userName, String otherUserName) {
+		append(codeOf(type), userName, otherUserName);
+	}
+
+	// return once every record this thread has appended is on disk
+	void awaitAppended() {
+		long[] mine = appended.get();
+		long sequence = mine[0];
+		if (sequence == 0)
+			return;
+		mine[0] = 0;
+		awaitDurable(sequence);
+	}
+
+	// number of times the log has been forced to disk, for checking that commits are grouped
+	long forces() {
+		lock.lock();
+		try {
+			return forces;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			while (flushing) {
+				flushed.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+		awaitDurable(lastSequence());
+		channel.close();
+	}
+
+	// append a record for this thread to wait for later
+	private void append(byte type, String userName, String otherUserName) {
+		appended.get()[0] = record(type, userName, otherUserName);
+	}
+
+	// append a record to the pending buffer and return its sequence
+	private long record(byte type, String userName, String otherUserName) {
+		byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+		byte[] other = otherUserName == null ? null : otherUserName.getBytes(StandardCharsets.UTF_8);
+		int payload = 8 + 1 + 4 + name.length + (other == null ? 0 : 4 + other.length);
+		long sequence;
+		lock.lock();
+		try {
+			if (failure != null)
+				throw new UncheckedIOException("friendship log failed earlier", failure);
+			sequence = ++lastSequence;
+			ensureRoom(HEADER + payload);
+			int start = pending.position();
+			pending.position(start + HEADER);
+			pending.putLong(sequence);
+			pending.put(type);
+			putName(pending, name);
+			if (other != null)
+				putName(pending, other);
+			CRC32 crc = new CRC32();
+			crc.update(pending.array(), start + HEADER, payload);
+			pending.putInt(start, payload);
+			pending.putInt(start + 4, (int) crc.getValue());
+		} finally {
+			lock.unlock();
+		}
+		return sequence;
+	}
+
+	// wait until every record up to sequence is on disk, flushing for the whole group if nobody else is
+	private void awaitDurable(long sequence) {
+		lock.lock();
+		try {
+			while (durableSequence < sequence) {
+				if (failure != null)
+					throw new UncheckedIOException("friendship log failed", failure);
+				if (flushing) {
+					flushed.awaitUninterruptibly();
+					continue;
+				}
+				flushing = true;
+				ByteBuffer batch = pending;
+				pending = spare;
+				spare = batch;
+				long batchEnd = lastSequence;
+				FileChannel target = channel;
+				lock.unlock();
+				IOException error = null;
+				try {
+					batch.flip();
+					while (batch.hasRemaining()) {
+						target.write(batch);
+					}
+					target.force(false);
+				} catch (IOException e) {
+					error = e;
+				} finally {
+					batch.clear();
+					lock.lock();
+				}
+				flushing = false;
+				if (error != null) {
+					failure = error;
+				} else {
+					durableSequence = batchEnd;
+					forces++;
+				}
+				flushed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void ensureRoom(int bytes) {
+		if (pending.remaining() >= bytes)
+			return;
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+		pending.flip();
+		grown.put(pending);
+		pending = grown;
+	}
+
+	private static void putName(ByteBuffer buffer, byte[] name) {
+		buffer.putInt(name.length);
+		buffer.put(name);
+	}
+
+	// the offset of the first record after a sequence, or the end of the file if there is none;
+	// records are in sequence order
+	private static long offsetAfter(FileChannel channel, long sequence) throws IOException {
+		ByteBuffer start = ByteBuffer.allocate(HEADER + 8);
+		long end = channel.size();
+		long offset = 0;
+		while (offset < end) {
+			start.clear();
+			while (start.hasRemaining()) {
+				if (channel.read(start, offset + start.position()) < 0)
+					return end;
+			}
+			if (start.getLong(HEADER) > sequence)
+				return offset;
+			offset += HEADER + start.getInt(0);
+		}
+		return end;
+	}
+
+	// apply the records after a sequence to a network; returns the last sequence read
+	// and the file offset just past the last good record
+	static long[] replay(Path logFile, SocialNetwork network, long afterSequence) throws IOException {
+		long lastSequence = afterSequence;
+		long goodEnd = 0;
+		if (!Files.exists(logFile))
+			return new long[] { lastSequence, goodEnd };
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			ByteBuffer payload = ByteBuffer.allocate(256);
+			while (true) {
+				header.clear();
+				if (!readFully(channel, header))
+					break;
+				int length = header.getInt(0);
+				if (length < 13 || length > MAX_PAYLOAD)
+					break;
+				if (payload.capacity() < length)
+					payload = ByteBuffer.allocate(length);
+				payload.clear().limit(length);
+				if (!readFully(channel, payload))
+					break;
+				CRC32 crc = new CRC32();
+				crc.update(payload.array(), 0, length);
+				if ((int) crc.getValue() != header.getInt(4))
+					break;
+				payload.flip();
+				long sequence = payload.getLong();
+				byte type = payload.get();
+				String userName = getName(payload);
+				String otherUserName = payload.hasRemaining() ? getName(payload) : null;
+				if (sequence > afterSequence)
+					apply(network, type, userName, otherUserName);
+				lastSequence = Math.max(lastSequence, sequence);
+				goodEnd = channel.position();
+			}
+		}
+		return new long[] { lastSequence, goodEnd };
+	}
+
+	private static void apply(SocialNetwork network, byte type, String userName, String otherUserName) {
+		switch (type) {
+		case JOIN:
+			network.join(userName);
+			break;
+		case LEAVE:
+			Account leaving = network.findAccountForUserName(userName);
+			if (leaving != null)
+				network.leave(leaving);
+			break;
+		case AUTO_ACCEPT:
+			Account accepting = network.findAccountForUserName(userName);
+			if (accepting != null)
+				network.autoAcceptFriendshipsTo(accepting);
+			break;
+		default:
+			network.apply(typeOf(type), network.findAccountForUserName(userName),
+					network.findAccountForUserName(otherUserName));
+		}
+	}
+
+	private static byte codeOf(FriendshipOperation.Type type) {
+		switch (type) {
+		case REQUEST:
+			return REQUEST;
+		case ACCEPT:
+			return ACCEPT;
+		case REJECT:
+			return REJECT;
+		default:
+			return CANCEL;
+		}
+	}
+
+	private static FriendshipOperation.Type typeOf(byte code) {
+		switch (code) {
+		case REQUEST:
+			return FriendshipOperation.Type.REQUEST;
+		case ACCEPT:
+			return FriendshipOperation.Type.ACCEPT;
+		case REJECT:
+			return FriendshipOperation.Type.REJECT;
+		case CANCEL:
+			return FriendshipOperation.Type.CANCEL;
+		default:
+			throw new IllegalArgumentException("unknown log record type " + code);
+		}
+	}
+
+	private static String getName(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		String name = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return name;
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,63 @@
+// one friendship event of a member towards another member, for applying in batches
+// e.g. FriendshipOperation.accept("Cecile", "Hakan") is Cecile accepting Hakan's request
+public class FriendshipOperation {
+
+	public enum Type {
+		REQUEST, // userName sends a friend request to otherUserName
+		ACCEPT, // userName accepts the pending request from otherUserName
+		REJECT, // userName rejects the pending request from otherUserName
+		CANCEL // userName unfriends otherUserName
+	}
+
+	public enum Result {
+		APPLIED, // the operation changed the requests or friends of the two members
+		NO_EFFECT, // nothing to do, e.g. accepting a request that is not pending
+		UNKNOWN_MEMBER, // one of the two user names is not a member
+		THROTTLED // a request refused because its sender sent too many lately, see RequestRateLimiter
+	}
+
+	private final Type type;
+	private final String userName;
+	private final String otherUserName;
+
+	public FriendshipOperation(Type type, String userName, String otherUserName) {
+		if (type == null)
+			throw new IllegalArgumentException("type must not be null");
+		this.type = type;
+		this.userName = userName;
+		this.otherUserName = otherUserName;
+	}
+
+	public static FriendshipOperation request(String userName, String otherUserName) {
+		return new FriendshipOperation(Type.REQUEST, userName, otherUserName);
+	}
+
+	public static FriendshipOperation accept(String userName, String otherUserName) {
+		return new FriendshipOperation(Type.ACCEPT, userName, otherUserName);
+	}
+
+	public static FriendshipOperation reject(String userName, String otherUserName) {
+		return new FriendshipOperation(Type.REJECT, userName, otherUserName);
+	}
+
+	public static FriendshipOperation cancel(String userName, String otherUserName) {
+		return new FriendshipOperation(Type.CANCEL, userName, otherUserName);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getOtherUserName() {
+		return otherUserName;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + userName + " -> " + otherUserName;
+	}
+}
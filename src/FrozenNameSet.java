@@ -0,0 +1,102 @@
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// an immutable set of user names in one open-addressing array, copied from an account's set
+// when a network version is published
+//
+// the table is kept at most half full so lookups stay a probe or two, and keeps the hash of each
+// name next to it so a probe only follows the name's reference when the hashes match; being
+// immutable and held in final fields, it can be read from any thread without locks once the
+// version holding it is.
+final class FrozenNameSet extends AbstractSet<String> {
+
+	static final FrozenNameSet EMPTY = new FrozenNameSet(new String[0], new int[0], 0);
+
+	private final String[] slots;
+	private final int[] hashes;
+	private final int size;
+
+	private FrozenNameSet(String[] slots, int[] hashes, int size) {
+		this.slots = slots;
+		this.hashes = hashes;
+		this.size = size;
+	}
+
+	// a copy of names, which no other thread may be changing meanwhile
+	static FrozenNameSet of(Collection<String> names) {
+		if (names.isEmpty())
+			return EMPTY;
+		String[] slots = new String[Integer.highestOneBit(Math.max(names.size(), 1) * 2 - 1) << 1];
+		int[] hashes = new int[slots.length];
+		int mask = slots.length - 1;
+		int size = 0;
+		for (String name : names) {
+			int hash = mix(name.hashCode());
+			int index = hash & mask;
+			while (slots[index] != null && !(hashes[index] == hash && slots[index].equals(name))) {
+				index = (index + 1) & mask;
+			}
+			if (slots[index] == null) {
+				slots[index] = name;
+				hashes[index] = hash;
+				size++;
+			}
+		}
+		return new FrozenNameSet(slots, hashes, size);
+	}
+
+	@Override
+	public boolean contains(Object name) {
+		if (!(name instanceof String) || size == 0)
+			return false;
+		int hash = mix(name.hashCode());
+		int mask = slots.length - 1;
+		int index = hash & mask;
+		while (slots[index] != null) {
+			if (hashes[index] == hash && slots[index].equals(name))
+				return true;
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int index = advance(0);
+
+			private int advance(int from) {
+				while (from < slots.length && slots[from] == null) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return index < slots.length;
+			}
+
+			@Override
+			public String next() {
+				if (index >= slots.length)
+					throw new NoSuchElementException();
+				String name = slots[index];
+				index = advance(index + 1);
+				return name;
+			}
+		};
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
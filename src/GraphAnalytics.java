@@ -0,0 +1,173 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+// a whole-graph report of a network for offline reporting: its connected components
+// (communities of members linked by chains of friends), their sizes, and the degree distribution
+//
+// the report is computed from a GraphSnapshot, so the network carries on changing meanwhile and
+// nothing is locked. Components come from a concurrent union-find: every friendship links the
+// roots of its two ends with one compare-and-set, always hanging the root with the higher id
+// under the lower, so links only ever point down and never form a cycle, and walks halve the
+// paths they take. Friendships, labelling and the degree pass are all split between the
+// workers of a fork/join pool, so a report takes time in proportion to friendships per core.
+public class GraphAnalytics {
+
+	private final SocialNetwork network;
+	private final GraphSnapshot snapshot;
+
+	// the root id of each member's component, -1 for ids without a member
+	private final int[] component;
+
+	// the number of members in each component, by root id
+	private final int[] componentSize;
+
+	private final int members;
+	private final int components;
+	private final int largestComponent;
+	private final int isolatedMembers;
+	private final LogLinearHistogram degrees;
+	private final LogLinearHistogram componentSizes;
+
+	private GraphAnalytics(SocialNetwork network, GraphSnapshot snapshot, ForkJoinPool pool) {
+		this.network = network;
+		this.snapshot = snapshot;
+		int bound = snapshot.idBound();
+		AtomicIntegerArray parent = new AtomicIntegerArray(bound);
+		int[] friendIds = snapshot.friendIds();
+		pool.submit(() -> {
+			IntStream.range(0, bound).parallel().forEach(id -> parent.set(id, id));
+			IntStream.range(0, bound).parallel().forEach(id -> {
+				for (int i = snapshot.firstFriend(id), end = snapshot.firstFriend(id + 1); i < end; i++) {
+					// a friend who had left when copied links nobody
+					if (snapshot.userNameOf(friendIds[i]) != null)
+						union(parent, id, friendIds[i]);
+				}
+			});
+		}).join();
+
+		component = new int[bound];
+		degrees = pool.submit(() -> IntStream.range(0, bound).parallel().collect(LogLinearHistogram::new, (histogram, id) -> {
+			if (snapshot.userNameOf(id) == null) {
+				component[id] = -1;
+			} else {
+				component[id] = find(parent, id);
+				histogram.record(snapshot.degree(id));
+			}
+		}, LogLinearHistogram::add)).join();
+
+		componentSize = new int[bound];
+		int members = 0;
+		for (int id = 0; id < bound; id++) {
+			if (component[id] >= 0) {
+				componentSize[component[id]]++;
+				members++;
+			}
+		}
+		this.members = members;
+		componentSizes = new LogLinearHistogram();
+		int components = 0;
+		int largest = 0;
+		int isolated = 0;
+		for (int id = 0; id < bound; id++) {
+			int size = componentSize[id];
+			if (size == 0)
+				continue;
+			components++;
+			largest = Math.max(largest, size);
+			if (size == 1)
+				isolated++;
+			componentSizes.record(size);
+		}
+		this.components = components;
+		this.largestComponent = largest;
+		this.isolatedMembers = isolated;
+	}
+
+	// analyse a network on the common fork/join pool
+	public static GraphAnalytics of(SocialNetwork network) {
+		return of(network, ForkJoinPool.commonPool());
+	}
+
+	// analyse a network on the workers of a pool, e.g. new ForkJoinPool(cores) to choose how many
+	public static GraphAnalytics of(SocialNetwork network, ForkJoinPool pool) {
+		return new GraphAnalytics(network, GraphSnapshot.of(network, pool), pool);
+	}
+
+	public int members() {
+		return members;
+	}
+
+	// friendships as seen from each side, halved: exact unless the network changed while copied
+	public long friendships() {
+		return snapshot.friendListEntries() / 2;
+	}
+
+	public int components() {
+		return components;
+	}
+
+	public int largestComponent() {
+		return largestComponent;
+	}
+
+	// members without any friends, each a component of their own
+	public int isolatedMembers() {
+		return isolatedMembers;
+	}
+
+	// members per component, over all components
+	public LogLinearHistogram componentSizes() {
+		return componentSizes;
+	}
+
+	// friends per member, over all members
+	public LogLinearHistogram degrees() {
+		return degrees;
+	}
+
+	// the number of members in the component of the member with userName, 0 if not a member then
+	public int communitySizeOf(String userName) {
+		int id = idOf(userName);
+		return id < 0 ? 0 : componentSize[component[id]];
+	}
+
+	// whether two members were linked by a chain of friends
+	public boolean connected(String userName, String otherUserName) {
+		int id = idOf(userName);
+		int other = idOf(otherUserName);
+		return id >= 0 && other >= 0 && component[id] == component[other];
+	}
+
+	// the snapshot id of a member, or -1 if it was not a member when copied
+	private int idOf(String userName) {
+		int id = network.idOf(userName);
+		return id >= 0 && id < component.length && component[id] >= 0 && userName.equals(snapshot.userNameOf(id)) ? id : -1;
+	}
+
+	private static int find(AtomicIntegerArray parent, int id) {
+		while (true) {
+			int up = parent.get(id);
+			if (up == id)
+				return id;
+			int upper = parent.get(up);
+			// path halving: skip a level on the way, for whoever walks here next
+			if (up != upper)
+				parent.compareAndSet(id, up, upper);
+			id = upper;
+		}
+	}
+
+	private static void union(AtomicIntegerArray parent, int first, int second) {
+		while (true) {
+			int a = find(parent, first);
+			int b = find(parent, second);
+			if (a == b)
+				return;
+			int high = Math.max(a, b);
+			// fails if high stopped being a root meanwhile; then start over from the new roots
+			if (parent.compareAndSet(high, high, Math.min(a, b)))
+				return;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+// a copy of the friend graph of a network in two int arrays, for whole-graph jobs
+//
+// members keep their dense ids; the friends of member id are friends[offsets[id]] up to
+// friends[offsets[id + 1]], in compressed sparse row form, so a pass over every friendship is
+// a pass over one array. Copying reads the accounts without taking any locks, one member at a
+// time and in parallel, so it never holds up the network: in a network other threads are
+// changing, each member's friends are as of when it was copied (like NetworkSnapshot), and a
+// friendship made or cancelled meanwhile may show on one side only. Ids of members who had
+// left when they were reached have a null user name and no friends.
+class GraphSnapshot implements FriendGraph {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final String[] userNames;
+	private final int[] offsets;
+	private final int[] friends;
+
+	private GraphSnapshot(String[] userNames, int[] offsets, int[] friends) {
+		this.userNames = userNames;
+		this.offsets = offsets;
+		this.friends = friends;
+	}
+
+	// copy the friend graph of a network on the threads of a pool
+	static GraphSnapshot of(SocialNetwork network, ForkJoinPool pool) {
+		int bound = network.idBound();
+		String[] userNames = new String[bound];
+		int[][] lists = new int[bound][];
+		pool.submit(() -> IntStream.range(0, bound).parallel().forEach(id -> {
+			Account account = network.accountForId(id);
+			if (account == null || !network.isMember(account)) {
+				lists[id] = EMPTY;
+				return;
+			}
+			userNames[id] = account.getUserName();
+			lists[id] = friendIds(network, account, bound);
+		})).join();
+		int[] offsets = new int[bound + 1];
+		for (int id = 0; id < bound; id++) {
+			offsets[id + 1] = offsets[id] + lists[id].length;
+		}
+		int[] friends = new int[offsets[bound]];
+		pool.submit(() -> IntStream.range(0, bound).parallel().forEach(id -> {
+			System.arraycopy(lists[id], 0, friends, offsets[id], lists[id].length);
+			lists[id] = null;
+		})).join();
+		return new GraphSnapshot(userNames, offsets, friends);
+	}
+
+	// the ids of an account's friends, leaving out members who joined after the copy started
+	private static int[] friendIds(SocialNetwork network, Account account, int bound) {
+		int[][] ids = { new int[account.getFriends().size()] };
+		int[] count = new int[1];
+		account.forEachFriendId(network, id -> {
+			if (id >= bound)
+				return true;
+			if (count[0] == ids[0].length)
+				ids[0] = Arrays.copyOf(ids[0], Math.max(4, count[0] * 2));
+			ids[0][count[0]++] = id;
+			return true;
+		});
+		return count[0] == ids[0].length ? ids[0] : Arrays.copyOf(ids[0], count[0]);
+	}
+
+	@Override
+	public int idBound() {
+		return userNames.length;
+	}
+
+	@Override
+	public int degree(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	@Override
+	public boolean forEachFriend(int id, IntPredicate action) {
+		for (int i = offsets[id], end = offsets[id + 1]; i < end; i++) {
+			if (!action.test(friends[i]))
+				return false;
+		}
+		return true;
+	}
+
+	// the user name of the member with an id when copied, or null if nobody had it
+	String userNameOf(int id) {
+		return userNames[id];
+	}
+
+	// the number of friend list entries: every friendship counts once on each side
+	int friendListEntries() {
+		return friends.length;
+	}
+
+	// the friend ids of member id are friendIds()[firstFriend(id)] up to friendIds()[firstFriend(id + 1)]
+	int firstFriend(int id) {
+		return offsets[id];
+	}
+
+	int[] friendIds() {
+		return friends;
+	}
+}
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+// a set of non-negative ints stored in one open-addressing int array,
+// with no boxing and no per-entry objects
+//
+// removed slots are left as tombstones until the next rehash, so removing
+// while walking the slots never moves an entry that has not been visited yet
+class IntHashSet {
+
+	static final int FREE = -1;
+	static final int REMOVED = -2;
+
+	private static final int MIN_CAPACITY = 4;
+
+	// allocated on first add, since most accounts have few or no pending requests
+	private int[] slots = null;
+	private int size = 0;
+	private int used = 0; // entries plus tombstones
+
+	public boolean add(int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative value: " + value);
+		if (slots == null)
+			slots = newSlots(MIN_CAPACITY);
+		int mask = slots.length - 1;
+		int index = mix(value) & mask;
+		int tombstone = -1;
+		while (slots[index] != FREE) {
+			if (slots[index] == value)
+				return false;
+			if (slots[index] == REMOVED && tombstone < 0)
+				tombstone = index;
+			index = (index + 1) & mask;
+		}
+		if (tombstone >= 0) {
+			slots[tombstone] = value;
+		} else {
+			slots[index] = value;
+			used++;
+		}
+		size++;
+		// keep at most 3/4 of the slots occupied so probe sequences stay short
+		if (used * 4 > slots.length * 3)
+			rehash(size * 2 > slots.length / 2 ? slots.length * 2 : slots.length);
+		return true;
+	}
+
+	public boolean remove(int value) {
+		int index = indexOf(value);
+		if (index < 0)
+			return false;
+		slots[index] = REMOVED;
+		size--;
+		return true;
+	}
+
+	public boolean contains(int value) {
+		return indexOf(value) >= 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		slots = null;
+		size = 0;
+		used = 0;
+	}
+
+	// the raw slots for walking the entries: every value >= 0 is an entry.
+	// The array is replaced, not changed in place, when the set grows.
+	int[] slots() {
+		return slots == null ? new int[0] : slots;
+	}
+
+	private int indexOf(int value) {
+		if (slots == null || value < 0)
+			return -1;
+		int mask = slots.length - 1;
+		int index = mix(value) & mask;
+		while (slots[index] != FREE) {
+			if (slots[index] == value)
+				return index;
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		int[] old = slots;
+		slots = newSlots(capacity);
+		used = 0;
+		int mask = capacity - 1;
+		for (int value : old) {
+			if (value < 0)
+				continue;
+			int index = mix(value) & mask;
+			while (slots[index] != FREE) {
+				index = (index + 1) & mask;
+			}
+			slots[index] = value;
+			used++;
+		}
+	}
+
+	private static int[] newSlots(int capacity) {
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, FREE);
+		return slots;
+	}
+
+	// dense ids are sequential, so scramble them before masking
+	private static int mix(int value) {
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,109 @@
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+// a set of member user names stored as the members' dense ids
+//
+// names are translated to ids on the way in and back to names lazily while iterating, so the
+// set behaves like any other Set<String>. Only current members of the network can be added;
+// any other name is ignored, since it has no id.
+class InternedNameSet extends AbstractSet<String> {
+
+	private final SocialNetwork network;
+	private final IntHashSet ids = new IntHashSet();
+
+	InternedNameSet(SocialNetwork network) {
+		this.network = network;
+	}
+
+	@Override
+	public boolean add(String userName) {
+		int id = network.idOf(userName);
+		return id >= 0 && ids.add(id);
+	}
+
+	@Override
+	public boolean remove(Object userName) {
+		if (!(userName instanceof String))
+			return false;
+		int id = network.idOf((String) userName);
+		return id >= 0 && ids.remove(id);
+	}
+
+	@Override
+	public boolean contains(Object userName) {
+		if (!(userName instanceof String))
+			return false;
+		int id = network.idOf((String) userName);
+		return id >= 0 && ids.contains(id);
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return ids.size() == 0;
+	}
+
+	@Override
+	public void clear() {
+		ids.clear();
+	}
+
+	// add the member with an id, already known to be a member, without looking up their name
+	boolean addId(int id) {
+		return ids.add(id);
+	}
+
+	boolean containsId(int id) {
+		return ids.contains(id);
+	}
+
+	// hand the ids in the set to action, until it returns false; returns whether all were handed over
+	boolean forEachId(IntPredicate action) {
+		for (int id : ids.slots()) {
+			if (id >= 0 && !action.test(id))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private final int[] slots = ids.slots();
+			private int index = advance(0);
+			private int last = -1;
+
+			public boolean hasNext() {
+				return index < slots.length;
+			}
+
+			public String next() {
+				if (index >= slots.length)
+					throw new NoSuchElementException();
+				last = slots[index];
+				index = advance(index + 1);
+				return network.userNameOf(last);
+			}
+
+			public void remove() {
+				if (last < 0)
+					throw new IllegalStateException();
+				ids.remove(last);
+				last = -1;
+			}
+
+			private int advance(int from) {
+				while (from < slots.length && slots[from] < 0) {
+					from++;
+				}
+				return from;
+			}
+		};
+	}
+}
@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// a histogram of non-negative values with a fixed relative precision, in the style of HdrHistogram
+//
+// values below 32 get a bucket each; above that, every power of two is split into 32 equal
+// buckets, so a value is known to within about 3% however large it is, and the whole long
+// range fits in under 2,000 counters. Recording is a few shifts and one atomic increment, safe
+// from any number of threads without locking.
+public class LogLinearHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.getAndIncrement(bucketOf(value));
+		total.increment();
+		sum.add(value);
+		long seen = max.get();
+		while (value > seen && !max.compareAndSet(seen, value)) {
+			seen = max.get();
+		}
+	}
+
+	// add everything recorded in another histogram to this one, e.g. merging per-thread histograms
+	public void add(LogLinearHistogram other) {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			long count = other.counts.get(bucket);
+			if (count != 0)
+				counts.getAndAdd(bucket, count);
+		}
+		total.add(other.total.sum());
+		sum.add(other.sum.sum());
+		long otherMax = other.max.get();
+		long seen = max.get();
+		while (otherMax > seen && !max.compareAndSet(seen, otherMax)) {
+			seen = max.get();
+		}
+	}
+
+	public long count() {
+		return total.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long count = count();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	// the value below which the given fraction of recorded values fall, as the highest value of
+	// its bucket (never more than the largest value recorded); 0 if nothing was recorded
+	public long percentile(double fraction) {
+		long count = count();
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank)
+				return Math.min(highestValueIn(bucket), max());
+		}
+		return max();
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return lowest + (width - 1);
+	}
+}
@@ -0,0 +1,147 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// dense integer ids for the members of a network
+//
+// an id is handed out when a member joins and recycled when they leave, so ids stay close
+// to the member count and per-member data can be kept in plain arrays indexed by id
+//
+// handing out and giving back ids takes no lock: new ids come from a counter, the accounts
+// live in fixed-size chunks that never move once made, and given-back ids wait in a lock-free
+// queue. An id is only handed out again once it has been free for a while (a second by
+// default), so a reader that looked up an id just before its member left (a connection search,
+// a snapshot) does not find a different member under it meanwhile.
+//
+// the ids of one shard of a network (see ShardedSocialNetwork) are shard, shard + shardCount,
+// shard + 2 * shardCount, ..., so every shard hands out ids on its own and the ids of all shards
+// together are still dense.
+class MemberIds {
+
+	static final long QUARANTINE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	// chunks of accounts by id; the directory is only replaced (under this) when it needs to grow
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private volatile AtomicReferenceArray<Account>[] chunks = new AtomicReferenceArray[16];
+
+	// ids given back by members who left, oldest first
+	private final ConcurrentLinkedQueue<Freed> free = new ConcurrentLinkedQueue<Freed>();
+
+	// one past the highest id handed out so far
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final long quarantineNanos;
+	// the ids are (slot << shardBits) | shard, where slot is the index in the chunks
+	private final int shard;
+	private final int shardBits;
+
+	MemberIds() {
+		this(QUARANTINE_NANOS);
+	}
+
+	MemberIds(long quarantineNanos) {
+		this(quarantineNanos, 0, 1);
+	}
+
+	// the ids of one shard out of shardCount, a power of two
+	MemberIds(long quarantineNanos, int shard, int shardCount) {
+		if (Integer.bitCount(shardCount) != 1 || shard < 0 || shard >= shardCount)
+			throw new IllegalArgumentException("not shard " + shard + " of " + shardCount);
+		this.quarantineNanos = quarantineNanos;
+		this.shard = shard;
+		this.shardBits = Integer.numberOfTrailingZeros(shardCount);
+	}
+
+	int register(Account account) {
+		int slot = reusable();
+		if (slot < 0)
+			slot = next.getAndIncrement();
+		int id = slot << shardBits | shard;
+		account.setId(id);
+		// volatile write, so readers of get() see the account with its id set
+		chunk(slot).set(slot & (CHUNK_SIZE - 1), account);
+		return id;
+	}
+
+	void release(Account account) {
+		int slot = slotOf(account.getId());
+		AtomicReferenceArray<Account> chunk = chunkOrNull(slot);
+		if (chunk == null || !chunk.compareAndSet(slot & (CHUNK_SIZE - 1), account, null))
+			return;
+		free.add(new Freed(slot, System.nanoTime()));
+	}
+
+	// the member with this id, or null if nobody has it
+	Account get(int id) {
+		int slot = slotOf(id);
+		AtomicReferenceArray<Account> chunk = chunkOrNull(slot);
+		return chunk == null ? null : chunk.get(slot & (CHUNK_SIZE - 1));
+	}
+
+	// upper bound (exclusive) of the ids in use, for sizing arrays indexed by id
+	int bound() {
+		return next.get() << shardBits;
+	}
+
+	// where an id is kept, or -1 if it is not one of this shard's
+	private int slotOf(int id) {
+		return id >= 0 && (id & ((1 << shardBits) - 1)) == shard ? id >>> shardBits : -1;
+	}
+
+	// the slot of the oldest given-back id if it has been free long enough, else -1
+	private int reusable() {
+		Freed oldest = free.peek();
+		if (oldest == null || System.nanoTime() - oldest.at < quarantineNanos)
+			return -1;
+		Freed taken = free.poll();
+		if (taken == null)
+			return -1;
+		// another thread took the oldest first and this one is younger: back it goes
+		if (System.nanoTime() - taken.at < quarantineNanos) {
+			free.add(taken);
+			return -1;
+		}
+		return taken.slot;
+	}
+
+	private AtomicReferenceArray<Account> chunkOrNull(int slot) {
+		AtomicReferenceArray<Account>[] current = chunks;
+		int index = slot >>> CHUNK_BITS;
+		return slot >= 0 && index < current.length ? current[index] : null;
+	}
+
+	private AtomicReferenceArray<Account> chunk(int slot) {
+		AtomicReferenceArray<Account> chunk = chunkOrNull(slot);
+		return chunk != null ? chunk : addChunk(slot >>> CHUNK_BITS);
+	}
+
+	// only taken once per CHUNK_SIZE new ids
+	private synchronized AtomicReferenceArray<Account> addChunk(int index) {
+		AtomicReferenceArray<Account>[] current = chunks;
+		if (index >= current.length) {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			AtomicReferenceArray<Account>[] grown = new AtomicReferenceArray[Math.max(current.length * 2, index + 1)];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			current = grown;
+		}
+		if (current[index] == null)
+			current[index] = new AtomicReferenceArray<Account>(CHUNK_SIZE);
+		// volatile write, so readers see the new chunk
+		chunks = current;
+		return current[index];
+	}
+
+	private static final class Freed {
+		final int slot;
+		final long at;
+
+		Freed(int slot, long at) {
+			this.slot = slot;
+			this.at = at;
+		}
+	}
+}
@@ -0,0 +1,495 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// finds members by the start of their user name, exactly or within a few typing mistakes, for a
+// "find people" box that asks again on every keystroke
+//
+// the user names are kept in a ternary search tree that the network updates as members join and
+// leave. Its nodes are columns of a few parallel arrays (a split character and three child
+// links each), and a branch leading to a single name ends in that name instead of a node per
+// remaining character, so the tree has under two nodes per member and takes some thirty bytes
+// a member, spare array room included, on top of the names the accounts hold anyway. Nodes of
+// names that left are reused when the same prefixes come back, and the tree is rebuilt
+// (balanced) once as many names have left as there are members, so it never grows beyond a
+// small multiple of the members.
+//
+// results put the searching member's friends first, then everybody else: prefix matches in
+// alphabetical order, fuzzy matches by edit distance and then alphabetically. A query walks only
+// the branches that can still match, and stops as soon as it has enough results, so its cost
+// depends on the query and the limit, not on how many members there are. Searches share a read
+// lock, while a join or leave takes the write lock for one insert or removal.
+public class MemberSearch {
+
+	public static final int MAX_EDITS = 3;
+
+	private static final int NONE = -1;
+
+	private final SocialNetwork network;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// node n splits on split[n]: names with a smaller character at its depth are under lo[n],
+	// larger under hi[n], and the same under eq[n] (one character deeper)
+	private char[] split = new char[1024];
+	private int[] lo = new int[1024];
+	private int[] eq = new int[1024];
+	private int[] hi = new int[1024];
+	// the name that ends at node n, or the one name under it while eq[n] is NONE
+	private String[] names = new String[1024];
+	private int nodes = 0;
+	private int root = NONE;
+
+	private int size = 0;
+	private int removedSinceRebuild = 0;
+
+	private MemberSearch(SocialNetwork network) {
+		this.network = network;
+	}
+
+	// index the members of a network, and keep the index up to date as members join and leave
+	public static MemberSearch attachTo(SocialNetwork network) {
+		MemberSearch search = new MemberSearch(network);
+		network.indexMembersWith(search);
+		for (Account each : network.accounts().toArray(new Account[0])) {
+			search.add(each.getUserName());
+			// left or leaving while being added: take it out again, unless the name was taken over
+			search.lock.writeLock().lock();
+			try {
+				Account current = network.findAccountForUserName(each.getUserName());
+				if (current == null || current == each && each.isLeaving())
+					search.removeLocked(each.getUserName());
+			} finally {
+				search.lock.writeLock().unlock();
+			}
+		}
+		return search;
+	}
+
+	// stop keeping the index up to date
+	public void detach() {
+		network.indexMembersWith(null);
+	}
+
+	// number of members indexed
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// up to limit members whose user name starts with prefix, me's friends first, leaving out me
+	// (who may be null, to search as nobody in particular)
+	public List<String> prefix(Account me, String prefix, int limit) {
+		if (limit <= 0)
+			return Collections.emptyList();
+		List<String> found = new ArrayList<String>();
+		if (me != null) {
+			for (String friend : me.getFriends()) {
+				if (friend.startsWith(prefix))
+					found.add(friend);
+			}
+			Collections.sort(found);
+			if (found.size() >= limit)
+				return found.subList(0, limit);
+		}
+		lock.readLock().lock();
+		try {
+			collectPrefix(me, prefix, limit, found);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	// up to limit members whose user name starts with something at most maxEdits insertions,
+	// deletions or substitutions away from query, me's friends first, each group closest first
+	public List<String> fuzzy(Account me, String query, int maxEdits, int limit) {
+		if (maxEdits < 0 || maxEdits > MAX_EDITS)
+			throw new IllegalArgumentException("maxEdits must be 0 to " + MAX_EDITS + ": " + maxEdits);
+		if (limit <= 0)
+			return Collections.emptyList();
+		List<String> found = new ArrayList<String>();
+		if (me != null) {
+			List<List<String>> friends = buckets(maxEdits);
+			for (String friend : me.getFriends()) {
+				int distance = prefixDistance(query, friend, maxEdits);
+				if (distance <= maxEdits)
+					friends.get(distance).add(friend);
+			}
+			for (List<String> each : friends) {
+				Collections.sort(each);
+				found.addAll(each);
+			}
+			if (found.size() >= limit)
+				return found.subList(0, limit);
+		}
+		Fuzzy walk = new Fuzzy(me, query, maxEdits, limit - found.size());
+		lock.readLock().lock();
+		try {
+			if (root != NONE) {
+				int[] row = walk.row(0);
+				for (int i = 0; i < row.length; i++) {
+					row[i] = i;
+				}
+				walk.visit(root, 0, query.length());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		for (List<String> each : walk.found) {
+			found.addAll(each);
+		}
+		return found.size() > limit ? found.subList(0, limit) : found;
+	}
+
+	// called by the network for every member who joins
+	void joined(String userName) {
+		add(userName);
+	}
+
+	// called by the network for every member who leaves, while the name is still theirs
+	void left(String userName) {
+		lock.writeLock().lock();
+		try {
+			removeLocked(userName);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void add(String userName) {
+		if (userName.isEmpty())
+			return;
+		lock.writeLock().lock();
+		try {
+			if (insert(userName))
+				size++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void removeLocked(String userName) {
+		if (userName.isEmpty() || !remove(userName))
+			return;
+		size--;
+		if (++removedSinceRebuild > Math.max(size, 1024))
+			rebuild();
+	}
+
+	private boolean insert(String name) {
+		if (root == NONE) {
+			root = leaf(name, 0);
+			return true;
+		}
+		int n = root;
+		int depth = 0;
+		while (true) {
+			char c = name.charAt(depth);
+			if (c < split[n]) {
+				if (lo[n] == NONE) {
+					int added = leaf(name, depth);
+					lo[n] = added;
+					return true;
+				}
+				n = lo[n];
+			} else if (c > split[n]) {
+				if (hi[n] == NONE) {
+					int added = leaf(name, depth);
+					hi[n] = added;
+					return true;
+				}
+				n = hi[n];
+			} else {
+				String here = names[n];
+				if (name.equals(here))
+					return false;
+				// a name passing through on its own moves down a level to make room
+				if (here != null && here.length() > depth + 1)
+					pushDown(n, depth);
+				if (name.length() == depth + 1) {
+					names[n] = name;
+					return true;
+				}
+				if (eq[n] == NONE) {
+					if (names[n] == null) {
+						names[n] = name;
+					} else {
+						int added = leaf(name, depth + 1);
+						eq[n] = added;
+					}
+					return true;
+				}
+				n = eq[n];
+				depth++;
+			}
+		}
+	}
+
+	private boolean remove(String name) {
+		int n = root;
+		int depth = 0;
+		while (n != NONE) {
+			char c = name.charAt(depth);
+			if (c < split[n]) {
+				n = lo[n];
+			} else if (c > split[n]) {
+				n = hi[n];
+			} else {
+				if (name.equals(names[n])) {
+					names[n] = null;
+					return true;
+				}
+				if (name.length() == depth + 1)
+					return false;
+				n = eq[n];
+				depth++;
+			}
+		}
+		return false;
+	}
+
+	// a new node holding name, splitting on its character at depth
+	private int leaf(String name, int depth) {
+		if (nodes == split.length) {
+			int capacity = nodes * 2;
+			split = Arrays.copyOf(split, capacity);
+			lo = Arrays.copyOf(lo, capacity);
+			eq = Arrays.copyOf(eq, capacity);
+			hi = Arrays.copyOf(hi, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		int n = nodes++;
+		split[n] = name.charAt(depth);
+		lo[n] = NONE;
+		eq[n] = NONE;
+		hi[n] = NONE;
+		names[n] = name;
+		return n;
+	}
+
+	private void pushDown(int n, int depth) {
+		String passing = names[n];
+		names[n] = null;
+		eq[n] = leaf(passing, depth + 1);
+	}
+
+	// start again from the names still indexed, median first so the tree comes out balanced
+	private void rebuild() {
+		List<String> sorted = new ArrayList<String>(size);
+		if (root != NONE)
+			inOrder(root, sorted);
+		int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, sorted.size())) * 4);
+		split = new char[capacity];
+		lo = new int[capacity];
+		eq = new int[capacity];
+		hi = new int[capacity];
+		names = new String[capacity];
+		nodes = 0;
+		root = NONE;
+		insertBalanced(sorted, 0, sorted.size());
+		removedSinceRebuild = 0;
+	}
+
+	private void insertBalanced(List<String> sorted, int from, int to) {
+		if (from >= to)
+			return;
+		int middle = (from + to) >>> 1;
+		insert(sorted.get(middle));
+		insertBalanced(sorted, from, middle);
+		insertBalanced(sorted, middle + 1, to);
+	}
+
+	private void inOrder(int n, List<String> out) {
+		while (n != NONE) {
+			if (lo[n] != NONE)
+				inOrder(lo[n], out);
+			if (names[n] != null)
+				out.add(names[n]);
+			if (eq[n] != NONE)
+				inOrder(eq[n], out);
+			n = hi[n];
+		}
+	}
+
+	private void collectPrefix(Account me, String prefix, int limit, List<String> found) {
+		if (prefix.isEmpty()) {
+			collect(me, root, limit, found);
+			return;
+		}
+		int n = root;
+		int depth = 0;
+		while (n != NONE) {
+			char c = prefix.charAt(depth);
+			if (c < split[n]) {
+				n = lo[n];
+			} else if (c > split[n]) {
+				n = hi[n];
+			} else {
+				String here = names[n];
+				if (depth + 1 == prefix.length()) {
+					if (here != null && wanted(me, here))
+						found.add(here);
+					if (found.size() < limit && eq[n] != NONE)
+						collect(me, eq[n], limit, found);
+					return;
+				}
+				// the one name under here, if any, is the only candidate
+				if (eq[n] == NONE) {
+					if (here != null && here.startsWith(prefix) && wanted(me, here))
+						found.add(here);
+					return;
+				}
+				n = eq[n];
+				depth++;
+			}
+		}
+	}
+
+	// add the names under node n in alphabetical order until there are limit; false once there are
+	private boolean collect(Account me, int n, int limit, List<String> found) {
+		while (n != NONE) {
+			if (lo[n] != NONE && !collect(me, lo[n], limit, found))
+				return false;
+			if (names[n] != null && wanted(me, names[n])) {
+				found.add(names[n]);
+				if (found.size() >= limit)
+					return false;
+			}
+			if (eq[n] != NONE && !collect(me, eq[n], limit, found))
+				return false;
+			n = hi[n];
+		}
+		return true;
+	}
+
+	// everybody but me and me's friends, who were listed already
+	private static boolean wanted(Account me, String userName) {
+		return me == null || !userName.equals(me.getUserName()) && !me.hasFriend(userName);
+	}
+
+	private static List<List<String>> buckets(int maxEdits) {
+		List<List<String>> buckets = new ArrayList<List<String>>(maxEdits + 1);
+		for (int i = 0; i <= maxEdits; i++) {
+			buckets.add(new ArrayList<String>());
+		}
+		return buckets;
+	}
+
+	// the fewest edits that turn query into a prefix of name, or maxEdits + 1 if more than maxEdits
+	static int prefixDistance(String query, String name, int maxEdits) {
+		int m = query.length();
+		int[] row = new int[m + 1];
+		int[] next = new int[m + 1];
+		for (int i = 0; i <= m; i++) {
+			row[i] = i;
+		}
+		int best = row[m];
+		for (int j = 0; j < name.length() && best > 0; j++) {
+			int lowest = step(query, row, next, name.charAt(j));
+			best = Math.min(best, next[m]);
+			if (lowest > maxEdits)
+				break;
+			int[] swap = row;
+			row = next;
+			next = swap;
+		}
+		return Math.min(best, maxEdits + 1);
+	}
+
+	// the edit distances from each prefix of query to the name so far plus c, from those to the
+	// name so far; returns the lowest, which no longer name can go below
+	private static int step(String query, int[] row, int[] next, char c) {
+		next[0] = row[0] + 1;
+		int lowest = next[0];
+		for (int i = 1; i < next.length; i++) {
+			int cost = query.charAt(i - 1) == c ? 0 : 1;
+			next[i] = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+			lowest = Math.min(lowest, next[i]);
+		}
+		return lowest;
+	}
+
+	// one fuzzy walk of the tree, carrying the edit distance rows of the path it is on
+	private final class Fuzzy {
+		final Account me;
+		final String query;
+		final int maxEdits;
+		final int limit;
+		// the names found, by edit distance, each in alphabetical order
+		final List<List<String>> found;
+		// rows[d]: the edit distances from each prefix of query to the first d characters of the path
+		int[][] rows = new int[16][];
+
+		Fuzzy(Account me, String query, int maxEdits, int limit) {
+			this.me = me;
+			this.query = query;
+			this.maxEdits = maxEdits;
+			this.limit = limit;
+			this.found = buckets(maxEdits);
+		}
+
+		int[] row(int depth) {
+			if (depth == rows.length)
+				rows = Arrays.copyOf(rows, depth * 2);
+			if (rows[depth] == null)
+				rows[depth] = new int[query.length() + 1];
+			return rows[depth];
+		}
+
+		// whether a name at distance or more would be among the first limit found
+		boolean room(int distance) {
+			int ahead = 0;
+			for (int d = 0; d <= distance && d <= maxEdits; d++) {
+				ahead += found.get(d).size();
+			}
+			return ahead < limit;
+		}
+
+		// walk node n at depth, whose path so far came best within best edits of query
+		void visit(int n, int depth, int best) {
+			int m = query.length();
+			while (n != NONE) {
+				if (lo[n] != NONE)
+					visit(lo[n], depth, best);
+				int[] next = row(depth + 1);
+				int lowest = step(query, rows[depth], next, split[n]);
+				int here = Math.min(best, next[m]);
+				int bound = Math.min(here, lowest);
+				if (bound <= maxEdits && room(bound)) {
+					String name = names[n];
+					if (name != null) {
+						int distance = name.length() == depth + 1 ? here : tailDistance(name, depth + 1, here);
+						if (distance <= maxEdits && room(distance) && wanted(me, name))
+							found.get(distance).add(name);
+					}
+					if (eq[n] != NONE)
+						visit(eq[n], depth + 1, here);
+				}
+				n = hi[n];
+			}
+		}
+
+		// the distance of a name passing through alone, going on from its character at depth
+		private int tailDistance(String name, int depth, int best) {
+			int m = query.length();
+			int[] row = Arrays.copyOf(rows[depth], m + 1);
+			int[] next = new int[m + 1];
+			for (int j = depth; j < name.length() && best > 0; j++) {
+				int lowest = step(query, row, next, name.charAt(j));
+				best = Math.min(best, next[m]);
+				if (lowest >= best)
+					break;
+				int[] swap = row;
+				row = next;
+				next = swap;
+			}
+			return best;
+		}
+	}
+}
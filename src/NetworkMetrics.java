@@ -0,0 +1,177 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjDoubleConsumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// counters and latency histograms for the operations of a SocialNetwork, plus gauges of its shape
+//
+// once attached, the network counts every call of its public operations and times a random
+// sample of them, one call in 16 by default: reading the clock twice can cost more than a cheap
+// operation itself, and a sample shows the same distribution. Latencies are measured around
+// the whole call, including waiting for locks in concurrent modes; lookups of members by user
+// name are part of the operations that make them.
+// The gauges (members, degree distribution, pending requests) are computed when read by walking
+// the network, so they cost nothing while the network is busy; for a plain SocialNetwork read them
+// from the thread that owns it.
+//
+// values reach monitoring either over JMX (registerMBean) or through any exporter that takes
+// name/value pairs (export).
+public class NetworkMetrics implements NetworkMetricsMXBean {
+
+	public enum Operation {
+		JOIN, LEAVE, REQUEST, ACCEPT, REJECT, CANCEL, ACCEPT_ALL, REJECT_ALL, BATCH, SUGGEST, CONNECTION
+	}
+
+	public static final int DEFAULT_SAMPLE_EVERY = 16;
+
+	// start() result for a call that is counted but not timed
+	static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	private final SocialNetwork network;
+	private final int sampleEvery;
+	private final LongAdder[] counts = new LongAdder[OPERATIONS.length];
+	private final LogLinearHistogram[] latencies = new LogLinearHistogram[OPERATIONS.length];
+	private volatile ObjectName registered = null;
+
+	private NetworkMetrics(SocialNetwork network, int sampleEvery) {
+		this.network = network;
+		this.sampleEvery = sampleEvery;
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			counts[i] = new LongAdder();
+			latencies[i] = new LogLinearHistogram();
+		}
+	}
+
+	// start recording the operations of a network, timing one call in DEFAULT_SAMPLE_EVERY
+	public static NetworkMetrics attachTo(SocialNetwork network) {
+		return attachTo(network, DEFAULT_SAMPLE_EVERY);
+	}
+
+	// start recording the operations of a network, timing one call in sampleEvery (1 for every call)
+	public static NetworkMetrics attachTo(SocialNetwork network, int sampleEvery) {
+		if (sampleEvery < 1)
+			throw new IllegalArgumentException("sampleEvery must be positive: " + sampleEvery);
+		NetworkMetrics metrics = new NetworkMetrics(network, sampleEvery);
+		network.recordMetricsTo(metrics);
+		return metrics;
+	}
+
+	// stop recording, and leave JMX if registered there
+	public void detach() throws JMException {
+		network.recordMetricsTo(null);
+		ObjectName name = registered;
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			registered = null;
+		}
+	}
+
+	// show the metrics over JMX as SocialNetwork:type=NetworkMetrics,name=<name>
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName("SocialNetwork:type=NetworkMetrics,name=" + ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName);
+		registered = objectName;
+		return objectName;
+	}
+
+	public long count(Operation operation) {
+		return counts[operation.ordinal()].sum();
+	}
+
+	// latencies of the timed calls of an operation, in nanoseconds
+	public LogLinearHistogram latencyNanos(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	// friends per member, over all current members
+	public LogLinearHistogram degrees() {
+		LogLinearHistogram degrees = new LogLinearHistogram();
+		for (Account each : network.accounts()) {
+			degrees.record(each.getFriends().size());
+		}
+		return degrees;
+	}
+
+	@Override
+	public long getMembers() {
+		return network.members().size();
+	}
+
+	// friend requests sent and not yet answered, over all current members
+	@Override
+	public long getPendingRequests() {
+		long pending = 0;
+		for (Account each : network.accounts()) {
+			pending += each.getIncomingRequests().size();
+		}
+		return pending;
+	}
+
+	@Override
+	public long getMaxDegree() {
+		return degrees().max();
+	}
+
+	@Override
+	public Map<String, Double> getValues() {
+		Map<String, Double> values = new TreeMap<String, Double>();
+		export(values::put);
+		return values;
+	}
+
+	// hand every value to an exporter as a name like "request.count" or "request.latency.p99_us"
+	public void export(ObjDoubleConsumer<String> exporter) {
+		for (Operation each : OPERATIONS) {
+			String prefix = each.name().toLowerCase() + ".";
+			LogLinearHistogram latency = latencyNanos(each);
+			exporter.accept(prefix + "count", count(each));
+			exporter.accept(prefix + "latency.p50_us", latency.percentile(0.5) / 1000.0);
+			exporter.accept(prefix + "latency.p99_us", latency.percentile(0.99) / 1000.0);
+			exporter.accept(prefix + "latency.p999_us", latency.percentile(0.999) / 1000.0);
+			exporter.accept(prefix + "latency.max_us", latency.max() / 1000.0);
+		}
+		LogLinearHistogram degrees = degrees();
+		exporter.accept("members", degrees.count());
+		exporter.accept("degree.mean", degrees.mean());
+		exporter.accept("degree.p50", degrees.percentile(0.5));
+		exporter.accept("degree.p99", degrees.percentile(0.99));
+		exporter.accept("degree.max", degrees.max());
+		exporter.accept("pending_requests", getPendingRequests());
+	}
+
+	// called by the network when an operation starts; returns the start time if this call is timed
+	long start() {
+		if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+			return NOT_TIMED;
+		return System.nanoTime();
+	}
+
+	// called by the network when an operation has finished, with what start() returned
+	void finish(Operation operation, long started) {
+		counts[operation.ordinal()].increment();
+		if (started != NOT_TIMED)
+			latencies[operation.ordinal()].record(System.nanoTime() - started);
+	}
+
+	static Operation operationOf(FriendshipOperation.Type type) {
+		switch (type) {
+		case REQUEST:
+			return Operation.REQUEST;
+		case ACCEPT:
+			return Operation.ACCEPT;
+		case REJECT:
+			return Operation.REJECT;
+		default:
+			return Operation.CANCEL;
+		}
+	}
+}
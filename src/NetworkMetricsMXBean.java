@@ -0,0 +1,14 @@
+import java.util.Map;
+
+// what NetworkMetrics shows over JMX, e.g. in JConsole or through a JMX exporter
+public interface NetworkMetricsMXBean {
+
+	// every value NetworkMetrics.export hands out, by name
+	Map<String, Double> getValues();
+
+	long getMembers();
+
+	long getPendingRequests();
+
+	long getMaxDegree();
+}
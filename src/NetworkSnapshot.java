@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// saves a whole SocialNetwork to a compact binary file and loads it back through a memory-mapped file
+//
+// layout, all numbers big-endian:
+//   int magic, int version, long log sequence, int member count
+//   per member, in snapshot order: int user name length, user name bytes (UTF-8), byte flags
+//   per member: int friend count, then the snapshot indexes of friends listed from this member on
+//   per member: int outgoing request count, then the snapshot indexes of the requested members
+// every friendship is stored once, and incoming requests are rebuilt from the outgoing ones.
+//
+// the file is written next to its final name and moved into place once complete, so a crash
+// while saving leaves the previous snapshot intact. Saving a network that other threads are
+// changing gives each account's own state as of when it was visited; pause writers for an
+// exact snapshot.
+public class NetworkSnapshot {
+
+	private static final int MAGIC = 0x534e5331; // "SNS1"
+	private static final int VERSION = 2;
+	private static final byte AUTO_ACCEPT = 1;
+
+	private static final int WRITE_BUFFER = 1 << 20;
+	private static final long MAP_WINDOW = 1L << 30;
+
+	public static void save(SocialNetwork network, Path file) throws IOException {
+		save(network, file, 0);
+	}
+
+	// save a network that already contains every FriendshipLog record up to logSequence,
+	// so recovery knows which log records still have to be replayed on top of it
+	public static void save(SocialNetwork network, Path file, long logSequence) throws IOException {
+		Account[] members = network.accounts().toArray(new Account[0]);
+		int[] indexById = new int[network.idBound()];
+		Arrays.fill(indexById, -1);
+		for (int i = 0; i < members.length; i++) {
+			indexById[members[i].getId()] = i;
+		}
+
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(logSequence);
+			out.putInt(members.length);
+			for (Account each : members) {
+				out.putBytes(each.getUserName().getBytes(StandardCharsets.UTF_8));
+				out.putByte(each.isAutoAcceptingFriendships() ? AUTO_ACCEPT : 0);
+			}
+			int[] indexes = new int[16];
+			for (int i = 0; i < members.length; i++) {
+				int count = 0;
+				for (String friend : members[i].getFriends()) {
+					int index = indexOf(network, indexById, friend);
+					if (index >= i) {
+						indexes = grow(indexes, count);
+						indexes[count++] = index;
+					}
+				}
+				out.putInts(indexes, count);
+			}
+			for (Account each : members) {
+				int count = 0;
+				for (String requestee : each.getOutgoingRequests()) {
+					int index = indexOf(network, indexById, requestee);
+					if (index >= 0) {
+						indexes = grow(indexes, count);
+						indexes[count++] = index;
+					}
+				}
+				out.putInts(indexes, count);
+			}
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static SocialNetwork load(Path file) throws IOException {
+		return load(file, new SocialNetwork());
+	}
+
+	// load a snapshot into an empty network of any mode, e.g. a ConcurrentSocialNetwork
+	public static <T extends SocialNetwork> T load(Path file, T network) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Input in = new Input(channel);
+			readLogSequence(in, file);
+			Account[] members = new Account[in.getInt()];
+			for (int i = 0; i < members.length; i++) {
+				String userName = new String(in.getBytes(), StandardCharsets.UTF_8);
+				members[i] = network.join(userName);
+				if (members[i] == null)
+					throw new IOException("duplicate member " + userName + " in " + file);
+				if ((in.getByte() & AUTO_ACCEPT) != 0)
+					members[i].autoAcceptFriendships();
+			}
+			for (Account each : members) {
+				for (int count = in.getInt(); count > 0; count--) {
+					each.linkFriend(members[in.getIndex(members.length)]);
+				}
+			}
+			for (Account each : members) {
+				for (int count = in.getInt(); count > 0; count--) {
+					each.linkRequestTo(members[in.getIndex(members.length)]);
+				}
+			}
+			if (in.position() != channel.size())
+				throw new IOException("trailing data in snapshot: " + file);
+		}
+		return network;
+	}
+
+	// the sequence of the last FriendshipLog record contained in a snapshot
+	public static long readLogSequence(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return readLogSequence(new Input(channel), file);
+		}
+	}
+
+	private static long readLogSequence(Input in, Path file) throws IOException {
+		if (in.getInt() != MAGIC)
+			throw new IOException("not a network snapshot: " + file);
+		int version = in.getInt();
+		if (version == 1)
+			return 0; // written before snapshots recorded a log sequence
+		if (version != VERSION)
+			throw new IOException("unsupported snapshot version " + version + ": " + file);
+		return in.getLong();
+	}
+
+	private static int indexOf(SocialNetwork network, int[] indexById, String userName) {
+		int id = network.idOf(userName);
+		return id >= 0 && id < indexById.length ? indexById[id] : -1;
+	}
+
+	private static int[] grow(int[] indexes, int count) {
+		return count < indexes.length ? indexes : Arrays.copyOf(indexes, indexes.length * 2);
+	}
+
+	// buffered writes to a file channel
+	private static class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			room(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			room(8);
+			buffer.putLong(value);
+		}
+
+		void putByte(byte value) throws IOException {
+			room(1);
+			buffer.put(value);
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			putInt(bytes.length);
+			for (int written = 0; written < bytes.length; ) {
+				room(1);
+				int chunk = Math.min(buffer.remaining(), bytes.length - written);
+				buffer.put(bytes, written, chunk);
+				written += chunk;
+			}
+		}
+
+		void putInts(int[] values, int count) throws IOException {
+			putInt(count);
+			for (int i = 0; i < count; i++) {
+				putInt(values[i]);
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void room(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+	}
+
+	// reads through a memory-mapped window that slides along files larger than one mapping
+	private static class Input {
+		private final FileChannel channel;
+		private final long size;
+		private long windowStart = 0;
+		private MappedByteBuffer window;
+
+		Input(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAP_WINDOW));
+		}
+
+		int getInt() throws IOException {
+			need(4);
+			return window.getInt();
+		}
+
+		long getLong() throws IOException {
+			need(8);
+			return window.getLong();
+		}
+
+		byte getByte() throws IOException {
+			need(1);
+			return window.get();
+		}
+
+		byte[] getBytes() throws IOException {
+			int length = getInt();
+			if (length < 0 || length > size - position())
+				throw new IOException("corrupt snapshot: bad length " + length);
+			byte[] bytes = new byte[length];
+			for (int read = 0; read < length; ) {
+				need(1);
+				int chunk = Math.min(window.remaining(), length - read);
+				window.get(bytes, read, chunk);
+				read += chunk;
+			}
+			return bytes;
+		}
+
+		int getIndex(int bound) throws IOException {
+			int index = getInt();
+			if (index < 0 || index >= bound)
+				throw new IOException("corrupt snapshot: member index " + index + " out of range");
+			return index;
+		}
+
+		long position() {
+			return windowStart + window.position();
+		}
+
+		private void need(int bytes) throws IOException {
+			if (window.remaining() >= bytes)
+				return;
+			long start = position();
+			if (start + bytes > size)
+				throw new IOException("corrupt snapshot: unexpected end of file");
+			windowStart = start;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, MAP_WINDOW));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+// one published state of a VersionedSocialNetwork: its members with their friends and pending
+// requests, as they were when the version was published, and never changing after
+//
+// a reader gets the latest version with one read of a volatile field and then reads plain final
+// fields and immutable arrays only, so it takes no locks, waits for no writer and can keep the
+// version as long as it likes; a later version is a different object. All sets returned are
+// read-only views of the version, and allocate nothing but the view.
+public class NetworkVersion {
+
+	static final NetworkVersion EMPTY = new NetworkVersion(PersistentNameMap.<Member>empty(), 0, 0);
+
+	// the state of one member in a version
+	static final class Member {
+		// which of an account's sets a change touched
+		static final int FRIENDS = 1, INCOMING = 2, OUTGOING = 4, ALL = FRIENDS | INCOMING | OUTGOING;
+
+		final Account account;
+		final FrozenNameSet friends;
+		final FrozenNameSet incomingRequests;
+		final FrozenNameSet outgoingRequests;
+
+		Member(Account account) {
+			this(account, ALL);
+		}
+
+		// copies of the sets of an account that a change touched, taken while the change still
+		// holds the account; the others stay null until the copy is laid over the state before it
+		Member(Account account, int changed) {
+			this(account, (changed & FRIENDS) != 0 ? FrozenNameSet.of(account.getFriends()) : null,
+					(changed & INCOMING) != 0 ? FrozenNameSet.of(account.getIncomingRequests()) : null,
+					(changed & OUTGOING) != 0 ? FrozenNameSet.of(account.getOutgoingRequests()) : null);
+		}
+
+		private Member(Account account, FrozenNameSet friends, FrozenNameSet incomingRequests,
+				FrozenNameSet outgoingRequests) {
+			this.account = account;
+			this.friends = friends;
+			this.incomingRequests = incomingRequests;
+			this.outgoingRequests = outgoingRequests;
+		}
+
+		// this copy over an earlier state of the same account, sharing the sets it did not copy
+		// (copying a set means a cache miss or more per name); an account's first copy has all
+		// of them, so there is always an earlier state to share with
+		Member over(Member before) {
+			if (friends != null && incomingRequests != null && outgoingRequests != null)
+				return this;
+			if (before == null || before.account != account)
+				return new Member(account);
+			return new Member(account, friends != null ? friends : before.friends,
+					incomingRequests != null ? incomingRequests : before.incomingRequests,
+					outgoingRequests != null ? outgoingRequests : before.outgoingRequests);
+		}
+	}
+
+	private final PersistentNameMap<Member> members;
+	private final long number;
+	// how many changes to the network this version includes
+	private final long changes;
+	private final Set<String> memberNames;
+
+	NetworkVersion(PersistentNameMap<Member> members, long number, long changes) {
+		this.members = members;
+		this.number = number;
+		this.changes = changes;
+		this.memberNames = new AbstractSet<String>() {
+			@Override
+			public boolean contains(Object userName) {
+				return userName instanceof String && members.get((String) userName) != null;
+			}
+
+			@Override
+			public int size() {
+				return members.size();
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				return members.keys();
+			}
+		};
+	}
+
+	// versions are numbered from 0, one up for every version published
+	public long number() {
+		return number;
+	}
+
+	public boolean isMember(String userName) {
+		return userName != null && members.get(userName) != null;
+	}
+
+	// the user names of all members in this version
+	public Set<String> members() {
+		return memberNames;
+	}
+
+	public boolean hasFriend(String userName, String friend) {
+		Member member = member(userName);
+		return member != null && member.friends.contains(friend);
+	}
+
+	// the friends of a member, empty if it was not a member in this version
+	public Set<String> getFriends(String userName) {
+		Member member = member(userName);
+		return member == null ? FrozenNameSet.EMPTY : member.friends;
+	}
+
+	public Set<String> getIncomingRequests(String userName) {
+		Member member = member(userName);
+		return member == null ? FrozenNameSet.EMPTY : member.incomingRequests;
+	}
+
+	public Set<String> getOutgoingRequests(String userName) {
+		Member member = member(userName);
+		return member == null ? FrozenNameSet.EMPTY : member.outgoingRequests;
+	}
+
+	long changes() {
+		return changes;
+	}
+
+	PersistentNameMap<Member> memberMap() {
+		return members;
+	}
+
+	private Member member(String userName) {
+		return userName == null ? null : members.get(userName);
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+
+// a set of user names that an AdjacencyCache may page out to disk while nobody uses it
+//
+// the names are either resident, in a HashSet, or in the cache's store only; every use of the
+// set goes through the cache, which faults the names back in if needed and remembers the set
+// as just used. The size is kept on the heap either way, so empty sets and size checks (e.g.
+// sorting friends by degree) never touch the disk. A set whose names have not changed since
+// they were read keeps its page, so paging it out again writes nothing.
+final class PagedNameSet extends AbstractSet<String> {
+
+	final AdjacencyCache cache;
+	// the names when resident, null when paged out or never used
+	HashSet<String> resident = null;
+	// where the names are stored, -1 if nowhere
+	int page = -1;
+	// whether the resident names differ from the page
+	boolean dirty = false;
+	int size = 0;
+	// neighbours in the cache's list of resident sets, from least to most recently used
+	PagedNameSet older, newer;
+
+	PagedNameSet(AdjacencyCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public boolean contains(Object userName) {
+		return size > 0 && cache.use(this).contains(userName);
+	}
+
+	@Override
+	public boolean add(String userName) {
+		if (!cache.use(this).add(userName))
+			return false;
+		changed(1);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object userName) {
+		if (size == 0 || !cache.use(this).remove(userName))
+			return false;
+		changed(-1);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		cache.drop(this);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// iterates the names resident when it started; if the set gets paged out meanwhile, that copy
+	// stays valid, and removing through the iterator still removes from the set
+	@Override
+	public Iterator<String> iterator() {
+		HashSet<String> names = size == 0 ? null : cache.use(this);
+		if (names == null)
+			return Collections.emptyIterator();
+		Iterator<String> each = names.iterator();
+		return new Iterator<String>() {
+			private String last = null;
+
+			@Override
+			public boolean hasNext() {
+				return each.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return last = each.next();
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				if (resident == names) {
+					each.remove();
+					changed(-1);
+				} else {
+					PagedNameSet.this.remove(last);
+				}
+				last = null;
+			}
+		};
+	}
+
+	// an emptied set leaves the cache at once, so resident sets all hold names the cache counts
+	private void changed(int names) {
+		size += names;
+		dirty = true;
+		cache.resized(this, names);
+		if (size == 0)
+			cache.drop(this);
+	}
+}
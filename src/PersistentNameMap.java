@@ -0,0 +1,243 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+// an immutable map from user names to values, for versions of a network that readers keep
+// while writers make new ones
+//
+// put and remove return a new map and leave this one as it was. The map is a hash array mapped
+// trie: each node holds up to 32 slots, picked by five bits of the name's hash per level and
+// packed by a bitmap, so a new map copies only the few small nodes on the path to the changed
+// entry and shares everything else with the old one. Names whose whole hashes are equal end up
+// in a list node below the last level.
+final class PersistentNameMap<V> {
+
+	private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+	private static final PersistentNameMap<Object> EMPTY = new PersistentNameMap<Object>(EMPTY_NODE, 0);
+
+	// levels below this shift have used up all 32 bits of the hash
+	private static final int LIST_SHIFT = 35;
+
+	private static final class Entry {
+		final String key;
+		final Object value;
+		final int hash;
+
+		Entry(String key, Object value, int hash) {
+			this.key = key;
+			this.value = value;
+			this.hash = hash;
+		}
+	}
+
+	// slots hold an Entry or a Node each; below LIST_SHIFT the bitmap is unused and every slot
+	// is an Entry
+	private static final class Node {
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+	}
+
+	private final Node root;
+	private final int size;
+
+	private PersistentNameMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V> PersistentNameMap<V> empty() {
+		return (PersistentNameMap<V>) EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// the value for a name, or null if it has none
+	@SuppressWarnings("unchecked")
+	V get(String key) {
+		int hash = hash(key);
+		Node node = root;
+		for (int shift = 0; shift < LIST_SHIFT; shift += 5) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((node.bitmap & bit) == 0)
+				return null;
+			Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+			if (slot instanceof Entry) {
+				Entry entry = (Entry) slot;
+				return entry.hash == hash && entry.key.equals(key) ? (V) entry.value : null;
+			}
+			node = (Node) slot;
+		}
+		for (Object slot : node.slots) {
+			if (((Entry) slot).key.equals(key))
+				return (V) ((Entry) slot).value;
+		}
+		return null;
+	}
+
+	// this map with the value for a name set
+	PersistentNameMap<V> put(String key, V value) {
+		boolean[] added = new boolean[1];
+		Node changed = put(root, 0, new Entry(key, value, hash(key)), added);
+		return new PersistentNameMap<V>(changed, added[0] ? size + 1 : size);
+	}
+
+	// this map without a name
+	PersistentNameMap<V> remove(String key) {
+		Node changed = remove(root, 0, key, hash(key));
+		if (changed == root)
+			return this;
+		return new PersistentNameMap<V>(changed == null ? EMPTY_NODE : changed, size - 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	void forEach(BiConsumer<String, ? super V> action) {
+		forEach(root, (BiConsumer<String, Object>) action);
+	}
+
+	Iterator<String> keys() {
+		return new Iterator<String>() {
+			// the nodes on the way down and the next slot to look at in each
+			private final ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+			private final ArrayDeque<Integer> positions = new ArrayDeque<Integer>();
+			private Entry next;
+
+			{
+				nodes.push(root);
+				positions.push(0);
+				next = advance();
+			}
+
+			private Entry advance() {
+				while (!nodes.isEmpty()) {
+					Node node = nodes.peek();
+					int position = positions.pop();
+					if (position == node.slots.length) {
+						nodes.pop();
+						continue;
+					}
+					positions.push(position + 1);
+					Object slot = node.slots[position];
+					if (slot instanceof Entry)
+						return (Entry) slot;
+					nodes.push((Node) slot);
+					positions.push(0);
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				String key = next.key;
+				next = advance();
+				return key;
+			}
+		};
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static Node put(Node node, int shift, Entry entry, boolean[] added) {
+		if (shift >= LIST_SHIFT) {
+			for (int i = 0; i < node.slots.length; i++) {
+				if (((Entry) node.slots[i]).key.equals(entry.key))
+					return new Node(0, with(node.slots, i, entry));
+			}
+			added[0] = true;
+			return new Node(0, inserted(node.slots, node.slots.length, entry));
+		}
+		int bit = 1 << ((entry.hash >>> shift) & 31);
+		int index = Integer.bitCount(node.bitmap & (bit - 1));
+		if ((node.bitmap & bit) == 0) {
+			added[0] = true;
+			return new Node(node.bitmap | bit, inserted(node.slots, index, entry));
+		}
+		Object slot = node.slots[index];
+		if (slot instanceof Node)
+			return new Node(node.bitmap, with(node.slots, index, put((Node) slot, shift + 5, entry, added)));
+		Entry existing = (Entry) slot;
+		if (existing.key.equals(entry.key))
+			return new Node(node.bitmap, with(node.slots, index, entry));
+		// two names share this slot from now on: move both a level down
+		Node below = put(put(EMPTY_NODE, shift + 5, existing, new boolean[1]), shift + 5, entry, added);
+		return new Node(node.bitmap, with(node.slots, index, below));
+	}
+
+	// the node without key, the same node if it was not there, or null if nothing is left
+	private static Node remove(Node node, int shift, String key, int hash) {
+		if (shift >= LIST_SHIFT) {
+			for (int i = 0; i < node.slots.length; i++) {
+				if (((Entry) node.slots[i]).key.equals(key))
+					return node.slots.length == 1 ? null : new Node(0, removed(node.slots, i));
+			}
+			return node;
+		}
+		int bit = 1 << ((hash >>> shift) & 31);
+		if ((node.bitmap & bit) == 0)
+			return node;
+		int index = Integer.bitCount(node.bitmap & (bit - 1));
+		Object slot = node.slots[index];
+		if (slot instanceof Entry) {
+			if (!((Entry) slot).key.equals(key))
+				return node;
+			return node.bitmap == bit ? null : new Node(node.bitmap & ~bit, removed(node.slots, index));
+		}
+		Node child = remove((Node) slot, shift + 5, key, hash);
+		if (child == slot)
+			return node;
+		if (child == null)
+			return node.bitmap == bit ? null : new Node(node.bitmap & ~bit, removed(node.slots, index));
+		// a lone entry left below moves back up, so a path never ends in a node of one entry
+		if (child.slots.length == 1 && child.slots[0] instanceof Entry)
+			return new Node(node.bitmap, with(node.slots, index, child.slots[0]));
+		return new Node(node.bitmap, with(node.slots, index, child));
+	}
+
+	private static void forEach(Node node, BiConsumer<String, Object> action) {
+		for (Object slot : node.slots) {
+			if (slot instanceof Entry)
+				action.accept(((Entry) slot).key, ((Entry) slot).value);
+			else
+				forEach((Node) slot, action);
+		}
+	}
+
+	private static Object[] with(Object[] slots, int index, Object slot) {
+		Object[] copy = slots.clone();
+		copy[index] = slot;
+		return copy;
+	}
+
+	private static Object[] inserted(Object[] slots, int index, Object slot) {
+		Object[] copy = new Object[slots.length + 1];
+		System.arraycopy(slots, 0, copy, 0, index);
+		copy[index] = slot;
+		System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+		return copy;
+	}
+
+	private static Object[] removed(Object[] slots, int index) {
+		Object[] copy = Arrays.copyOf(slots, slots.length - 1);
+		System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+		return copy;
+	}
+}
@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// expires friend requests that have been pending longer than a time to live
+//
+// every request that a network records is scheduled on a TimerWheel for its expiry time. When the
+// time comes and the request is still pending, it is rejected on behalf of the member it was
+// sent to, which drops it from both accounts (and logs it like any rejection). Recording a
+// request, which the network does while it holds both members' locks, takes no lock of its own:
+// the request goes into a lock-free queue, and the thread that expires requests moves what has
+// queued up onto the wheel before advancing it. Expiring touches only the expired requests, so
+// nothing ever scans the accounts; the only scan is when expiry is attached, to schedule the
+// requests that were already pending then, each with a full time to live. Requests are kept by
+// user name, so waiting to expire does not keep departed members' accounts alive.
+//
+// a request that is answered and sent again later gets a new expiry time; only the latest
+// request between two members can expire. Requests expire within one tick (a 64th of the time
+// to live) after their time is up, once expireDue runs: call it from time to time from the
+// thread that owns a plain SocialNetwork, or let a background thread call it for a concurrent one.
+public class RequestExpiry implements Closeable {
+
+	// a pending request, equal to any other request between the same two user names
+	private static final class PendingRequest {
+		final String requester;
+		final String requestee;
+		final long expiresAt;
+
+		PendingRequest(String requester, String requestee, long expiresAt) {
+			this.requester = requester;
+			this.requestee = requestee;
+			this.expiresAt = expiresAt;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PendingRequest))
+				return false;
+			PendingRequest that = (PendingRequest) other;
+			return requester.equals(that.requester) && requestee.equals(that.requestee);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * requester.hashCode() + requestee.hashCode();
+		}
+	}
+
+	private final SocialNetwork network;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final TimerWheel<PendingRequest> wheel;
+
+	// the latest request between each pair of user names, until it expires
+	private final ConcurrentHashMap<PendingRequest, PendingRequest> latest =
+			new ConcurrentHashMap<PendingRequest, PendingRequest>();
+
+	// requests recorded but not yet on the wheel, and how many
+	private final ConcurrentLinkedQueue<PendingRequest> recorded = new ConcurrentLinkedQueue<PendingRequest>();
+	private final AtomicInteger recordedCount = new AtomicInteger();
+
+	private final LongAdder expired = new LongAdder();
+	private volatile Thread background = null;
+
+	private RequestExpiry(SocialNetwork network, Duration ttl, LongSupplier clock) {
+		this.network = network;
+		this.ttlNanos = ttl.toNanos();
+		this.clock = clock;
+		this.wheel = new TimerWheel<PendingRequest>(Math.max(ttlNanos / 64, 1), clock.getAsLong());
+	}
+
+	// let the friend requests of a network expire after a time to live
+	public static RequestExpiry attachTo(SocialNetwork network, Duration ttl) {
+		return attachTo(network, ttl, System::nanoTime);
+	}
+
+	static RequestExpiry attachTo(SocialNetwork network, Duration ttl, LongSupplier clock) {
+		if (ttl.isNegative() || ttl.isZero())
+			throw new IllegalArgumentException("time to live must be positive: " + ttl);
+		RequestExpiry expiry = new RequestExpiry(network, ttl, clock);
+		network.expireRequestsWith(expiry);
+		for (Account requestee : network.accounts()) {
+			for (String requester : requestee.getIncomingRequests()) {
+				Account account = network.findAccountForUserName(requester);
+				if (account != null)
+					expiry.requested(account, requestee);
+			}
+		}
+		return expiry;
+	}
+
+	// expire requests from a daemon thread, once a tick; only for networks that can be shared
+	// between threads (e.g. a ConcurrentSocialNetwork)
+	public synchronized void expireInBackground() {
+		if (!(network instanceof ConcurrentSocialNetwork))
+			throw new IllegalStateException("a plain SocialNetwork cannot be changed from a background thread");
+		if (background != null)
+			return;
+		long tickMillis = Math.max(ttlNanos / 64 / 1000000, 1);
+		Thread thread = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					Thread.sleep(tickMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				expireDue();
+			}
+		}, "friend-request-expiry");
+		thread.setDaemon(true);
+		thread.start();
+		background = thread;
+	}
+
+	// expire every request whose time is up; returns how many were still pending and expired
+	public int expireDue() {
+		List<PendingRequest> due = new ArrayList<PendingRequest>();
+		synchronized (wheel) {
+			for (PendingRequest each; (each = recorded.poll()) != null; ) {
+				recordedCount.decrementAndGet();
+				wheel.schedule(each, each.expiresAt);
+			}
+			wheel.advance(clock.getAsLong(), due::add);
+		}
+		int count = 0;
+		for (PendingRequest each : due) {
+			if (expire(each))
+				count++;
+		}
+		expired.add(count);
+		return count;
+	}
+
+	// number of requests expired so far
+	public long expired() {
+		return expired.sum();
+	}
+
+	// number of requests waiting to expire, including some already answered
+	public int scheduled() {
+		synchronized (wheel) {
+			return wheel.size() + recordedCount.get();
+		}
+	}
+
+	// stop expiring requests
+	@Override
+	public void close() {
+		network.expireRequestsWith(null);
+		Thread thread;
+		synchronized (this) {
+			thread = background;
+			background = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// called by the network, holding both members, when a request has been recorded
+	void requested(Account requester, Account requestee) {
+		PendingRequest request = new PendingRequest(requester.getUserName(), requestee.getUserName(),
+				clock.getAsLong() + ttlNanos);
+		latest.put(request, request);
+		recordedCount.incrementAndGet();
+		recorded.add(request);
+	}
+
+	private boolean expire(PendingRequest request) {
+		boolean[] rejected = new boolean[1];
+		network.locked(request.requester, request.requestee, () -> {
+			// a later request between the same members has its own expiry time
+			if (latest.get(request) != request)
+				return;
+			latest.remove(request);
+			Account requester = network.findAccountForUserName(request.requester);
+			Account requestee = network.findAccountForUserName(request.requestee);
+			if (requester == null || requestee == null)
+				return;
+			rejected[0] = network.apply(FriendshipOperation.Type.REJECT, requestee, requester)
+					== FriendshipOperation.Result.APPLIED;
+		});
+		network.awaitLogged();
+		return rejected[0];
+	}
+}
@@ -0,0 +1,88 @@
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// limits how fast each member can send friend requests, with a token bucket per sender
+//
+// a sender may send up to burst requests at once and then one request per refill interval;
+// any request beyond that changes nothing and gets the result THROTTLED, from sendFriendshipTo
+// and from applyBatch alike. Answering, cancelling and leaving are never limited.
+// Each bucket is kept the way the generic cell rate algorithm keeps it, as the single time at
+// which it will be full again, so taking a token is one clock read and one compare-and-set on
+// the sender's own account: senders never contend with each other, checking takes no lock
+// (single requests are checked before their members are locked), and nothing refills in the
+// background.
+//
+// that time is a long in the account itself rather than an entry in a table of senders: a table
+// would cost a lookup, and a cache miss or two, on every request, and would need its idle
+// entries swept out. This way a full bucket and a missing one are the same thing, the memory is
+// 8 bytes per member whether it sends or not, and it goes when the member does.
+public class RequestRateLimiter {
+
+	private static final AtomicLongFieldUpdater<Account> REFILLED_AT =
+			AtomicLongFieldUpdater.newUpdater(Account.class, "requestsRefilledAt");
+
+	private final SocialNetwork network;
+	private final long refillNanos;
+	private final long toleranceNanos;
+	private final LongSupplier clock;
+
+	// times in the accounts are relative to this, so an account that never sent has a full bucket
+	private final long epoch;
+
+	private final LongAdder throttled = new LongAdder();
+
+	private RequestRateLimiter(SocialNetwork network, int burst, long refillNanos, LongSupplier clock) {
+		this.network = network;
+		this.refillNanos = refillNanos;
+		this.toleranceNanos = refillNanos * (burst - 1);
+		this.clock = clock;
+		this.epoch = clock.getAsLong();
+	}
+
+	// let every member send up to burst friend requests at once, and one more per refill interval
+	public static RequestRateLimiter attachTo(SocialNetwork network, int burst, Duration refill) {
+		return attachTo(network, burst, refill, System::nanoTime);
+	}
+
+	static RequestRateLimiter attachTo(SocialNetwork network, int burst, Duration refill, LongSupplier clock) {
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be positive: " + burst);
+		if (refill.isNegative() || refill.isZero())
+			throw new IllegalArgumentException("refill interval must be positive: " + refill);
+		RequestRateLimiter limiter = new RequestRateLimiter(network, burst, refill.toNanos(), clock);
+		// every member starts with a full bucket, whatever an earlier limiter left behind
+		for (Account each : network.accounts()) {
+			each.requestsRefilledAt = 0;
+		}
+		network.limitRequestsWith(limiter);
+		return limiter;
+	}
+
+	// stop limiting
+	public void detach() {
+		network.limitRequestsWith(null);
+	}
+
+	// number of requests refused so far
+	public long throttled() {
+		return throttled.sum();
+	}
+
+	// called by the network before a friend request of a sender; takes a token if there is one
+	boolean tryAcquire(Account sender) {
+		long now = clock.getAsLong() - epoch;
+		while (true) {
+			long full = sender.requestsRefilledAt;
+			// the time of this request on the bucket's own schedule, never before now
+			long at = full - now > 0 ? full : now;
+			if (at - now > toleranceNanos) {
+				throttled.increment();
+				return false;
+			}
+			if (REFILLED_AT.compareAndSet(sender, full, at + refillNanos))
+				return true;
+		}
+	}
+}
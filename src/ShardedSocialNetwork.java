@@ -0,0 +1,249 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// a ConcurrentSocialNetwork whose members, ids and locks are partitioned into shards by user
+// name hash, so that threads working on members of different shards share no lock, counter or
+// member map
+//
+// this partitions contention, not memory: every shard lives in this JVM's heap, so the shards
+// together hold no more members than one ConcurrentSocialNetwork can. It does not spread a
+// network over several heaps, processes or machines, and is no answer to a network outgrowing
+// the heap (for friend lists that do, see TieredSocialNetwork).
+//
+// every shard has state of its own: a member map, member ids (see MemberIds; shard s hands out
+// s, s + shardCount, ...), a full set of lock stripes, as many as a whole ConcurrentSocialNetwork
+// has by default, and operation counts. Nothing that a shard changes on a join, leave or an
+// operation between two of its own members is shared with any other shard.
+//
+// an operation between members of two shards runs the cross-shard protocol: lock the member's
+// stripe in the shard that comes first, then the other member's stripe in the other shard, check
+// the operation against both accounts and change both sides before either lock is released, so
+// no thread ever sees one side of a friendship without the other. Stripes are ordered by shard
+// first, then by stripe within the shard, and a batch takes the stripes of every member it names
+// in that order, so two cross-shard operations can never deadlock. Callers use the same API as in
+// every other mode and never see the shards.
+//
+// a FriendshipLog, metrics, events and the other attachments are shared by all shards.
+public class ShardedSocialNetwork extends ConcurrentSocialNetwork {
+
+	// one partition of the members
+	private static final class Shard {
+		final Map<String, Account> members = new ConcurrentHashMap<String, Account>();
+		final MemberIds ids;
+		// friendship operations this shard's members made with members of the same shard, and of others
+		final LongAdder localOperations = new LongAdder();
+		final LongAdder crossShardOperations = new LongAdder();
+
+		Shard(int index, int shardCount) {
+			this.ids = new MemberIds(MemberIds.QUARANTINE_NANOS, index, shardCount);
+		}
+	}
+
+	private final Shard[] shards;
+	private final int stripesPerShard;
+
+	public ShardedSocialNetwork() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	// the shard count is rounded up to a power of two
+	public ShardedSocialNetwork(int shardCount) {
+		this(shardCount, 16 * Runtime.getRuntime().availableProcessors());
+	}
+
+	// with the lock stripes of each shard for a concurrency level, see ConcurrentSocialNetwork
+	public ShardedSocialNetwork(int shardCount, int concurrencyPerShard) {
+		this(newShards(shardCount), stripeCount(Math.max(concurrencyPerShard, 1)));
+	}
+
+	private ShardedSocialNetwork(Shard[] shards, int stripesPerShard) {
+		super(new Directory(shards), shards.length * stripesPerShard);
+		this.shards = shards;
+		this.stripesPerShard = stripesPerShard;
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	// the shard that holds the account of a user name, whether or not it is taken
+	public int shardOf(String userName) {
+		return stripeIndex(userName, shards.length);
+	}
+
+	// number of members in each shard
+	public int[] membersPerShard() {
+		int[] counts = new int[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			counts[i] = shards[i].members.size();
+		}
+		return counts;
+	}
+
+	// friendship operations between members of the same shard, and of different shards, so far
+	public long localOperations() {
+		long sum = 0;
+		for (Shard each : shards) {
+			sum += each.localOperations.sum();
+		}
+		return sum;
+	}
+
+	public long crossShardOperations() {
+		long sum = 0;
+		for (Shard each : shards) {
+			sum += each.crossShardOperations.sum();
+		}
+		return sum;
+	}
+
+	// the stripes of shard s are s * stripesPerShard and on; the stripe within the shard comes from
+	// the hash bits above those that picked the shard
+	@Override
+	int stripeIndex(String userName) {
+		int h = userName.hashCode();
+		h ^= h >>> 16;
+		int shard = h & (shards.length - 1);
+		int stripe = (h >>> Integer.numberOfTrailingZeros(shards.length)) & (stripesPerShard - 1);
+		return shard * stripesPerShard + stripe;
+	}
+
+	@Override
+	MemberIds idsFor(String userName) {
+		return shards[shardOf(userName)].ids;
+	}
+
+	@Override
+	Account accountForId(int id) {
+		return id < 0 ? null : shards[id & (shards.length - 1)].ids.get(id);
+	}
+
+	@Override
+	int idBound() {
+		int bound = 0;
+		for (Shard each : shards) {
+			bound = Math.max(bound, each.ids.bound());
+		}
+		return bound;
+	}
+
+	// counted for the shard of the member making the operation
+	@Override
+	FriendshipOperation.Result apply(FriendshipOperation.Type type, Account me, Account other) {
+		if (me != null && other != null) {
+			Shard mine = shards[shardOf(me.getUserName())];
+			if (mine == shards[shardOf(other.getUserName())])
+				mine.localOperations.increment();
+			else
+				mine.crossShardOperations.increment();
+		}
+		return super.apply(type, me, other);
+	}
+
+	private static Shard[] newShards(int shardCount) {
+		if (shardCount < 1)
+			throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+		Shard[] shards = new Shard[stripeCount(shardCount)];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard(i, shards.length);
+		}
+		return shards;
+	}
+
+	// the member map the network works with: each user name is looked up in, added to and
+	// removed from its own shard, and walking the members walks one shard after the other
+	private static class Directory extends AbstractMap<String, Account> {
+		private final Shard[] shards;
+
+		Directory(Shard[] shards) {
+			this.shards = shards;
+		}
+
+		private Map<String, Account> shardFor(Object userName) {
+			return shards[stripeIndex((String) userName, shards.length)].members;
+		}
+
+		@Override
+		public Account get(Object userName) {
+			return userName instanceof String ? shardFor(userName).get(userName) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object userName) {
+			return userName instanceof String && shardFor(userName).containsKey(userName);
+		}
+
+		@Override
+		public Account putIfAbsent(String userName, Account account) {
+			return shardFor(userName).putIfAbsent(userName, account);
+		}
+
+		@Override
+		public Account put(String userName, Account account) {
+			return shardFor(userName).put(userName, account);
+		}
+
+		@Override
+		public boolean remove(Object userName, Object account) {
+			return userName instanceof String && shardFor(userName).remove(userName, account);
+		}
+
+		@Override
+		public Account remove(Object userName) {
+			return userName instanceof String ? shardFor(userName).remove(userName) : null;
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for (Shard each : shards) {
+				size += each.members.size();
+			}
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Account>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Account>>() {
+				@Override
+				public int size() {
+					return Directory.this.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Account>> iterator() {
+					return new Iterator<Map.Entry<String, Account>>() {
+						private int shard = 0;
+						private Iterator<Map.Entry<String, Account>> current = Collections.emptyIterator();
+
+						public boolean hasNext() {
+							while (!current.hasNext()) {
+								if (shard == shards.length)
+									return false;
+								current = shards[shard++].members.entrySet().iterator();
+							}
+							return true;
+						}
+
+						public Map.Entry<String, Account> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							return current.next();
+						}
+
+						public void remove() {
+							current.remove();
+						}
+					};
+				}
+			};
+		}
+	}
+}
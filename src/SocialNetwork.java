@@ -1,101 +1,540 @@
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SocialNetwork {
 	
-	private Collection<Account> accounts = new HashSet<Account>();
+	// members keyed by user name, so lookups, duplicate checks and removals are O(1)
+	private final Map<String, Account> accounts;
+
+	// read-only view of the user names, handed out by members() so looking costs no copy
+	private final Set<String> memberNames;
+
+	// dense ids of the members, for data kept per member id (e.g. compact adjacency sets)
+	private final MemberIds ids = new MemberIds();
+
+	// where changes are logged for crash recovery, if anywhere
+	private volatile FriendshipLog log = null;
+
+	// where operations are counted and timed, if anywhere
+	private volatile NetworkMetrics metrics = null;
+
+	// what expires pending friend requests, if anything
+	private volatile RequestExpiry expiry = null;
+
+	// what limits how fast members send friend requests, if anything
+	private volatile RequestRateLimiter limiter = null;
+
+	// where changes are published to subscribers, if anywhere
+	private volatile FriendshipEvents events = null;
+
+	// the index of user names to keep up to date, if any
+	private volatile MemberSearch memberSearch = null;
+
+	// one reusable connection search per thread that asks for connections
+	private final ThreadLocal<ConnectionSearch> searches =
+			ThreadLocal.withInitial(() -> new ConnectionSearch(ConnectionSearch.over(this)));
+
+	public SocialNetwork() {
+		this(new HashMap<String, Account>());
+	}
+
+	// a network in a particular mode (e.g. concurrent) brings its own member map
+	SocialNetwork(Map<String, Account> accounts) {
+		this.accounts = accounts;
+		this.memberNames = Collections.unmodifiableSet(accounts.keySet());
+	}
 
 	// join SN with a new user name
 	public Account join(String userName) {
+		return timed(NetworkMetrics.Operation.JOIN, () -> {
+			Account joined = register(userName);
+			awaitLogged();
+			return joined;
+		});
+	}
+
+	// add a member with a new user name, or return null if the name is taken
+	Account register(String userName) {
 		if (userName == null || userName =="") return null;
 		// check if user name already exists
-		Account existingUser = findAccountForUserName(userName);
-		if (existingUser == null) {
-			Account newAccount = new Account(userName);
-			accounts.add(newAccount);
-			return newAccount;
+		if (accounts.containsKey(userName)) 
+			return null;
+		Account newAccount = newAccount(userName);
+		MemberIds ids = idsFor(userName);
+		ids.register(newAccount);
+		if (accounts.putIfAbsent(userName, newAccount) != null) {
+			ids.release(newAccount);
+			return null;
 		}
-		return null;
+		FriendshipLog log = this.log;
+		if (log != null)
+			log.joined(userName);
+		FriendshipEvents events = this.events;
+		if (events != null)
+			events.publish(FriendshipEvent.Type.JOINED, userName, null);
+		MemberSearch memberSearch = this.memberSearch;
+		if (memberSearch != null)
+			memberSearch.joined(userName);
+		return newAccount;
+	}
+
+	// log every change from now on, see FriendshipLog.recover
+	void logTo(FriendshipLog log) {
+		this.log = log;
+	}
+
+	FriendshipLog log() {
+		return log;
+	}
+
+	// return once the changes this thread has logged are on disk; called after letting go of any
+	// locks, so other writes to the same members need not wait for the disk too
+	void awaitLogged() {
+		FriendshipLog log = this.log;
+		if (log != null)
+			log.awaitAppended();
+	}
+
+	// count and time operations from now on (null to stop), see NetworkMetrics.attachTo
+	void recordMetricsTo(NetworkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// publish every change from now on (null to stop), see FriendshipEvents.attachTo
+	void publishEventsTo(FriendshipEvents events) {
+		this.events = events;
+	}
+
+	// keep an index of user names up to date from now on (null to stop), see MemberSearch.attachTo
+	void indexMembersWith(MemberSearch memberSearch) {
+		this.memberSearch = memberSearch;
+	}
+
+	// schedule every new friend request for expiry from now on (null to stop), see RequestExpiry.attachTo
+	void expireRequestsWith(RequestExpiry expiry) {
+		this.expiry = expiry;
+	}
+
+	// refuse friend requests beyond each sender's rate from now on (null to stop), see RequestRateLimiter.attachTo
+	void limitRequestsWith(RequestRateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	// run something that reads and changes the accounts of two members, without any other
+	// operation on either of them running at the same time in modes shared between threads
+	void locked(String first, String second, Runnable operation) {
+		operation.run();
+	}
+
+	// create the account for a new member
+	Account newAccount(String userName) {
+		return new Account(userName);
+	}
+
+	// where the id of a member with this user name comes from
+	MemberIds idsFor(String userName) {
+		return ids;
 	}
 
 	// find a member by user name 
-	private Account findAccountForUserName(String userName) {
+	Account findAccountForUserName(String userName) {
 		// find account with user name userName
 		// not accessible to outside because that would give a user full access to another member's account
-		for (Account each : accounts) {
-			if (each.getUserName().equals(userName)) 
-					return each;
-		}
-		return null;
+		if (userName == null)
+			return null;
+		return accounts.get(userName);
+	}
+
+	// the accounts of all members, for walking the whole network
+	Collection<Account> accounts() {
+		return accounts.values();
+	}
+
+	// the member with an id, or null if nobody has that id
+	Account accountForId(int id) {
+		return ids.get(id);
+	}
+
+	// upper bound (exclusive) of the member ids in use
+	int idBound() {
+		return ids.bound();
+	}
+
+	// the id of a member, or -1 if nobody with that user name is a member
+	int idOf(String userName) {
+		Account account = findAccountForUserName(userName);
+		return account == null ? -1 : account.getId();
+	}
+
+	// the user name of the member with an id, or null if nobody has that id
+	String userNameOf(int id) {
+		Account account = accountForId(id);
+		return account == null ? null : account.getUserName();
+	}
+
+	// check that an account is still the registered account of its owner
+	boolean isMember(Account account) {
+		return account != null && findAccountForUserName(account.getUserName()) == account;
+	}
+
+	// remove an account from the members, unless its user name has been taken over by a new account
+	boolean unregister(Account account) {
+		if (!accounts.remove(account.getUserName(), account))
+			return false;
+		idsFor(account.getUserName()).release(account);
+		return true;
 	}
 	
-	// list user names of all members
+	// list user names of all members, as a copy the caller owns
 	public Collection<String> listMembers() {
-		Collection<String> members = new HashSet<String>();
-		for (Account each : accounts) {
-			members.add(each.getUserName());
+		return new HashSet<String>(accounts.keySet());
+	}
+
+	// user names of all members as a read-only view that follows later joins and leaves,
+	// for callers that only look and do not need a copy
+	public Set<String> members() {
+		return memberNames;
+	}
+
+	public Stream<String> streamMembers() {
+		return memberNames.stream();
+	}
+
+	public void forEachMember(Consumer<? super String> action) {
+		memberNames.forEach(action);
+	}
+
+	// page through the members in a stable order: hand up to limit user names to action, starting
+	// at position (0 for the first page), and return the position of the next page, or -1 after
+	// the last one. Members who join while paging may or may not be seen; everyone else is seen
+	// exactly once.
+	public int forEachMember(int position, int limit, Consumer<? super String> action) {
+		int bound = idBound();
+		int id = Math.max(position, 0);
+		for (int handed = 0; id < bound && handed < limit; id++) {
+			Account account = accountForId(id);
+			if (account != null && isMember(account)) {
+				action.accept(account.getUserName());
+				handed++;
+			}
 		}
-		return members;
+		return id < bound ? id : -1;
 	}
 	
-	// from my account, send a friend request to user with userName from my account
-	public void sendFriendshipTo(String userName, Account me) {
-		Account accountForUserName = findAccountForUserName(userName);
-		if (accountForUserName != null) {
-			accountForUserName.requestFriendship(me);
-		}
+	// from my account, send a friend request to user with userName from my account;
+	// THROTTLED if I have sent too many lately, see RequestRateLimiter
+	public FriendshipOperation.Result sendFriendshipTo(String userName, Account me) {
+		return operate(FriendshipOperation.Type.REQUEST, me, userName);
 	}
 
 	// from my account, accept a pending friend request from another user with userName
-	public void acceptFriendshipFrom(String userName, Account me) {
-		Account accountForUserName = findAccountForUserName(userName);
-		accountForUserName.friendshipAccepted(me);
+	public FriendshipOperation.Result acceptFriendshipFrom(String userName, Account me) {
+		return operate(FriendshipOperation.Type.ACCEPT, me, userName);
 	}
 	
 	// Accept all friend requests that are pending a response from me
 	public void acceptAllFriendshipsTo(Account me) {
-		for (String requester : new HashSet<String>(me.getIncomingRequests())) {
-			acceptFriendshipFrom(requester, me);
-		}
+		timed(NetworkMetrics.Operation.ACCEPT_ALL, () -> {
+			// accepting changes my incoming requests, so walk a plain array of them
+			for (String requester : me.getIncomingRequests().toArray(new String[0])) {
+				acceptFriendshipFrom(requester, me);
+			}
+		});
 	}
 
 	// from my account, accept a pending friend request from another user with userName
-	public void rejectFriendshipFrom(String userName, Account me) {
-		Account accountForUserName = findAccountForUserName(userName);
-		accountForUserName.friendshipRejected(me);
+	public FriendshipOperation.Result rejectFriendshipFrom(String userName, Account me) {
+		return operate(FriendshipOperation.Type.REJECT, me, userName);
 	}
 	
 	// Accept all friend requests that are pending a response from me
 	public void rejectAllFriendshipsTo(Account me) {
-		for (String requester : new HashSet<String>(me.getIncomingRequests())) {
-			rejectFriendshipFrom(requester, me);
-		}	}
+		timed(NetworkMetrics.Operation.REJECT_ALL, () -> {
+			for (String requester : me.getIncomingRequests().toArray(new String[0])) {
+				rejectFriendshipFrom(requester, me);
+			}
+		});
+	}
+
+	// apply a batch of friendship operations in order, looking up each member only once,
+	// and return the result of each operation at the same position
+	public List<FriendshipOperation.Result> applyBatch(List<FriendshipOperation> operations) {
+		return timed(NetworkMetrics.Operation.BATCH, () -> {
+			List<FriendshipOperation.Result> results = performBatch(operations, true);
+			awaitLogged();
+			return results;
+		});
+	}
+
+	// apply a batch, refusing requests beyond their senders' rate unless limited is false
+	List<FriendshipOperation.Result> performBatch(List<FriendshipOperation> operations, boolean limited) {
+		Map<String, Account> members = new HashMap<String, Account>();
+		for (FriendshipOperation each : operations) {
+			resolve(each.getUserName(), members);
+			resolve(each.getOtherUserName(), members);
+		}
+		List<FriendshipOperation.Result> results = new ArrayList<FriendshipOperation.Result>(operations.size());
+		for (FriendshipOperation each : operations) {
+			Account me = members.get(each.getUserName());
+			if (limited && throttled(each.getType(), me))
+				results.add(FriendshipOperation.Result.THROTTLED);
+			else
+				results.add(apply(each.getType(), me, members.get(each.getOtherUserName())));
+		}
+		return results;
+	}
+
+	public List<FriendshipOperation.Result> applyBatch(Stream<FriendshipOperation> operations) {
+		return applyBatch(operations.collect(Collectors.toList()));
+	}
+
+	private void resolve(String userName, Map<String, Account> members) {
+		if (userName != null && !members.containsKey(userName))
+			members.put(userName, findAccountForUserName(userName));
+	}
+
+	// one friendship operation of me towards the member with userName, counted and timed
+	private FriendshipOperation.Result operate(FriendshipOperation.Type type, Account me, String userName) {
+		return timed(NetworkMetrics.operationOf(type), () -> {
+			// checked before perform, so a throttled request never waits for a lock
+			FriendshipOperation.Result result = throttled(type, me) ? FriendshipOperation.Result.THROTTLED
+					: perform(type, me, userName);
+			awaitLogged();
+			return result;
+		});
+	}
+
+	// run a public operation, counted and timed if metrics are attached; one that throws is
+	// recorded all the same
+	private <T> T timed(NetworkMetrics.Operation operation, Supplier<T> call) {
+		NetworkMetrics metrics = this.metrics;
+		if (metrics == null)
+			return call.get();
+		long started = metrics.start();
+		try {
+			return call.get();
+		} finally {
+			metrics.finish(operation, started);
+		}
+	}
+
+	private void timed(NetworkMetrics.Operation operation, Runnable call) {
+		timed(operation, () -> {
+			call.run();
+			return null;
+		});
+	}
+
+	// whether the rate limiter, if any, refuses this operation of me
+	private boolean throttled(FriendshipOperation.Type type, Account me) {
+		RequestRateLimiter limiter = this.limiter;
+		return limiter != null && type == FriendshipOperation.Type.REQUEST && me != null && !limiter.tryAcquire(me);
+	}
+
+	FriendshipOperation.Result perform(FriendshipOperation.Type type, Account me, String userName) {
+		return apply(type, me, findAccountForUserName(userName));
+	}
+
+	// the one place where a friendship operation of me towards other changes both accounts
+	FriendshipOperation.Result apply(FriendshipOperation.Type type, Account me, Account other) {
+		if (me == null || other == null)
+			return FriendshipOperation.Result.UNKNOWN_MEMBER;
+		FriendshipOperation.Result result = change(type, me, other);
+		if (result != FriendshipOperation.Result.APPLIED)
+			return result;
+		FriendshipLog log = this.log;
+		if (log != null)
+			log.applied(type, me.getUserName(), other.getUserName());
+		FriendshipEvents events = this.events;
+		RequestExpiry expiry = this.expiry;
+		if (events == null && expiry == null)
+			return result;
+		boolean autoAccepted = type == FriendshipOperation.Type.REQUEST && other.hasFriend(me.getUserName());
+		if (events != null) {
+			events.publish(FriendshipEvents.typeOf(type), me.getUserName(), other.getUserName());
+			if (autoAccepted)
+				events.publish(FriendshipEvent.Type.AUTO_ACCEPTED, other.getUserName(), me.getUserName());
+		}
+		// unless auto-accepted, a request stays pending until answered or expired
+		if (expiry != null && type == FriendshipOperation.Type.REQUEST && !autoAccepted)
+			expiry.requested(me, other);
+		return result;
+	}
+
+	private FriendshipOperation.Result change(FriendshipOperation.Type type, Account me, Account other) {
+		switch (type) {
+		case REQUEST:
+			if (other.hasFriend(me.getUserName()))
+				return FriendshipOperation.Result.NO_EFFECT;
+			boolean pending = other.getIncomingRequests().contains(me.getUserName());
+			other.requestFriendship(me);
+			// a repeated request only counts if it got auto-accepted this time
+			if (pending && !other.hasFriend(me.getUserName()))
+				return FriendshipOperation.Result.NO_EFFECT;
+			return FriendshipOperation.Result.APPLIED;
+		case ACCEPT:
+			if (!me.getIncomingRequests().contains(other.getUserName()))
+				return FriendshipOperation.Result.NO_EFFECT;
+			other.friendshipAccepted(me);
+			return FriendshipOperation.Result.APPLIED;
+		case REJECT:
+			boolean requested = me.getIncomingRequests().contains(other.getUserName());
+			other.friendshipRejected(me);
+			return requested ? FriendshipOperation.Result.APPLIED : FriendshipOperation.Result.NO_EFFECT;
+		case CANCEL:
+			if (!other.hasFriend(me.getUserName()))
+				return FriendshipOperation.Result.NO_EFFECT;
+			other.cancelFriendship(me);
+			return FriendshipOperation.Result.APPLIED;
+		default:
+			throw new IllegalArgumentException("unknown operation: " + type);
+		}
+	}
+
+	// suggest up to count members I am not friends with and have no pending request with,
+	// most mutual friends first
+	public List<String> suggestFriendsFor(Account me, int count) {
+		return timed(NetworkMetrics.Operation.SUGGEST, () -> new FriendSuggestions(this).suggestFor(me, count));
+	}
+
+	// how many friends I have in common with the member with userName, 0 if either of us is not a member
+	public int countMutualFriends(Account me, String userName) {
+		Account other = findAccountForUserName(userName);
+		if (!isMember(me) || other == null)
+			return 0;
+		return me.countMutualFriends(other);
+	}
+
+	// how I am connected to the member with userName: the user names along a shortest chain of
+	// friends from me to them, both included, or an empty list if there is no chain of at most
+	// maxDepth friendships or the search gave up before finding one (see ConnectionSearch)
+	public List<String> connectionTo(Account me, String userName, int maxDepth) {
+		return timed(NetworkMetrics.Operation.CONNECTION, () -> connection(me, userName, maxDepth));
+	}
+
+	private List<String> connection(Account me, String userName, int maxDepth) {
+		int[] chain = isMember(me) ? searches.get().path(me.getId(), idOf(userName), maxDepth,
+				ConnectionSearch.DEFAULT_BUDGET) : null;
+		List<String> connection = new ArrayList<String>(chain == null ? 0 : chain.length);
+		if (chain != null) {
+			for (int id : chain) {
+				String name = userNameOf(id);
+				// someone on the chain has just left
+				if (name == null) {
+					connection.clear();
+					break;
+				}
+				connection.add(name);
+			}
+		}
+		return connection;
+	}
+
+	// the number of friendships between me and the member with userName (1 for a friend, 2 for a
+	// friend of a friend), or -1 if it is more than maxDepth or the search gave up
+	public int degreesOfSeparation(Account me, String userName, int maxDepth) {
+		return connectionTo(me, userName, maxDepth).size() - 1;
+	}
 
 	public void autoAcceptFriendshipsTo(Account me){
-		me.autoAcceptFriendships();
+		startAutoAccepting(me);
+		awaitLogged();
 	};
 
+	void startAutoAccepting(Account me) {
+		me.autoAcceptFriendships();
+		FriendshipLog log = this.log;
+		if (log != null)
+			log.autoAccepting(me.getUserName());
+	}
+
 	// from another user with userName account, unfriending me as a friend
-	public void sendFriendshipCancellationTo(String userName, Account me) {
-		Account accountForUserName = findAccountForUserName(userName);
-		accountForUserName.cancelFriendship(me);
+	public FriendshipOperation.Result sendFriendshipCancellationTo(String userName, Account me) {
+		return operate(FriendshipOperation.Type.CANCEL, me, userName);
 	}
 
 	// from my account, leaving the social network
 	public void leave(Account me) {
-		//break off all friends
-		for (String friend : me.getFriends()) {
-			sendFriendshipCancellationTo(friend, me);
+		leaveAll(Collections.singletonList(me));
+	}
+
+	// many members leaving at once, e.g. purging a batch of deleted accounts
+	//
+	// each departing member is removed from the accounts that refer to it by walking its own
+	// friends and requests once, so the work is proportional to its degree and never searches
+	// the network. Friendships and requests between two departing members simply go with them.
+	// Accounts that are not (or no longer) members are skipped.
+	public void leaveAll(Collection<Account> members) {
+		timed(NetworkMetrics.Operation.LEAVE, () -> depart(members));
+	}
+
+	private void depart(Collection<Account> members) {
+		Set<Account> departing = startLeaving(members);
+		detachAll(departing);
+		// logged while the user names are still taken, so a later join of the same name is logged after it
+		FriendshipLog log = this.log;
+		if (log != null)
+			log.left(departing);
+		FriendshipEvents events = this.events;
+		if (events != null) {
+			for (Account me : departing) {
+				events.publish(FriendshipEvent.Type.LEFT, me.getUserName(), null);
+			}
+		}
+		MemberSearch memberSearch = this.memberSearch;
+		if (memberSearch != null) {
+			for (Account me : departing) {
+				memberSearch.left(me.getUserName());
+			}
 		}
-		//reject all incoming friend requests
-		for (String requester : me.getIncomingRequests()) {
-			rejectFriendshipFrom(requester, me);
+		for (Account me : departing) {
+			me.forgetAll();
+			unregister(me);
 		}
-		//retract all outgoing friend requests
-		for (String requestee : me.getOutgoingRequests()) {
-			rejectFriendshipFrom(me.getUserName(), findAccountForUserName(requestee));
+		awaitLogged();
+	}
+
+	// the accounts among members that are current members, each once
+	Set<Account> startLeaving(Collection<Account> members) {
+		Set<Account> departing = Collections.newSetFromMap(new IdentityHashMap<Account, Boolean>());
+		for (Account each : members) {
+			if (isMember(each))
+				departing.add(each);
 		}
-		accounts.remove(me);
+		return departing;
+	}
+
+	// drop the departing members from the accounts of the other members that refer to them
+	void detachAll(Set<Account> departing) {
+		for (Account me : departing) {
+			for (String friend : me.getFriends()) {
+				detach(me, friend, departing);
+			}
+			for (String requester : me.getIncomingRequests()) {
+				detach(me, requester, departing);
+			}
+			for (String requestee : me.getOutgoingRequests()) {
+				detach(me, requestee, departing);
+			}
+		}
+	}
+
+	// drop a departing member from the account of another member that refers to it
+	void detach(Account me, String userName, Set<Account> departing) {
+		Account other = findAccountForUserName(userName);
+		if (other != null && !departing.contains(other))
+			other.forget(me.getUserName());
 	}
 
 }
@@ -0,0 +1,331 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// a small TCP server that puts a SocialNetwork on the wire with a line protocol
+//
+// every connection gets a thread of its own, a virtual thread where the JVM has them (Java 21
+// and later) and a pooled platform thread otherwise, so connections simply block on their
+// socket. A request is one line of space separated words, and every request gets exactly one
+// response line, in order:
+//
+//   JOIN name                 OK | TAKEN
+//   LEAVE name                OK | UNKNOWN_MEMBER
+//   REQUEST name other        APPLIED | NO_EFFECT | UNKNOWN_MEMBER  (name sends other a request)
+//   ACCEPT name other         ...                                   (name accepts other's request)
+//   REJECT name other         ...
+//   CANCEL name other         ...                                   (name unfriends other)
+//   FRIENDS name              FRIENDS followed by the user names, or UNKNOWN_MEMBER
+//   INCOMING name             INCOMING followed by the user names, or UNKNOWN_MEMBER
+//   OUTGOING name             OUTGOING followed by the user names, or UNKNOWN_MEMBER
+//   PING                      PONG
+//
+// a REQUEST is answered THROTTLED instead when a RequestRateLimiter refuses it.
+// anything else is answered with ERROR and a reason. Clients may pipeline: send many requests
+// without waiting, and read the responses later. Responses are flushed whenever the server has
+// answered everything the client sent so far, so a pipelined burst costs one write.
+//
+// the server acts on behalf of whichever user name a request names; it is meant to sit behind
+// whatever authenticates callers, like the servlet layer it replaces. The network must be safe
+// for concurrent use, e.g. a ConcurrentSocialNetwork or ShardedSocialNetwork.
+public class SocialNetworkServer implements Closeable {
+
+	// longest request line accepted, in bytes
+	static final int MAX_LINE = 1024;
+
+	// how long to wait before accepting again after accept failed, doubling while it keeps failing
+	static final long MIN_ACCEPT_BACKOFF_MILLIS = 5;
+	static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+	private final SocialNetwork network;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections = newThreadPerTaskExecutor();
+	private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed = false;
+
+	// listen on a port of localhost, 0 for any free port
+	public SocialNetworkServer(SocialNetwork network, int port) throws IOException {
+		this(network, new InetSocketAddress("localhost", port));
+	}
+
+	public SocialNetworkServer(SocialNetwork network, InetSocketAddress address) throws IOException {
+		this(network, bind(address));
+	}
+
+	// serve the connections accepted by a bound server socket
+	SocialNetworkServer(SocialNetwork network, ServerSocket serverSocket) {
+		this.network = network;
+		this.serverSocket = serverSocket;
+		connections.execute(this::acceptConnections);
+	}
+
+	private static ServerSocket bind(InetSocketAddress address) throws IOException {
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(address, 4096);
+		return serverSocket;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	// stop accepting connections and close the open ones
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		for (Socket each : open) {
+			each.close();
+		}
+		connections.shutdown();
+		try {
+			connections.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// one virtual thread per task where the JVM supports them, one pooled platform thread otherwise
+	static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "social-network-connection");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	private void acceptConnections() {
+		long backoffMillis = 0;
+		while (!closed) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// closed, or out of file descriptors: either way stop listening only when closed, and
+				// give connections time to close before trying again instead of spinning
+				if (closed)
+					return;
+				backoffMillis = Math.min(Math.max(backoffMillis * 2, MIN_ACCEPT_BACKOFF_MILLIS), MAX_ACCEPT_BACKOFF_MILLIS);
+				try {
+					Thread.sleep(backoffMillis);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+				continue;
+			}
+			backoffMillis = 0;
+			open.add(socket);
+			connections.execute(() -> serve(socket));
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			LineReader in = new LineReader(connection.getInputStream());
+			ResponseWriter out = new ResponseWriter(connection.getOutputStream());
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				out.write(handle(line));
+				// answer a pipelined burst with one write
+				if (!in.hasBuffered())
+					out.flush();
+			}
+			out.flush();
+		} catch (SocketException e) {
+			// the client went away or the server is closing
+		} catch (IOException e) {
+			// a broken connection only affects its own client
+		} finally {
+			open.remove(socket);
+		}
+	}
+
+	// the response line to one request line
+	String handle(String line) {
+		String[] words = line.trim().split(" +");
+		String command = words[0];
+		try {
+			switch (command) {
+			case "PING":
+				return expect(words, 1) ? "PONG" : usage(command);
+			case "JOIN":
+				if (!expect(words, 2))
+					return usage(command);
+				return network.join(words[1]) != null ? "OK" : "TAKEN";
+			case "LEAVE":
+				if (!expect(words, 2))
+					return usage(command);
+				Account leaving = network.findAccountForUserName(words[1]);
+				if (leaving == null)
+					return FriendshipOperation.Result.UNKNOWN_MEMBER.name();
+				network.leave(leaving);
+				return "OK";
+			case "REQUEST":
+				return operation(words, FriendshipOperation.Type.REQUEST);
+			case "ACCEPT":
+				return operation(words, FriendshipOperation.Type.ACCEPT);
+			case "REJECT":
+				return operation(words, FriendshipOperation.Type.REJECT);
+			case "CANCEL":
+				return operation(words, FriendshipOperation.Type.CANCEL);
+			case "FRIENDS":
+				return query(words, command);
+			case "INCOMING":
+				return query(words, command);
+			case "OUTGOING":
+				return query(words, command);
+			default:
+				return "ERROR unknown command " + command;
+			}
+		} catch (RuntimeException e) {
+			return "ERROR " + e;
+		}
+	}
+
+	// through the network's own operations, so they are rate limited, counted and (for requests to
+	// auto-accepting members) queued like those of any other caller
+	private String operation(String[] words, FriendshipOperation.Type type) {
+		if (!expect(words, 3))
+			return usage(words[0]);
+		Account me = network.findAccountForUserName(words[1]);
+		if (me == null)
+			return FriendshipOperation.Result.UNKNOWN_MEMBER.name();
+		switch (type) {
+		case REQUEST:
+			return network.sendFriendshipTo(words[2], me).name();
+		case ACCEPT:
+			return network.acceptFriendshipFrom(words[2], me).name();
+		case REJECT:
+			return network.rejectFriendshipFrom(words[2], me).name();
+		default:
+			return network.sendFriendshipCancellationTo(words[2], me).name();
+		}
+	}
+
+	private String query(String[] words, String command) {
+		if (!expect(words, 2))
+			return usage(command);
+		Account account = network.findAccountForUserName(words[1]);
+		if (account == null)
+			return FriendshipOperation.Result.UNKNOWN_MEMBER.name();
+		Set<String> names;
+		if (command.equals("FRIENDS"))
+			names = account.getFriends();
+		else if (command.equals("INCOMING"))
+			names = account.getIncomingRequests();
+		else
+			names = account.getOutgoingRequests();
+		StringBuilder response = new StringBuilder(command);
+		for (String each : names) {
+			response.append(' ').append(each);
+		}
+		return response.toString();
+	}
+
+	private static boolean expect(String[] words, int count) {
+		return words.length == count;
+	}
+
+	private static String usage(String command) {
+		return "ERROR wrong number of arguments for " + command;
+	}
+
+	// reads '\n' terminated UTF-8 lines through a small buffer, so idle connections cost little memory
+	private static class LineReader {
+		private final InputStream in;
+		private byte[] buffer = new byte[256];
+		private int start = 0;
+		private int end = 0;
+
+		LineReader(InputStream in) {
+			this.in = in;
+		}
+
+		// the next line without its line terminator, or null at the end of the stream
+		String readLine() throws IOException {
+			int scanned = start;
+			while (true) {
+				for (; scanned < end; scanned++) {
+					if (buffer[scanned] == '\n') {
+						int length = scanned - start;
+						if (length > 0 && buffer[scanned - 1] == '\r')
+							length--;
+						String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+						start = scanned + 1;
+						return line;
+					}
+				}
+				if (end - start >= MAX_LINE)
+					throw new IOException("request line longer than " + MAX_LINE + " bytes");
+				if (start > 0) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					scanned -= start;
+					start = 0;
+				}
+				if (end == buffer.length)
+					buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_LINE + 1));
+				int read = in.read(buffer, end, buffer.length - end);
+				if (read < 0)
+					return null;
+				end += read;
+			}
+		}
+
+		// whether the client has already sent more than has been read
+		boolean hasBuffered() throws IOException {
+			return start < end || in.available() > 0;
+		}
+	}
+
+	// collects response lines until flushed
+	private static class ResponseWriter {
+		private final OutputStream out;
+		private byte[] buffer = new byte[256];
+		private int length = 0;
+
+		ResponseWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		void write(String line) throws IOException {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			if (length + bytes.length + 1 > buffer.length) {
+				if (length > 0)
+					flush();
+				if (bytes.length + 1 > buffer.length)
+					buffer = new byte[bytes.length + 1];
+			}
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+			buffer[length++] = '\n';
+		}
+
+		void flush() throws IOException {
+			if (length == 0)
+				return;
+			out.write(buffer, 0, length);
+			out.flush();
+			length = 0;
+		}
+	}
+}
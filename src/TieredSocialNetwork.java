@@ -0,0 +1,111 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.ObjDoubleConsumer;
+
+// a SocialNetwork that keeps only the friends and requests of recently used accounts on the heap
+// and pages the rest out to a local file
+//
+// every account's three sets are PagedNameSets sharing one AdjacencyCache, which holds at most
+// maxResidentNames names in memory and writes the least recently used sets to an AdjacencyStore
+// when more are needed. Accounts, user names and set sizes stay on the heap, so the network and
+// its members look exactly as in a plain SocialNetwork; touching a paged-out set (hasFriend,
+// getFriends, an operation on the account) reads it back first. Busy accounts keep their
+// FriendFilter on the heap too, so most failing hasFriend checks on them never fault.
+//
+// like a plain SocialNetwork it is for one thread at a time. The store file is scratch space,
+// deleted on close; save the network with NetworkSnapshot or BulkGraph as usual.
+public class TieredSocialNetwork extends SocialNetwork implements Closeable {
+
+	private final AdjacencyStore store;
+	private final AdjacencyCache cache;
+
+	public TieredSocialNetwork(Path storeFile, long maxResidentNames) throws IOException {
+		this.store = new AdjacencyStore(storeFile);
+		this.cache = new AdjacencyCache(store, maxResidentNames);
+	}
+
+	@Override
+	Account newAccount(String userName) {
+		return new Account(userName, () -> new PagedNameSet(cache));
+	}
+
+	// uses of a set that found it resident
+	public long hits() {
+		return cache.hits;
+	}
+
+	// uses of a set that had to read it back from the store
+	public long faults() {
+		return cache.faults;
+	}
+
+	// share of the uses of stored sets that found them resident, 0 before any use
+	public double hitRate() {
+		long uses = cache.hits + cache.faults;
+		return uses == 0 ? 0 : (double) cache.hits / uses;
+	}
+
+	// how long faults took, reading and rebuilding the set, in nanoseconds
+	public LogLinearHistogram faultLatencyNanos() {
+		return cache.faultNanos;
+	}
+
+	// sets paged out, and how many of those had to be written (the others were unchanged)
+	public long evictions() {
+		return cache.evictions;
+	}
+
+	public long evictionWrites() {
+		return cache.writes;
+	}
+
+	public long residentNames() {
+		return cache.residentNames();
+	}
+
+	public int residentSets() {
+		return cache.residentSets();
+	}
+
+	// size of the store file, garbage included, and of the file it is being compacted into if any
+	public long storeBytes() {
+		return store.bytes();
+	}
+
+	// compactions of the store finished, and how long each step of copying records took, in
+	// nanoseconds; a step runs on the access that paged a set out or in
+	public long compactions() {
+		return store.compactions;
+	}
+
+	public LogLinearHistogram compactionStepLatencyNanos() {
+		return store.compactionStepNanos;
+	}
+
+	// hand every value to an exporter as a name like "adjacency.hit_rate", as NetworkMetrics.export does
+	public void export(ObjDoubleConsumer<String> exporter) {
+		LogLinearHistogram faultLatency = faultLatencyNanos();
+		exporter.accept("adjacency.hits", hits());
+		exporter.accept("adjacency.faults", faults());
+		exporter.accept("adjacency.hit_rate", hitRate());
+		exporter.accept("adjacency.fault_latency.p50_us", faultLatency.percentile(0.5) / 1000.0);
+		exporter.accept("adjacency.fault_latency.p99_us", faultLatency.percentile(0.99) / 1000.0);
+		exporter.accept("adjacency.fault_latency.max_us", faultLatency.max() / 1000.0);
+		exporter.accept("adjacency.evictions", evictions());
+		exporter.accept("adjacency.eviction_writes", evictionWrites());
+		exporter.accept("adjacency.resident_names", residentNames());
+		exporter.accept("adjacency.resident_sets", residentSets());
+		exporter.accept("adjacency.store_bytes", storeBytes());
+		exporter.accept("adjacency.store_live_bytes", store.liveBytes());
+		LogLinearHistogram compactionStep = compactionStepLatencyNanos();
+		exporter.accept("adjacency.compactions", compactions());
+		exporter.accept("adjacency.compaction_step.p99_us", compactionStep.percentile(0.99) / 1000.0);
+		exporter.accept("adjacency.compaction_step.max_us", compactionStep.max() / 1000.0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		store.close();
+	}
+}
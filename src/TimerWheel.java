@@ -0,0 +1,171 @@
+import java.util.function.Consumer;
+
+// a hierarchical timer wheel: schedules items for a deadline and hands them back once it passes
+//
+// time is cut into ticks. Level 0 has a slot for each of the next 64 ticks, level 1 a slot for
+// each of the next 64 runs of 64 ticks, and so on for four levels (16.7 million ticks); anything
+// further out waits in an overflow list. Scheduling puts an item straight into its slot, and
+// advancing visits one level-0 slot per tick, moving the items of a higher-level slot down a
+// level when its time comes, so every item costs O(1) amortised however many are waiting.
+// Stretches of time with nothing due at the lower levels are skipped in one step.
+//
+// not thread-safe: callers guard it with a lock of their own.
+class TimerWheel<T> {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int LEVELS = 4;
+
+	private static class Node<T> {
+		final T item;
+		final long deadline; // in ticks
+		Node<T> next;
+
+		Node(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tickNanos;
+	private final long startNanos;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final Node<T>[][] slots = new Node[LEVELS][SLOTS];
+	private Node<T> overflow = null;
+
+	// items scheduled for a tick that has already been handed back, due at the next advance
+	private Node<T> due = null;
+
+	// number of items in each level, and in the overflow list at index LEVELS
+	private final int[] occupied = new int[LEVELS + 1];
+
+	// every tick before this one has been handed back
+	private long currentTick = 0;
+	private int size = 0;
+
+	TimerWheel(long tickNanos, long startNanos) {
+		if (tickNanos < 1)
+			throw new IllegalArgumentException("tickNanos must be positive: " + tickNanos);
+		this.tickNanos = tickNanos;
+		this.startNanos = startNanos;
+	}
+
+	// schedule an item for a deadline, on the same clock as startNanos; it is handed back by the
+	// first advance to a time at or after the end of the deadline's tick
+	void schedule(T item, long deadlineNanos) {
+		long ticks = deadlineNanos - startNanos;
+		// round up, so an item never comes back before its deadline
+		long deadline = ticks <= 0 ? 0 : (ticks + tickNanos - 1) / tickNanos;
+		Node<T> node = new Node<T>(item, deadline);
+		if (deadline < currentTick) {
+			node.next = due;
+			due = node;
+		} else {
+			place(node);
+		}
+		size++;
+	}
+
+	// hand back every item whose deadline has passed by nowNanos, in deadline order; returns how many
+	int advance(long nowNanos, Consumer<? super T> expired) {
+		long now = (nowNanos - startNanos) / tickNanos;
+		int handed = 0;
+		for (Node<T> node = due; node != null; node = node.next) {
+			size--;
+			handed++;
+			expired.accept(node.item);
+		}
+		due = null;
+		while (currentTick <= now) {
+			if (occupied[0] == 0 && !skipToNextCascade(now))
+				break;
+			long tick = currentTick;
+			if ((tick & (SLOTS - 1)) == 0 && tick > 0)
+				cascade(1, tick);
+			int slot = (int) (tick & (SLOTS - 1));
+			Node<T> node = slots[0][slot];
+			slots[0][slot] = null;
+			currentTick = tick + 1;
+			for (; node != null; node = node.next) {
+				occupied[0]--;
+				size--;
+				handed++;
+				expired.accept(node.item);
+			}
+		}
+		return handed;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// with level 0 empty nothing can come due before the next tick at which the lowest occupied
+	// level cascades: move there, or past now if that is later; returns whether to go on
+	private boolean skipToNextCascade(long now) {
+		int level = 1;
+		while (level <= LEVELS && occupied[level] == 0) {
+			level++;
+		}
+		if (level > LEVELS) {
+			currentTick = now + 1;
+			return false;
+		}
+		long span = 1L << (SLOT_BITS * level);
+		long next = (currentTick + span - 1) & -span;
+		if (next > now) {
+			currentTick = now + 1;
+			return false;
+		}
+		currentTick = next;
+		return true;
+	}
+
+	// move the items of the level's slot for this tick down to lower levels, after doing the
+	// same for the levels above if their slot also starts at this tick
+	private void cascade(int level, long tick) {
+		if (level == LEVELS) {
+			Node<T> node = overflow;
+			overflow = null;
+			occupied[LEVELS] = 0;
+			replace(node);
+			return;
+		}
+		int shift = SLOT_BITS * level;
+		if (((tick >>> shift) & (SLOTS - 1)) == 0)
+			cascade(level + 1, tick);
+		int slot = (int) ((tick >>> shift) & (SLOTS - 1));
+		Node<T> node = slots[level][slot];
+		slots[level][slot] = null;
+		for (Node<T> each = node; each != null; each = each.next) {
+			occupied[level]--;
+		}
+		replace(node);
+	}
+
+	private void replace(Node<T> node) {
+		while (node != null) {
+			Node<T> next = node.next;
+			place(node);
+			node = next;
+		}
+	}
+
+	// the lowest level whose current window (the ticks sharing all higher digits with the
+	// current tick) contains the deadline; its slot is visited before the deadline passes
+	private void place(Node<T> node) {
+		for (int level = 0; level < LEVELS; level++) {
+			int above = SLOT_BITS * (level + 1);
+			if ((node.deadline >>> above) == (currentTick >>> above)) {
+				int slot = (int) ((node.deadline >>> (SLOT_BITS * level)) & (SLOTS - 1));
+				node.next = slots[level][slot];
+				slots[level][slot] = node;
+				occupied[level]++;
+				return;
+			}
+		}
+		node.next = overflow;
+		overflow = node;
+		occupied[LEVELS]++;
+	}
+}
@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a ConcurrentSocialNetwork for read-heavy traffic, whose readers look at immutable versions of
+// the whole network instead of the accounts that writers are changing
+//
+// writes work exactly as in a ConcurrentSocialNetwork, and while they still hold the stripes of
+// the accounts they changed, they copy the sets they changed (see NetworkVersion.Member) and
+// queue the copies as one record, so the records are queued in the order the writes took the
+// accounts. Before a write returns, a new NetworkVersion with its record is published, so a
+// thread always reads its own writes: the writer that gets to publish first takes every record
+// queued so far, lays the copies over the version before and swaps the new version in with one
+// volatile write, taking no stripe at all, while writers that come meanwhile wait and usually
+// find their changes already published (group commit, like FriendshipLog). A version shares
+// everything but the changed accounts with the one before it, see PersistentNameMap, and a
+// changed account shares the sets the change did not touch, so publishing costs in proportion
+// to what changed, not to the members.
+//
+// readers call version() and read from it without any locks; a reader holding a version sees
+// it unchanged, friendships always on both sides. The accounts themselves still answer as
+// usual, with whatever writers are doing to them right now.
+//
+// joins, leaves and friendship operations are published; state loaded straight into the
+// accounts (NetworkSnapshot.load, BulkGraph.load, FriendshipLog.recover) is not, so call
+// publishAll after loading.
+public class VersionedSocialNetwork extends ConcurrentSocialNetwork {
+
+	private volatile NetworkVersion version = NetworkVersion.EMPTY;
+
+	// an account a write changed, with a copy of the sets it changed, or null once it has left
+	private static final class Change {
+		final Account account;
+		final NetworkVersion.Member copy;
+
+		Change(Account account, NetworkVersion.Member copy) {
+			this.account = account;
+			this.copy = copy;
+		}
+	}
+
+	// the changes of each write since the last version, one record per write
+	private final ConcurrentLinkedQueue<Change[]> changed = new ConcurrentLinkedQueue<Change[]>();
+	// counts the writes noted, each after it queued its record
+	private final AtomicLong noted = new AtomicLong();
+	private final ReentrantLock publishing = new ReentrantLock();
+	// the changes of the batch this thread is applying, queued as one record before its stripes are let go
+	private final ThreadLocal<List<Change>> batch = new ThreadLocal<List<Change>>();
+
+	public VersionedSocialNetwork() {
+		super();
+	}
+
+	public VersionedSocialNetwork(int concurrencyLevel) {
+		super(concurrencyLevel);
+	}
+
+	// the latest version published
+	public NetworkVersion version() {
+		return version;
+	}
+
+	// publish a version made afresh from every account, e.g. after loading a snapshot
+	public void publishAll() {
+		publishing.lock();
+		try {
+			version = withAllStripes(() -> {
+				// no write is under way now, and every one before has queued its record
+				long covered = noted.get();
+				changed.clear();
+				PersistentNameMap<NetworkVersion.Member> members = PersistentNameMap.empty();
+				for (Account each : accounts()) {
+					if (isMember(each) && !each.isLeaving())
+						members = members.put(each.getUserName(), new NetworkVersion.Member(each));
+				}
+				return new NetworkVersion(members, version.number() + 1, covered);
+			});
+		} finally {
+			publishing.unlock();
+		}
+	}
+
+	// copied under the new user name's stripe, so no request to the new member is queued before it
+	@Override
+	Account register(String userName) {
+		if (userName == null)
+			return null;
+		Account joined = withPair(userName, userName, () -> {
+			Account account = super.register(userName);
+			if (account != null)
+				noteChanged(copy(account, NetworkVersion.Member.ALL));
+			return account;
+		});
+		if (joined != null)
+			publishChanges();
+		return joined;
+	}
+
+	@Override
+	FriendshipOperation.Result perform(FriendshipOperation.Type type, Account me, String userName) {
+		FriendshipOperation.Result result = super.perform(type, me, userName);
+		publishChanges();
+		return result;
+	}
+
+	@Override
+	List<FriendshipOperation.Result> performBatch(List<FriendshipOperation> operations, boolean limited) {
+		List<FriendshipOperation.Result> results = super.performBatch(operations, limited);
+		publishChanges();
+		return results;
+	}
+
+	// a batch is queued as one record, so a version has either all of it or none
+	@Override
+	List<FriendshipOperation.Result> performLockedBatch(List<FriendshipOperation> operations, boolean limited) {
+		List<Change> open = new ArrayList<Change>();
+		batch.set(open);
+		try {
+			return super.performLockedBatch(operations, limited);
+		} finally {
+			batch.remove();
+			if (!open.isEmpty())
+				queue(open.toArray(new Change[open.size()]));
+		}
+	}
+
+	@Override
+	FriendshipOperation.Result[] performRequests(Account member, List<Account> senders) {
+		FriendshipOperation.Result[] results = super.performRequests(member, senders);
+		publishChanges();
+		return results;
+	}
+
+	// copied while both stripes are still held, so a version has either both accounts or neither
+	@Override
+	FriendshipOperation.Result apply(FriendshipOperation.Type type, Account me, Account other) {
+		FriendshipOperation.Result result = super.apply(type, me, other);
+		if (result != FriendshipOperation.Result.APPLIED)
+			return result;
+		switch (type) {
+		case REQUEST:
+			// an auto-accepted request made friends too
+			int friends = other.hasFriend(me.getUserName()) ? NetworkVersion.Member.FRIENDS : 0;
+			noteChanged(copy(me, NetworkVersion.Member.OUTGOING | friends),
+					copy(other, NetworkVersion.Member.INCOMING | friends));
+			break;
+		case ACCEPT:
+			noteChanged(copy(me, NetworkVersion.Member.INCOMING | NetworkVersion.Member.FRIENDS),
+					copy(other, NetworkVersion.Member.OUTGOING | NetworkVersion.Member.FRIENDS));
+			break;
+		case REJECT:
+			noteChanged(copy(me, NetworkVersion.Member.INCOMING), copy(other, NetworkVersion.Member.OUTGOING));
+			break;
+		default:
+			noteChanged(copy(me, NetworkVersion.Member.FRIENDS), copy(other, NetworkVersion.Member.FRIENDS));
+		}
+		return result;
+	}
+
+	// a departure is one record: the stripes of the departing members and of everyone they refer
+	// to are held while they are detached, copied and queued, so no version has one side of a
+	// friendship with a departing member without the other, and the record is queued before the
+	// user names are given up. Departing members take no new friends or requests, so their sets
+	// name everyone to lock.
+	@Override
+	void detachAll(Set<Account> departing) {
+		Set<String> userNames = new HashSet<String>();
+		for (Account me : departing) {
+			userNames.add(me.getUserName());
+			userNames.addAll(me.getFriends());
+			userNames.addAll(me.getIncomingRequests());
+			userNames.addAll(me.getOutgoingRequests());
+		}
+		withStripesOf(userNames, () -> {
+			super.detachAll(departing);
+			List<Change> departure = new ArrayList<Change>();
+			for (String each : userNames) {
+				Account other = findAccountForUserName(each);
+				if (other != null && !departing.contains(other))
+					departure.add(copy(other, NetworkVersion.Member.ALL));
+			}
+			for (Account me : departing) {
+				departure.add(new Change(me, null));
+			}
+			if (!departure.isEmpty())
+				queue(departure.toArray(new Change[departure.size()]));
+			return null;
+		});
+	}
+
+	@Override
+	public void leaveAll(Collection<Account> members) {
+		super.leaveAll(members);
+		publishChanges();
+	}
+
+	// what changes under these locks (a request expiring, see RequestExpiry) is published too
+	@Override
+	void locked(String first, String second, Runnable operation) {
+		super.locked(first, second, operation);
+		publishChanges();
+	}
+
+	// only called holding the account's stripe
+	private Change copy(Account account, int sets) {
+		return new Change(account, isMember(account) && !account.isLeaving() ? new NetworkVersion.Member(account, sets)
+				: null);
+	}
+
+	private void noteChanged(Change... changes) {
+		List<Change> open = batch.get();
+		if (open != null)
+			Collections.addAll(open, changes);
+		else
+			queue(changes);
+	}
+
+	private void queue(Change[] write) {
+		changed.add(write);
+		noted.incrementAndGet();
+	}
+
+	// return once a version with every change noted so far is published, publishing it if nobody else is
+	private void publishChanges() {
+		long wanted = noted.get();
+		if (version.changes() >= wanted)
+			return;
+		publishing.lock();
+		try {
+			if (version.changes() >= wanted)
+				return;
+			// every write counted by now has queued its record; later ones may be taken along
+			long covered = noted.get();
+			Map<Account, NetworkVersion.Member> copies = new IdentityHashMap<Account, NetworkVersion.Member>();
+			Set<Account> left = Collections.newSetFromMap(new IdentityHashMap<Account, Boolean>());
+			for (Change[] write; (write = changed.poll()) != null; ) {
+				for (Change each : write) {
+					if (each.copy == null)
+						left.add(each.account);
+					else
+						copies.merge(each.account, each.copy, (earlier, later) -> later.over(earlier));
+				}
+			}
+			PersistentNameMap<NetworkVersion.Member> members = version.memberMap();
+			for (Map.Entry<Account, NetworkVersion.Member> each : copies.entrySet()) {
+				String userName = each.getKey().getUserName();
+				if (!left.contains(each.getKey()))
+					members = members.put(userName, each.getValue().over(members.get(userName)));
+			}
+			for (Account each : left) {
+				NetworkVersion.Member published = members.get(each.getUserName());
+				// unless the user name belongs to a newer account by now
+				if (published != null && published.account == each)
+					members = members.remove(each.getUserName());
+			}
+			version = new NetworkVersion(members, version.number() + 1, covered);
+		} finally {
+			publishing.unlock();
+		}
+	}
+
+}
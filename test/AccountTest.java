@@ -1,6 +1,8 @@
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
@@ -162,5 +164,60 @@ public class AccountTest {
 		assertFalse(her.hasFriend(me.getUserName()));;
 	}
 
+	@Test
+	public void busyAccountsAnswerHasFriendThroughTheFilterCorrectly() {
+		List<Account> friends = new ArrayList<Account>();
+		for (int i = 0; i < 3 * FriendFilter.MIN_FRIENDS; i++) {
+			Account friend = new Account("friend" + i);
+			friend.requestFriendship(me);
+			me.friendshipAccepted(friend);
+			friends.add(friend);
+		}
+		for (int i = 0; i < friends.size(); i += 2) {
+			friends.get(i).cancelFriendship(me);
+		}
+		for (int i = 0; i < friends.size(); i++) {
+			assertEquals(i % 2 == 1, me.hasFriend("friend" + i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertFalse(me.hasFriend("stranger" + i));
+		}
+		assertFalse(me.hasFriend(null));
+	}
 
-}
\ No newline at end of file
+	@Test
+	public void accountsFallingBackToFewFriendsStillAnswerCorrectly() {
+		List<Account> friends = new ArrayList<Account>();
+		for (int i = 0; i < FriendFilter.MIN_FRIENDS; i++) {
+			Account friend = new Account("friend" + i);
+			friend.requestFriendship(me);
+			me.friendshipAccepted(friend);
+			friends.add(friend);
+		}
+		for (int i = 1; i < friends.size(); i++) {
+			me.forget("friend" + i);
+		}
+		assertTrue(me.hasFriend("friend0"));
+		assertFalse(me.hasFriend("friend1"));
+		Account again = new Account("friend1");
+		again.requestFriendship(me);
+		me.friendshipAccepted(again);
+		assertTrue(me.hasFriend("friend1"));
+	}
+
+	@Test
+	public void countMutualFriendsCountsFriendsInCommon() {
+		for (int i = 0; i < 2 * FriendFilter.MIN_FRIENDS; i++) {
+			Account friend = new Account("friend" + i);
+			friend.requestFriendship(me);
+			me.friendshipAccepted(friend);
+			if (i % 3 == 0) {
+				friend.requestFriendship(her);
+				her.friendshipAccepted(friend);
+			}
+		}
+		assertEquals(43, me.countMutualFriends(her));
+		assertEquals(43, her.countMutualFriends(me));
+		assertEquals(0, me.countMutualFriends(another));
+	}
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AdjacencyStoreTest {
+	Path dir;
+	AdjacencyStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("adjacency");
+		store = new AdjacencyStore(dir.resolve("adjacency.store"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		Files.delete(dir);
+	}
+
+	@Test
+	public void pagesReadBackWhatWasWritten() throws Exception {
+		int empty = store.write(List.of());
+		int some = store.write(List.of("Hakan", "Cecile", "\u00c7a\u011fla"));
+		assertArrayEquals(new String[0], store.read(empty));
+		assertArrayEquals(new String[] { "Hakan", "Cecile", "\u00c7a\u011fla" }, store.read(some));
+	}
+
+	@Test
+	public void freedPagesAreHandedOutAgain() throws Exception {
+		int first = store.write(List.of("Hakan"));
+		store.write(List.of("Cecile"));
+		store.free(first);
+		assertEquals(first, store.write(List.of("Rafal")));
+		assertArrayEquals(new String[] { "Rafal" }, store.read(first));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void readingAFreedPageFails() throws Exception {
+		int page = store.write(List.of("Hakan"));
+		store.free(page);
+		store.read(page);
+	}
+
+	@Test
+	public void compactionKeepsLivePagesAndDropsGarbage() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			names.add("some rather long user name " + i);
+		}
+		int kept = store.write(names);
+		// rewrite a big list until the garbage passes the compaction threshold several times
+		int page = store.write(names);
+		for (int i = 0; i < 2000; i++) {
+			store.free(page);
+			page = store.write(names);
+		}
+		assertTrue(store.bytes() < 4 * store.liveBytes() + (32 << 20));
+		assertEquals(names, List.of(store.read(kept)));
+		assertEquals(names, List.of(store.read(page)));
+	}
+
+	@Test
+	public void compactionCopiesAStepAtATimeWhilePagesStayReadable() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			names.add("some rather long user name " + i);
+		}
+		List<Integer> pages = new ArrayList<Integer>();
+		for (int i = 0; i < 1100; i++) {
+			pages.add(store.write(names));
+		}
+		// free until there is more garbage than live records, which starts a compaction
+		while (!store.compacting()) {
+			store.free(pages.remove(pages.size() - 1));
+		}
+		assertEquals(0, store.compactions);
+		List<String> rewritten = List.of("Hakan", "Cecile");
+		int page = store.write(rewritten);
+		for (int each : pages) {
+			assertEquals(names, List.of(store.read(each)));
+		}
+		assertArrayEquals(new String[] { "Hakan", "Cecile" }, store.read(page));
+		while (store.compacting()) {
+			store.free(page);
+			page = store.write(rewritten);
+		}
+		assertEquals(1, store.compactions);
+		// a step for every free and write while it was under way, each timed
+		assertTrue(store.compactionStepNanos.count() > 10);
+		assertTrue(store.bytes() < 2 * store.liveBytes());
+		for (int each : pages) {
+			assertEquals(names, List.of(store.read(each)));
+		}
+		assertArrayEquals(new String[] { "Hakan", "Cecile" }, store.read(page));
+	}
+}
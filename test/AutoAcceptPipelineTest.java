@@ -0,0 +1,261 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AutoAcceptPipelineTest {
+
+	ConcurrentSocialNetwork sn;
+	AutoAcceptPipeline pipeline;
+	Account star;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new ConcurrentSocialNetwork();
+		star = sn.join("star");
+		sn.autoAcceptFriendshipsTo(star);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (pipeline != null)
+			pipeline.close();
+	}
+
+	@Test
+	public void requesterReadsItsOwnAcceptedRequest() {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16);
+		Account fan = sn.join("fan");
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", fan));
+		assertTrue(fan.hasFriend("star"));
+		assertTrue(star.hasFriend("fan"));
+		assertTrue(fan.getOutgoingRequests().isEmpty());
+		assertEquals(1, pipeline.applied());
+		assertEquals(1, pipeline.lagNanos().count());
+		assertEquals(0, pipeline.queued());
+	}
+
+	@Test
+	public void requestsToOtherMembersAreNotQueued() {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16);
+		Account fan = sn.join("fan");
+		Account other = sn.join("other");
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("other", fan));
+		assertTrue(other.getIncomingRequests().contains("fan"));
+		assertEquals(FriendshipOperation.Result.UNKNOWN_MEMBER, sn.sendFriendshipTo("nobody", fan));
+		assertEquals(0, pipeline.applied());
+	}
+
+	@Test
+	public void manyFansAllBecomeFriends() throws Exception {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 1024);
+		int threads = 8;
+		int perThread = 500;
+		Thread[] senders = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int first = t * perThread;
+			senders[t] = new Thread(() -> {
+				for (int i = first; i < first + perThread; i++) {
+					Account fan = sn.join("fan" + i);
+					assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", fan));
+					assertTrue(fan.hasFriend("star"));
+				}
+			});
+			senders[t].start();
+		}
+		for (Thread each : senders) {
+			each.join();
+		}
+		assertEquals(threads * perThread, star.getFriends().size());
+		assertTrue(star.getIncomingRequests().isEmpty());
+		assertEquals(threads * perThread, pipeline.applied() + pipeline.overflowed() + pipeline.timedOut());
+		assertTrue(pipeline.batches() <= pipeline.applied());
+	}
+
+	@Test
+	public void fullQueueIsAppliedBySender() throws Exception {
+		// an executor that holds on to its tasks until the test runs them
+		ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		pipeline = AutoAcceptPipeline.attachTo(sn, 1, tasks::add);
+		Account first = sn.join("first");
+		Account second = sn.join("second");
+		List<FriendshipOperation.Result> firstResult = new ArrayList<FriendshipOperation.Result>();
+		Thread waiting = new Thread(() -> firstResult.add(sn.sendFriendshipTo("star", first)));
+		waiting.start();
+		while (pipeline.queued() == 0) {
+			Thread.sleep(1);
+		}
+		assertFalse(first.hasFriend("star"));
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", second));
+		assertTrue(second.hasFriend("star"));
+		assertEquals(1, pipeline.overflowed());
+		tasks.poll().run();
+		waiting.join();
+		assertEquals(List.of(FriendshipOperation.Result.APPLIED), firstResult);
+		assertTrue(first.hasFriend("star"));
+		assertEquals(1, pipeline.batches());
+	}
+
+	@Test
+	public void requestNotTakenUpInTimeIsAppliedBySender() throws Exception {
+		ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16, TimeUnit.MILLISECONDS.toNanos(50), tasks::add);
+		Account fan = sn.join("fan");
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", fan));
+		assertTrue(fan.hasFriend("star"));
+		assertEquals(1, pipeline.timedOut());
+
+		// the batch that finds it later leaves it alone
+		tasks.poll().run();
+		assertEquals(0, pipeline.applied());
+		assertEquals(0, pipeline.queued());
+		assertEquals(1, star.getFriends().size());
+	}
+
+	@Test
+	public void batchIsForcedToTheLogOnceAfterItsLocks() throws Exception {
+		Path dir = Files.createTempDirectory("auto-accept-log");
+		ConcurrentSocialNetwork logged = FriendshipLog.recover(dir.resolve("snapshot"), dir.resolve("log"),
+				new ConcurrentSocialNetwork());
+		try {
+			Account popular = logged.join("star");
+			logged.autoAcceptFriendshipsTo(popular);
+			ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+			pipeline = AutoAcceptPipeline.attachTo(logged, 16, TimeUnit.MINUTES.toNanos(1), tasks::add);
+			Thread[] senders = new Thread[5];
+			for (int i = 0; i < senders.length; i++) {
+				Account fan = logged.join("fan" + i);
+				senders[i] = new Thread(() -> logged.sendFriendshipTo("star", fan));
+				senders[i].start();
+			}
+			while (pipeline.queued() < senders.length) {
+				Thread.sleep(1);
+			}
+			long forces = logged.log().forces();
+			tasks.poll().run();
+			assertEquals(forces + 1, logged.log().forces());
+			for (Thread each : senders) {
+				each.join();
+			}
+			assertEquals(senders.length, popular.getFriends().size());
+			assertEquals(1, pipeline.batches());
+		} finally {
+			logged.log().close();
+			for (String file : new String[] { "log", "snapshot" }) {
+				Files.deleteIfExists(dir.resolve(file));
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void requestsHoldTheMembersStripeAndOneSendersAtATime() throws Exception {
+		ConcurrentSocialNetwork striped = new ConcurrentSocialNetwork(16);
+		String memberName = nameWithStripeAbove(striped, 0, "member");
+		Account member = striped.join(memberName);
+		striped.autoAcceptFriendshipsTo(member);
+		String blockedName = nameWithStripeBelow(striped, striped.stripeIndex(memberName), "blocked");
+		Account blocked = striped.join(blockedName);
+		List<Account> senders = new ArrayList<Account>();
+		for (int i = 0; i < 20; i++) {
+			senders.add(striped.join("fan" + i));
+		}
+		senders.add(blocked);
+
+		// another thread holds the stripe of one sender that comes before the member's
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(() -> striped.locked(blockedName, blockedName, () -> {
+			holding.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		holder.start();
+		holding.await();
+		FriendshipOperation.Result[][] results = new FriendshipOperation.Result[1][];
+		Thread draining = new Thread(() -> results[0] = striped.performRequests(member, senders));
+		draining.start();
+		while (draining.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		// the others are applied and the member's stripe is free while the blocked one waits
+		assertEquals(20, member.getFriends().size());
+		boolean[] free = new boolean[1];
+		Thread other = new Thread(() -> striped.locked(memberName, memberName, () -> free[0] = true));
+		other.start();
+		other.join(10000);
+		assertTrue(free[0]);
+
+		release.countDown();
+		draining.join();
+		holder.join();
+		for (FriendshipOperation.Result each : results[0]) {
+			assertEquals(FriendshipOperation.Result.APPLIED, each);
+		}
+		assertTrue(blocked.hasFriend(memberName));
+	}
+
+	private static String nameWithStripeAbove(ConcurrentSocialNetwork network, int stripe, String prefix) {
+		for (int i = 0; ; i++) {
+			if (network.stripeIndex(prefix + i) > stripe)
+				return prefix + i;
+		}
+	}
+
+	private static String nameWithStripeBelow(ConcurrentSocialNetwork network, int stripe, String prefix) {
+		for (int i = 0; ; i++) {
+			if (network.stripeIndex(prefix + i) < stripe)
+				return prefix + i;
+		}
+	}
+
+	@Test
+	public void queuedRequestsRespectTheRateLimit() {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16);
+		RequestRateLimiter.attachTo(sn, 1, Duration.ofDays(1));
+		Account fan = sn.join("fan");
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", fan));
+		sn.sendFriendshipCancellationTo("star", fan);
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("star", fan));
+		assertEquals(1, pipeline.applied());
+	}
+
+	@Test
+	public void leavingMemberTakesItsQueueWithIt() {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16);
+		for (int i = 0; i < 10; i++) {
+			Account popular = sn.join("popular" + i);
+			sn.autoAcceptFriendshipsTo(popular);
+			assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("popular" + i, sn.join("fan" + i)));
+		}
+		assertEquals(10, pipeline.inboxes());
+		for (int i = 0; i < 10; i++) {
+			sn.leave(sn.findAccountForUserName("popular" + i));
+		}
+		assertEquals(0, pipeline.inboxes());
+	}
+
+	@Test
+	public void closedPipelineAppliesRequestsDirectly() {
+		pipeline = AutoAcceptPipeline.attachTo(sn, 16);
+		pipeline.close();
+		Account fan = sn.join("fan");
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("star", fan));
+		assertTrue(fan.hasFriend("star"));
+		assertEquals(0, pipeline.applied());
+	}
+}
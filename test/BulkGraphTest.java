@@ -0,0 +1,159 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class BulkGraphTest {
+	SocialNetwork sn;
+	Account me, her, another;
+	Path file;
+	Path again;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		file = Files.createTempFile("network", ".bulk");
+		again = Files.createTempFile("network", ".bulk");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(again);
+	}
+
+	@Test
+	public void emptyNetworkRoundTrips() throws IOException {
+		BulkGraph.Summary summary = BulkGraph.export(new SocialNetwork(), file);
+		assertEquals(0, summary.members());
+		assertTrue(BulkGraph.load(file).listMembers().isEmpty());
+	}
+
+	@Test
+	public void friendsRequestsAndAutoAcceptRoundTrip() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.autoAcceptFriendshipsTo(another);
+		sn.sendFriendshipTo("Hakan", another);
+		sn.sendFriendshipTo("Rafal", her);
+
+		BulkGraph.Summary summary = BulkGraph.export(sn, file);
+		assertEquals(3, summary.members());
+		assertEquals(2, summary.friendships());
+		assertEquals(me.getOutgoingRequests().size() + another.getOutgoingRequests().size(), summary.requests());
+		SocialNetwork loaded = BulkGraph.load(file);
+		assertSameState(sn, loaded);
+		assertTrue(loaded.findAccountForUserName("Rafal").isAutoAcceptingFriendships());
+	}
+
+	@Test
+	public void pendingRequestsRoundTrip() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.sendFriendshipTo("Hakan", another);
+		assertEquals(2, BulkGraph.export(sn, file).requests());
+		SocialNetwork loaded = BulkGraph.load(file);
+		assertSameState(sn, loaded);
+		// and are still pending, to be answered as usual
+		loaded.acceptFriendshipFrom("Hakan", loaded.findAccountForUserName("Cecile"));
+		assertTrue(loaded.findAccountForUserName("Hakan").hasFriend("Cecile"));
+	}
+
+	@Test
+	public void exportingWhatWasImportedGivesTheSameBytes() throws IOException {
+		SocialNetwork big = randomNetwork(new SocialNetwork());
+		BulkGraph.export(big, file);
+		BulkGraph.export(BulkGraph.load(file), again);
+		assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(again));
+		BulkGraph.export(BulkGraph.load(file, new CompactSocialNetwork()), again);
+		assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(again));
+	}
+
+	@Test
+	public void randomNetworkRoundTripsIntoOtherModes() throws IOException {
+		SocialNetwork big = randomNetwork(new CompactSocialNetwork());
+		BulkGraph.export(big, file);
+		assertSameState(big, BulkGraph.load(file));
+		assertSameState(big, BulkGraph.load(file, new ConcurrentSocialNetwork()));
+		assertSameState(big, BulkGraph.load(file, new CompactSocialNetwork()));
+	}
+
+	@Test
+	public void summaryIsReadFromTheFooter() throws IOException {
+		SocialNetwork big = randomNetwork(new SocialNetwork());
+		BulkGraph.Summary exported = BulkGraph.export(big, file);
+		BulkGraph.Summary read = BulkGraph.summary(file);
+		assertEquals(big.listMembers().size(), read.members());
+		assertEquals(exported.friendships(), read.friendships());
+		assertEquals(exported.requests(), read.requests());
+		assertEquals(exported.toString(), read.toString());
+	}
+
+	@Test(expected = IOException.class)
+	public void loadingSomethingElseFails() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		BulkGraph.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void loadingTruncatedFileFails() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		BulkGraph.export(sn, file);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+		BulkGraph.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void loadingCorruptedFileFails() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		BulkGraph.export(sn, file);
+		byte[] bytes = Files.readAllBytes(file);
+		// a user name letter, which no structural check would notice
+		bytes[14] ^= 1;
+		Files.write(file, bytes);
+		BulkGraph.load(file);
+	}
+
+	private static SocialNetwork randomNetwork(SocialNetwork big) {
+		Random random = new Random(3);
+		for (int i = 0; i < 500; i++) {
+			big.join("user" + i);
+		}
+		for (int i = 0; i < 5000; i++) {
+			Account a = big.findAccountForUserName("user" + random.nextInt(500));
+			String b = "user" + random.nextInt(500);
+			big.sendFriendshipTo(b, a);
+			if (random.nextBoolean())
+				big.acceptFriendshipFrom(a.getUserName(), big.findAccountForUserName(b));
+		}
+		big.autoAcceptFriendshipsTo(big.findAccountForUserName("user7"));
+		// leaves a hole in the ids
+		big.leave(big.findAccountForUserName("user0"));
+		return big;
+	}
+
+	private static void assertSameState(SocialNetwork expected, SocialNetwork actual) {
+		assertEquals(expected.listMembers(), actual.listMembers());
+		for (String member : expected.listMembers()) {
+			Account a = expected.findAccountForUserName(member);
+			Account b = actual.findAccountForUserName(member);
+			assertEquals(member, a.getFriends(), b.getFriends());
+			assertEquals(member, a.getIncomingRequests(), b.getIncomingRequests());
+			assertEquals(member, a.getOutgoingRequests(), b.getOutgoingRequests());
+			assertEquals(member, a.isAutoAcceptingFriendships(), b.isAutoAcceptingFriendships());
+		}
+	}
+}
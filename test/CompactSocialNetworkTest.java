@@ -0,0 +1,110 @@
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CompactSocialNetworkTest {
+	CompactSocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new CompactSocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@Test
+	public void sendFriendRequestResultsInIncomingAndOutgoingRequest() {
+		sn.sendFriendshipTo("Cecile", me);
+		assertTrue(her.getIncomingRequests().contains("Hakan"));
+		assertTrue(me.getOutgoingRequests().contains("Cecile"));
+	}
+
+	@Test
+	public void acceptFriendRequestResultsInFriendshipEstablished() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(her.hasFriend("Hakan"));
+		assertTrue(her.getIncomingRequests().isEmpty());
+		assertTrue(me.getOutgoingRequests().isEmpty());
+	}
+
+	@Test
+	public void friendSetViewsIterateUserNames() {
+		sn.sendFriendshipTo("Hakan", her);
+		sn.sendFriendshipTo("Hakan", another);
+		sn.acceptAllFriendshipsTo(me);
+		Set<String> expected = new HashSet<String>();
+		expected.add("Cecile");
+		expected.add("Rafal");
+		assertEquals(expected, me.getFriends());
+		assertEquals(expected, new HashSet<String>(me.getFriends()));
+	}
+
+	@Test
+	public void removingThroughIteratorUpdatesTheSet() {
+		Set<String> names = new InternedNameSet(sn);
+		names.add("Cecile");
+		names.add("Rafal");
+		Iterator<String> each = names.iterator();
+		while (each.hasNext()) {
+			each.next();
+			each.remove();
+		}
+		assertTrue(names.isEmpty());
+		assertFalse(names.contains("Cecile"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void accountSetsAreReadOnly() {
+		sn.sendFriendshipTo("Hakan", her);
+		me.getIncomingRequests().remove("Cecile");
+	}
+
+	@Test
+	public void requestFromAccountOutsideNetworkIsIgnored() {
+		me.requestFriendship(new Account("John"));
+		assertTrue(me.getIncomingRequests().isEmpty());
+	}
+
+	@Test
+	public void leaveRemovesUserFromOthersSetsAndQuarantinedIdIsNotReusedAtOnce() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.leave(me);
+		assertFalse(sn.listMembers().contains("Hakan"));
+		assertFalse(her.hasFriend("Hakan"));
+		assertTrue(another.getIncomingRequests().isEmpty());
+
+		Account newcomer = sn.join("John");
+		assertNotEquals(me.getId(), newcomer.getId());
+		assertFalse(her.hasFriend("John"));
+		assertTrue(her.getFriends().isEmpty());
+	}
+
+	@Test
+	public void countMutualFriendsWorksOnIds() {
+		Account hanna = sn.join("Hanna");
+		for (int i = 0; i < 2 * FriendFilter.MIN_FRIENDS; i++) {
+			Account friend = sn.join("friend" + i);
+			sn.sendFriendshipTo("Hakan", friend);
+			sn.acceptFriendshipFrom(friend.getUserName(), me);
+			if (i % 2 == 0) {
+				sn.sendFriendshipTo("Hanna", friend);
+				sn.acceptFriendshipFrom(friend.getUserName(), hanna);
+			}
+		}
+		assertEquals(FriendFilter.MIN_FRIENDS, sn.countMutualFriends(me, "Hanna"));
+		assertTrue(me.hasFriend("friend7"));
+		assertFalse(hanna.hasFriend("friend7"));
+	}
+}
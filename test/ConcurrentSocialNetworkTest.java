@@ -0,0 +1,278 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ConcurrentSocialNetworkTest {
+	static final int THREADS = 8;
+	static final int MEMBERS = 64;
+	static final int OPERATIONS_PER_THREAD = 20000;
+
+	ConcurrentSocialNetwork sn;
+	Account me, her;
+	ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new ConcurrentSocialNetwork();
+		pool = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void acceptFriendRequestResultsInFriendshipEstablished() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(her.hasFriend("Hakan"));
+	}
+
+	@Test
+	public void leaveRemovesUserFromMembersAndFriendsLists() {
+		acceptFriendRequestResultsInFriendshipEstablished();
+		sn.leave(me);
+		assertFalse(sn.listMembers().contains("Hakan"));
+		assertFalse(her.hasFriend("Hakan"));
+	}
+
+	@Test
+	public void leftAccountCannotSendFriendRequests() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		sn.leave(me);
+		sn.sendFriendshipTo("Cecile", me);
+		assertTrue(her.getIncomingRequests().isEmpty());
+	}
+
+	@Test
+	public void acceptFromUnknownUserHasNoEffect() {
+		me = sn.join("Hakan");
+		sn.acceptFriendshipFrom("John", me);
+		assertTrue(me.getFriends().isEmpty());
+	}
+
+	@Test
+	public void concurrentJoinsWithSameUserNameLetExactlyOneSucceed() throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Account>> joins = new ArrayList<Future<Account>>();
+		for (int i = 0; i < THREADS; i++) {
+			joins.add(pool.submit(() -> {
+				start.await();
+				return sn.join("Hakan");
+			}));
+		}
+		start.countDown();
+		int joined = 0;
+		for (Future<Account> each : joins) {
+			if (each.get() != null)
+				joined++;
+		}
+		assertEquals(1, joined);
+	}
+
+	@Test
+	public void opposingRequestsAndAcceptsOnSamePairDoNotDeadlock() throws Exception {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int i = 0; i < THREADS; i++) {
+			boolean mine = i % 2 == 0;
+			workers.add(pool.submit(() -> {
+				start.await();
+				for (int n = 0; n < OPERATIONS_PER_THREAD; n++) {
+					if (mine) {
+						sn.sendFriendshipTo("Cecile", me);
+						sn.acceptFriendshipFrom("Cecile", me);
+						sn.sendFriendshipCancellationTo("Cecile", me);
+					} else {
+						sn.sendFriendshipTo("Hakan", her);
+						sn.acceptFriendshipFrom("Hakan", her);
+						sn.sendFriendshipCancellationTo("Hakan", her);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> each : workers) {
+			each.get(60, TimeUnit.SECONDS);
+		}
+		assertEquals(me.hasFriend("Cecile"), her.hasFriend("Hakan"));
+	}
+
+	@Test
+	public void randomConcurrentOperationsLeaveFriendGraphConsistent() throws Exception {
+		for (int i = 0; i < MEMBERS; i++) {
+			sn.join(userName(i));
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < THREADS; t++) {
+			long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				start.await();
+				for (int n = 0; n < OPERATIONS_PER_THREAD; n++) {
+					randomOperation(random);
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> each : workers) {
+			each.get(60, TimeUnit.SECONDS);
+		}
+		assertConsistent();
+	}
+
+	@Test
+	public void batchesAreAppliedAtomically() throws Exception {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		List<FriendshipOperation> befriend = Arrays.asList(
+				FriendshipOperation.request("Hakan", "Cecile"),
+				FriendshipOperation.accept("Cecile", "Hakan"));
+		List<FriendshipOperation> unfriend = Arrays.asList(FriendshipOperation.cancel("Cecile", "Hakan"));
+		CountDownLatch start = new CountDownLatch(1);
+		Future<?> writer = pool.submit(() -> {
+			start.await();
+			for (int n = 0; n < OPERATIONS_PER_THREAD; n++) {
+				sn.applyBatch(befriend);
+				sn.applyBatch(unfriend);
+			}
+			return null;
+		});
+		Future<?> reader = pool.submit(() -> {
+			start.await();
+			while (!writer.isDone()) {
+				// both operations of a batch land together, so a request is never seen half-way
+				List<FriendshipOperation> check = Arrays.asList(FriendshipOperation.cancel("Hakan", "Cecile"),
+						FriendshipOperation.request("Hakan", "Cecile"), FriendshipOperation.reject("Cecile", "Hakan"));
+				List<FriendshipOperation.Result> results = sn.applyBatch(check);
+				assertEquals(FriendshipOperation.Result.APPLIED, results.get(1));
+				assertEquals(FriendshipOperation.Result.APPLIED, results.get(2));
+			}
+			return null;
+		});
+		start.countDown();
+		writer.get(60, TimeUnit.SECONDS);
+		reader.get(60, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void purgesRacingWithFriendshipOperationsLeaveFriendGraphConsistent() throws Exception {
+		for (int i = 0; i < MEMBERS; i++) {
+			sn.join(userName(i));
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < THREADS; t++) {
+			long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				start.await();
+				for (int n = 0; n < OPERATIONS_PER_THREAD; n++) {
+					if (random.nextInt(50) == 0) {
+						List<Account> purge = new ArrayList<Account>();
+						for (int k = 0; k < 10; k++) {
+							purge.add(sn.findAccountForUserName(userName(random.nextInt(MEMBERS))));
+						}
+						sn.leaveAll(purge);
+					} else {
+						randomOperation(random);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> each : workers) {
+			each.get(60, TimeUnit.SECONDS);
+		}
+		assertConsistent();
+	}
+
+	private void randomOperation(Random random) {
+		String userName = userName(random.nextInt(MEMBERS));
+		Account account = sn.findAccountForUserName(userName(random.nextInt(MEMBERS)));
+		if (account == null) {
+			sn.join(userName);
+			return;
+		}
+		switch (random.nextInt(21)) {
+		case 20:
+			sn.applyBatch(Arrays.asList(FriendshipOperation.request(account.getUserName(), userName),
+					FriendshipOperation.accept(userName, account.getUserName())));
+			break;
+		case 0:
+			sn.leave(account);
+			break;
+		case 1:
+			sn.autoAcceptFriendshipsTo(account);
+			break;
+		case 2:
+			sn.acceptAllFriendshipsTo(account);
+			break;
+		case 3:
+			sn.rejectAllFriendshipsTo(account);
+			break;
+		case 4: case 5: case 6: case 7: case 8:
+			sn.acceptFriendshipFrom(userName, account);
+			break;
+		case 9: case 10:
+			sn.rejectFriendshipFrom(userName, account);
+			break;
+		case 11: case 12:
+			sn.sendFriendshipCancellationTo(userName, account);
+			break;
+		default:
+			sn.sendFriendshipTo(userName, account);
+		}
+	}
+
+	// every request and friendship between members is recorded on both sides,
+	// and nothing refers to a member who has left
+	private void assertConsistent() {
+		for (String member : sn.listMembers()) {
+			Account account = sn.findAccountForUserName(member);
+			for (String friend : account.getFriends()) {
+				Account other = sn.findAccountForUserName(friend);
+				assertNotNull(member + " is friends with departed " + friend, other);
+				assertTrue(friend + " is missing friend " + member, other.hasFriend(member));
+			}
+			for (String requester : account.getIncomingRequests()) {
+				Account other = sn.findAccountForUserName(requester);
+				assertNotNull(member + " has request from departed " + requester, other);
+				assertTrue(requester + " is missing request to " + member, other.getOutgoingRequests().contains(member));
+			}
+			for (String requestee : account.getOutgoingRequests()) {
+				Account other = sn.findAccountForUserName(requestee);
+				assertNotNull(member + " has request to departed " + requestee, other);
+				assertTrue(requestee + " is missing request from " + member, other.getIncomingRequests().contains(member));
+			}
+		}
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
@@ -0,0 +1,200 @@
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ConnectionSearchTest {
+
+	SocialNetwork sn;
+	Account me, her, another;
+
+	// a friend graph kept in adjacency arrays
+	static class ArrayGraph implements FriendGraph {
+		final int[][] friends;
+
+		ArrayGraph(int[][] friends) {
+			this.friends = friends;
+		}
+
+		@Override
+		public int idBound() {
+			return friends.length;
+		}
+
+		@Override
+		public int degree(int id) {
+			return friends[id].length;
+		}
+
+		@Override
+		public boolean forEachFriend(int id, IntPredicate action) {
+			for (int friend : friends[id]) {
+				if (!action.test(friend))
+					return false;
+			}
+			return true;
+		}
+
+		static ArrayGraph random(int members, int friendships, long seed) {
+			Random random = new Random(seed);
+			int[][] friends = new int[members][0];
+			for (int made = 0; made < friendships; made++) {
+				int a = random.nextInt(members);
+				int b = random.nextInt(members);
+				if (a == b)
+					continue;
+				friends[a] = Arrays.copyOf(friends[a], friends[a].length + 1);
+				friends[a][friends[a].length - 1] = b;
+				friends[b] = Arrays.copyOf(friends[b], friends[b].length + 1);
+				friends[b][friends[b].length - 1] = a;
+			}
+			return new ArrayGraph(friends);
+		}
+
+		// distances from source by plain breadth-first search, -1 where unreachable
+		int[] distancesFrom(int source) {
+			int[] distance = new int[friends.length];
+			Arrays.fill(distance, -1);
+			distance[source] = 0;
+			ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+			queue.add(source);
+			while (!queue.isEmpty()) {
+				int id = queue.poll();
+				for (int friend : friends[id]) {
+					if (distance[friend] < 0) {
+						distance[friend] = distance[id] + 1;
+						queue.add(friend);
+					}
+				}
+			}
+			return distance;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@Test
+	public void degreesOfSeparationAlongAChain() {
+		me.linkFriend(her);
+		her.linkFriend(another);
+		assertEquals(0, sn.degreesOfSeparation(me, "Hakan", 6));
+		assertEquals(1, sn.degreesOfSeparation(me, "Cecile", 6));
+		assertEquals(2, sn.degreesOfSeparation(me, "Rafal", 6));
+		assertEquals(List.of("Hakan", "Cecile", "Rafal"), sn.connectionTo(me, "Rafal", 6));
+		assertEquals(List.of("Rafal", "Cecile", "Hakan"), sn.connectionTo(another, "Hakan", 6));
+	}
+
+	@Test
+	public void noConnectionGivesMinusOneAndAnEmptyChain() {
+		me.linkFriend(her);
+		assertEquals(-1, sn.degreesOfSeparation(me, "Rafal", 6));
+		assertTrue(sn.connectionTo(me, "Rafal", 6).isEmpty());
+		assertEquals(-1, sn.degreesOfSeparation(me, "nobody", 6));
+		assertEquals(-1, sn.degreesOfSeparation(null, "Rafal", 6));
+	}
+
+	@Test
+	public void chainsLongerThanMaxDepthAreNotFound() {
+		me.linkFriend(her);
+		her.linkFriend(another);
+		assertEquals(-1, sn.degreesOfSeparation(me, "Rafal", 1));
+		assertEquals(2, sn.degreesOfSeparation(me, "Rafal", 2));
+	}
+
+	@Test
+	public void pendingRequestsAreNotConnections() {
+		sn.sendFriendshipTo("Cecile", me);
+		assertEquals(-1, sn.degreesOfSeparation(me, "Cecile", 6));
+	}
+
+	@Test
+	public void compactNetworksAreSearchedByIds() {
+		SocialNetwork compact = new CompactSocialNetwork();
+		Account[] accounts = new Account[50];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = compact.join("user" + i);
+			if (i > 0)
+				accounts[i].linkFriend(accounts[i - 1]);
+		}
+		assertEquals(49, compact.degreesOfSeparation(accounts[0], "user49", 100));
+		assertEquals(-1, compact.degreesOfSeparation(accounts[0], "user49", 48));
+	}
+
+	@Test
+	public void pathsAreShortestChainsOfFriends() {
+		ArrayGraph graph = ArrayGraph.random(2000, 3000, 11);
+		ConnectionSearch search = new ConnectionSearch(graph);
+		Random random = new Random(5);
+		for (int query = 0; query < 300; query++) {
+			int source = random.nextInt(2000);
+			int target = random.nextInt(2000);
+			int[] distance = graph.distancesFrom(source);
+			int[] path = search.path(source, target, 20, Long.MAX_VALUE);
+			if (distance[target] < 0 || distance[target] > 20) {
+				assertNull(path);
+				continue;
+			}
+			assertNotNull(path);
+			assertEquals(distance[target] + 1, path.length);
+			assertEquals(source, path[0]);
+			assertEquals(target, path[path.length - 1]);
+			for (int i = 1; i < path.length; i++) {
+				int from = path[i - 1];
+				int to = path[i];
+				assertTrue(Arrays.stream(graph.friends[from]).anyMatch(friend -> friend == to));
+			}
+		}
+	}
+
+	@Test
+	public void searchGivesUpWhenTheBudgetRunsOut() {
+		int[][] friends = new int[1000][];
+		// a long chain: the ends are 999 friendships apart
+		for (int i = 0; i < friends.length; i++) {
+			friends[i] = i == 0 ? new int[] { 1 } : i == friends.length - 1 ? new int[] { i - 1 } : new int[] { i - 1, i + 1 };
+		}
+		ConnectionSearch search = new ConnectionSearch(new ArrayGraph(friends));
+		assertNull(search.path(0, 999, 2000, 100));
+		assertEquals(1000, search.path(0, 999, 2000, 10000).length);
+	}
+
+	@Test
+	public void reusedSearchAllocatesOnlyTheResult() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+		ThreadMXBean allocations = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+
+		ArrayGraph graph = ArrayGraph.random(20000, 60000, 3);
+		ConnectionSearch search = new ConnectionSearch(graph);
+		Random random = new Random(9);
+		long threadId = Thread.currentThread().getId();
+		long allocated = 0;
+		for (int round = 0; round < 3; round++) {
+			long before = allocations.getThreadAllocatedBytes(threadId);
+			for (int query = 0; query < 1000; query++) {
+				search.path(random.nextInt(20000), random.nextInt(20000), 20, Long.MAX_VALUE);
+			}
+			allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+		}
+		// the chains handed back, and nothing per member visited
+		assertTrue("allocated " + allocated + " bytes for 1000 queries", allocated < 1000 * 256);
+	}
+}
@@ -0,0 +1,100 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+
+public class FriendFilterTest {
+
+	@Test
+	public void everyNameAddedMightBeThere() {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			names.add("friend" + i);
+		}
+		FriendFilter filter = FriendFilter.of(names);
+		for (int i = 1000; i < 2000; i++) {
+			filter.add("friend" + i);
+		}
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(filter.mightContain("friend" + i));
+		}
+	}
+
+	@Test
+	public void mostOtherNamesAreRuledOut() {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			names.add("friend" + i);
+		}
+		FriendFilter filter = FriendFilter.of(names);
+		int maybe = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain("stranger" + i))
+				maybe++;
+		}
+		// 16 bits per name and half full, so well under one in a hundred
+		assertTrue("false positives: " + maybe, maybe < 1000);
+	}
+
+	@Test
+	public void fillsUpAtTwiceTheNamesItWasBuiltWith() {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			names.add("friend" + i);
+		}
+		FriendFilter filter = FriendFilter.of(names);
+		for (int i = 100; i < 200; i++) {
+			assertFalse(filter.isFull());
+			filter.add("friend" + i);
+		}
+		filter.add("friend200");
+		assertTrue(filter.isFull());
+	}
+
+	@Test
+	public void goesStaleAfterHalfItsCapacityIsRemoved() {
+		FriendFilter filter = FriendFilter.of(new ArrayList<String>());
+		for (int i = 0; i < FriendFilter.MIN_FRIENDS / 2; i++) {
+			assertFalse(filter.removed());
+		}
+		assertTrue(filter.removed());
+	}
+
+	@Test
+	public void readerOnAnotherThreadSeesEveryNameOnceItsAddReturned() throws Exception {
+		int names = 100000;
+		// sized for the names to come, so the filter does not simply fill up with ones
+		List<String> others = new ArrayList<String>();
+		for (int i = 0; i < names / 2; i++) {
+			others.add("other" + i);
+		}
+		FriendFilter filter = FriendFilter.of(others);
+		AtomicInteger addedSoFar = new AtomicInteger();
+		AtomicReference<String> missed = new AtomicReference<String>();
+		Thread reader = new Thread(() -> {
+			Random random = new Random(1);
+			while (addedSoFar.get() < names && missed.get() == null) {
+				int done = addedSoFar.get();
+				if (done == 0)
+					continue;
+				String name = "friend" + random.nextInt(done);
+				if (!filter.mightContain(name))
+					missed.set(name);
+			}
+		});
+		reader.start();
+		// one writer, as an account has
+		for (int i = 0; i < names; i++) {
+			filter.add("friend" + i);
+			addedSoFar.set(i + 1);
+		}
+		reader.join();
+		assertNull(missed.get());
+	}
+}
@@ -0,0 +1,127 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FriendSuggestionsTest {
+	SocialNetwork sn;
+	Account me;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+	}
+
+	@Test
+	public void memberWithoutFriendsGetsNoSuggestions() {
+		sn.join("Cecile");
+		assertTrue(sn.suggestFriendsFor(me, 5).isEmpty());
+	}
+
+	@Test
+	public void suggestionsAreRankedByMutualFriends() {
+		befriend("Hakan", "Cecile");
+		befriend("Hakan", "Rafal");
+		befriend("Cecile", "Serra");
+		befriend("Rafal", "Serra");
+		befriend("Cecile", "Ahmet");
+		assertEquals(Arrays.asList("Serra", "Ahmet"), sn.suggestFriendsFor(me, 5));
+	}
+
+	@Test
+	public void suggestionsAreLimitedToCount() {
+		befriend("Hakan", "Cecile");
+		befriend("Cecile", "Serra");
+		befriend("Cecile", "Ahmet");
+		befriend("Cecile", "Zeynep");
+		assertEquals(Arrays.asList("Ahmet", "Serra"), sn.suggestFriendsFor(me, 2));
+	}
+
+	@Test
+	public void friendsAndPendingRequestsAreNotSuggested() {
+		befriend("Hakan", "Cecile");
+		befriend("Hakan", "Rafal");
+		befriend("Cecile", "Rafal");
+		befriend("Cecile", "Serra");
+		befriend("Cecile", "Ahmet");
+		sn.sendFriendshipTo("Serra", me);
+		sn.sendFriendshipTo("Hakan", sn.findAccountForUserName("Ahmet"));
+		assertEquals(Collections.emptyList(), sn.suggestFriendsFor(me, 5));
+	}
+
+	@Test
+	public void celebrityFriendDoesNotChangeTopSuggestions() {
+		// a celebrity friends with everyone, and a few close friends sharing one candidate
+		Account celebrity = join("Celebrity");
+		for (int i = 0; i < 500; i++) {
+			befriend(celebrity.getUserName(), join("fan" + i).getUserName());
+		}
+		befriend("Hakan", "Celebrity");
+		for (int i = 0; i < 3; i++) {
+			befriend("Hakan", "close" + i);
+			befriend("close" + i, "fan7");
+		}
+		befriend("close0", "fan8");
+		befriend("close1", "fan8");
+		assertEquals(Arrays.asList("fan7", "fan8"), sn.suggestFriendsFor(me, 2));
+	}
+
+	@Test
+	public void topSuggestionsMatchFullExpansionOnRandomGraph() {
+		Random random = new Random(7);
+		List<Account> members = new ArrayList<Account>();
+		members.add(me);
+		for (int i = 0; i < 300; i++) {
+			members.add(join("user" + i));
+		}
+		// a few hubs with many friends and a long tail with few
+		for (int i = 0; i < 3000; i++) {
+			Account a = members.get(random.nextInt(random.nextBoolean() ? 10 : members.size()));
+			Account b = members.get(random.nextInt(members.size()));
+			if (a != b)
+				befriend(a.getUserName(), b.getUserName());
+		}
+		for (Account each : members) {
+			List<String> expected = naiveSuggestions(each, 5);
+			assertEquals(each.getUserName(), expected, sn.suggestFriendsFor(each, 5));
+		}
+	}
+
+	private List<String> naiveSuggestions(Account account, int count) {
+		Map<String, Integer> mutual = new HashMap<String, Integer>();
+		for (String friend : account.getFriends()) {
+			for (String candidate : sn.findAccountForUserName(friend).getFriends()) {
+				if (!candidate.equals(account.getUserName()) && !account.hasFriend(candidate))
+					mutual.merge(candidate, 1, Integer::sum);
+			}
+		}
+		List<String> ranked = new ArrayList<String>(mutual.keySet());
+		ranked.sort((a, b) -> mutual.get(a).equals(mutual.get(b)) ? a.compareTo(b) : mutual.get(b) - mutual.get(a));
+		return ranked.subList(0, Math.min(count, ranked.size()));
+	}
+
+	private Account join(String userName) {
+		sn.join(userName);
+		return sn.findAccountForUserName(userName);
+	}
+
+	private void befriend(String userName, String otherUserName) {
+		Account account = sn.findAccountForUserName(userName);
+		if (account == null)
+			account = join(userName);
+		if (sn.findAccountForUserName(otherUserName) == null)
+			join(otherUserName);
+		sn.sendFriendshipTo(otherUserName, account);
+		sn.acceptFriendshipFrom(userName, sn.findAccountForUserName(otherUserName));
+	}
+}
@@ -0,0 +1,257 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FriendshipEventsTest {
+
+	SocialNetwork sn;
+	FriendshipEvents events;
+
+	// collects what it is sent, asking for `initial` events up front
+	static class Collector implements Flow.Subscriber<FriendshipEvent> {
+		final List<String> received = new ArrayList<String>();
+		final long initial;
+		Flow.Subscription subscription;
+		Throwable error;
+		boolean completed;
+
+		Collector(long initial) {
+			this.initial = initial;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initial > 0)
+				subscription.request(initial);
+		}
+
+		@Override
+		public void onNext(FriendshipEvent event) {
+			received.add(event.getType() + " " + event.getUserName()
+					+ (event.getOtherUserName() == null ? "" : " " + event.getOtherUserName()));
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		// deliver on the calling thread, so every event has arrived when an operation returns
+		events = FriendshipEvents.attachTo(sn, 16, Runnable::run);
+	}
+
+	@Test
+	public void everyKindOfChangeIsPublishedInOrder() {
+		Collector collector = new Collector(Long.MAX_VALUE);
+		events.subscribe(collector);
+		Account me = sn.join("Hakan");
+		Account her = sn.join("Cecile");
+		Account another = sn.join("Rafal");
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipCancellationTo("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.rejectFriendshipFrom("Hakan", another);
+		sn.autoAcceptFriendshipsTo(another);
+		sn.sendFriendshipTo("Rafal", her);
+		// changes nothing, so publishes nothing
+		sn.acceptFriendshipFrom("Hakan", another);
+		sn.leave(another);
+		assertEquals(List.of("JOINED Hakan", "JOINED Cecile", "JOINED Rafal",
+				"REQUESTED Hakan Cecile", "ACCEPTED Cecile Hakan", "CANCELLED Cecile Hakan",
+				"REQUESTED Hakan Rafal", "REJECTED Rafal Hakan",
+				"REQUESTED Cecile Rafal", "AUTO_ACCEPTED Rafal Cecile",
+				"LEFT Rafal"), collector.received);
+	}
+
+	@Test
+	public void nothingIsPublishedWithoutSubscribers() {
+		sn.join("Hakan");
+		assertEquals(0, events.published());
+		events.subscribe(new Collector(1));
+		sn.join("Cecile");
+		assertEquals(1, events.published());
+	}
+
+	@Test
+	public void subscribersGetNoMoreThanTheyRequest() {
+		Collector collector = new Collector(2);
+		events.subscribe(collector);
+		for (int i = 0; i < 5; i++) {
+			sn.join("user" + i);
+		}
+		assertEquals(List.of("JOINED user0", "JOINED user1"), collector.received);
+		collector.subscription.request(2);
+		assertEquals(4, collector.received.size());
+		collector.subscription.request(10);
+		assertEquals(5, collector.received.size());
+		sn.join("user5");
+		assertEquals("JOINED user5", collector.received.get(5));
+	}
+
+	@Test
+	public void subscriberThatFallsAWholeBufferBehindGetsAnError() {
+		Collector collector = new Collector(0);
+		events.subscribe(collector);
+		for (int i = 0; i < 20; i++) {
+			sn.join("user" + i);
+		}
+		collector.subscription.request(100);
+		assertTrue(collector.received.isEmpty());
+		assertTrue(collector.error instanceof FriendshipEvents.FellBehindException);
+		// and is unsubscribed, so publishing to nobody stops
+		long published = events.published();
+		sn.join("late");
+		assertEquals(published, events.published());
+	}
+
+	@Test
+	public void publisherThatStoresLateDoesNotOverwriteALaterEvent() {
+		// delivers only when told to, so the late store lands before the subscriber reads
+		List<Runnable> pending = new ArrayList<Runnable>();
+		FriendshipEvents small = FriendshipEvents.attachTo(new SocialNetwork(), 4, pending::add);
+		Collector first = new Collector(Long.MAX_VALUE);
+		small.subscribe(first);
+		long stalled = small.claim();
+		for (int i = 1; i < 4; i++) {
+			small.publish(FriendshipEvent.Type.JOINED, "user" + i, null);
+		}
+		Collector waiting = new Collector(Long.MAX_VALUE);
+		small.subscribe(waiting);
+		// sequence 4 takes the slot of the stalled sequence 0, whose publisher stores after it
+		small.publish(FriendshipEvent.Type.JOINED, "user4", null);
+		small.store(stalled, FriendshipEvent.Type.JOINED, "user0", null);
+		while (!pending.isEmpty()) {
+			pending.remove(0).run();
+		}
+		assertEquals(List.of("JOINED user4"), waiting.received);
+		assertNull(waiting.error);
+		// the first subscriber lost sequence 0 to sequence 4, and is told so instead of waiting
+		assertTrue(first.received.isEmpty());
+		assertTrue(first.error instanceof FriendshipEvents.FellBehindException);
+	}
+
+	@Test
+	public void nonPositiveRequestIsAnError() {
+		Collector collector = new Collector(0);
+		events.subscribe(collector);
+		collector.subscription.request(0);
+		assertTrue(collector.error instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void cancelledSubscriberGetsNothingMore() {
+		Collector collector = new Collector(Long.MAX_VALUE);
+		events.subscribe(collector);
+		sn.join("Hakan");
+		collector.subscription.cancel();
+		sn.join("Cecile");
+		assertEquals(List.of("JOINED Hakan"), collector.received);
+	}
+
+	@Test
+	public void detachingCompletesTheStream() {
+		Collector collector = new Collector(Long.MAX_VALUE);
+		events.subscribe(collector);
+		sn.join("Hakan");
+		events.detach();
+		sn.join("Cecile");
+		assertTrue(collector.completed);
+		assertEquals(List.of("JOINED Hakan"), collector.received);
+	}
+
+	@Test
+	public void detachingWhileSubscribingCompletesOnlyAfterOnSubscribe() {
+		List<String> calls = new ArrayList<String>();
+		events.subscribe(new Collector(Long.MAX_VALUE) {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				calls.add("subscribing");
+				super.onSubscribe(subscription);
+				events.detach();
+				calls.add("subscribed");
+			}
+
+			@Override
+			public void onComplete() {
+				calls.add("completed");
+			}
+		});
+		assertEquals(List.of("subscribing", "subscribed", "completed"), calls);
+	}
+
+	@Test
+	public void subscribingAfterDetachingCompletesTheStream() {
+		events.detach();
+		Collector collector = new Collector(0);
+		events.subscribe(collector);
+		assertNotNull(collector.subscription);
+		assertTrue(collector.completed);
+	}
+
+	@Test
+	public void concurrentChangesAreAllDeliveredInSequence() throws Exception {
+		ConcurrentSocialNetwork csn = new ConcurrentSocialNetwork();
+		FriendshipEvents concurrentEvents = FriendshipEvents.attachTo(csn, 1 << 16, ForkJoinPool.commonPool());
+		int threads = 4;
+		int perThread = 2000;
+		CountDownLatch all = new CountDownLatch(threads * perThread);
+		long[] expected = new long[1];
+		boolean[] inOrder = { true };
+		concurrentEvents.subscribe(new Flow.Subscriber<FriendshipEvent>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(FriendshipEvent event) {
+				if (event.getSequence() != expected[0]++)
+					inOrder[0] = false;
+				all.countDown();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+			}
+
+			@Override
+			public void onComplete() {
+			}
+		});
+		Thread[] joiners = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int first = t * perThread;
+			joiners[t] = new Thread(() -> {
+				for (int i = first; i < first + perThread; i++) {
+					csn.join("user" + i);
+				}
+			});
+			joiners[t].start();
+		}
+		for (Thread each : joiners) {
+			each.join();
+		}
+		assertTrue(all.await(10, TimeUnit.SECONDS));
+		assertTrue(inOrder[0]);
+	}
+}
@@ -0,0 +1,69 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// run in a separate JVM by FriendshipLogTest: changes a logged network from several threads
+// until the test kills the process
+public class FriendshipLogCrashWorker {
+	static final int MEMBERS = 50;
+	static final int THREADS = 4;
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Path.of(args[0]);
+		ConcurrentSocialNetwork sn = FriendshipLog.recover(dir.resolve("network.snapshot"), dir.resolve("network.log"),
+				new ConcurrentSocialNetwork());
+		for (int i = 0; i < MEMBERS; i++) {
+			sn.join("member" + i);
+		}
+		// every join above is on disk once join returns
+		System.out.println("ready");
+		System.out.flush();
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			Random random = new Random(t);
+			Thread worker = new Thread(() -> {
+				while (true) {
+					change(sn, random);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	private static void change(ConcurrentSocialNetwork sn, Random random) {
+		String other = random.nextInt(4) == 0 ? "visitor" + random.nextInt(10) : "member" + random.nextInt(MEMBERS);
+		String name = random.nextInt(4) == 0 ? "visitor" + random.nextInt(10) : "member" + random.nextInt(MEMBERS);
+		Account me = sn.findAccountForUserName(name);
+		if (me == null) {
+			sn.join(name);
+			return;
+		}
+		switch (random.nextInt(10)) {
+		case 0:
+			if (name.startsWith("visitor"))
+				sn.leave(me);
+			break;
+		case 1:
+			if (random.nextInt(20) == 0)
+				sn.autoAcceptFriendshipsTo(me);
+			break;
+		case 2: case 3:
+			sn.acceptFriendshipFrom(other, me);
+			break;
+		case 4:
+			sn.rejectFriendshipFrom(other, me);
+			break;
+		case 5:
+			sn.sendFriendshipCancellationTo(other, me);
+			break;
+		default:
+			sn.sendFriendshipTo(other, me);
+		}
+	}
+}
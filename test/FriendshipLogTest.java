@@ -0,0 +1,264 @@
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FriendshipLogTest {
+	Path dir, snapshot, logFile;
+	SocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("friendship-log");
+		snapshot = dir.resolve("network.snapshot");
+		logFile = dir.resolve("network.log");
+		sn = FriendshipLog.recover(snapshot, logFile, new SocialNetwork());
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (sn.log() != null)
+			sn.log().close();
+		try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+			for (Path each : (Iterable<Path>) files::iterator) {
+				Files.delete(each);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void changesAreRecoveredFromTheLog() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.autoAcceptFriendshipsTo(another);
+		sn.sendFriendshipTo("Rafal", her);
+		sn.leave(sn.join("John"));
+
+		assertSameState(sn, reopen());
+	}
+
+	@Test
+	public void recoveryReplaysOnlyWhatCameAfterTheCheckpoint() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.log().checkpoint(sn, snapshot);
+		assertEquals(0, Files.size(logFile));
+
+		sn.sendFriendshipCancellationTo("Cecile", me);
+		sn.sendFriendshipTo("Hakan", another);
+		SocialNetwork recovered = reopen();
+		assertSameState(sn, recovered);
+		assertFalse(recovered.findAccountForUserName("Hakan").hasFriend("Cecile"));
+	}
+
+	@Test
+	public void leaveFollowedByJoinOfSameUserNameIsRecovered() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.leave(me);
+		sn.join("Hakan");
+		SocialNetwork recovered = reopen();
+		assertSameState(sn, recovered);
+		assertTrue(recovered.findAccountForUserName("Hakan").getFriends().isEmpty());
+	}
+
+	@Test
+	public void purgeIsRecoveredAndForcedOnce() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", her);
+		List<Account> purge = new ArrayList<Account>();
+		purge.add(me);
+		purge.add(her);
+		for (int i = 0; i < 20; i++) {
+			purge.add(sn.join("user" + i));
+		}
+		long forces = sn.log().forces();
+		sn.leaveAll(purge);
+		assertEquals(forces + 1, sn.log().forces());
+		SocialNetwork recovered = reopen();
+		assertSameState(sn, recovered);
+		assertTrue(recovered.findAccountForUserName("Rafal").getIncomingRequests().isEmpty());
+	}
+
+	@Test
+	public void recordIsAppendedUnderTheLocksAndForcedAfterThem() throws IOException {
+		ConcurrentSocialNetwork concurrent = FriendshipLog.recover(dir.resolve("concurrent.snapshot"),
+				dir.resolve("concurrent.log"), new ConcurrentSocialNetwork());
+		Account hakan = concurrent.join("Hakan");
+		Account cecile = concurrent.join("Cecile");
+		long forces = concurrent.log().forces();
+		long sequence = concurrent.log().lastSequence();
+		concurrent.locked("Hakan", "Cecile", () -> concurrent.apply(FriendshipOperation.Type.REQUEST, hakan, cecile));
+		assertEquals(sequence + 1, concurrent.log().lastSequence());
+		assertEquals(forces, concurrent.log().forces());
+
+		concurrent.awaitLogged();
+		assertEquals(forces + 1, concurrent.log().forces());
+		concurrent.awaitLogged();
+		assertEquals(forces + 1, concurrent.log().forces());
+		concurrent.log().close();
+	}
+
+	@Test
+	public void tornRecordAtTheEndIsCutOff() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.log().close();
+		// a record header promising more bytes than were written before the crash
+		Files.write(logFile, new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 5, 6 }, StandardOpenOption.APPEND);
+
+		SocialNetwork recovered = FriendshipLog.recover(snapshot, logFile, new SocialNetwork());
+		assertTrue(recovered.findAccountForUserName("Cecile").getIncomingRequests().contains("Hakan"));
+		recovered.acceptFriendshipFrom("Hakan", recovered.findAccountForUserName("Cecile"));
+		recovered.log().close();
+
+		sn = FriendshipLog.recover(snapshot, logFile, new SocialNetwork());
+		assertTrue(sn.findAccountForUserName("Hakan").hasFriend("Cecile"));
+	}
+
+	@Test
+	public void concurrentChangesShareForces() throws Exception {
+		sn.log().close();
+		ConcurrentSocialNetwork concurrent = FriendshipLog.recover(snapshot, logFile, new ConcurrentSocialNetwork());
+		sn = concurrent;
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; t++) {
+			int thread = t;
+			workers.add(pool.submit(() -> {
+				for (int i = 0; i < 100; i++) {
+					concurrent.join("user" + thread + "-" + i);
+				}
+			}));
+		}
+		for (Future<?> each : workers) {
+			each.get(60, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		long forces = concurrent.log().forces();
+		assertTrue("forces: " + forces, forces <= 800);
+		assertSameState(concurrent, reopen());
+	}
+
+	@Test
+	public void checkpointDropsWhatTheSnapshotCoversWhileChangesGoOn() throws Exception {
+		sn.log().close();
+		ConcurrentSocialNetwork concurrent = FriendshipLog.recover(snapshot, logFile, new ConcurrentSocialNetwork());
+		sn = concurrent;
+		for (int i = 0; i < 2000; i++) {
+			concurrent.join("before" + i);
+		}
+		long before = Files.size(logFile);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicInteger joined = new AtomicInteger();
+		Thread writer = new Thread(() -> {
+			for (int i = 0; !done.get(); i++) {
+				concurrent.join("during" + i);
+				joined.incrementAndGet();
+			}
+		});
+		writer.start();
+		try {
+			while (joined.get() < 100) {
+				Thread.yield();
+			}
+			concurrent.log().checkpoint(concurrent, snapshot);
+			assertTrue(Files.size(logFile) < before);
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		assertSameState(concurrent, reopen());
+	}
+
+	@Test
+	public void processKilledWhileWritingRecoversConsistentFriendGraph() throws Exception {
+		sn.log().close();
+		Files.delete(logFile);
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process worker = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"FriendshipLogCrashWorker", dir.toString()).redirectErrorStream(true).start();
+		try {
+			BufferedReader output = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+			assertEquals("ready", output.readLine());
+			Thread.sleep(500);
+		} finally {
+			worker.destroyForcibly();
+			worker.waitFor(30, TimeUnit.SECONDS);
+		}
+
+		sn = FriendshipLog.recover(snapshot, logFile, new ConcurrentSocialNetwork());
+		for (int i = 0; i < FriendshipLogCrashWorker.MEMBERS; i++) {
+			assertNotNull(sn.findAccountForUserName("member" + i));
+		}
+		assertConsistent(sn);
+	}
+
+	private SocialNetwork reopen() throws IOException {
+		sn.log().close();
+		SocialNetwork recovered = FriendshipLog.recover(snapshot, logFile, new SocialNetwork());
+		sn.logTo(null);
+		recovered.log().close();
+		recovered.logTo(null);
+		return recovered;
+	}
+
+	private static void assertSameState(SocialNetwork expected, SocialNetwork actual) {
+		assertEquals(expected.listMembers(), actual.listMembers());
+		for (String member : expected.listMembers()) {
+			Account a = expected.findAccountForUserName(member);
+			Account b = actual.findAccountForUserName(member);
+			assertEquals(member, a.getFriends(), b.getFriends());
+			assertEquals(member, a.getIncomingRequests(), b.getIncomingRequests());
+			assertEquals(member, a.getOutgoingRequests(), b.getOutgoingRequests());
+			assertEquals(member, a.isAutoAcceptingFriendships(), b.isAutoAcceptingFriendships());
+		}
+	}
+
+	// every request and friendship between members is recorded on both sides,
+	// and nothing refers to a member who has left
+	private static void assertConsistent(SocialNetwork network) {
+		for (String member : network.listMembers()) {
+			Account account = network.findAccountForUserName(member);
+			for (String friend : account.getFriends()) {
+				Account other = network.findAccountForUserName(friend);
+				assertNotNull(member + " is friends with departed " + friend, other);
+				assertTrue(friend + " is missing friend " + member, other.hasFriend(member));
+			}
+			for (String requester : account.getIncomingRequests()) {
+				Account other = network.findAccountForUserName(requester);
+				assertNotNull(member + " has request from departed " + requester, other);
+				assertTrue(requester + " is missing request to " + member, other.getOutgoingRequests().contains(member));
+			}
+			for (String requestee : account.getOutgoingRequests()) {
+				Account other = network.findAccountForUserName(requestee);
+				assertNotNull(member + " has request to departed " + requestee, other);
+				assertTrue(requestee + " is missing request from " + member, other.getIncomingRequests().contains(member));
+			}
+		}
+	}
+}
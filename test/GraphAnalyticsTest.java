@@ -0,0 +1,147 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+
+public class GraphAnalyticsTest {
+
+	@Test
+	public void componentsAndDegreesOfASmallNetwork() {
+		SocialNetwork sn = new SocialNetwork();
+		Account a = sn.join("a");
+		Account b = sn.join("b");
+		Account c = sn.join("c");
+		Account d = sn.join("d");
+		Account e = sn.join("e");
+		sn.join("loner");
+		a.linkFriend(b);
+		b.linkFriend(c);
+		d.linkFriend(e);
+		// a pending request links nobody
+		sn.sendFriendshipTo("d", c);
+
+		GraphAnalytics analytics = GraphAnalytics.of(sn);
+		assertEquals(6, analytics.members());
+		assertEquals(3, analytics.friendships());
+		assertEquals(3, analytics.components());
+		assertEquals(3, analytics.largestComponent());
+		assertEquals(1, analytics.isolatedMembers());
+		assertEquals(3, analytics.communitySizeOf("a"));
+		assertEquals(2, analytics.communitySizeOf("e"));
+		assertEquals(1, analytics.communitySizeOf("loner"));
+		assertEquals(0, analytics.communitySizeOf("nobody"));
+		assertTrue(analytics.connected("a", "c"));
+		assertFalse(analytics.connected("c", "d"));
+		assertEquals(6, analytics.degrees().count());
+		assertEquals(2, analytics.degrees().max());
+		assertEquals(3, analytics.componentSizes().count());
+	}
+
+	@Test
+	public void membersWhoLeftAreNotCounted() {
+		SocialNetwork sn = new SocialNetwork();
+		Account a = sn.join("a");
+		Account b = sn.join("b");
+		Account c = sn.join("c");
+		a.linkFriend(b);
+		b.linkFriend(c);
+		sn.leave(b);
+		GraphAnalytics analytics = GraphAnalytics.of(sn);
+		assertEquals(2, analytics.members());
+		assertEquals(2, analytics.components());
+		assertEquals(0, analytics.communitySizeOf("b"));
+		assertFalse(analytics.connected("a", "c"));
+	}
+
+	@Test
+	public void parallelComponentsMatchASequentialSearch() {
+		SocialNetwork sn = new CompactSocialNetwork();
+		int members = 20000;
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join("user" + i);
+		}
+		Random random = new Random(17);
+		for (int made = 0; made < members / 2; made++) {
+			int x = random.nextInt(members);
+			int y = random.nextInt(members);
+			if (x != y)
+				accounts[x].linkFriend(accounts[y]);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			GraphAnalytics analytics = GraphAnalytics.of(sn, pool);
+			Set<String> seen = new HashSet<String>();
+			int components = 0;
+			int largest = 0;
+			for (Account start : accounts) {
+				if (!seen.add(start.getUserName()))
+					continue;
+				components++;
+				int size = 0;
+				ArrayDeque<String> queue = new ArrayDeque<String>();
+				queue.add(start.getUserName());
+				while (!queue.isEmpty()) {
+					String name = queue.poll();
+					size++;
+					assertTrue(analytics.connected(start.getUserName(), name));
+					for (String friend : sn.findAccountForUserName(name).getFriends()) {
+						if (seen.add(friend))
+							queue.add(friend);
+					}
+				}
+				assertEquals(size, analytics.communitySizeOf(start.getUserName()));
+				largest = Math.max(largest, size);
+			}
+			assertEquals(components, analytics.components());
+			assertEquals(largest, analytics.largestComponent());
+			assertEquals(members, analytics.members());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void analysingDoesNotHoldUpAConcurrentNetwork() throws Exception {
+		ConcurrentSocialNetwork sn = new ConcurrentSocialNetwork();
+		int members = 5000;
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join("user" + i);
+			if (i > 0)
+				accounts[i].linkFriend(accounts[i - 1]);
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		int[] changes = new int[1];
+		Thread writer = new Thread(() -> {
+			Random random = new Random(3);
+			while (!done.get()) {
+				Account me = accounts[random.nextInt(members)];
+				Account her = accounts[random.nextInt(members)];
+				sn.sendFriendshipTo(her.getUserName(), me);
+				sn.rejectFriendshipFrom(me.getUserName(), her);
+				changes[0]++;
+			}
+		});
+		writer.start();
+		try {
+			for (int round = 0; round < 5; round++) {
+				GraphAnalytics analytics = GraphAnalytics.of(sn);
+				// the chain of friends is never touched by the writer
+				assertEquals(1, analytics.components());
+				assertEquals(members, analytics.largestComponent());
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		assertTrue(changes[0] > 0);
+	}
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class IntHashSetTest {
+	IntHashSet set;
+
+	@Before
+	public void setUp() throws Exception {
+		set = new IntHashSet();
+	}
+
+	@Test
+	public void emptySetContainsNothing() {
+		assertEquals(0, set.size());
+		assertFalse(set.contains(0));
+		assertFalse(set.remove(0));
+	}
+
+	@Test
+	public void duplicateAddKeepsSingleEntry() {
+		assertTrue(set.add(7));
+		assertFalse(set.add(7));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void addAndRemoveManyValuesAcrossRehashes() {
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(set.add(i));
+		}
+		for (int i = 0; i < 10000; i += 2) {
+			assertTrue(set.remove(i));
+		}
+		assertEquals(5000, set.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i % 2 == 1, set.contains(i));
+		}
+	}
+
+	@Test
+	public void reAddingAfterRemovalReusesTombstones() {
+		for (int round = 0; round < 1000; round++) {
+			set.add(round);
+			set.remove(round);
+		}
+		assertEquals(0, set.size());
+		assertTrue(set.slots().length <= 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeValuesAreRejected() {
+		set.add(-1);
+	}
+}
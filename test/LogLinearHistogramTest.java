@@ -0,0 +1,75 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class LogLinearHistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZeros() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		assertEquals(0, histogram.count());
+		assertEquals(0, histogram.percentile(0.99));
+		assertEquals(0.0, histogram.mean(), 0.0);
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (int i = 1; i <= 10; i++) {
+			histogram.record(i);
+		}
+		assertEquals(10, histogram.count());
+		assertEquals(5, histogram.percentile(0.5));
+		assertEquals(9, histogram.percentile(0.9));
+		assertEquals(10, histogram.percentile(1.0));
+		assertEquals(5.5, histogram.mean(), 1e-9);
+	}
+
+	@Test
+	public void bucketsCoverEveryValueWithinThreePercent() {
+		for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE }) {
+			long highest = LogLinearHistogram.highestValueIn(LogLinearHistogram.bucketOf(value));
+			assertTrue(value + " above its bucket", highest >= value);
+			assertTrue(value + " bucket too wide", highest - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void percentilesMatchSortedValuesWithinPrecision() {
+		Random random = new Random(11);
+		long[] values = new long[100000];
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (int i = 0; i < values.length; i++) {
+			// roughly log-normal, like latencies
+			values[i] = (long) Math.exp(8 + 2 * random.nextGaussian());
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double fraction : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+			long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+			long estimate = histogram.percentile(fraction);
+			assertTrue(fraction + ": " + estimate + " vs " + exact, estimate >= exact && estimate <= exact * 1.04);
+		}
+		assertEquals(values[values.length - 1], histogram.max());
+		assertEquals(values[values.length - 1], histogram.percentile(1.0));
+	}
+
+	@Test
+	public void addMergesCountsAndMax() {
+		LogLinearHistogram first = new LogLinearHistogram();
+		LogLinearHistogram second = new LogLinearHistogram();
+		for (int i = 1; i <= 10; i++) {
+			first.record(i);
+			second.record(1000 + i);
+		}
+		first.add(second);
+		assertEquals(20, first.count());
+		assertEquals(10, first.percentile(0.5));
+		assertEquals(1010, first.max());
+		assertEquals((55 + 10055) / 20.0, first.mean(), 1e-9);
+	}
+}
@@ -0,0 +1,95 @@
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MemberIdsTest {
+
+	@Test
+	public void idsAreDenseAndLookedUpById() {
+		MemberIds ids = new MemberIds();
+		for (int i = 0; i < 10000; i++) {
+			Account account = new Account("member" + i);
+			assertEquals(i, ids.register(account));
+			assertEquals(i, account.getId());
+		}
+		assertEquals(10000, ids.bound());
+		assertEquals("member4097", ids.get(4097).getUserName());
+		assertNull(ids.get(10000));
+		assertNull(ids.get(-1));
+	}
+
+	@Test
+	public void releasedIdIsQuarantinedBeforeReuse() {
+		MemberIds ids = new MemberIds(TimeUnit.HOURS.toNanos(1));
+		Account gone = new Account("gone");
+		ids.register(gone);
+		ids.release(gone);
+		assertNull(ids.get(0));
+
+		Account newcomer = new Account("newcomer");
+		assertEquals(1, ids.register(newcomer));
+		assertEquals(2, ids.bound());
+	}
+
+	@Test
+	public void releasedIdIsReusedAfterQuarantine() {
+		MemberIds ids = new MemberIds(0);
+		Account gone = new Account("gone");
+		ids.register(gone);
+		ids.register(new Account("stays"));
+		ids.release(gone);
+
+		Account newcomer = new Account("newcomer");
+		assertEquals(0, ids.register(newcomer));
+		assertSame(newcomer, ids.get(0));
+		assertEquals(2, ids.bound());
+	}
+
+	@Test
+	public void releasingAnAccountThatNoLongerHoldsItsIdChangesNothing() {
+		MemberIds ids = new MemberIds(0);
+		Account gone = new Account("gone");
+		ids.register(gone);
+		ids.release(gone);
+		Account newcomer = new Account("newcomer");
+		ids.register(newcomer);
+
+		ids.release(gone);
+		assertSame(newcomer, ids.get(0));
+		assertEquals(1, ids.register(new Account("third")));
+	}
+
+	@Test
+	public void concurrentRegistrationsGetDistinctIds() throws Exception {
+		MemberIds ids = new MemberIds(0);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int first = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					Account account = new Account("member" + first + "-" + i);
+					ids.register(account);
+					if (i % 3 == 0)
+						ids.release(account);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int id = 0; id < ids.bound(); id++) {
+			Account account = ids.get(id);
+			if (account != null) {
+				assertEquals(id, account.getId());
+				assertTrue(seen.add(id));
+			}
+		}
+		assertEquals(4 * (5000 - 1667), seen.size());
+	}
+}
@@ -0,0 +1,178 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class MemberSearchTest {
+
+	SocialNetwork sn;
+	MemberSearch search;
+	Account me;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		for (String each : List.of("Cecile", "Cecilia", "Cedric", "Celine", "Rafal", "Ceci", "Hanna")) {
+			sn.join(each);
+		}
+		search = MemberSearch.attachTo(sn);
+	}
+
+	@Test
+	public void existingMembersAreIndexed() {
+		assertEquals(8, search.size());
+		assertEquals(List.of("Ceci", "Cecile", "Cecilia", "Cedric", "Celine"), search.prefix(null, "Ce", 10));
+	}
+
+	@Test
+	public void prefixMatchesComeInAlphabeticalOrderUpToTheLimit() {
+		assertEquals(List.of("Ceci", "Cecile"), search.prefix(null, "Ce", 2));
+		assertEquals(List.of("Cecile", "Cecilia"), search.prefix(null, "Cecil", 10));
+		assertEquals(List.of("Rafal"), search.prefix(null, "Rafal", 10));
+		assertTrue(search.prefix(null, "Rafals", 10).isEmpty());
+		assertTrue(search.prefix(null, "X", 10).isEmpty());
+		assertEquals(3, search.prefix(null, "", 3).size());
+	}
+
+	@Test
+	public void friendsComeFirstAndTheSearcherIsLeftOut() {
+		sn.sendFriendshipTo("Hakan", sn.findAccountForUserName("Celine"));
+		sn.acceptFriendshipFrom("Celine", me);
+		assertEquals(List.of("Celine", "Ceci", "Cecile"), search.prefix(me, "Ce", 3));
+		assertEquals(List.of("Hanna"), search.prefix(me, "H", 10));
+	}
+
+	@Test
+	public void joinsAndLeavesAreIndexed() {
+		sn.join("Cecil");
+		assertEquals(List.of("Cecil", "Cecile", "Cecilia"), search.prefix(null, "Cecil", 10));
+		sn.leave(sn.findAccountForUserName("Cecile"));
+		assertEquals(List.of("Cecil", "Cecilia"), search.prefix(null, "Cecil", 10));
+		assertEquals(8, search.size());
+		search.detach();
+		sn.join("Cecilio");
+		assertEquals(List.of("Cecil", "Cecilia"), search.prefix(null, "Cecil", 10));
+	}
+
+	@Test
+	public void fuzzyMatchesForgiveTypos() {
+		assertEquals(List.of("Cecile"), search.fuzzy(null, "Cecle", 1, 10));
+		assertEquals(List.of("Cecile", "Ceci", "Cecilia", "Celine"), search.fuzzy(null, "Cecle", 2, 10));
+		assertEquals(List.of("Rafal"), search.fuzzy(null, "Rfal", 1, 10));
+		assertTrue(search.fuzzy(null, "Rfl", 1, 10).isEmpty());
+		// two substitutions turn "Rfl" into "Cel" as well
+		assertEquals(List.of("Celine", "Rafal"), search.fuzzy(null, "Rfl", 2, 10));
+	}
+
+	@Test
+	public void fuzzyMatchesAreClosestFirstAndFriendsFirst() {
+		// "Ced" is an exact prefix of Cedric, one edit from Ceci, Cecile and Cecilia
+		assertEquals(List.of("Cedric", "Ceci", "Cecile", "Cecilia", "Celine"), search.fuzzy(null, "Ced", 1, 10));
+		sn.sendFriendshipTo("Hakan", sn.findAccountForUserName("Celine"));
+		sn.acceptFriendshipFrom("Celine", me);
+		assertEquals(List.of("Celine", "Cedric", "Ceci"), search.fuzzy(me, "Ced", 1, 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyEditsAreRefused() {
+		search.fuzzy(null, "Ced", MemberSearch.MAX_EDITS + 1, 10);
+	}
+
+	@Test
+	public void prefixDistanceIsTheFewestEditsToAnyPrefix() {
+		assertEquals(0, MemberSearch.prefixDistance("Cec", "Cecile", 2));
+		assertEquals(1, MemberSearch.prefixDistance("Cecle", "Cecile", 2));
+		assertEquals(2, MemberSearch.prefixDistance("Cxcxl", "Cecile", 2));
+		assertEquals(3, MemberSearch.prefixDistance("zzzz", "Cecile", 2));
+	}
+
+	@Test
+	public void matchesWhatScanningEveryMemberFinds() {
+		Random random = new Random(5);
+		SocialNetwork big = new SocialNetwork();
+		MemberSearch index = MemberSearch.attachTo(big);
+		List<Account> joined = new ArrayList<Account>();
+		for (int round = 0; round < 6000; round++) {
+			if (joined.isEmpty() || random.nextInt(3) > 0) {
+				Account account = big.join(randomName(random));
+				if (account != null)
+					joined.add(account);
+			} else {
+				// enough leaves to rebuild the tree along the way
+				big.leave(joined.remove(random.nextInt(joined.size())));
+			}
+		}
+		Account searcher = joined.get(0);
+		for (int i = 0; i < 40; i++) {
+			Account friend = joined.get(1 + random.nextInt(joined.size() - 1));
+			big.sendFriendshipTo(friend.getUserName(), searcher);
+			big.acceptFriendshipFrom(searcher.getUserName(), friend);
+		}
+		assertEquals(big.listMembers().size(), index.size());
+		for (int i = 0; i < 200; i++) {
+			String query = randomName(random).substring(0, 1 + random.nextInt(2));
+			int limit = 1 + random.nextInt(30);
+			Account asker = random.nextBoolean() ? searcher : null;
+			assertEquals(query, scan(big, asker, query, 0, limit, true), index.prefix(asker, query, limit));
+			int edits = random.nextInt(3);
+			assertEquals(query + "~" + edits, scan(big, asker, query, edits, limit, false),
+					index.fuzzy(asker, query, edits, limit));
+		}
+	}
+
+	@Test
+	public void concurrentJoinsAreAllIndexed() throws Exception {
+		ConcurrentSocialNetwork csn = new ConcurrentSocialNetwork();
+		MemberSearch index = MemberSearch.attachTo(csn);
+		Thread[] joiners = new Thread[4];
+		for (int t = 0; t < joiners.length; t++) {
+			int first = t * 2000;
+			joiners[t] = new Thread(() -> {
+				for (int i = first; i < first + 2000; i++) {
+					csn.join("user" + i);
+					index.prefix(null, "user" + (i / 10), 5);
+				}
+			});
+			joiners[t].start();
+		}
+		for (Thread each : joiners) {
+			each.join();
+		}
+		assertEquals(8000, index.size());
+		assertEquals(List.of("user7999"), index.prefix(null, "user7999", 5));
+	}
+
+	private static String randomName(Random random) {
+		char[] name = new char[2 + random.nextInt(5)];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = (char) ('a' + random.nextInt(4));
+		}
+		return new String(name);
+	}
+
+	// what a search must return, by looking at every member
+	private static List<String> scan(SocialNetwork network, Account me, String query, int edits, int limit, boolean prefix) {
+		List<String> friends = new ArrayList<String>();
+		List<String> others = new ArrayList<String>();
+		for (String each : network.listMembers()) {
+			int distance = prefix ? (each.startsWith(query) ? 0 : 1) : MemberSearch.prefixDistance(query, each, edits);
+			if (distance > edits || me != null && each.equals(me.getUserName()))
+				continue;
+			(me != null && me.hasFriend(each) ? friends : others).add(each);
+		}
+		Comparator<String> order = Comparator.comparingInt((String each) -> prefix ? 0 : MemberSearch.prefixDistance(query, each, edits))
+				.thenComparing(Comparator.naturalOrder());
+		Collections.sort(friends, order);
+		Collections.sort(others, order);
+		friends.addAll(others);
+		return friends.size() > limit ? friends.subList(0, limit) : friends;
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class NetworkMetricsTest {
+	SocialNetwork sn;
+	NetworkMetrics metrics;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		metrics = NetworkMetrics.attachTo(sn, 1);
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@Test
+	public void operationsAreCountedAndTimed() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.rejectFriendshipFrom("Hakan", another);
+		sn.sendFriendshipCancellationTo("Cecile", me);
+		sn.acceptAllFriendshipsTo(me);
+		sn.applyBatch(Arrays.asList(FriendshipOperation.request("Hakan", "Cecile")));
+		sn.suggestFriendsFor(me, 3);
+		sn.leave(another);
+
+		assertEquals(3, metrics.count(NetworkMetrics.Operation.JOIN));
+		assertEquals(2, metrics.count(NetworkMetrics.Operation.REQUEST));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.ACCEPT));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.REJECT));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.CANCEL));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.ACCEPT_ALL));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.BATCH));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.SUGGEST));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.LEAVE));
+		assertEquals(2, metrics.latencyNanos(NetworkMetrics.Operation.REQUEST).count());
+		assertTrue(metrics.latencyNanos(NetworkMetrics.Operation.JOIN).max() > 0);
+	}
+
+	@Test
+	public void operationThatThrowsIsRecordedToo() {
+		try {
+			sn.acceptAllFriendshipsTo(null);
+			fail("accepted for nobody");
+		} catch (NullPointerException expected) {
+		}
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.ACCEPT_ALL));
+		assertEquals(1, metrics.latencyNanos(NetworkMetrics.Operation.ACCEPT_ALL).count());
+	}
+
+	@Test
+	public void sampledMetricsCountEveryCallButTimeSome() {
+		SocialNetwork sampled = new SocialNetwork();
+		NetworkMetrics some = NetworkMetrics.attachTo(sampled, 10);
+		for (int i = 0; i < 10000; i++) {
+			sampled.join("user" + i);
+		}
+		assertEquals(10000, some.count(NetworkMetrics.Operation.JOIN));
+		long timed = some.latencyNanos(NetworkMetrics.Operation.JOIN).count();
+		assertTrue("timed " + timed, timed > 700 && timed < 1300);
+	}
+
+	@Test
+	public void gaugesDescribeTheNetwork() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.sendFriendshipTo("Rafal", her);
+		assertEquals(3, metrics.getMembers());
+		assertEquals(2, metrics.getPendingRequests());
+		assertEquals(1, metrics.getMaxDegree());
+		assertEquals(3, metrics.degrees().count());
+
+		Map<String, Double> exported = new HashMap<String, Double>();
+		metrics.export(exported::put);
+		assertEquals(3.0, exported.get("request.count"), 0.0);
+		assertEquals(2.0, exported.get("pending_requests"), 0.0);
+		assertEquals(3.0, exported.get("members"), 0.0);
+		assertTrue(exported.containsKey("accept.latency.p99_us"));
+	}
+
+	@Test
+	public void detachedMetricsStopCounting() throws Exception {
+		metrics.detach();
+		sn.join("John");
+		assertEquals(3, metrics.count(NetworkMetrics.Operation.JOIN));
+	}
+
+	@Test
+	public void metricsAreVisibleOverJmx() throws Exception {
+		ObjectName name = metrics.registerMBean("test");
+		try {
+			sn.sendFriendshipTo("Cecile", me);
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "PendingRequests"));
+			assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Members"));
+		} finally {
+			metrics.detach();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
@@ -0,0 +1,112 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class NetworkSnapshotTest {
+	SocialNetwork sn;
+	Account me, her, another;
+	Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		file = Files.createTempFile("network", ".snapshot");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void emptyNetworkRoundTrips() throws IOException {
+		NetworkSnapshot.save(new SocialNetwork(), file);
+		assertTrue(NetworkSnapshot.load(file).listMembers().isEmpty());
+	}
+
+	@Test
+	public void friendsRequestsAndAutoAcceptRoundTrip() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.autoAcceptFriendshipsTo(another);
+		sn.sendFriendshipTo("Hakan", another);
+
+		NetworkSnapshot.save(sn, file);
+		SocialNetwork loaded = NetworkSnapshot.load(file);
+		assertSameState(sn, loaded);
+		assertTrue(loaded.findAccountForUserName("Rafal").isAutoAcceptingFriendships());
+		assertFalse(loaded.findAccountForUserName("Hakan").isAutoAcceptingFriendships());
+	}
+
+	@Test
+	public void loadedNetworkKeepsWorking() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		NetworkSnapshot.save(sn, file);
+		SocialNetwork loaded = NetworkSnapshot.load(file);
+		Account loadedHer = loaded.findAccountForUserName("Cecile");
+		loaded.acceptFriendshipFrom("Hakan", loadedHer);
+		assertTrue(loadedHer.hasFriend("Hakan"));
+		assertTrue(loaded.findAccountForUserName("Hakan").hasFriend("Cecile"));
+	}
+
+	@Test
+	public void randomNetworkRoundTripsIntoOtherModes() throws IOException {
+		Random random = new Random(3);
+		SocialNetwork big = new SocialNetwork();
+		for (int i = 0; i < 500; i++) {
+			big.join("user" + i);
+		}
+		for (int i = 0; i < 5000; i++) {
+			Account a = big.findAccountForUserName("user" + random.nextInt(500));
+			String b = "user" + random.nextInt(500);
+			big.sendFriendshipTo(b, a);
+			if (random.nextBoolean())
+				big.acceptFriendshipFrom(a.getUserName(), big.findAccountForUserName(b));
+		}
+		big.leave(big.findAccountForUserName("user0"));
+
+		NetworkSnapshot.save(big, file);
+		assertSameState(big, NetworkSnapshot.load(file));
+		assertSameState(big, NetworkSnapshot.load(file, new ConcurrentSocialNetwork()));
+		assertSameState(big, NetworkSnapshot.load(file, new CompactSocialNetwork()));
+	}
+
+	@Test(expected = IOException.class)
+	public void loadingSomethingElseFails() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		NetworkSnapshot.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void loadingTruncatedSnapshotFails() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		NetworkSnapshot.save(sn, file);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+		NetworkSnapshot.load(file);
+	}
+
+	private static void assertSameState(SocialNetwork expected, SocialNetwork actual) {
+		assertEquals(expected.listMembers(), actual.listMembers());
+		for (String member : expected.listMembers()) {
+			Account a = expected.findAccountForUserName(member);
+			Account b = actual.findAccountForUserName(member);
+			assertEquals(member, a.getFriends(), b.getFriends());
+			assertEquals(member, a.getIncomingRequests(), b.getIncomingRequests());
+			assertEquals(member, a.getOutgoingRequests(), b.getOutgoingRequests());
+			assertEquals(member, a.isAutoAcceptingFriendships(), b.isAutoAcceptingFriendships());
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+public class PersistentNameMapTest {
+
+	@Test
+	public void emptyMapHasNothing() {
+		PersistentNameMap<Integer> map = PersistentNameMap.empty();
+		assertEquals(0, map.size());
+		assertNull(map.get("Hakan"));
+		assertSame(map, map.remove("Hakan"));
+		assertFalse(map.keys().hasNext());
+	}
+
+	@Test
+	public void putAndRemoveLeaveTheOldMapAsItWas() {
+		PersistentNameMap<Integer> empty = PersistentNameMap.empty();
+		PersistentNameMap<Integer> one = empty.put("Hakan", 1);
+		PersistentNameMap<Integer> two = one.put("Cecile", 2);
+		PersistentNameMap<Integer> replaced = two.put("Hakan", 3);
+		PersistentNameMap<Integer> removed = replaced.remove("Cecile");
+		assertNull(empty.get("Hakan"));
+		assertEquals(Integer.valueOf(1), one.get("Hakan"));
+		assertNull(one.get("Cecile"));
+		assertEquals(2, two.size());
+		assertEquals(Integer.valueOf(1), two.get("Hakan"));
+		assertEquals(Integer.valueOf(3), replaced.get("Hakan"));
+		assertEquals(2, replaced.size());
+		assertEquals(1, removed.size());
+		assertNull(removed.get("Cecile"));
+		assertEquals(Integer.valueOf(2), replaced.get("Cecile"));
+	}
+
+	@Test
+	public void namesWithEqualHashesAreKeptApart() {
+		// "Aa" and "BB" have the same String hash code
+		PersistentNameMap<Integer> map = PersistentNameMap.<Integer>empty().put("Aa", 1).put("BB", 2).put("AaBB", 3)
+				.put("BBAa", 4);
+		assertEquals(Integer.valueOf(1), map.get("Aa"));
+		assertEquals(Integer.valueOf(2), map.get("BB"));
+		assertEquals(Integer.valueOf(3), map.get("AaBB"));
+		assertEquals(Integer.valueOf(4), map.get("BBAa"));
+		map = map.remove("Aa").remove("BBAa");
+		assertEquals(2, map.size());
+		assertNull(map.get("Aa"));
+		assertEquals(Integer.valueOf(2), map.get("BB"));
+		assertEquals(Integer.valueOf(3), map.get("AaBB"));
+	}
+
+	@Test
+	public void matchesAHashMapThroughManyChanges() {
+		Random random = new Random(11);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		PersistentNameMap<Integer> map = PersistentNameMap.empty();
+		for (int i = 0; i < 50000; i++) {
+			String key = "user" + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.remove(key);
+			} else {
+				expected.put(key, i);
+				map = map.put(key, i);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(expected.get("user" + i), map.get("user" + i));
+		}
+		Set<String> keys = new HashSet<String>();
+		for (Iterator<String> each = map.keys(); each.hasNext(); ) {
+			assertTrue(keys.add(each.next()));
+		}
+		assertEquals(expected.keySet(), keys);
+		Map<String, Integer> visited = new HashMap<String, Integer>();
+		map.forEach(visited::put);
+		assertEquals(expected, visited);
+	}
+}
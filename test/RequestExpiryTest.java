@@ -0,0 +1,137 @@
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RequestExpiryTest {
+	static final long SECOND = 1000000000L;
+
+	SocialNetwork sn;
+	RequestExpiry expiry;
+	Account me, her, another;
+	long now = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		expiry = RequestExpiry.attachTo(sn, Duration.ofSeconds(64), () -> now);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		expiry.close();
+	}
+
+	@Test
+	public void pendingRequestExpiresOnBothSides() {
+		sn.sendFriendshipTo("Cecile", me);
+		now = 63 * SECOND;
+		assertEquals(0, expiry.expireDue());
+		assertTrue(her.getIncomingRequests().contains("Hakan"));
+		now = 65 * SECOND;
+		assertEquals(1, expiry.expireDue());
+		assertFalse(her.getIncomingRequests().contains("Hakan"));
+		assertFalse(me.getOutgoingRequests().contains("Cecile"));
+		assertEquals(1, expiry.expired());
+		assertEquals(0, expiry.scheduled());
+	}
+
+	@Test
+	public void recordedRequestsCountAsScheduledBeforeReachingTheWheel() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.sendFriendshipTo("Rafal", me);
+		assertEquals(2, expiry.scheduled());
+		now = 10 * SECOND;
+		assertEquals(0, expiry.expireDue());
+		assertEquals(2, expiry.scheduled());
+		now = 65 * SECOND;
+		assertEquals(2, expiry.expireDue());
+		assertEquals(0, expiry.scheduled());
+	}
+
+	@Test
+	public void answeredRequestsAreLeftAlone() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.rejectFriendshipFrom("Hakan", another);
+		now = 100 * SECOND;
+		assertEquals(0, expiry.expireDue());
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(her.hasFriend("Hakan"));
+	}
+
+	@Test
+	public void requestSentAgainAfterAnAnswerGetsAFreshTimeToLive() {
+		sn.sendFriendshipTo("Cecile", me);
+		now = 30 * SECOND;
+		sn.rejectFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Cecile", me);
+		now = 70 * SECOND;
+		assertEquals(0, expiry.expireDue());
+		assertTrue(her.getIncomingRequests().contains("Hakan"));
+		now = 100 * SECOND;
+		assertEquals(1, expiry.expireDue());
+		assertFalse(her.getIncomingRequests().contains("Hakan"));
+	}
+
+	@Test
+	public void repeatingAPendingRequestDoesNotExtendIt() {
+		sn.sendFriendshipTo("Cecile", me);
+		now = 30 * SECOND;
+		sn.sendFriendshipTo("Cecile", me);
+		now = 66 * SECOND;
+		assertEquals(1, expiry.expireDue());
+	}
+
+	@Test
+	public void requestsPendingWhenAttachedExpireAfterAFullTimeToLive() {
+		expiry.close();
+		me.requestFriendship(another);
+		expiry = RequestExpiry.attachTo(sn, Duration.ofSeconds(64), () -> now);
+		now = 66 * SECOND;
+		assertEquals(1, expiry.expireDue());
+		assertTrue(another.getOutgoingRequests().isEmpty());
+	}
+
+	@Test
+	public void requestsOfDepartedMembersAreSkipped() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.leave(me);
+		Account newcomer = sn.join("Hakan");
+		sn.sendFriendshipTo("Cecile", newcomer);
+		now = 66 * SECOND;
+		assertEquals(1, expiry.expireDue());
+		assertTrue(her.getIncomingRequests().isEmpty());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void plainNetworkCannotExpireInBackground() {
+		expiry.expireInBackground();
+	}
+
+	@Test
+	public void concurrentNetworkExpiresInBackground() throws Exception {
+		ConcurrentSocialNetwork concurrent = new ConcurrentSocialNetwork();
+		Account a = concurrent.join("Hakan");
+		Account b = concurrent.join("Cecile");
+		try (RequestExpiry background = RequestExpiry.attachTo(concurrent, Duration.ofMillis(100))) {
+			background.expireInBackground();
+			concurrent.sendFriendshipTo("Cecile", a);
+			assertTrue(b.getIncomingRequests().contains("Hakan"));
+			long deadline = System.nanoTime() + 10 * SECOND;
+			while (!b.getIncomingRequests().isEmpty() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(b.getIncomingRequests().isEmpty());
+			assertTrue(a.getOutgoingRequests().isEmpty());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RequestRateLimiterTest {
+	static final long SECOND = 1000000000L;
+
+	SocialNetwork sn;
+	RequestRateLimiter limiter;
+	Account me, her;
+	long now = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		for (int i = 0; i < 10; i++) {
+			sn.join("user" + i);
+		}
+		limiter = RequestRateLimiter.attachTo(sn, 3, Duration.ofSeconds(1), () -> now);
+	}
+
+	@Test
+	public void burstIsAllowedAndTheNextRequestIsThrottled() {
+		for (int i = 0; i < 3; i++) {
+			assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user" + i, me));
+		}
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user3", me));
+		assertEquals(3, me.getOutgoingRequests().size());
+		assertFalse(sn.findAccountForUserName("user3").getIncomingRequests().contains("Hakan"));
+		assertEquals(1, limiter.throttled());
+	}
+
+	@Test
+	public void tokensComeBackOnePerInterval() {
+		for (int i = 0; i < 3; i++) {
+			sn.sendFriendshipTo("user" + i, me);
+		}
+		now = SECOND / 2;
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user3", me));
+		now = SECOND;
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user3", me));
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user4", me));
+		// a long pause refills the bucket, but never beyond the burst
+		now = 100 * SECOND;
+		for (int i = 4; i < 7; i++) {
+			assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user" + i, me));
+		}
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user7", me));
+	}
+
+	@Test
+	public void sendersHaveABucketEach() {
+		for (int i = 0; i < 3; i++) {
+			sn.sendFriendshipTo("user" + i, me);
+		}
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user3", me));
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user3", her));
+	}
+
+	@Test
+	public void onlyRequestsAreLimited() {
+		for (int i = 0; i < 3; i++) {
+			sn.sendFriendshipTo("user" + i, her);
+		}
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("Hakan", her));
+		sn.sendFriendshipTo("Cecile", me);
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.acceptFriendshipFrom("Hakan", her));
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipCancellationTo("Hakan", her));
+	}
+
+	@Test
+	public void batchesGetThrottledResults() {
+		List<FriendshipOperation> operations = new ArrayList<FriendshipOperation>();
+		for (int i = 0; i < 5; i++) {
+			operations.add(FriendshipOperation.request("Hakan", "user" + i));
+		}
+		operations.add(FriendshipOperation.request("Cecile", "user0"));
+		List<FriendshipOperation.Result> results = sn.applyBatch(operations);
+		assertEquals(List.of(FriendshipOperation.Result.APPLIED, FriendshipOperation.Result.APPLIED,
+				FriendshipOperation.Result.APPLIED, FriendshipOperation.Result.THROTTLED,
+				FriendshipOperation.Result.THROTTLED, FriendshipOperation.Result.APPLIED), results);
+	}
+
+	@Test
+	public void detachedLimiterLetsEverythingThrough() {
+		limiter.detach();
+		for (int i = 0; i < 10; i++) {
+			assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user" + i, me));
+		}
+	}
+
+	@Test
+	public void reattachingStartsWithFullBuckets() {
+		for (int i = 0; i < 3; i++) {
+			sn.sendFriendshipTo("user" + i, me);
+		}
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user3", me));
+		limiter.detach();
+		now = 7 * SECOND;
+		RequestRateLimiter.attachTo(sn, 1, Duration.ofSeconds(1), () -> now);
+		assertEquals(FriendshipOperation.Result.APPLIED, sn.sendFriendshipTo("user3", me));
+		assertEquals(FriendshipOperation.Result.THROTTLED, sn.sendFriendshipTo("user4", me));
+	}
+
+	@Test
+	public void concurrentSendersGetExactlyTheBurst() throws Exception {
+		ConcurrentSocialNetwork csn = new ConcurrentSocialNetwork();
+		Account flooder = csn.join("flooder");
+		for (int i = 0; i < 400; i++) {
+			csn.join("user" + i);
+		}
+		RequestRateLimiter.attachTo(csn, 50, Duration.ofSeconds(1), () -> now);
+		AtomicInteger applied = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int first = t * 100;
+			threads[t] = new Thread(() -> {
+				for (int i = first; i < first + 100; i++) {
+					if (csn.sendFriendshipTo("user" + i, flooder) == FriendshipOperation.Result.APPLIED)
+						applied.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread each : threads) {
+			each.join();
+		}
+		assertEquals(50, applied.get());
+		assertEquals(50, flooder.getOutgoingRequests().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void burstMustBePositive() {
+		RequestRateLimiter.attachTo(sn, 0, Duration.ofSeconds(1));
+	}
+}
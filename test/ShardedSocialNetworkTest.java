@@ -0,0 +1,227 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ShardedSocialNetworkTest {
+	static final int THREADS = 8;
+	static final int MEMBERS = 64;
+	static final int OPERATIONS_PER_THREAD = 20000;
+
+	ShardedSocialNetwork sn;
+	Account me, her;
+	ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new ShardedSocialNetwork(4);
+		pool = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void shardCountIsRoundedUpToPowerOfTwo() {
+		assertEquals(8, new ShardedSocialNetwork(5).shardCount());
+		assertEquals(1, new ShardedSocialNetwork(1).shardCount());
+	}
+
+	@Test
+	public void membersArePartitionedAcrossShards() {
+		for (int i = 0; i < 1000; i++) {
+			sn.join(userName(i));
+		}
+		int[] counts = sn.membersPerShard();
+		assertEquals(4, counts.length);
+		int total = 0;
+		for (int count : counts) {
+			assertTrue("shard with " + count + " members", count > 100);
+			total += count;
+		}
+		assertEquals(1000, total);
+		assertEquals(1000, sn.listMembers().size());
+		assertEquals(1000, sn.members().size());
+		assertNull(sn.join(userName(7)));
+	}
+
+	@Test
+	public void membersGetIdsFromTheirOwnShard() {
+		for (int i = 0; i < 1000; i++) {
+			sn.join(userName(i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			Account account = sn.findAccountForUserName(userName(i));
+			assertEquals(sn.shardOf(userName(i)), account.getId() % sn.shardCount());
+			assertSame(account, sn.accountForId(account.getId()));
+			assertTrue(account.getId() < sn.idBound());
+		}
+		assertNull(sn.accountForId(-1));
+		assertNull(sn.accountForId(sn.idBound()));
+		List<String> paged = new ArrayList<String>();
+		for (int position = 0; position >= 0; ) {
+			position = sn.forEachMember(position, 100, paged::add);
+		}
+		assertEquals(new HashSet<String>(sn.listMembers()), new HashSet<String>(paged));
+		assertEquals(1000, paged.size());
+	}
+
+	@Test
+	public void everyShardHasStripesOfItsOwn() {
+		ShardedSocialNetwork striped = new ShardedSocialNetwork(4, 64);
+		boolean[][] used = new boolean[4][64];
+		for (int i = 0; i < 10000; i++) {
+			int stripe = striped.stripeIndex(userName(i));
+			assertEquals(striped.shardOf(userName(i)), stripe / 64);
+			used[stripe / 64][stripe % 64] = true;
+		}
+		for (boolean[] shard : used) {
+			for (boolean stripe : shard) {
+				assertTrue(stripe);
+			}
+		}
+	}
+
+	@Test
+	public void friendshipAcrossShardsIsRecordedOnBothSides() {
+		me = sn.join("Hakan");
+		her = sn.join(nameInOtherShardThan("Hakan"));
+		sn.sendFriendshipTo(her.getUserName(), me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		assertTrue(me.hasFriend(her.getUserName()));
+		assertTrue(her.hasFriend("Hakan"));
+		assertEquals(2, sn.crossShardOperations());
+		assertEquals(0, sn.localOperations());
+
+		sn.leave(me);
+		assertFalse(her.hasFriend("Hakan"));
+		assertFalse(sn.listMembers().contains("Hakan"));
+	}
+
+	@Test
+	public void snapshotRoundTripsThroughShards() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			sn.join(userName(i));
+		}
+		Random random = new Random(5);
+		for (int i = 0; i < 2000; i++) {
+			Account account = sn.findAccountForUserName(userName(random.nextInt(200)));
+			String other = userName(random.nextInt(200));
+			sn.sendFriendshipTo(other, account);
+			if (random.nextBoolean())
+				sn.acceptFriendshipFrom(account.getUserName(), sn.findAccountForUserName(other));
+		}
+		Path file = Files.createTempFile("sharded", ".snapshot");
+		try {
+			NetworkSnapshot.save(sn, file);
+			ShardedSocialNetwork loaded = NetworkSnapshot.load(file, new ShardedSocialNetwork(2));
+			assertEquals(new HashSet<String>(sn.listMembers()), new HashSet<String>(loaded.listMembers()));
+			for (String member : sn.listMembers()) {
+				assertEquals(sn.findAccountForUserName(member).getFriends(),
+						loaded.findAccountForUserName(member).getFriends());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void randomConcurrentOperationsAcrossShardsLeaveFriendGraphConsistent() throws Exception {
+		for (int i = 0; i < MEMBERS; i++) {
+			sn.join(userName(i));
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < THREADS; t++) {
+			long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				start.await();
+				for (int n = 0; n < OPERATIONS_PER_THREAD; n++) {
+					randomOperation(random);
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> each : workers) {
+			each.get(60, TimeUnit.SECONDS);
+		}
+		assertTrue(sn.crossShardOperations() > 0);
+		assertConsistent();
+	}
+
+	private void randomOperation(Random random) {
+		String userName = userName(random.nextInt(MEMBERS));
+		Account account = sn.findAccountForUserName(userName(random.nextInt(MEMBERS)));
+		if (account == null) {
+			sn.join(userName);
+			return;
+		}
+		switch (random.nextInt(12)) {
+		case 0:
+			sn.leave(account);
+			break;
+		case 1:
+			sn.applyBatch(Arrays.asList(FriendshipOperation.request(account.getUserName(), userName),
+					FriendshipOperation.accept(userName, account.getUserName())));
+			break;
+		case 2: case 3: case 4:
+			sn.acceptFriendshipFrom(userName, account);
+			break;
+		case 5:
+			sn.rejectFriendshipFrom(userName, account);
+			break;
+		case 6: case 7:
+			sn.sendFriendshipCancellationTo(userName, account);
+			break;
+		default:
+			sn.sendFriendshipTo(userName, account);
+		}
+	}
+
+	// every friendship and request between members is recorded on both sides
+	private void assertConsistent() {
+		for (String member : sn.listMembers()) {
+			Account account = sn.findAccountForUserName(member);
+			for (String friend : account.getFriends()) {
+				Account other = sn.findAccountForUserName(friend);
+				assertNotNull(member + " is friends with departed " + friend, other);
+				assertTrue(friend + " is missing friend " + member, other.hasFriend(member));
+			}
+			for (String requestee : account.getOutgoingRequests()) {
+				Account other = sn.findAccountForUserName(requestee);
+				assertNotNull(member + " has request to departed " + requestee, other);
+				assertTrue(requestee + " is missing request from " + member, other.getIncomingRequests().contains(member));
+			}
+		}
+	}
+
+	private String nameInOtherShardThan(String userName) {
+		for (int i = 0; ; i++) {
+			if (sn.shardOf(userName(i)) != sn.shardOf(userName))
+				return userName(i);
+		}
+	}
+
+	private static String userName(int i) {
+		return "user" + i;
+	}
+}
@@ -0,0 +1,187 @@
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class SocialNetworkServerTest {
+	ConcurrentSocialNetwork sn;
+	SocialNetworkServer server;
+	Socket socket;
+	BufferedReader in;
+	OutputStream out;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new ConcurrentSocialNetwork();
+		server = new SocialNetworkServer(sn, 0);
+		socket = new Socket("localhost", server.getPort());
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		out = socket.getOutputStream();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		socket.close();
+		server.close();
+	}
+
+	@Test
+	public void requestsChangeTheNetwork() throws IOException {
+		assertEquals("OK", call("JOIN Hakan"));
+		assertEquals("OK", call("JOIN Cecile"));
+		assertEquals("TAKEN", call("JOIN Hakan"));
+		assertEquals("APPLIED", call("REQUEST Hakan Cecile"));
+		assertEquals("INCOMING Hakan", call("INCOMING Cecile"));
+		assertEquals("OUTGOING Cecile", call("OUTGOING Hakan"));
+		assertEquals("APPLIED", call("ACCEPT Cecile Hakan"));
+		assertEquals("NO_EFFECT", call("ACCEPT Cecile Hakan"));
+		assertEquals("FRIENDS Cecile", call("FRIENDS Hakan"));
+		assertTrue(sn.findAccountForUserName("Cecile").hasFriend("Hakan"));
+		assertEquals("APPLIED", call("CANCEL Hakan Cecile"));
+		assertEquals("FRIENDS", call("FRIENDS Hakan"));
+		assertEquals("OK", call("LEAVE Hakan"));
+		assertEquals("UNKNOWN_MEMBER", call("LEAVE Hakan"));
+		assertEquals("UNKNOWN_MEMBER", call("REQUEST Cecile Hakan"));
+		assertEquals(new HashSet<String>(Arrays.asList("Cecile")), new HashSet<String>(sn.listMembers()));
+	}
+
+	@Test
+	public void malformedRequestsGetErrorsAndKeepTheConnection() throws IOException {
+		assertTrue(call("HELLO").startsWith("ERROR"));
+		assertTrue(call("JOIN").startsWith("ERROR"));
+		assertTrue(call("REQUEST Hakan").startsWith("ERROR"));
+		assertTrue(call("").startsWith("ERROR"));
+		assertEquals("PONG", call("PING"));
+	}
+
+	@Test
+	public void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+		StringBuilder burst = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			burst.append("JOIN user").append(i).append("\r\n");
+		}
+		for (int i = 1; i < 500; i++) {
+			burst.append("REQUEST user0 user").append(i).append('\n');
+		}
+		burst.append("JOIN user7\n");
+		out.write(burst.toString().getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		for (int i = 0; i < 500; i++) {
+			assertEquals("OK", in.readLine());
+		}
+		for (int i = 1; i < 500; i++) {
+			assertEquals("APPLIED", in.readLine());
+		}
+		assertEquals("TAKEN", in.readLine());
+		assertEquals(499, sn.findAccountForUserName("user0").getOutgoingRequests().size());
+	}
+
+	@Test
+	public void tooLongRequestLineClosesTheConnection() throws IOException {
+		char[] name = new char[SocialNetworkServer.MAX_LINE * 2];
+		Arrays.fill(name, 'x');
+		out.write(("JOIN " + new String(name) + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		try {
+			assertNull(in.readLine());
+		} catch (SocketException e) {
+			// reset, since the server closed without reading the rest of the line
+		}
+		assertTrue(sn.listMembers().isEmpty());
+	}
+
+	@Test
+	public void manyClientsAtOnce() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<?>> clients = new ArrayList<Future<?>>();
+			for (int c = 0; c < 64; c++) {
+				String name = "client" + c;
+				clients.add(pool.submit(() -> {
+					try (Socket client = new Socket("localhost", server.getPort())) {
+						BufferedReader replies = new BufferedReader(
+								new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+						client.getOutputStream().write(("JOIN " + name + "\nREQUEST " + name + " client0\n")
+								.getBytes(StandardCharsets.UTF_8));
+						assertEquals("OK", replies.readLine());
+						String requested = replies.readLine();
+						assertTrue(requested, requested.equals("APPLIED") || requested.equals("UNKNOWN_MEMBER")
+								|| requested.equals("NO_EFFECT"));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> each : clients) {
+				each.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(64, sn.listMembers().size());
+	}
+
+	@Test
+	public void closingTheServerClosesItsConnections() throws IOException {
+		assertEquals("PONG", call("PING"));
+		server.close();
+		assertNull(in.readLine());
+	}
+
+	@Test
+	public void operationsGoThroughTheNetworksOwnOperations() throws IOException {
+		NetworkMetrics metrics = NetworkMetrics.attachTo(sn, 1);
+		call("JOIN Hakan");
+		call("JOIN Cecile");
+		assertEquals("APPLIED", call("REQUEST Hakan Cecile"));
+		assertEquals("APPLIED", call("ACCEPT Cecile Hakan"));
+		assertEquals("UNKNOWN_MEMBER", call("REQUEST Rafal Cecile"));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.REQUEST));
+		assertEquals(1, metrics.count(NetworkMetrics.Operation.ACCEPT));
+		assertEquals(0, metrics.count(NetworkMetrics.Operation.BATCH));
+	}
+
+	@Test
+	public void failingAcceptBacksOffInsteadOfSpinning() throws Exception {
+		AtomicInteger accepts = new AtomicInteger();
+		ServerSocket failing = new ServerSocket() {
+			@Override
+			public Socket accept() throws IOException {
+				accepts.incrementAndGet();
+				throw new IOException("Too many open files");
+			}
+		};
+		SocialNetworkServer starved = new SocialNetworkServer(sn, failing);
+		try {
+			Thread.sleep(300);
+			assertTrue("accepts: " + accepts.get(), accepts.get() >= 2 && accepts.get() <= 10);
+		} finally {
+			starved.close();
+		}
+	}
+
+	private String call(String request) throws IOException {
+		out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		return in.readLine();
+	}
+}
@@ -1,8 +1,18 @@
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.sun.management.ThreadMXBean;
 
 import org.junit.After;
 import org.junit.Before;
@@ -202,6 +212,24 @@ public class SocialNetworkTest {
 		assertFalse(sn.listMembers().contains(me.getUserName()));
 	}
 
+	@Test
+	public void joinAfterLeaveWithSameUserNameSucceeds() {
+		me = sn.join("Hakan");
+		sn.leave(me);
+		another = sn.join("Hakan");
+		assertNotNull(another);
+		assertTrue(sn.listMembers().contains("Hakan"));
+	}
+
+	@Test
+	public void leaveWithStaleAccountDoesNotRemoveNewMemberWithSameUserName() {
+		me = sn.join("Hakan");
+		sn.leave(me);
+		another = sn.join("Hakan");
+		sn.leave(me);
+		assertTrue(sn.listMembers().contains("Hakan"));
+	}
+
 	@Test
     public void leaveRemovesUserFromFriendsLists() {
         acceptFriendRequestResultsInFriendshipEstablished();
@@ -229,6 +257,146 @@ public class SocialNetworkTest {
         assertFalse(her.getOutgoingRequests().contains(me.getUserName()));
     }
 
+	@Test
+	public void leaveWithManyFriendsAndRequestsDetachesFromEveryone() {
+		me = sn.join("Hakan");
+		for (int i = 0; i < 50; i++) {
+			Account other = sn.join("user" + i);
+			if (i % 3 == 0) {
+				sn.sendFriendshipTo(other.getUserName(), me);
+				sn.acceptFriendshipFrom("Hakan", other);
+			} else if (i % 3 == 1) {
+				sn.sendFriendshipTo("Hakan", other);
+			} else {
+				sn.sendFriendshipTo(other.getUserName(), me);
+			}
+		}
+		sn.leave(me);
+		assertFalse(sn.listMembers().contains("Hakan"));
+		for (int i = 0; i < 50; i++) {
+			Account other = sn.findAccountForUserName("user" + i);
+			assertFalse(other.hasFriend("Hakan"));
+			assertFalse(other.getIncomingRequests().contains("Hakan"));
+			assertFalse(other.getOutgoingRequests().contains("Hakan"));
+		}
+		assertTrue(me.getFriends().isEmpty());
+		assertTrue(me.getIncomingRequests().isEmpty());
+		assertTrue(me.getOutgoingRequests().isEmpty());
+	}
+
+	@Test
+	public void leaveAllRemovesEveryoneAndKeepsTheRestIntact() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.sendFriendshipTo("Rafal", her);
+		sn.leaveAll(Arrays.asList(me, her));
+		assertEquals(new HashSet<String>(Arrays.asList("Rafal")), new HashSet<String>(sn.listMembers()));
+		assertTrue(another.getIncomingRequests().isEmpty());
+		assertFalse(her.hasFriend("Hakan"));
+	}
+
+	@Test
+	public void leaveAllSkipsRepeatedAndStaleAccounts() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		sn.leave(me);
+		another = sn.join("Hakan");
+		sn.leaveAll(Arrays.asList(me, her, her, null));
+		assertEquals(new HashSet<String>(Arrays.asList("Hakan")), new HashSet<String>(sn.listMembers()));
+		assertSame(another, sn.findAccountForUserName("Hakan"));
+	}
+
+	@Test
+	public void memberViewsFollowJoinsAndLeaves() {
+		Set<String> members = sn.members();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		assertEquals(new HashSet<String>(Arrays.asList("Hakan", "Cecile")), members);
+		sn.leave(me);
+		assertEquals(new HashSet<String>(Arrays.asList("Cecile")), members);
+		assertSame(members, sn.members());
+		assertEquals(Arrays.asList("Cecile"), sn.streamMembers().collect(Collectors.toList()));
+		List<String> seen = new ArrayList<String>();
+		sn.forEachMember(seen::add);
+		assertEquals(Arrays.asList("Cecile"), seen);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void memberViewIsReadOnly() {
+		sn.join("Hakan");
+		sn.members().remove("Hakan");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void friendsViewIsReadOnly() {
+		me = sn.join("Hakan");
+		me.getFriends().add("Cecile");
+	}
+
+	@Test
+	public void pagesSeeEveryMemberOnceInStableOrder() {
+		for (int i = 0; i < 100; i++) {
+			sn.join("user" + i);
+		}
+		List<String> firstPass = new ArrayList<String>();
+		int pages = 0;
+		for (int position = 0; position >= 0; pages++) {
+			position = sn.forEachMember(position, 7, firstPass::add);
+			// leaving and rejoining elsewhere in the network does not disturb the pages
+			if (pages == 3) {
+				sn.leave(sn.findAccountForUserName("user99"));
+				sn.join("user99");
+			}
+		}
+		assertEquals(100, firstPass.size());
+		assertEquals(100, new HashSet<String>(firstPass).size());
+		assertTrue(pages >= 15);
+
+		List<String> secondPass = new ArrayList<String>();
+		for (int position = 0; position >= 0; ) {
+			position = sn.forEachMember(position, 13, secondPass::add);
+		}
+		assertEquals(firstPass, secondPass);
+	}
+
+	@Test
+	public void readingMembersAndFriendsAllocatesNothingPerElement() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+		ThreadMXBean allocations = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+
+		int members = 20000;
+		me = sn.join("Hakan");
+		for (int i = 0; i < members; i++) {
+			Account other = sn.join("user" + i);
+			me.linkFriend(other);
+		}
+		long[] counted = new long[1];
+		Consumer<String> count = name -> counted[0] += name.length();
+		long threadId = Thread.currentThread().getId();
+		long perPass = 0;
+		for (int round = 0; round < 5; round++) {
+			long before = allocations.getThreadAllocatedBytes(threadId);
+			sn.forEachMember(count);
+			sn.streamMembers().forEach(count);
+			for (int position = 0; position >= 0; ) {
+				position = sn.forEachMember(position, 1000, count);
+			}
+			for (String friend : me.getFriends()) {
+				counted[0] += friend.length();
+			}
+			perPass = allocations.getThreadAllocatedBytes(threadId) - before;
+		}
+		assertTrue(counted[0] > 0);
+		// a few objects per call (iterators, the stream pipeline), none per member
+		assertTrue("allocated " + perPass + " bytes for " + 4 * members + " elements", perPass < members / 4);
+	}
+
 	 @Test
 	public void sendFriendshipToMissingAccountDoesNotChangeOutgoing() {
 		me = sn.join("Hakan");
@@ -264,4 +432,86 @@ public class SocialNetworkTest {
 		assertTrue(me.hasFriend(her.getUserName()));
 		assertTrue(me.hasFriend(another.getUserName()));
 	}
+
+	//Batch operations
+	@Test
+	public void applyBatchAppliesOperationsInOrder() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		List<FriendshipOperation.Result> results = sn.applyBatch(Arrays.asList(
+				FriendshipOperation.request("Hakan", "Cecile"),
+				FriendshipOperation.request("Rafal", "Cecile"),
+				FriendshipOperation.accept("Cecile", "Hakan"),
+				FriendshipOperation.reject("Cecile", "Rafal")));
+		assertEquals(Arrays.asList(FriendshipOperation.Result.APPLIED, FriendshipOperation.Result.APPLIED,
+				FriendshipOperation.Result.APPLIED, FriendshipOperation.Result.APPLIED), results);
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(her.hasFriend("Hakan"));
+		assertFalse(another.hasFriend("Cecile"));
+		assertTrue(her.getIncomingRequests().isEmpty());
+		assertTrue(another.getOutgoingRequests().isEmpty());
+	}
+
+	@Test
+	public void applyBatchReportsOperationsWithoutEffect() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		List<FriendshipOperation.Result> results = sn.applyBatch(Arrays.asList(
+				FriendshipOperation.accept("Cecile", "Hakan"),
+				FriendshipOperation.request("Hakan", "Cecile"),
+				FriendshipOperation.request("Hakan", "Cecile"),
+				FriendshipOperation.cancel("Hakan", "Cecile")));
+		assertEquals(Arrays.asList(FriendshipOperation.Result.NO_EFFECT, FriendshipOperation.Result.APPLIED,
+				FriendshipOperation.Result.NO_EFFECT, FriendshipOperation.Result.NO_EFFECT), results);
+		assertEquals(1, her.getIncomingRequests().size());
+	}
+
+	@Test
+	public void applyBatchReportsUnknownMembers() {
+		me = sn.join("Hakan");
+		List<FriendshipOperation.Result> results = sn.applyBatch(Stream.of(
+				FriendshipOperation.request("Hakan", "John"),
+				FriendshipOperation.accept(null, "Hakan")));
+		assertEquals(Arrays.asList(FriendshipOperation.Result.UNKNOWN_MEMBER, FriendshipOperation.Result.UNKNOWN_MEMBER), results);
+		assertTrue(me.getOutgoingRequests().isEmpty());
+	}
+
+	@Test
+	public void applyBatchRequestToAutoAcceptingMemberEstablishesFriendship() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		sn.autoAcceptFriendshipsTo(her);
+		List<FriendshipOperation.Result> results = sn.applyBatch(Arrays.asList(FriendshipOperation.request("Hakan", "Cecile")));
+		assertEquals(FriendshipOperation.Result.APPLIED, results.get(0));
+		assertTrue(me.hasFriend("Cecile"));
+	}
+
+	@Test
+	public void acceptFriendshipFromUnknownUserHasNoEffect() {
+		me = sn.join("Hakan");
+		sn.acceptFriendshipFrom("John", me);
+		assertTrue(me.getFriends().isEmpty());
+	}
+
+	@Test
+	public void countMutualFriendsCountsFriendsInCommon() {
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+		Account hanna = sn.join("Hanna");
+		for (Account each : List.of(her, another)) {
+			sn.sendFriendshipTo(each.getUserName(), me);
+			sn.acceptFriendshipFrom("Hakan", each);
+			sn.sendFriendshipTo(each.getUserName(), hanna);
+			sn.acceptFriendshipFrom("Hanna", each);
+		}
+		assertEquals(2, sn.countMutualFriends(me, "Hanna"));
+		assertEquals(2, sn.countMutualFriends(hanna, "Hakan"));
+		assertEquals(0, sn.countMutualFriends(me, "Cecile"));
+		assertEquals(0, sn.countMutualFriends(me, "nobody"));
+		assertEquals(0, sn.countMutualFriends(null, "Hanna"));
+		sn.leave(another);
+		assertEquals(1, sn.countMutualFriends(me, "Hanna"));
+	}
 }
@@ -0,0 +1,166 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TieredSocialNetworkTest {
+	Path dir, storeFile;
+	TieredSocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("tiered");
+		storeFile = dir.resolve("adjacency.store");
+		// room for two names only, so nearly every use pages something out
+		sn = new TieredSocialNetwork(storeFile, 2);
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sn.close();
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void pagedOutSetsComeBackOnUse() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Hakan", another);
+		assertEquals(Set.of("Cecile"), me.getFriends());
+		assertEquals(Set.of("Rafal"), me.getOutgoingRequests());
+		assertEquals(Set.of("Hakan"), another.getIncomingRequests());
+		assertTrue(her.hasFriend("Hakan"));
+		assertTrue(sn.evictions() > 0);
+		assertTrue(sn.faults() > 0);
+		assertTrue(sn.residentNames() <= 2);
+	}
+
+	@Test
+	public void emptySetsAndSizesNeedNoFault() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.sendFriendshipTo("Hakan", another);
+		long faults = sn.faults();
+		assertEquals(1, me.getFriends().size());
+		assertFalse(another.hasFriend("Hakan"));
+		assertTrue(another.getFriends().isEmpty());
+		assertFalse(another.getFriends().iterator().hasNext());
+		assertEquals(faults, sn.faults());
+	}
+
+	@Test
+	public void unchangedSetsArePagedOutWithoutWriting() {
+		Account hanna = sn.join("Hanna");
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Hanna", another);
+		sn.acceptFriendshipFrom("Rafal", hanna);
+		// the sets changed last are still resident, and written once when they go
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(her.hasFriend("Hakan"));
+		long writes = sn.evictionWrites();
+		long evictions = sn.evictions();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(me.hasFriend("Cecile"));
+			assertTrue(her.hasFriend("Hakan"));
+			assertTrue(another.hasFriend("Hanna"));
+			assertTrue(hanna.hasFriend("Rafal"));
+		}
+		assertTrue(sn.evictions() > evictions);
+		assertEquals(writes, sn.evictionWrites());
+	}
+
+	@Test
+	public void iteratorsOutliveEvictionAndStillRemove() {
+		for (String name : new String[] { "a", "b", "c", "d" }) {
+			Account friend = sn.join(name);
+			sn.sendFriendshipTo(name, me);
+			sn.acceptFriendshipFrom("Hakan", friend);
+		}
+		Iterator<String> each = me.getFriends().iterator();
+		int seen = 0;
+		while (each.hasNext()) {
+			String friend = each.next();
+			// pages my friends out under the iterator
+			assertTrue(sn.findAccountForUserName(friend).hasFriend("Hakan"));
+			seen++;
+		}
+		assertEquals(4, seen);
+		me.cancelFriendship(sn.findAccountForUserName("a"));
+		assertEquals(Set.of("b", "c", "d"), me.getFriends());
+	}
+
+	@Test
+	public void leavingDropsTheStoredSets() {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.sendFriendshipTo("Rafal", me);
+		sn.leave(me);
+		assertTrue(her.getFriends().isEmpty());
+		assertTrue(another.getIncomingRequests().isEmpty());
+		assertNull(sn.findAccountForUserName("Hakan"));
+	}
+
+	@Test
+	public void matchesAPlainNetworkThroughManyOperations() {
+		SocialNetwork plain = new SocialNetwork();
+		Map<String, Account> accounts = new HashMap<String, Account>();
+		Map<String, Account> plainAccounts = new HashMap<String, Account>();
+		for (int i = 0; i < 200; i++) {
+			accounts.put("user" + i, sn.join("user" + i));
+			plainAccounts.put("user" + i, plain.join("user" + i));
+		}
+		Random random = new Random(5);
+		for (int i = 0; i < 20000; i++) {
+			String a = "user" + random.nextInt(200);
+			String b = "user" + random.nextInt(200);
+			switch (random.nextInt(4)) {
+			case 0:
+				assertEquals(plain.acceptFriendshipFrom(b, plainAccounts.get(a)), sn.acceptFriendshipFrom(b, accounts.get(a)));
+				break;
+			case 1:
+				assertEquals(plain.sendFriendshipCancellationTo(b, plainAccounts.get(a)),
+						sn.sendFriendshipCancellationTo(b, accounts.get(a)));
+				break;
+			default:
+				assertEquals(plain.sendFriendshipTo(b, plainAccounts.get(a)), sn.sendFriendshipTo(b, accounts.get(a)));
+			}
+		}
+		for (String name : accounts.keySet()) {
+			assertEquals(plainAccounts.get(name).getFriends(), accounts.get(name).getFriends());
+			assertEquals(plainAccounts.get(name).getIncomingRequests(), accounts.get(name).getIncomingRequests());
+			assertEquals(plainAccounts.get(name).getOutgoingRequests(), accounts.get(name).getOutgoingRequests());
+		}
+		assertTrue(sn.hitRate() > 0 && sn.hitRate() < 1);
+		assertTrue(sn.faultLatencyNanos().count() > 0);
+		Map<String, Double> values = new HashMap<String, Double>();
+		sn.export(values::put);
+		assertEquals(sn.faults(), values.get("adjacency.faults").longValue());
+		assertEquals(sn.compactions(), values.get("adjacency.compactions").longValue());
+	}
+
+	@Test
+	public void closeDeletesTheStore() throws Exception {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.sendFriendshipTo("Rafal", me);
+		assertTrue(Files.exists(storeFile));
+		sn.close();
+		assertFalse(Files.exists(storeFile));
+	}
+}
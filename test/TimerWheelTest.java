@@ -0,0 +1,75 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class TimerWheelTest {
+	static final long TICK = 1000;
+
+	@Test
+	public void itemsComeBackOnceTheirDeadlinePasses() {
+		TimerWheel<String> wheel = new TimerWheel<String>(TICK, 0);
+		wheel.schedule("soon", 5 * TICK);
+		wheel.schedule("later", 70 * TICK);
+		List<String> expired = new ArrayList<String>();
+		assertEquals(0, wheel.advance(4 * TICK, expired::add));
+		assertEquals(1, wheel.advance(5 * TICK, expired::add));
+		assertEquals(1, wheel.size());
+		assertEquals(0, wheel.advance(69 * TICK + TICK / 2, expired::add));
+		assertEquals(1, wheel.advance(70 * TICK, expired::add));
+		assertEquals(0, wheel.size());
+		assertEquals(List.of("soon", "later"), expired);
+	}
+
+	@Test
+	public void deadlinesInsideATickRoundUp() {
+		TimerWheel<String> wheel = new TimerWheel<String>(TICK, 0);
+		wheel.schedule("item", 2 * TICK + 1);
+		List<String> expired = new ArrayList<String>();
+		wheel.advance(2 * TICK + 1, expired::add);
+		assertTrue(expired.isEmpty());
+		wheel.advance(3 * TICK, expired::add);
+		assertEquals(List.of("item"), expired);
+	}
+
+	@Test
+	public void pastDeadlinesComeBackOnTheNextAdvance() {
+		TimerWheel<String> wheel = new TimerWheel<String>(TICK, 0);
+		wheel.advance(100 * TICK, item -> fail());
+		wheel.schedule("late", 3 * TICK);
+		List<String> expired = new ArrayList<String>();
+		wheel.advance(100 * TICK, expired::add);
+		assertEquals(List.of("late"), expired);
+	}
+
+	@Test
+	public void randomDeadlinesAcrossAllLevelsComeBackNeitherEarlyNorLate() {
+		Random random = new Random(13);
+		TimerWheel<Long> wheel = new TimerWheel<Long>(1, 0);
+		long now = 0;
+		int scheduled = 0;
+		int expired = 0;
+		for (int round = 0; round < 2000; round++) {
+			for (int i = 0; i < 5; i++) {
+				// from the next tick to past the four levels (64^4 ticks)
+				long delay = (1L << random.nextInt(27)) + random.nextInt(64);
+				wheel.schedule(now + delay, now + delay);
+				scheduled++;
+			}
+			long before = now;
+			now += 1L << random.nextInt(22);
+			long current = now;
+			expired += wheel.advance(now, deadline -> {
+				assertTrue("early: " + deadline + " at " + current, deadline <= current);
+				assertTrue("late: " + deadline + " after " + before, deadline > before);
+			});
+		}
+		expired += wheel.advance(Long.MAX_VALUE / 2, deadline -> { });
+		assertEquals(scheduled, expired);
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,272 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class VersionedSocialNetworkTest {
+
+	VersionedSocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new VersionedSocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Rafal");
+	}
+
+	@Test
+	public void writesAreInTheNextVersion() {
+		NetworkVersion before = sn.version();
+		assertEquals(Set.of("Hakan", "Cecile", "Rafal"), before.members());
+		sn.sendFriendshipTo("Cecile", me);
+		NetworkVersion requested = sn.version();
+		assertTrue(requested.number() > before.number());
+		assertEquals(Set.of("Cecile"), requested.getOutgoingRequests("Hakan"));
+		assertEquals(Set.of("Hakan"), requested.getIncomingRequests("Cecile"));
+		sn.acceptFriendshipFrom("Hakan", her);
+		NetworkVersion accepted = sn.version();
+		assertTrue(accepted.hasFriend("Hakan", "Cecile"));
+		assertTrue(accepted.hasFriend("Cecile", "Hakan"));
+		assertTrue(accepted.getIncomingRequests("Cecile").isEmpty());
+	}
+
+	@Test
+	public void aVersionNeverChanges() {
+		sn.sendFriendshipTo("Cecile", me);
+		NetworkVersion held = sn.version();
+		sn.acceptFriendshipFrom("Hakan", her);
+		sn.leave(another);
+		sn.join("Hanna");
+		assertFalse(held.hasFriend("Hakan", "Cecile"));
+		assertEquals(Set.of("Cecile"), held.getOutgoingRequests("Hakan"));
+		assertEquals(Set.of("Hakan", "Cecile", "Rafal"), held.members());
+		assertTrue(held.isMember("Rafal"));
+	}
+
+	@Test
+	public void leavingMembersDropOutOfTheNextVersion() {
+		sn.sendFriendshipTo("Rafal", me);
+		sn.acceptFriendshipFrom("Hakan", another);
+		sn.leave(another);
+		NetworkVersion version = sn.version();
+		assertFalse(version.isMember("Rafal"));
+		assertTrue(version.getFriends("Rafal").isEmpty());
+		assertTrue(version.getFriends("Hakan").isEmpty());
+		assertEquals(2, version.members().size());
+	}
+
+	@Test
+	public void rejoiningUnderTheSameNameIsANewMember() {
+		sn.sendFriendshipTo("Rafal", me);
+		sn.acceptFriendshipFrom("Hakan", another);
+		sn.leave(another);
+		sn.join("Rafal");
+		NetworkVersion version = sn.version();
+		assertTrue(version.isMember("Rafal"));
+		assertTrue(version.getFriends("Rafal").isEmpty());
+	}
+
+	@Test
+	public void unknownMembersHaveNothing() {
+		NetworkVersion version = sn.version();
+		assertFalse(version.isMember("nobody"));
+		assertFalse(version.isMember(null));
+		assertFalse(version.hasFriend("nobody", "Hakan"));
+		assertTrue(version.getFriends("nobody").isEmpty());
+		assertTrue(version.getIncomingRequests(null).isEmpty());
+	}
+
+	@Test
+	public void batchesArePublishedWhole() {
+		sn.applyBatch(java.util.List.of(FriendshipOperation.request("Hakan", "Cecile"),
+				FriendshipOperation.accept("Cecile", "Hakan"), FriendshipOperation.request("Rafal", "Hakan")));
+		NetworkVersion version = sn.version();
+		assertTrue(version.hasFriend("Cecile", "Hakan"));
+		assertEquals(Set.of("Hakan"), version.getOutgoingRequests("Rafal"));
+	}
+
+	@Test
+	public void loadedStateIsPublishedOnRequest() throws IOException {
+		sn.sendFriendshipTo("Cecile", me);
+		sn.acceptFriendshipFrom("Hakan", her);
+		Path file = Files.createTempFile("network", ".snapshot");
+		try {
+			NetworkSnapshot.save(sn, file);
+			VersionedSocialNetwork loaded = NetworkSnapshot.load(file, new VersionedSocialNetwork());
+			loaded.publishAll();
+			assertTrue(loaded.version().hasFriend("Hakan", "Cecile"));
+			assertEquals(3, loaded.version().members().size());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void publishingWaitsForNoStripeButTheWritersOwn() throws Exception {
+		String idle = "idle";
+		for (int i = 0; sn.stripeIndex(idle) == sn.stripeIndex("Hakan")
+				|| sn.stripeIndex(idle) == sn.stripeIndex("Cecile"); i++) {
+			idle = "idle" + i;
+		}
+		String held = idle;
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(() -> sn.withPair(held, held, () -> {
+			locked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}));
+		holder.start();
+		locked.await();
+		try {
+			Thread writer = new Thread(() -> sn.sendFriendshipTo("Cecile", me));
+			writer.start();
+			writer.join(5000);
+			assertFalse(writer.isAlive());
+			assertEquals(Set.of("Hakan"), sn.version().getIncomingRequests("Cecile"));
+		} finally {
+			release.countDown();
+			holder.join();
+		}
+	}
+
+	@Test
+	public void expiredRequestsDropOutOfTheNextVersion() {
+		long[] now = { 0 };
+		RequestExpiry expiry = RequestExpiry.attachTo(sn, Duration.ofSeconds(64), () -> now[0]);
+		try {
+			sn.sendFriendshipTo("Cecile", me);
+			assertEquals(Set.of("Hakan"), sn.version().getIncomingRequests("Cecile"));
+			now[0] = Duration.ofSeconds(65).toNanos();
+			assertEquals(1, expiry.expireDue());
+			assertTrue(sn.version().getIncomingRequests("Cecile").isEmpty());
+			assertTrue(sn.version().getOutgoingRequests("Hakan").isEmpty());
+		} finally {
+			expiry.close();
+		}
+	}
+
+	@Test
+	public void leavingMembersNeverLeaveOneSidedFriendshipsInAVersion() throws Exception {
+		int members = 20;
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join("user" + i);
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> broken = new AtomicReference<String>();
+		Thread reader = new Thread(() -> {
+			Random random = new Random(1);
+			while (!done.get() && broken.get() == null) {
+				NetworkVersion version = sn.version();
+				String a = random.nextBoolean() ? "user" + random.nextInt(members) : "leaver";
+				for (String friend : version.getFriends(a)) {
+					if (!version.hasFriend(friend, a))
+						broken.set(a + " has " + friend + " in version " + version.number());
+				}
+			}
+		});
+		// publishes versions all the time, in between the steps of a departure too
+		Thread writer = new Thread(() -> {
+			Random random = new Random(2);
+			while (!done.get()) {
+				Account a = accounts[random.nextInt(members)];
+				String b = "user" + random.nextInt(members);
+				if (random.nextBoolean())
+					sn.sendFriendshipTo(b, a);
+				else
+					sn.sendFriendshipCancellationTo(b, a);
+			}
+		});
+		reader.start();
+		writer.start();
+		try {
+			for (int i = 0; i < 2000 && broken.get() == null; i++) {
+				Account leaver = sn.join("leaver");
+				for (Account each : accounts) {
+					sn.sendFriendshipTo(each.getUserName(), leaver);
+					sn.acceptFriendshipFrom("leaver", each);
+				}
+				sn.leave(leaver);
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+			reader.join();
+		}
+		assertNull(broken.get());
+	}
+
+	@Test
+	public void readersAlwaysSeeFriendshipsOnBothSides() throws Exception {
+		int members = 50;
+		Account[] accounts = new Account[members];
+		for (int i = 0; i < members; i++) {
+			accounts[i] = sn.join("user" + i);
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> broken = new AtomicReference<String>();
+		Thread reader = new Thread(() -> {
+			Random random = new Random(1);
+			while (!done.get() && broken.get() == null) {
+				NetworkVersion version = sn.version();
+				String a = "user" + random.nextInt(members);
+				for (String friend : version.getFriends(a)) {
+					if (!version.hasFriend(friend, a))
+						broken.set(a + " has " + friend + " in version " + version.number());
+				}
+			}
+		});
+		reader.start();
+		Thread[] writers = new Thread[3];
+		for (int t = 0; t < writers.length; t++) {
+			Random random = new Random(t + 2);
+			writers[t] = new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					Account a = accounts[random.nextInt(members)];
+					String b = "user" + random.nextInt(members);
+					switch (random.nextInt(3)) {
+					case 0:
+						sn.sendFriendshipTo(b, a);
+						break;
+					case 1:
+						sn.acceptFriendshipFrom(b, a);
+						break;
+					default:
+						sn.sendFriendshipCancellationTo(b, a);
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread each : writers) {
+			each.join();
+		}
+		done.set(true);
+		reader.join();
+		assertNull(broken.get());
+		// and the last version is what the accounts say now
+		NetworkVersion last = sn.version();
+		for (Account each : accounts) {
+			assertEquals(each.getFriends(), last.getFriends(each.getUserName()));
+			assertEquals(each.getIncomingRequests(), last.getIncomingRequests(each.getUserName()));
+		}
+	}
+}